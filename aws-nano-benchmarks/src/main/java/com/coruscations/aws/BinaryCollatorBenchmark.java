@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BinaryCollator} comparisons, singly and sorting a page of keys sharing a long prefix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BinaryCollatorBenchmark {
+
+  private final BinaryCollator utf8 = new BinaryCollator(StandardCharsets.UTF_8);
+  private final BinaryCollator ascii = new BinaryCollator(StandardCharsets.US_ASCII);
+
+  private final String left = "x-amz-content-sha256";
+  private final String right = "x-amz-date";
+  private final String unicodeLeft = "photos/2016/été/plage-001.jpg";
+  private final String unicodeRight = "photos/2016/été/plage-002.jpg";
+
+  private String[] keys;
+
+  @Setup
+  public void setup() {
+    this.keys = new String[1000];
+    for (int i = 0; i < this.keys.length; i++) {
+      // Reverse order so that the sort has work to do
+      this.keys[i] = String.format("logs/2016/09/05/host-%04d.log", this.keys.length - i);
+    }
+  }
+
+  @Benchmark
+  public int compareAscii() {
+    return this.ascii.compare(this.left, this.right);
+  }
+
+  @Benchmark
+  public int compareUtf8() {
+    return this.utf8.compare(this.unicodeLeft, this.unicodeRight);
+  }
+
+  @Benchmark
+  public String[] sortKeys() {
+    String[] copy = this.keys.clone();
+    Arrays.sort(copy, this.utf8);
+    return copy;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URISyntaxException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Compares the string based signing path of {@link StandardHttpURLConnectionBuilder} with the
+ * {@link SigV4Signer}.  Run with {@code -prof gc} to see the allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SigningBenchmark {
+
+  private StandardHttpURLConnectionBuilder builder;
+
+  @Setup
+  public void setup() {
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_ACCESS_KEY_ID.getEnvName(), "AKIDEXAMPLE");
+    env.put(AwsCredentialProperty.AWS_SECRET_KEY.getEnvName(),
+            "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+    env.put(AwsCredentialProperty.AWS_DEFAULT_REGION.getEnvName(), "us-east-1");
+    env.put(AwsCredentialProperty.AWS_ENDPOINT.getEnvName(), "https://s3.amazonaws.com");
+    HttpURLConnectionBuilderFactory factory =
+        new HttpURLConnectionBuilderFactory(new ConfigurationProvider(env));
+    this.builder = (StandardHttpURLConnectionBuilder)
+        factory.createHttpURLConnectionBuilder(new ListObjectsCommand());
+  }
+
+  @Benchmark
+  public String canonicalRequestStrings() throws NoSuchAlgorithmException, URISyntaxException {
+    return this.builder.createCanonicalRequest();
+  }
+
+  @Benchmark
+  public String canonicalRequestSigner() {
+    return this.builder.createSignerCanonicalRequest();
+  }
+
+  @Benchmark
+  public String authorizationStrings()
+      throws NoSuchAlgorithmException, URISyntaxException, InvalidKeyException {
+    return this.builder.createAuthorization(
+        this.builder.createRequestStringToSign(this.builder.createCanonicalRequest()));
+  }
+
+  @Benchmark
+  public String authorizationSigner() throws InvalidKeyException {
+    return this.builder.createSignerAuthorization();
+  }
+
+  /**
+   * Shaped like an S3 ListObjectsV2 page request.
+   */
+  static class ListObjectsCommand implements RestCommand<EmptyRestCommandResponse> {
+
+    @Nonnull
+    @Override
+    public String getServiceName() {
+      return "s3";
+    }
+
+    @Nonnull
+    @Override
+    public HttpMethod getMethod() {
+      return HttpMethod.GET;
+    }
+
+    @Nonnull
+    @Override
+    public String getHost(Endpoint endpoint) {
+      return "examplebucket.s3.amazonaws.com";
+    }
+
+    @Nonnull
+    @Override
+    public String getPath(Endpoint endpoint) {
+      return "/";
+    }
+
+    @Override
+    public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+      builder.addQueryParameter("list-type", "2");
+      builder.addQueryParameter("prefix", "photos/2016/summer vacation/");
+      builder.addQueryParameter("delimiter", "/");
+      builder.addQueryParameter("max-keys", "1000");
+      builder.addQueryParameter("continuation-token",
+                                "1ueGcxLPRx1Tr/XYExHnhbYLgveDs2J/wm36Hy4vbOwM=");
+    }
+
+    @Override
+    public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+      builder.addHeader(HttpHeaders.X_AMZ_DATE, "20160905T120000Z", true);
+      builder.addHeader("Range", "bytes=0-9", true);
+    }
+
+    @Nonnull
+    @Override
+    public Parser<EmptyRestCommandResponse> getResponseParser() {
+      return EmptyRestCommandResponse.getResponseParser();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.AwsCredentialProperty;
+import com.coruscations.aws.ConfigurationProvider;
+import com.coruscations.aws.Constants;
+import com.coruscations.aws.EmptyRestCommandResponse;
+import com.coruscations.aws.HttpHeaders;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@link com.coruscations.aws.Commands#execute} (signing, transport and parsing)
+ * against an in-process HTTP stub, so that the numbers reflect the client rather than S3.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandsBenchmark {
+
+  private static final String BUCKET = "benchmark";
+
+  @Param({"POOLED", "NIO", "URL_CONNECTION"})
+  public String transport;
+
+  @Param({"100"})
+  public int keys;
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private S3BucketCommands bucketCommands;
+
+  @Setup
+  public void setup() throws IOException {
+    byte[] listing = S3Responses.listBucketResult(BUCKET, this.keys, false);
+    // Otherwise delayed ACKs against the stub dominate small responses
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.createContext("/" + BUCKET + "/", exchange -> {
+      if ("HEAD".equals(exchange.getRequestMethod())) {
+        respond(exchange, null);
+      } else {
+        respond(exchange, listing);
+      }
+    });
+    this.executor = Executors.newFixedThreadPool(4);
+    this.server.setExecutor(this.executor);
+    this.server.start();
+
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_ACCESS_KEY_ID.getEnvName(), "AKIDEXAMPLE");
+    env.put(AwsCredentialProperty.AWS_SECRET_KEY.getEnvName(),
+            "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+    env.put(AwsCredentialProperty.AWS_DEFAULT_REGION.getEnvName(), "us-east-1");
+    env.put(AwsCredentialProperty.AWS_ENDPOINT.getEnvName(),
+            "http://127.0.0.1:" + this.server.getAddress().getPort());
+    env.put(Constants.HTTP_TRANSPORT, this.transport);
+    this.bucketCommands = new S3BucketCommands(new ConfigurationProvider(env));
+  }
+
+  private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+    try (InputStream is = exchange.getRequestBody()) {
+      while (is.read() >= 0) {
+        // Drain
+      }
+    }
+    exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/xml");
+    if (body == null) {
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+      return;
+    }
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    // The transport is shared per configuration, so it is left open
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+  @Benchmark
+  public EmptyRestCommandResponse headBucket() throws IOException {
+    return this.bucketCommands.checkAccess(BUCKET);
+  }
+
+  @Benchmark
+  public BucketGet.Response listBucket() throws IOException {
+    return this.bucketCommands.ls(BUCKET, null, "logs/", null, null, this.keys);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parsing of list responses with the same parsers the commands use, without any I/O, and of
+ * ListBucketResult with {@link ListBucketResultScanner}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseParsingBenchmark {
+
+  private static final Map<String, List<String>> HEADERS = Collections.emptyMap();
+
+  @Param({"1000", "10000", "100000"})
+  public int keys;
+
+  private final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+
+  private byte[] listBucketResult;
+  private byte[] listAllMyBucketsResult;
+
+  private CursorParser<BucketGet.Response> bucketGetParser;
+  private ListBucketResultScanner bucketGetScanner;
+  private CursorParser<BucketsGet.Response> bucketsGetParser;
+
+  @Setup
+  public void setup() {
+    this.listBucketResult = S3Responses.listBucketResult("benchmark", this.keys, false);
+    this.listAllMyBucketsResult = S3Responses.listAllMyBucketsResult(this.keys);
+    this.bucketGetParser =
+        new BucketGet("benchmark", null, null, null, null, null).getResponseParser();
+    this.bucketGetScanner = (ListBucketResultScanner)
+        new BucketGet("benchmark", null, null, null, null, null, true).getResponseParser();
+    this.bucketsGetParser = new BucketsGet().getResponseParser();
+  }
+
+  @Benchmark
+  public BucketGet.Response parseBucketGet() throws XMLStreamException {
+    return parse(this.bucketGetParser, this.listBucketResult);
+  }
+
+  @Benchmark
+  public BucketGet.Response scanBucketGet() throws XMLStreamException {
+    return this.bucketGetScanner.parse(200, HEADERS, this.listBucketResult,
+                                       this.listBucketResult.length, StandardCharsets.UTF_8,
+                                       this.xmlInputFactory);
+  }
+
+  /**
+   * {@link #scanBucketGet} with every key decoded, as most callers will.
+   */
+  @Benchmark
+  public void scanBucketGetKeys(Blackhole blackhole) throws XMLStreamException {
+    for (BucketGet.BucketItem item : scanBucketGet().getItems()) {
+      blackhole.consume(item.getKey());
+    }
+  }
+
+  @Benchmark
+  public BucketsGet.Response parseBucketsGet() throws XMLStreamException {
+    return parse(this.bucketsGetParser, this.listAllMyBucketsResult);
+  }
+
+  private <T> T parse(CursorParser<T> parser, byte[] body) throws XMLStreamException {
+    XMLStreamReader reader =
+        this.xmlInputFactory.createXMLStreamReader(new ByteArrayInputStream(body), "UTF-8");
+    try {
+      return parser.parseCursor(200, HEADERS, reader);
+    } finally {
+      reader.close();
+    }
+  }
+}
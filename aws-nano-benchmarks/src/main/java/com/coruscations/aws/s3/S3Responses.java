@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Canned S3 response bodies for the benchmarks, shaped like real S3 output.
+ */
+class S3Responses {
+
+  private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+
+  private S3Responses() {
+  }
+
+  static String keyName(int i) {
+    return String.format("logs/2016/09/%02d/host-%06d.log.gz", i % 28 + 1, i);
+  }
+
+  /**
+   * @return A ListObjects page listing {@code keys} objects
+   */
+  static byte[] listBucketResult(String bucket, int keys, boolean truncated) {
+    StringBuilder sb = new StringBuilder(XML_DECLARATION.length() + keys * 400);
+    sb.append(XML_DECLARATION);
+    sb.append("<ListBucketResult xmlns=\"").append(S3RestCommand.XMLNS).append("\">");
+    sb.append("<Name>").append(bucket).append("</Name>");
+    sb.append("<Prefix>logs/</Prefix><Marker></Marker><MaxKeys>").append(keys)
+        .append("</MaxKeys>");
+    sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+    for (int i = 0; i < keys; i++) {
+      sb.append("<Contents>");
+      sb.append("<Key>").append(keyName(i)).append("</Key>");
+      sb.append("<LastModified>2016-09-05T12:").append(String.format("%02d", i % 60))
+          .append(":00.000Z</LastModified>");
+      sb.append("<ETag>&quot;").append(String.format("%032x", i * 2654435761L))
+          .append("&quot;</ETag>");
+      sb.append("<Size>").append(1024 + i).append("</Size>");
+      sb.append("<Owner><ID>75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a</ID>")
+          .append("<DisplayName>webfile</DisplayName></Owner>");
+      sb.append("<StorageClass>STANDARD</StorageClass>");
+      sb.append("</Contents>");
+    }
+    sb.append("</ListBucketResult>");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return A ListBuckets response listing {@code buckets} buckets
+   */
+  static byte[] listAllMyBucketsResult(int buckets) {
+    StringBuilder sb = new StringBuilder(XML_DECLARATION.length() + buckets * 120);
+    sb.append(XML_DECLARATION);
+    sb.append("<ListAllMyBucketsResult xmlns=\"").append(S3RestCommand.XMLNS).append("\">");
+    sb.append("<Owner><ID>bcaf1ffd86f461ca5fb16fd081034f</ID>")
+        .append("<DisplayName>webfile</DisplayName></Owner>");
+    sb.append("<Buckets>");
+    for (int i = 0; i < buckets; i++) {
+      sb.append("<Bucket><Name>bucket-").append(i).append("</Name>")
+          .append("<CreationDate>2016-09-05T12:00:00.000Z</CreationDate></Bucket>");
+    }
+    sb.append("</Buckets></ListAllMyBucketsResult>");
+    return sb.toString().getBytes(StandardCharsets.UTF_8);
+  }
+}
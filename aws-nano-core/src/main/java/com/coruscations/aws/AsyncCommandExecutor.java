@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Runs blocking command executions on an executor with at most a fixed number in flight.  Callers
+ * submitting beyond the limit wait for a slot, so a fast producer is held to the pace of the
+ * requests rather than queueing without bound.
+ * <p>
+ * The executor may be placed in the environment under {@link Constants#HTTP_ASYNC_EXECUTOR};
+ * otherwise a shared pool of daemon threads is used.  The limit, {@link
+ * Constants#HTTP_MAX_IN_FLIGHT}, defaults to the transport's connections per route, so that
+ * requests wait here rather than timing out waiting for a connection.  Command objects share one
+ * per transport, through {@link HttpTransportFactory#getAsyncCommandExecutor}, so that the limit
+ * holds however many of them there are.
+ */
+@ParametersAreNonnullByDefault
+public class AsyncCommandExecutor {
+
+  private static final Logger LOG = Logger.getLogger(AsyncCommandExecutor.class.getName());
+
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+  private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(
+      runnable -> {
+        Thread thread = new Thread(runnable, "aws-nano-async-" + THREAD_COUNT.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  /**
+   * A blocking call, typically {@link Commands#execute}.
+   */
+  @FunctionalInterface
+  public interface Call<R> {
+
+    R call() throws IOException;
+  }
+
+  /**
+   * A call that starts a request without waiting for it, typically on an {@link
+   * AsyncHttpTransport}.
+   */
+  @FunctionalInterface
+  public interface AsyncCall<R> {
+
+    CompletableFuture<R> start() throws IOException;
+  }
+
+  private final Executor executor;
+  private final int maxInFlight;
+  private final Semaphore slots;
+
+  public AsyncCommandExecutor(Executor executor, int maxInFlight) {
+    if (maxInFlight < 1) {
+      throw new IllegalArgumentException("At least one request must be allowed in flight");
+    }
+    this.executor = executor;
+    this.maxInFlight = maxInFlight;
+    this.slots = new Semaphore(maxInFlight);
+  }
+
+  public static AsyncCommandExecutor fromEnv(Map<String, ?> env) {
+    Object configured = env.get(Constants.HTTP_ASYNC_EXECUTOR);
+    Executor executor = configured instanceof Executor ? (Executor) configured : DEFAULT_EXECUTOR;
+    long connections = HttpTransportConfig.getLong(
+        env, Constants.HTTP_MAX_CONNECTIONS_PER_ROUTE,
+        HttpTransportConfig.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+    return new AsyncCommandExecutor(
+        executor, (int) HttpTransportConfig.getLong(env, Constants.HTTP_MAX_IN_FLIGHT, connections));
+  }
+
+  /**
+   * Runs the call on the executor, first waiting for a slot if the limit is reached.  A wait that
+   * is interrupted fails the future with {@link InterruptedIOException}, leaving the thread
+   * interrupted.
+   */
+  public <R> CompletableFuture<R> submit(Call<R> call) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    if (!acquire(future)) {
+      return future;
+    }
+    try {
+      this.executor.execute(() -> {
+        R result;
+        try {
+          result = call.call();
+        } catch (Throwable t) {
+          // Release first, so that dependent stages can submit without waiting on this slot
+          this.slots.release();
+          future.completeExceptionally(t);
+          return;
+        }
+        this.slots.release();
+        future.complete(result);
+      });
+    } catch (RejectedExecutionException e) {
+      this.slots.release();
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Starts the call on this thread, first waiting for a slot as {@link #submit} does, and holds
+   * the slot until the call's future completes; no thread is tied up in the meantime.
+   */
+  public <R> CompletableFuture<R> submitAsync(AsyncCall<R> call) {
+    CompletableFuture<R> future = new CompletableFuture<>();
+    if (!acquire(future)) {
+      return future;
+    }
+    CompletableFuture<R> started;
+    try {
+      started = call.start();
+    } catch (IOException | RuntimeException e) {
+      this.slots.release();
+      future.completeExceptionally(e);
+      return future;
+    }
+    started.whenComplete((result, t) -> {
+      this.slots.release();
+      if (t == null) {
+        future.complete(result);
+      } else {
+        future.completeExceptionally(
+            t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+      }
+    });
+    return future;
+  }
+
+  private boolean acquire(CompletableFuture<?> future) {
+    try {
+      this.slots.acquire();
+      return true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      InterruptedIOException interrupted =
+          new InterruptedIOException("Interrupted waiting to send a request");
+      interrupted.initCause(e);
+      future.completeExceptionally(interrupted);
+      return false;
+    }
+  }
+
+  Executor getExecutor() {
+    return this.executor;
+  }
+
+  public int getMaxInFlight() {
+    return this.maxInFlight;
+  }
+
+  public int getInFlight() {
+    return this.maxInFlight - this.slots.availablePermits();
+  }
+}
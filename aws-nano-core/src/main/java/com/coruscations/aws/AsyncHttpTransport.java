@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A transport that can have requests in flight without a thread waiting on each, which {@link
+ * Commands#executeAsync} takes advantage of.
+ */
+@ParametersAreNonnullByDefault
+public interface AsyncHttpTransport extends HttpTransport {
+
+  /**
+   * Send the request without waiting.  The future completes once the whole response has been
+   * received, so that its body can be read without blocking, or exceptionally if it could not be
+   * sent or received.  The response must still be closed.
+   * <p>
+   * The future may be completed on the transport's I/O thread, so stages that do real work should
+   * be run asynchronously.
+   */
+  @Nonnull
+  CompletableFuture<HttpResponse> sendAsync(HttpRequest request);
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A body sent with {@code aws-chunked} content encoding: each chunk carries a signature chained
+ * from the one before it, starting with the signature of the request itself, so the body is hashed
+ * as it is sent instead of in a separate pass, and only one chunk is held in memory.
+ *
+ * @see <a href="https://docs.aws.amazon.com/AmazonS3/latest/API/sigv4-streaming.html">Signature
+ * Calculations for the Authorization Header: Transferring Payload in Multiple Chunks</a>
+ */
+@ParametersAreNonnullByDefault
+final class AwsChunkedRequestBody extends RequestBody {
+
+  private static final Logger LOG = Logger.getLogger(AwsChunkedRequestBody.class.getName());
+
+  /** The payload hash in the signed request for a body sent in signed chunks. */
+  static final String STREAMING_PAYLOAD = "STREAMING-AWS4-HMAC-SHA256-PAYLOAD";
+  static final String AWS_CHUNKED = "aws-chunked";
+
+  private static final byte[] ALGORITHM =
+      "AWS4-HMAC-SHA256-PAYLOAD\n".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] EMPTY_HASH =
+      ("\n" + SigningHelper.SHA256_EMPTY_STRING_HASH + "\n").getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CHUNK_SIGNATURE =
+      ";chunk-signature=".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CRLF = {'\r', '\n'};
+  private static final int SIGNATURE_LENGTH = 64;
+
+  private final RequestBody source;
+  private final int chunkSize;
+  private final byte[] seedSignature;
+  // Date, scope and their line breaks, ahead of the previous signature in each string to sign
+  private final byte[] scope;
+  private final SecretKeySpec signingKey;
+
+  /**
+   * @param source A body of known length
+   * @param seedSignature The signature of the request, from its {@code Authorization} header
+   * @param scope The credential scope, {@code yyyyMMdd/region/service/aws4_request}
+   */
+  AwsChunkedRequestBody(RequestBody source, int chunkSize, String seedSignature,
+                        String formattedDateTime, String scope, SecretKeySpec signingKey) {
+    if (source.getContentLength() < 0) {
+      throw new IllegalArgumentException("Chunk signing needs the length of the body");
+    }
+    if (seedSignature.length() != SIGNATURE_LENGTH) {
+      throw new IllegalArgumentException("Invalid seed signature: " + seedSignature);
+    }
+    this.source = source;
+    this.chunkSize = chunkSize;
+    this.seedSignature = seedSignature.getBytes(StandardCharsets.US_ASCII);
+    this.scope = (formattedDateTime + '\n' + scope + '\n').getBytes(StandardCharsets.US_ASCII);
+    this.signingKey = signingKey;
+  }
+
+  /**
+   * @return The length of {@code decodedLength} bytes once encoded, for the
+   *         {@code Content-Length} of the request
+   */
+  static long getEncodedLength(long decodedLength, int chunkSize) {
+    long length = decodedLength / chunkSize * getFrameLength(chunkSize);
+    int remainder = (int) (decodedLength % chunkSize);
+    if (remainder > 0) {
+      length += getFrameLength(remainder);
+    }
+    return length + getFrameLength(0);
+  }
+
+  private static int getFrameLength(int size) {
+    return getHeaderLength(size) + size + CRLF.length;
+  }
+
+  private static int getHeaderLength(int size) {
+    return Integer.toHexString(size).length() + CHUNK_SIGNATURE.length + SIGNATURE_LENGTH +
+           CRLF.length;
+  }
+
+  /**
+   * @return The length of the body as sent, including the chunk framing
+   */
+  @Override
+  public long getContentLength() {
+    return getEncodedLength(this.source.getContentLength(), this.chunkSize);
+  }
+
+  /**
+   * @return The number of bytes of the body itself
+   */
+  long getDecodedContentLength() {
+    return this.source.getContentLength();
+  }
+
+  /**
+   * The chunks are signed again each time the body is read, which gives the same signatures.
+   */
+  @Override
+  public boolean isRepeatable() {
+    return this.source.isRepeatable();
+  }
+
+  @Override
+  public void writeTo(OutputStream out) throws IOException {
+    try (Encoder encoder = new Encoder()) {
+      ByteBuffer frame;
+      while ((frame = encoder.next()) != null) {
+        out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+      }
+    }
+  }
+
+  @Nonnull
+  @Override
+  public ReadableByteChannel openChannel() throws IOException {
+    return new Encoder();
+  }
+
+  /**
+   * Reads the source a chunk at a time, framing each chunk in a buffer of its own that leaves room
+   * ahead of the data for the longest chunk header.
+   */
+  private final class Encoder implements ReadableByteChannel {
+
+    private final ReadableByteChannel in;
+    private final MessageDigest sha256 =
+        SigningHelper.getMessageDigest(SigningHelper.SHA_256_ALGORITHM);
+    private final Mac hmacSha256 = SigningHelper.getMac(SigningHelper.HMAC_SHA_256_ALGORITHM);
+    private final byte[] hash = new byte[SIGNATURE_LENGTH / 2];
+    private final byte[] hex = new byte[SIGNATURE_LENGTH];
+    private final byte[] signature;
+    private final int dataOffset = getHeaderLength(AwsChunkedRequestBody.this.chunkSize);
+    private final ByteBuffer frame;
+    private final ByteBuffer data;
+    private long remaining = AwsChunkedRequestBody.this.source.getContentLength();
+    private boolean finished;
+    private boolean open = true;
+
+    Encoder() throws IOException {
+      try {
+        this.hmacSha256.init(AwsChunkedRequestBody.this.signingKey);
+      } catch (InvalidKeyException e) {
+        throw new IOException("Failed to sign request body", e);
+      }
+      this.signature = AwsChunkedRequestBody.this.seedSignature.clone();
+      this.frame = ByteBuffer.allocate(
+          this.dataOffset + AwsChunkedRequestBody.this.chunkSize + CRLF.length);
+      this.frame.position(this.dataOffset);
+      this.data = this.frame.slice();
+      this.frame.position(0).limit(0);
+      this.in = AwsChunkedRequestBody.this.source.openChannel();
+    }
+
+    /**
+     * @return The next chunk, framed and signed, or null after the final, empty, chunk
+     */
+    @Nullable
+    ByteBuffer next() throws IOException {
+      if (this.finished) {
+        return null;
+      }
+      int size = (int) Math.min(this.remaining, AwsChunkedRequestBody.this.chunkSize);
+      this.data.clear();
+      this.data.limit(size);
+      while (this.data.hasRemaining()) {
+        if (this.in.read(this.data) < 0) {
+          throw new IOException("Request body ended " + (this.remaining - this.data.position()) +
+                                " bytes short of its length");
+        }
+      }
+      this.remaining -= size;
+      this.finished = size == 0;
+
+      this.data.flip();
+      this.sha256.update(this.data);
+      sign(this.sha256.digest());
+
+      // The header goes immediately ahead of the data, and the line break after it
+      byte[] length = Integer.toHexString(size).getBytes(StandardCharsets.US_ASCII);
+      int start = this.dataOffset - getHeaderLength(size);
+      this.frame.clear();
+      this.frame.position(start);
+      this.frame.put(length).put(CHUNK_SIGNATURE).put(this.signature).put(CRLF);
+      this.frame.position(this.dataOffset + size);
+      this.frame.put(CRLF);
+      this.frame.flip();
+      this.frame.position(start);
+      return this.frame;
+    }
+
+    private void sign(byte[] chunkHash) throws IOException {
+      Mac mac = this.hmacSha256;
+      mac.update(ALGORITHM);
+      mac.update(AwsChunkedRequestBody.this.scope);
+      mac.update(this.signature);
+      mac.update(EMPTY_HASH);
+      SigningHelper.toHex(chunkHash, 0, chunkHash.length, this.hex, 0);
+      mac.update(this.hex);
+      try {
+        mac.doFinal(this.hash, 0);
+      } catch (ShortBufferException e) {
+        throw new IOException("Signature does not fit in hash buffer", e);
+      }
+      SigningHelper.toHex(this.hash, 0, this.hash.length, this.signature, 0);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      if (!this.frame.hasRemaining() && next() == null) {
+        return -1;
+      }
+      int count = Math.min(dst.remaining(), this.frame.remaining());
+      int limit = this.frame.limit();
+      this.frame.limit(this.frame.position() + count);
+      dst.put(this.frame);
+      this.frame.limit(limit);
+      return count;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return this.open;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.open = false;
+      this.in.close();
+    }
+  }
+}
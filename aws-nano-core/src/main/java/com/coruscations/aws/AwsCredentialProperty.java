@@ -28,6 +28,8 @@ public enum AwsCredentialProperty {
   AWS_SECRET_KEY("SECRET_KEY", "aws.secretKey",
                  new String[]{"AWS_SECRET_ACCESS_KEY", "AWS_SECRET_KEY"},
                  "aws_secret_access_key", "SecretAccessKey"),
+  AWS_SESSION_TOKEN("SESSION_TOKEN", "aws.sessionToken", new String[]{"AWS_SESSION_TOKEN"},
+                    "aws_session_token", "Token"),
   AWS_CONFIG_FILE("AWS_CONFIG_FILE", null, new String[]{"AWS_CONFIG_FILE"}, null, null),
   AWS_CREDENTIAL_PROFILES_FILE("AWS_CREDENTIAL_PROFILES_FILE", null,
                                new String[]{"AWS_CREDENTIAL_PROFILES_FILE"}, null, null),
@@ -35,7 +37,20 @@ public enum AwsCredentialProperty {
   AWS_DEFAULT_PROFILE("AWS_DEFAULT_PROFILE", null, new String[]{"AWS_DEFAULT_PROFILE"}, null, null),
   AWS_DEFAULT_REGION("AWS_DEFAULT_REGION", null, new String[]{"AWS_DEFAULT_REGION"},
                      "region", null),
-  IAM_ROLE_NAME("IAM_ROLE_NAME", null, new String[]{"IAM_ROLE_NAME"}, null, null);
+  IAM_ROLE_NAME("IAM_ROLE_NAME", null, new String[]{"IAM_ROLE_NAME"}, null, null),
+  AWS_EC2_METADATA_DISABLED("AWS_EC2_METADATA_DISABLED", "com.amazonaws.sdk.disableEc2Metadata",
+                            new String[]{"AWS_EC2_METADATA_DISABLED"}, null, null),
+  AWS_EC2_METADATA_SERVICE_ENDPOINT("AWS_EC2_METADATA_SERVICE_ENDPOINT",
+                                    "com.amazonaws.sdk.ec2MetadataServiceEndpointOverride",
+                                    new String[]{"AWS_EC2_METADATA_SERVICE_ENDPOINT"}, null, null),
+  AWS_CONTAINER_CREDENTIALS_RELATIVE_URI("AWS_CONTAINER_CREDENTIALS_RELATIVE_URI", null,
+                                         new String[]{"AWS_CONTAINER_CREDENTIALS_RELATIVE_URI"},
+                                         null, null),
+  AWS_CONTAINER_CREDENTIALS_FULL_URI("AWS_CONTAINER_CREDENTIALS_FULL_URI", null,
+                                     new String[]{"AWS_CONTAINER_CREDENTIALS_FULL_URI"},
+                                     null, null),
+  AWS_CONTAINER_AUTHORIZATION_TOKEN("AWS_CONTAINER_AUTHORIZATION_TOKEN", null,
+                                    new String[]{"AWS_CONTAINER_AUTHORIZATION_TOKEN"}, null, null);
 
   private final String envName;
   private final String systemPropertyName;
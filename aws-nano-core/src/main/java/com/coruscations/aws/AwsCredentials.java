@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.time.Instant;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * An access key and its secret, with the session token and expiration when they are temporary.
+ */
+@ParametersAreNonnullByDefault
+public final class AwsCredentials {
+
+  private final String accessKey;
+  private final String secretKey;
+  @Nullable
+  private final String sessionToken;
+  @Nullable
+  private final Instant expiration;
+
+  public AwsCredentials(String accessKey, String secretKey) {
+    this(accessKey, secretKey, null, null);
+  }
+
+  public AwsCredentials(String accessKey, String secretKey, @Nullable String sessionToken,
+                        @Nullable Instant expiration) {
+    this.accessKey = Objects.requireNonNull(accessKey, "accessKey");
+    this.secretKey = Objects.requireNonNull(secretKey, "secretKey");
+    this.sessionToken = sessionToken;
+    this.expiration = expiration;
+  }
+
+  public String getAccessKey() {
+    return this.accessKey;
+  }
+
+  public String getSecretKey() {
+    return this.secretKey;
+  }
+
+  @Nullable
+  public String getSessionToken() {
+    return this.sessionToken;
+  }
+
+  /**
+   * @return When temporary credentials stop working, or null if they do not expire
+   */
+  @Nullable
+  public Instant getExpiration() {
+    return this.expiration;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    AwsCredentials that = (AwsCredentials) o;
+    return this.accessKey.equals(that.accessKey) && this.secretKey.equals(that.secretKey) &&
+           Objects.equals(this.sessionToken, that.sessionToken) &&
+           Objects.equals(this.expiration, that.expiration);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(this.accessKey, this.secretKey, this.sessionToken, this.expiration);
+  }
+
+  @Override
+  public String toString() {
+    // Never the secret or the token
+    return "AwsCredentials{accessKey=" + this.accessKey +
+           (this.expiration == null ? "" : ", expiration=" + this.expiration) + '}';
+  }
+}
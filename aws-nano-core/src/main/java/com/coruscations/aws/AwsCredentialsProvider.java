@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import javax.annotation.Nullable;
+
+/**
+ * A source of credentials.  Credentials are asked for as each request is signed, so a provider
+ * should answer from memory and do any reading or fetching ahead of time.
+ */
+public interface AwsCredentialsProvider {
+
+  /**
+   * @return The current credentials, or null if this source has none
+   */
+  @Nullable
+  AwsCredentials getCredentials();
+
+  /**
+   * @return The region configured alongside the credentials, if any
+   */
+  @Nullable
+  default String getRegion() {
+    return null;
+  }
+}
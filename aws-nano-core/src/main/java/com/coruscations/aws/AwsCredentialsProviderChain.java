@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Asks each provider in turn for credentials, answering with the first that has some.
+ * <p>
+ * The chain for an environment, {@link #forEnvironment}, looks where the AWS SDKs do: the
+ * environment passed in, Java system properties and environment variables, the profile in the
+ * shared config and credentials files, then the container or EC2 instance metadata.  It is shared
+ * by every caller with the same credential settings, so the files and metadata are only read when
+ * the first of them asks and afterwards only refreshed in the background.  A provider placed in
+ * the environment under {@link Constants#CREDENTIALS_PROVIDER} is used as-is.
+ */
+@ParametersAreNonnullByDefault
+public class AwsCredentialsProviderChain implements AwsCredentialsProvider {
+
+  /** The settings which determine where credentials are found. */
+  private static final List<String> SETTINGS = Collections.unmodifiableList(Arrays.asList(
+      AwsCredentialProperty.AWS_ACCESS_KEY_ID.getEnvName(),
+      AwsCredentialProperty.AWS_SECRET_KEY.getEnvName(),
+      AwsCredentialProperty.AWS_SESSION_TOKEN.getEnvName(),
+      AwsCredentialProperty.AWS_CONFIG_FILE.getEnvName(),
+      AwsCredentialProperty.AWS_CREDENTIAL_PROFILES_FILE.getEnvName(),
+      AwsCredentialProperty.AWS_DEFAULT_PROFILE.getEnvName(),
+      AwsCredentialProperty.IAM_ROLE_NAME.getEnvName(),
+      AwsCredentialProperty.AWS_EC2_METADATA_DISABLED.getEnvName(),
+      AwsCredentialProperty.AWS_EC2_METADATA_SERVICE_ENDPOINT.getEnvName(),
+      AwsCredentialProperty.AWS_CONTAINER_CREDENTIALS_RELATIVE_URI.getEnvName(),
+      AwsCredentialProperty.AWS_CONTAINER_CREDENTIALS_FULL_URI.getEnvName(),
+      AwsCredentialProperty.AWS_CONTAINER_AUTHORIZATION_TOKEN.getEnvName(),
+      Constants.CREDENTIALS_RECHECK_INTERVAL,
+      Constants.CREDENTIALS_METADATA_TIMEOUT));
+
+  private static final ConcurrentMap<Map<String, Object>, AwsCredentialsProviderChain> SHARED =
+      new ConcurrentHashMap<>();
+
+  private final List<AwsCredentialsProvider> providers;
+  @Nullable
+  private volatile AwsCredentialsProvider last;
+
+  public AwsCredentialsProviderChain(List<? extends AwsCredentialsProvider> providers) {
+    this.providers = Collections.unmodifiableList(new ArrayList<>(providers));
+  }
+
+  public static AwsCredentialsProvider forEnvironment(Map<String, ?> env) {
+    Object configured = env.get(Constants.CREDENTIALS_PROVIDER);
+    if (configured instanceof AwsCredentialsProvider) {
+      return (AwsCredentialsProvider) configured;
+    }
+    Map<String, Object> settings = new HashMap<>();
+    for (String name : SETTINGS) {
+      Object value = env.get(name);
+      if (value != null) {
+        settings.put(name, value);
+      }
+    }
+    return SHARED.computeIfAbsent(Collections.unmodifiableMap(settings),
+                                  AwsCredentialsProviderChain::create);
+  }
+
+  private static AwsCredentialsProviderChain create(Map<String, Object> settings) {
+    long recheckMillis = HttpTransportConfig.getLong(
+        settings, Constants.CREDENTIALS_RECHECK_INTERVAL,
+        ProfileCredentialsProvider.DEFAULT_RECHECK_MILLIS);
+    long timeoutMillis = HttpTransportConfig.getLong(
+        settings, Constants.CREDENTIALS_METADATA_TIMEOUT,
+        InstanceMetadataCredentialsProvider.DEFAULT_TIMEOUT_MILLIS);
+    return new AwsCredentialsProviderChain(Arrays.asList(
+        new PropertyCredentialsProvider(settings),
+        new ProfileCredentialsProvider(settings, recheckMillis),
+        new InstanceMetadataCredentialsProvider(settings, timeoutMillis)));
+  }
+
+  @Override
+  @Nullable
+  public AwsCredentials getCredentials() {
+    for (AwsCredentialsProvider provider : this.providers) {
+      AwsCredentials credentials = provider.getCredentials();
+      if (credentials != null) {
+        if (this.last != provider) {
+          this.last = provider;
+        }
+        return credentials;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return The region from the provider which last had credentials, if it has one
+   */
+  @Override
+  @Nullable
+  public String getRegion() {
+    AwsCredentialsProvider last = this.last;
+    return last == null ? null : last.getRegion();
+  }
+}
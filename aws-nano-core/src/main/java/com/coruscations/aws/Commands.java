@@ -18,10 +18,11 @@
 package com.coruscations.aws;
 
 import java.io.IOException;
-import java.net.HttpURLConnection;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +38,8 @@ public class Commands<T extends ErrorResponse> {
   private final ConfigurationProvider configurationProvider;
 
   private final HttpHelper<T> httpHelper;
+  private final HttpTransport httpTransport;
+  private final AsyncCommandExecutor asyncExecutor;
 
   private final XMLInputFactory xmlInputFactory;
 
@@ -44,46 +47,119 @@ public class Commands<T extends ErrorResponse> {
     this.configurationProvider = configurationProvider;
     this.httpURLConnectionBuilderFactory = new HttpURLConnectionBuilderFactory(
         configurationProvider);
-    // TODO: Figure out how to allow configuration
-    this.xmlInputFactory = XMLInputFactory.newFactory();
+    this.xmlInputFactory = SharedXmlInputFactory.get(configurationProvider);
     this.httpHelper = new HttpHelper<>(errorParser);
+    this.httpTransport = HttpTransportFactory.getHttpTransport(configurationProvider.getEnv());
+    this.asyncExecutor =
+        HttpTransportFactory.getAsyncCommandExecutor(configurationProvider.getEnv());
   }
 
   protected <R extends RestCommandResponse> R execute(RestCommand<R> command) throws IOException {
     HttpURLConnectionBuilder builder =
         this.httpURLConnectionBuilderFactory.createHttpURLConnectionBuilder(command);
-    HttpURLConnection connection = builder.build();
+    HttpRequest request = builder.buildRequest();
     try {
-      return this.httpHelper.processRequest(connection, this.xmlInputFactory,
-                                            command.getResponseParser());
+      return this.httpHelper.processResponse(request, this.httpTransport.execute(request),
+                                             this.xmlInputFactory, command.getResponseParser());
     } catch (ErrorResponseException e) {
-      if (LOG.isLoggable(Level.FINE)) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Canonical failed request:\n").append(builder.getCanonicalRequest());
-        sb.append("\nRequest string to sign:\n").append(builder.getRequestStringToSign());
-        sb.append("\nAuthorization: ").append(builder.getAuthorization()).append('\n');
-        ErrorResponse errorResponse = e.getErrorResponse();
-        if (errorResponse == null) {
-          sb.append("No response\n");
-        } else {
-          Map<String, List<String>> responseHeaders = errorResponse.getHeaders();
-          sb.append(responseHeaders.get(null)).append('\n');
-          responseHeaders.forEach((name, values) ->
-                                      values.forEach(value -> {
-                                        if (name != null) {
-                                          sb.append(name).append(": ")
-                                              .append(value).append('\n');
-                                        }
-                                      }));
-
-          sb.append(errorResponse.toString());
-        }
-        LOG.fine(sb.toString());
-      }
+      logFailure(builder, e);
+      throw e;
+    }
+  }
+
+  /**
+   * {@link #execute} on the async executor.  This waits, before returning, while the maximum
+   * number of requests are already in flight; errors complete the future exceptionally.  With an
+   * {@link AsyncHttpTransport} no thread waits on the request; only parsing the response runs on
+   * the executor.
+   */
+  protected <R extends RestCommandResponse> CompletableFuture<R> executeAsync(
+      RestCommand<R> command) {
+    if (this.httpTransport instanceof AsyncHttpTransport) {
+      return this.asyncExecutor.submitAsync(() -> sendAsync(command));
+    }
+    return this.asyncExecutor.submit(() -> execute(command));
+  }
+
+  private <R extends RestCommandResponse> CompletableFuture<R> sendAsync(RestCommand<R> command)
+      throws IOException {
+    HttpURLConnectionBuilder builder =
+        this.httpURLConnectionBuilderFactory.createHttpURLConnectionBuilder(command);
+    HttpRequest request = builder.buildRequest();
+    return ((AsyncHttpTransport) this.httpTransport).sendAsync(request).thenApplyAsync(
+        response -> {
+          try {
+            return this.httpHelper.processResponse(request, response, this.xmlInputFactory,
+                                                   command.getResponseParser());
+          } catch (ErrorResponseException e) {
+            logFailure(builder, e);
+            throw new CompletionException(e);
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          }
+        }, this.asyncExecutor.getExecutor());
+  }
+
+  /**
+   * Execute the command, leaving the body of the response open so that it can be parsed
+   * incrementally instead of by the command's parser; the caller must close the response.
+   */
+  protected StreamingResponse executeStreaming(RestCommand<?> command) throws IOException {
+    HttpURLConnectionBuilder builder =
+        this.httpURLConnectionBuilderFactory.createHttpURLConnectionBuilder(command);
+    HttpRequest request = builder.buildRequest();
+    try {
+      return this.httpHelper.openResponse(request, this.httpTransport.execute(request),
+                                          this.xmlInputFactory);
+    } catch (ErrorResponseException e) {
+      logFailure(builder, e);
       throw e;
     }
   }
 
+  /**
+   * Execute the command, leaving the body of the response open as content for the caller to read,
+   * such as an object being downloaded; the caller must close the response.
+   */
+  protected ContentResponse executeForContent(RestCommand<?> command) throws IOException {
+    HttpURLConnectionBuilder builder =
+        this.httpURLConnectionBuilderFactory.createHttpURLConnectionBuilder(command);
+    HttpRequest request = builder.buildRequest();
+    try {
+      return this.httpHelper.openContent(request, this.httpTransport.execute(request),
+                                         this.xmlInputFactory);
+    } catch (ErrorResponseException e) {
+      logFailure(builder, e);
+      throw e;
+    }
+  }
+
+  private void logFailure(HttpURLConnectionBuilder builder, ErrorResponseException e) {
+    if (LOG.isLoggable(Level.FINE)) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("Canonical failed request:\n").append(builder.getCanonicalRequest());
+      sb.append("\nRequest string to sign:\n").append(builder.getRequestStringToSign());
+      sb.append("\nAuthorization: ").append(builder.getAuthorization()).append('\n');
+      ErrorResponse errorResponse = e.getErrorResponse();
+      if (errorResponse == null) {
+        sb.append("No response\n");
+      } else {
+        Map<String, List<String>> responseHeaders = errorResponse.getHeaders();
+        sb.append(responseHeaders.get(null)).append('\n');
+        responseHeaders.forEach((name, values) ->
+                                    values.forEach(value -> {
+                                      if (name != null) {
+                                        sb.append(name).append(": ")
+                                            .append(value).append('\n');
+                                      }
+                                    }));
+
+        sb.append(errorResponse.toString());
+      }
+      LOG.fine(sb.toString());
+    }
+  }
+
   public HttpURLConnectionBuilderFactory getHttpURLConnectionBuilderFactory() {
     return this.httpURLConnectionBuilderFactory;
   }
@@ -100,6 +176,14 @@ public class Commands<T extends ErrorResponse> {
     return this.httpHelper;
   }
 
+  public HttpTransport getHttpTransport() {
+    return this.httpTransport;
+  }
+
+  public AsyncCommandExecutor getAsyncExecutor() {
+    return this.asyncExecutor;
+  }
+
   public XMLInputFactory getXmlInputFactory() {
     return this.xmlInputFactory;
   }
@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Bounded, per-route pool of keep-alive connections.  Idle connections are reused most recently
+ * released first, expired by idle time and total age, and only health checked when they have sat
+ * idle longer than the configured validation interval.
+ */
+@ParametersAreNonnullByDefault
+class ConnectionPool implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(ConnectionPool.class.getName());
+
+  private final HttpTransportConfig config;
+  private final Map<Route, RoutePool> routePools = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService evictor;
+
+  private final LongAdder created = new LongAdder();
+  private final LongAdder reused = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+  private final LongAdder stale = new LongAdder();
+
+  private volatile boolean closed;
+
+  ConnectionPool(HttpTransportConfig config) {
+    this.config = config;
+    this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "aws-nano-connection-evictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(1000, Math.min(config.getIdleTimeout(), 30_000) / 2);
+    this.evictor.scheduleWithFixedDelay(this::evictExpired, period, period,
+                                        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Lease a connection for the route, opening a new one if none is idle and the route is under its
+   * limit, otherwise waiting up to the connection request timeout for one to be released.
+   */
+  HttpConnection lease(Route route) throws IOException {
+    if (this.closed) {
+      throw new IOException("Connection pool is closed");
+    }
+    RoutePool routePool = this.routePools.computeIfAbsent(route, RoutePool::new);
+    return routePool.lease();
+  }
+
+  /**
+   * Return a leased connection; it is kept for reuse only if {@code reusable} and not expired.
+   */
+  void release(HttpConnection connection, boolean reusable) {
+    RoutePool routePool = this.routePools.get(connection.getRoute());
+    if (routePool == null) {
+      connection.close();
+      return;
+    }
+    routePool.release(connection, reusable && !this.closed);
+  }
+
+  ConnectionPoolStats getStats() {
+    int leased = 0;
+    int idle = 0;
+    int pending = 0;
+    for (RoutePool routePool : this.routePools.values()) {
+      routePool.lock.lock();
+      try {
+        leased += routePool.leased;
+        idle += routePool.idle.size();
+        pending += routePool.pending;
+      } finally {
+        routePool.lock.unlock();
+      }
+    }
+    return new ConnectionPoolStats(leased, idle, pending, this.routePools.size(),
+                                   this.created.sum(), this.reused.sum(), this.expired.sum(),
+                                   this.stale.sum());
+  }
+
+  void evictExpired() {
+    long now = System.nanoTime();
+    for (RoutePool routePool : this.routePools.values()) {
+      List<HttpConnection> evicted = new ArrayList<>();
+      routePool.lock.lock();
+      try {
+        Iterator<HttpConnection> it = routePool.idle.iterator();
+        while (it.hasNext()) {
+          HttpConnection connection = it.next();
+          if (isExpired(connection, now)) {
+            it.remove();
+            routePool.total--;
+            evicted.add(connection);
+          }
+        }
+        if (!evicted.isEmpty()) {
+          routePool.available.signalAll();
+        }
+      } finally {
+        routePool.lock.unlock();
+      }
+      this.expired.add(evicted.size());
+      evicted.forEach(HttpConnection::close);
+    }
+  }
+
+  private boolean isExpired(HttpConnection connection, long now) {
+    long idleTimeout = this.config.getIdleTimeout();
+    if (idleTimeout > 0 &&
+        now - connection.getIdleSinceNanos() > TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+      return true;
+    }
+    long maxLifetime = this.config.getMaxLifetime();
+    return maxLifetime > 0 &&
+           now - connection.getCreatedNanos() > TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+  }
+
+  @Override
+  public void close() {
+    this.closed = true;
+    this.evictor.shutdownNow();
+    for (RoutePool routePool : this.routePools.values()) {
+      List<HttpConnection> idle;
+      routePool.lock.lock();
+      try {
+        idle = new ArrayList<>(routePool.idle);
+        routePool.total -= idle.size();
+        routePool.idle.clear();
+        routePool.available.signalAll();
+      } finally {
+        routePool.lock.unlock();
+      }
+      idle.forEach(HttpConnection::close);
+    }
+  }
+
+  private class RoutePool {
+
+    final Route route;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition available = this.lock.newCondition();
+    // Most recently released first, so that rarely used connections age out
+    final Deque<HttpConnection> idle = new ArrayDeque<>();
+    int total;
+    int leased;
+    int pending;
+
+    RoutePool(Route route) {
+      this.route = route;
+    }
+
+    HttpConnection lease() throws IOException {
+      long validateNanos =
+          TimeUnit.MILLISECONDS.toNanos(ConnectionPool.this.config.getValidateAfterInactivity());
+      while (true) {
+        HttpConnection candidate = null;
+        boolean open = false;
+        this.lock.lock();
+        try {
+          long remaining = TimeUnit.MILLISECONDS.toNanos(
+              ConnectionPool.this.config.getConnectionRequestTimeout());
+          this.pending++;
+          try {
+            while (candidate == null && !open) {
+              if (ConnectionPool.this.closed) {
+                throw new IOException("Connection pool is closed");
+              }
+              candidate = this.idle.pollFirst();
+              if (candidate == null) {
+                if (this.total < ConnectionPool.this.config.getMaxConnectionsPerRoute()) {
+                  this.total++;
+                  open = true;
+                } else {
+                  if (remaining <= 0) {
+                    throw new IOException(
+                        "Timed out waiting for a connection to " + this.route + " (" +
+                        this.total + " in use)");
+                  }
+                  try {
+                    remaining = this.available.awaitNanos(remaining);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                        "Interrupted waiting for a connection to " + this.route);
+                  }
+                }
+              }
+            }
+          } finally {
+            this.pending--;
+          }
+          this.leased++;
+        } finally {
+          this.lock.unlock();
+        }
+
+        if (open) {
+          try {
+            HttpConnection connection = HttpConnection.open(this.route, ConnectionPool.this.config);
+            ConnectionPool.this.created.increment();
+            return connection;
+          } catch (IOException | RuntimeException e) {
+            discard(null);
+            throw e;
+          }
+        }
+
+        long now = System.nanoTime();
+        if (isExpired(candidate, now)) {
+          ConnectionPool.this.expired.increment();
+          discard(candidate);
+        } else if (now - candidate.getIdleSinceNanos() > validateNanos && candidate.isStale()) {
+          LOG.log(Level.FINE, "Discarding stale connection to {0}", this.route);
+          ConnectionPool.this.stale.increment();
+          discard(candidate);
+        } else {
+          ConnectionPool.this.reused.increment();
+          return candidate;
+        }
+      }
+    }
+
+    void release(HttpConnection connection, boolean reusable) {
+      long now = System.nanoTime();
+      if (reusable && isExpired(connection, now)) {
+        ConnectionPool.this.expired.increment();
+        reusable = false;
+      }
+      this.lock.lock();
+      try {
+        this.leased--;
+        if (reusable) {
+          connection.markIdle(now);
+          this.idle.addFirst(connection);
+        } else {
+          this.total--;
+        }
+        this.available.signal();
+      } finally {
+        this.lock.unlock();
+      }
+      if (!reusable) {
+        connection.close();
+      }
+    }
+
+    private void discard(@Nullable HttpConnection connection) {
+      this.lock.lock();
+      try {
+        this.leased--;
+        this.total--;
+        this.available.signal();
+      } finally {
+        this.lock.unlock();
+      }
+      if (connection != null) {
+        connection.close();
+      }
+    }
+  }
+
+  /**
+   * Scheme, host and port; connections are only shared between requests with the same route.
+   */
+  static final class Route {
+
+    private final boolean secure;
+    private final String host;
+    private final int port;
+
+    Route(boolean secure, String host, int port) {
+      this.secure = secure;
+      this.host = host;
+      this.port = port;
+    }
+
+    static Route of(URL url) throws IOException {
+      String protocol = url.getProtocol();
+      boolean secure;
+      if ("https".equalsIgnoreCase(protocol)) {
+        secure = true;
+      } else if ("http".equalsIgnoreCase(protocol)) {
+        secure = false;
+      } else {
+        throw new IOException("Unsupported protocol: " + url);
+      }
+      int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+      return new Route(secure, url.getHost(), port);
+    }
+
+    boolean isSecure() {
+      return this.secure;
+    }
+
+    String getHost() {
+      return this.host;
+    }
+
+    int getPort() {
+      return this.port;
+    }
+
+    /**
+     * @return The value for the {@code Host} header, omitting the default port.
+     */
+    String getAuthority() {
+      return this.port == (this.secure ? 443 : 80) ? this.host : this.host + ':' + this.port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Route that = (Route) o;
+      return this.secure == that.secure && this.port == that.port &&
+             this.host.equalsIgnoreCase(that.host);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Boolean.hashCode(this.secure) + this.host.toLowerCase().hashCode()) +
+             this.port;
+    }
+
+    @Override
+    public String toString() {
+      return (this.secure ? "https://" : "http://") + this.host + ':' + this.port;
+    }
+  }
+}
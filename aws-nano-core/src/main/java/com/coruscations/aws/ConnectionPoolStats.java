@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+/**
+ * Point-in-time view of a connection pool; the counters are cumulative since the pool was created.
+ */
+public class ConnectionPoolStats {
+
+  private final int leased;
+  private final int idle;
+  private final int pending;
+  private final int routes;
+  private final long created;
+  private final long reused;
+  private final long expired;
+  private final long stale;
+
+  public ConnectionPoolStats(int leased, int idle, int pending, int routes, long created,
+                             long reused, long expired, long stale) {
+    this.leased = leased;
+    this.idle = idle;
+    this.pending = pending;
+    this.routes = routes;
+    this.created = created;
+    this.reused = reused;
+    this.expired = expired;
+    this.stale = stale;
+  }
+
+  /** Connections currently in use by a request. */
+  public int getLeased() {
+    return this.leased;
+  }
+
+  /** Connections open and available for reuse. */
+  public int getIdle() {
+    return this.idle;
+  }
+
+  /** Callers currently waiting for a connection. */
+  public int getPending() {
+    return this.pending;
+  }
+
+  public int getRoutes() {
+    return this.routes;
+  }
+
+  /** Connections opened. */
+  public long getCreated() {
+    return this.created;
+  }
+
+  /** Leases satisfied by an idle connection. */
+  public long getReused() {
+    return this.reused;
+  }
+
+  /** Connections closed because they exceeded the idle timeout or max lifetime. */
+  public long getExpired() {
+    return this.expired;
+  }
+
+  /** Idle connections found closed by the server when validated. */
+  public long getStale() {
+    return this.stale;
+  }
+
+  @Override
+  public String toString() {
+    return "ConnectionPoolStats{" +
+           "leased=" + leased +
+           ", idle=" + idle +
+           ", pending=" + pending +
+           ", routes=" + routes +
+           ", created=" + created +
+           ", reused=" + reused +
+           ", expired=" + expired +
+           ", stale=" + stale +
+           '}';
+  }
+}
@@ -23,8 +23,49 @@ public class Constants {
 
   // HTTP Environment Keys
   public static final String USER_AGENT = "USER_AGENT";
+  public static final String HTTP_TRANSPORT = "HTTP_TRANSPORT";
+  public static final String HTTP_MAX_CONNECTIONS_PER_ROUTE = "HTTP_MAX_CONNECTIONS_PER_ROUTE";
+  public static final String HTTP_CONNECT_TIMEOUT = "HTTP_CONNECT_TIMEOUT";
+  public static final String HTTP_READ_TIMEOUT = "HTTP_READ_TIMEOUT";
+  public static final String HTTP_CONNECTION_REQUEST_TIMEOUT = "HTTP_CONNECTION_REQUEST_TIMEOUT";
+  public static final String HTTP_IDLE_TIMEOUT = "HTTP_IDLE_TIMEOUT";
+  public static final String HTTP_MAX_LIFETIME = "HTTP_MAX_LIFETIME";
+  public static final String HTTP_VALIDATE_AFTER_INACTIVITY = "HTTP_VALIDATE_AFTER_INACTIVITY";
+  public static final String HTTP_IO_THREADS = "HTTP_IO_THREADS";
+  public static final String HTTP_ASYNC_EXECUTOR = "HTTP_ASYNC_EXECUTOR";
+  public static final String HTTP_MAX_IN_FLIGHT = "HTTP_MAX_IN_FLIGHT";
   public static final String SCHEME = "s3";
 
+  // XML Parsing Environment Keys
+  public static final String XML_INPUT_FACTORY = "XML_INPUT_FACTORY";
+  public static final String XML_COALESCING = "XML_COALESCING";
+  public static final String XML_SUPPORT_DTD = "XML_SUPPORT_DTD";
+
+  // Credentials Environment Keys
+  public static final String CREDENTIALS_PROVIDER = "CREDENTIALS_PROVIDER";
+  public static final String CREDENTIALS_RECHECK_INTERVAL = "CREDENTIALS_RECHECK_INTERVAL";
+  public static final String CREDENTIALS_METADATA_TIMEOUT = "CREDENTIALS_METADATA_TIMEOUT";
+
+  // Signing Environment Keys
+  public static final String PAYLOAD_SIGNING = "PAYLOAD_SIGNING";
+
+  // S3 Environment Keys
+  public static final String S3_LIST_PREFETCH_PAGES = "S3_LIST_PREFETCH_PAGES";
+  public static final String S3_LIST_SCANNER = "S3_LIST_SCANNER";
+  public static final String S3_DOWNLOAD_PART_SIZE = "S3_DOWNLOAD_PART_SIZE";
+  public static final String S3_DOWNLOAD_PARALLELISM = "S3_DOWNLOAD_PARALLELISM";
+  public static final String S3_DOWNLOAD_ATTEMPTS = "S3_DOWNLOAD_ATTEMPTS";
+  public static final String S3_UPLOAD_PART_SIZE = "S3_UPLOAD_PART_SIZE";
+  public static final String S3_UPLOAD_PARALLELISM = "S3_UPLOAD_PARALLELISM";
+  public static final String S3_UPLOAD_ATTEMPTS = "S3_UPLOAD_ATTEMPTS";
+  public static final String S3_DELETE_PARALLELISM = "S3_DELETE_PARALLELISM";
+  public static final String S3_DELETE_ATTEMPTS = "S3_DELETE_ATTEMPTS";
+  public static final String S3_COPY_THRESHOLD = "S3_COPY_THRESHOLD";
+  public static final String S3_COPY_PART_SIZE = "S3_COPY_PART_SIZE";
+  public static final String S3_COPY_PARALLELISM = "S3_COPY_PARALLELISM";
+  public static final String S3_COPY_ATTEMPTS = "S3_COPY_ATTEMPTS";
+  public static final String S3_SYNC_PARALLELISM = "S3_SYNC_PARALLELISM";
+
   public static final String JAVA_VERSION = System.getProperty("java.version");
 
   // Defaults
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A successful response whose body is content, such as an object, to be read as it arrives
+ * rather than parsed; nothing buffers the whole body.  The connection stays leased until this is
+ * closed, so callers must close it once they are done with the body.
+ */
+@ParametersAreNonnullByDefault
+public class ContentResponse implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(ContentResponse.class.getName());
+
+  private static final InputStream EMPTY = new InputStream() {
+    @Override
+    public int read() {
+      return -1;
+    }
+  };
+
+  private final HttpResponse response;
+  private final InputStream body;
+
+  ContentResponse(HttpResponse response, @Nullable InputStream body) {
+    this.response = response;
+    this.body = body == null ? EMPTY : body;
+  }
+
+  public int getResponseCode() {
+    return this.response.getResponseCode();
+  }
+
+  @Nonnull
+  public Map<String, List<String>> getHeaders() {
+    return this.response.getHeaders();
+  }
+
+  @Nullable
+  public String getHeader(String name) {
+    return this.response.getHeader(name);
+  }
+
+  /**
+   * @return The length of the body from its {@code Content-Length}, or -1 if not given
+   */
+  public long getContentLength() {
+    String contentLength = getHeader(HttpHeaders.CONTENT_LENGTH);
+    if (contentLength == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(contentLength.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  @Nullable
+  public String getContentType() {
+    return this.response.getContentType();
+  }
+
+  /**
+   * @return The body, which is read off the connection as the caller reads it
+   */
+  @Nonnull
+  public InputStream getInputStream() {
+    return this.body;
+  }
+
+  /**
+   * @return The body as a channel; closing it closes the response
+   */
+  @Nonnull
+  public ReadableByteChannel getChannel() {
+    return Channels.newChannel(new ClosingInputStream());
+  }
+
+  /**
+   * Writes the rest of the body to the target, handing over each block as it arrives.
+   *
+   * @return The number of bytes written
+   */
+  public long transferTo(WritableByteChannel target) throws IOException {
+    if (this.body instanceof NioResponseBody) {
+      return ((NioResponseBody) this.body).transferTo(target);
+    }
+    byte[] buffer = new byte[RequestBody.TRANSFER_BUFFER_SIZE];
+    long transferred = 0;
+    int read;
+    while ((read = this.body.read(buffer)) >= 0) {
+      ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+      while (bytes.hasRemaining()) {
+        transferred += target.write(bytes);
+      }
+    }
+    return transferred;
+  }
+
+  /**
+   * Writes the rest of the body into the file from {@code position}, without using or moving the
+   * channel's own position, so that separate ranges can be written into one file concurrently.
+   *
+   * @return The number of bytes written
+   */
+  public long transferTo(FileChannel file, long position) throws IOException {
+    return transferTo(new WritableByteChannel() {
+      private long offset = position;
+
+      @Override
+      public int write(ByteBuffer src) throws IOException {
+        int written = file.write(src, this.offset);
+        this.offset += written;
+        return written;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return file.isOpen();
+      }
+
+      @Override
+      public void close() {
+        // The file belongs to the caller
+      }
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.response.close();
+  }
+
+  private final class ClosingInputStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      return ContentResponse.this.body.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return ContentResponse.this.body.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+      return ContentResponse.this.body.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+      ContentResponse.this.close();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A {@link Parser} over the StAX cursor API, which unlike {@link XMLEventReader} does not create
+ * an object per node.  {@link HttpHelper} hands these parsers an {@link XMLStreamReader}; use
+ * {@link ElementTextReader} to read element text without creating more strings than needed.
+ * Called as a plain {@link Parser}, they read the events through an {@link XMLStreamReader}
+ * adapter instead.
+ */
+@FunctionalInterface
+public interface CursorParser<T> extends Parser<T> {
+
+  @Nullable
+  T parseCursor(int responseCode, Map<String, List<String>> headers,
+                @Nullable XMLStreamReader reader)
+      throws XMLStreamException;
+
+  @Nullable
+  @Override
+  default T parse(int responseCode, Map<String, List<String>> headers,
+                  @Nullable XMLEventReader reader)
+      throws XMLStreamException {
+    return parseCursor(responseCode, headers,
+                       reader == null ? null : new EventStreamReader(reader));
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the text of text-only elements off an {@link XMLStreamReader} into a reusable buffer, in
+ * place of {@link XMLStreamReader#getElementText()}.  Values repeated through a response (owners,
+ * storage classes and the like) can be shared rather than copied each time, and numbers and
+ * timestamps are parsed straight from the buffer.
+ * <p>
+ * Each method expects the reader to be on the element's START_ELEMENT and leaves it on the
+ * matching END_ELEMENT.  Instances are not thread safe, but as each call reads its element whole,
+ * parses on the same thread can share one: {@link #forThread()} gives each thread its own, kept
+ * from one response to the next with its buffer and shared values.
+ */
+@ParametersAreNonnullByDefault
+public class ElementTextReader {
+
+  private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+
+  private static final int SHARED_SIZE = 64;
+  private static final int INITIAL_LENGTH = 128;
+  // Longer buffers are dropped rather than kept for the thread by one unusually long value
+  private static final int MAX_RETAINED_LENGTH = 16 * 1024;
+
+  private static final ThreadLocal<ElementTextReader> FOR_THREAD =
+      ThreadLocal.withInitial(ElementTextReader::new);
+
+  private char[] buffer = new char[INITIAL_LENGTH];
+  private int length;
+
+  // Direct mapped by hash, so a collision just replaces the older value
+  private final String[] shared = new String[SHARED_SIZE];
+
+  /**
+   * @return The calling thread's instance
+   */
+  @Nonnull
+  public static ElementTextReader forThread() {
+    ElementTextReader text = FOR_THREAD.get();
+    if (text.buffer.length > MAX_RETAINED_LENGTH) {
+      text.buffer = new char[INITIAL_LENGTH];
+    }
+    return text;
+  }
+
+  @Nonnull
+  public String getText(XMLStreamReader reader) throws XMLStreamException {
+    read(reader);
+    return new String(this.buffer, 0, this.length);
+  }
+
+  /**
+   * @return The text, as the same instance as an earlier identical value where possible
+   */
+  @Nonnull
+  public String getSharedText(XMLStreamReader reader) throws XMLStreamException {
+    read(reader);
+    int hash = 0;
+    for (int i = 0; i < this.length; i++) {
+      hash = 31 * hash + this.buffer[i];
+    }
+    int index = (hash ^ (hash >>> 16)) & (SHARED_SIZE - 1);
+    String candidate = this.shared[index];
+    if (candidate != null && matches(candidate)) {
+      return candidate;
+    }
+    String value = new String(this.buffer, 0, this.length);
+    this.shared[index] = value;
+    return value;
+  }
+
+  public long getLong(XMLStreamReader reader) throws XMLStreamException {
+    read(reader);
+    int start = 0;
+    int end = this.length;
+    while (start < end && Character.isWhitespace(this.buffer[start])) {
+      start++;
+    }
+    while (end > start && Character.isWhitespace(this.buffer[end - 1])) {
+      end--;
+    }
+    boolean negative = start < end && this.buffer[start] == '-';
+    int digits = negative ? start + 1 : start;
+    // 18 digits cannot overflow; longer values take the slow path
+    if (digits == end || end - digits > 18) {
+      return Long.parseLong(new String(this.buffer, start, end - start));
+    }
+    long value = 0;
+    for (int i = digits; i < end; i++) {
+      int digit = this.buffer[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.parseLong(new String(this.buffer, start, end - start));
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  public boolean getBoolean(XMLStreamReader reader) throws XMLStreamException {
+    read(reader);
+    return this.length == 4 && Character.toLowerCase(this.buffer[0]) == 't' &&
+           Character.toLowerCase(this.buffer[1]) == 'r' &&
+           Character.toLowerCase(this.buffer[2]) == 'u' &&
+           Character.toLowerCase(this.buffer[3]) == 'e';
+  }
+
+  /**
+   * @return The timestamp; UTC timestamps as S3 writes them ({@code 2016-09-05T12:00:00.000Z})
+   * are parsed directly, anything else by {@link DateTimeFormatter#ISO_DATE_TIME}
+   */
+  @Nonnull
+  public OffsetDateTime getTimestamp(XMLStreamReader reader) throws XMLStreamException {
+    read(reader);
+    OffsetDateTime timestamp = parseUtcTimestamp();
+    if (timestamp != null) {
+      return timestamp;
+    }
+    return TIMESTAMP_FORMATTER.parse(new String(this.buffer, 0, this.length),
+                                     OffsetDateTime::from);
+  }
+
+  private OffsetDateTime parseUtcTimestamp() {
+    char[] b = this.buffer;
+    int len = this.length;
+    if (len < 20 || b[len - 1] != 'Z' || b[4] != '-' || b[7] != '-' || b[10] != 'T' ||
+        b[13] != ':' || b[16] != ':') {
+      return null;
+    }
+    int year = digits(b, 0, 4);
+    int month = digits(b, 5, 2);
+    int day = digits(b, 8, 2);
+    int hour = digits(b, 11, 2);
+    int minute = digits(b, 14, 2);
+    int second = digits(b, 17, 2);
+    int nanos = 0;
+    if (len > 20) {
+      int fractionDigits = len - 21;
+      if (b[19] != '.' || fractionDigits < 1 || fractionDigits > 9) {
+        return null;
+      }
+      nanos = digits(b, 20, fractionDigits);
+      for (int i = fractionDigits; i < 9 && nanos >= 0; i++) {
+        nanos *= 10;
+      }
+    }
+    if ((year | month | day | hour | minute | second | nanos) < 0) {
+      return null;
+    }
+    try {
+      return OffsetDateTime.of(year, month, day, hour, minute, second, nanos, ZoneOffset.UTC);
+    } catch (DateTimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return The decimal value of the digits, or -1 if any is not a digit
+   */
+  private static int digits(char[] b, int offset, int count) {
+    int value = 0;
+    for (int i = offset; i < offset + count; i++) {
+      int digit = b[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return -1;
+      }
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
+  private boolean matches(String candidate) {
+    if (candidate.length() != this.length) {
+      return false;
+    }
+    for (int i = 0; i < this.length; i++) {
+      if (candidate.charAt(i) != this.buffer[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void read(XMLStreamReader reader) throws XMLStreamException {
+    if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+      throw new XMLStreamException("Expected the start of an element", reader.getLocation());
+    }
+    this.length = 0;
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+          break;
+        case XMLStreamConstants.ENTITY_REFERENCE:
+          String text = reader.getText();
+          append(text.toCharArray(), 0, text.length());
+          break;
+        case XMLStreamConstants.PROCESSING_INSTRUCTION:
+        case XMLStreamConstants.COMMENT:
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          return;
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException("Unexpected end of document in element text",
+                                       reader.getLocation());
+        default:
+          throw new XMLStreamException("Element text must be text only", reader.getLocation());
+      }
+    }
+  }
+
+  private void append(char[] chars, int start, int count) {
+    if (this.length + count > this.buffer.length) {
+      char[] grown = new char[Math.max(this.buffer.length * 2, this.length + count)];
+      System.arraycopy(this.buffer, 0, grown, 0, this.length);
+      this.buffer = grown;
+    }
+    System.arraycopy(chars, start, this.buffer, this.length, count);
+    this.length += count;
+  }
+}
@@ -25,7 +25,8 @@ import javax.annotation.Nonnull;
 public class EmptyRestCommandResponse extends RestCommandResponse {
 
   public static Parser<EmptyRestCommandResponse> getResponseParser() {
-    return ((responseCode, headers, reader) -> new EmptyRestCommandResponse(responseCode, headers));
+    return (CursorParser<EmptyRestCommandResponse>) (responseCode, headers, reader) ->
+        new EmptyRestCommandResponse(responseCode, headers);
   }
 
   protected EmptyRestCommandResponse(int responseCode, @Nonnull
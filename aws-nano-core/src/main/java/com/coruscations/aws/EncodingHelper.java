@@ -34,6 +34,13 @@ public class EncodingHelper {
                                Pattern.quote("%7E"), Pattern.quote("%2F")));
   }
 
+  /**
+   * @return The path percent encoded as S3 expects it in a request, leaving slashes as they are
+   */
+  public static String awsEncodePath(String path) {
+    return awsEncodeURLComponent(path, true);
+  }
+
   /**
    * Borrowed from the AWS Java SDK, which is released under the Apache 2 licnese
    */
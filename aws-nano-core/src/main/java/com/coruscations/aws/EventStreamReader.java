@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * An {@link XMLStreamReader} over an {@link XMLEventReader}, so that a {@link CursorParser} can
+ * still be given a reader of events.  It holds one event at a time and answers from it; this
+ * costs the objects the cursor API avoids, so it is only for callers that have nothing else.
+ */
+@ParametersAreNonnullByDefault
+class EventStreamReader implements XMLStreamReader {
+
+  private static final XMLEvent DOCUMENT_START =
+      XMLEventFactory.newFactory().createStartDocument();
+
+  private final XMLEventReader events;
+  private XMLEvent event;
+  @Nullable
+  private NamespaceContext namespaceContext;
+  private List<Attribute> attributes = Collections.emptyList();
+  private List<Namespace> namespaces = Collections.emptyList();
+  // The namespaces declared by each element still open, as not every end event repeats them
+  private final Deque<List<Namespace>> declared = new ArrayDeque<>();
+  @Nullable
+  private char[] text;
+
+  /**
+   * Starts at the start of the document, as a stream reader does, whether or not the event reader
+   * has already passed it.
+   */
+  EventStreamReader(XMLEventReader events) throws XMLStreamException {
+    this.events = events;
+    XMLEvent first = events.peek();
+    this.event = first != null && first.isStartDocument() ? events.nextEvent() : DOCUMENT_START;
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    return this.events.getProperty(name);
+  }
+
+  @Override
+  public int next() throws XMLStreamException {
+    if (!this.events.hasNext()) {
+      throw new NoSuchElementException("No more events after the end of the document");
+    }
+    this.event = this.events.nextEvent();
+    this.text = null;
+    if (this.event.isStartElement()) {
+      this.namespaceContext = this.event.asStartElement().getNamespaceContext();
+      this.attributes = toList(this.event.asStartElement().getAttributes());
+      this.namespaces = toList(this.event.asStartElement().getNamespaces());
+      this.declared.push(this.namespaces);
+    } else if (this.event.isEndElement()) {
+      this.attributes = Collections.emptyList();
+      this.namespaces = this.declared.isEmpty() ? Collections.emptyList() : this.declared.pop();
+    } else {
+      this.attributes = Collections.emptyList();
+      this.namespaces = Collections.emptyList();
+    }
+    return this.event.getEventType();
+  }
+
+  @Override
+  public void require(int type, @Nullable String namespaceURI, @Nullable String localName)
+      throws XMLStreamException {
+    if (type != getEventType()) {
+      throw new XMLStreamException("Expected event " + type + " but was " + getEventType(),
+                                   getLocation());
+    }
+    if (namespaceURI != null && !namespaceURI.equals(getNamespaceURI())) {
+      throw new XMLStreamException("Expected namespace " + namespaceURI, getLocation());
+    }
+    if (localName != null && (!hasName() || !localName.equals(getLocalName()))) {
+      throw new XMLStreamException("Expected element " + localName, getLocation());
+    }
+  }
+
+  @Override
+  public String getElementText() throws XMLStreamException {
+    if (getEventType() != START_ELEMENT) {
+      throw new XMLStreamException("Not at the start of an element", getLocation());
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int type = next(); type != END_ELEMENT; type = next()) {
+      switch (type) {
+        case CHARACTERS:
+        case CDATA:
+        case SPACE:
+        case ENTITY_REFERENCE:
+          sb.append(getText());
+          break;
+        case PROCESSING_INSTRUCTION:
+        case COMMENT:
+          break;
+        default:
+          throw new XMLStreamException("Element has more than text", getLocation());
+      }
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public int nextTag() throws XMLStreamException {
+    int type = next();
+    while (type == COMMENT || type == PROCESSING_INSTRUCTION || type == SPACE ||
+           (type == CHARACTERS || type == CDATA) && isWhiteSpace()) {
+      type = next();
+    }
+    if (type != START_ELEMENT && type != END_ELEMENT) {
+      throw new XMLStreamException("Expected an element but found event " + type, getLocation());
+    }
+    return type;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return this.events.hasNext();
+  }
+
+  @Override
+  public void close() throws XMLStreamException {
+    this.events.close();
+  }
+
+  @Override
+  public String getNamespaceURI(String prefix) {
+    return this.namespaceContext == null ? null : this.namespaceContext.getNamespaceURI(prefix);
+  }
+
+  @Override
+  public boolean isStartElement() {
+    return this.event.isStartElement();
+  }
+
+  @Override
+  public boolean isEndElement() {
+    return this.event.isEndElement();
+  }
+
+  @Override
+  public boolean isCharacters() {
+    return getEventType() == CHARACTERS;
+  }
+
+  @Override
+  public boolean isWhiteSpace() {
+    return this.event.isCharacters() && this.event.asCharacters().isWhiteSpace();
+  }
+
+  @Override
+  public String getAttributeValue(@Nullable String namespaceURI, String localName) {
+    for (Attribute attribute : startAttributes()) {
+      QName name = attribute.getName();
+      if (localName.equals(name.getLocalPart()) &&
+          (namespaceURI == null || namespaceURI.equals(name.getNamespaceURI()))) {
+        return attribute.getValue();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public int getAttributeCount() {
+    return startAttributes().size();
+  }
+
+  @Override
+  public QName getAttributeName(int index) {
+    return startAttributes().get(index).getName();
+  }
+
+  @Override
+  public String getAttributeNamespace(int index) {
+    return emptyToNull(getAttributeName(index).getNamespaceURI());
+  }
+
+  @Override
+  public String getAttributeLocalName(int index) {
+    return getAttributeName(index).getLocalPart();
+  }
+
+  @Override
+  public String getAttributePrefix(int index) {
+    return getAttributeName(index).getPrefix();
+  }
+
+  @Override
+  public String getAttributeType(int index) {
+    return startAttributes().get(index).getDTDType();
+  }
+
+  @Override
+  public String getAttributeValue(int index) {
+    return startAttributes().get(index).getValue();
+  }
+
+  @Override
+  public boolean isAttributeSpecified(int index) {
+    return startAttributes().get(index).isSpecified();
+  }
+
+  @Override
+  public int getNamespaceCount() {
+    return elementNamespaces().size();
+  }
+
+  @Override
+  public String getNamespacePrefix(int index) {
+    return emptyToNull(elementNamespaces().get(index).getPrefix());
+  }
+
+  @Override
+  public String getNamespaceURI(int index) {
+    return elementNamespaces().get(index).getNamespaceURI();
+  }
+
+  @Override
+  public NamespaceContext getNamespaceContext() {
+    return this.namespaceContext;
+  }
+
+  @Override
+  public int getEventType() {
+    return this.event.getEventType();
+  }
+
+  @Override
+  public String getText() {
+    switch (getEventType()) {
+      case CHARACTERS:
+      case CDATA:
+      case SPACE:
+        return this.event.asCharacters().getData();
+      case COMMENT:
+        return ((Comment) this.event).getText();
+      case ENTITY_REFERENCE:
+        EntityReference reference = (EntityReference) this.event;
+        return reference.getDeclaration() == null ? null :
+               reference.getDeclaration().getReplacementText();
+      case DTD:
+        // The type shares its name with the event constant
+        return ((javax.xml.stream.events.DTD) this.event).getDocumentTypeDeclaration();
+      default:
+        throw new IllegalStateException("No text at event " + getEventType());
+    }
+  }
+
+  @Override
+  public char[] getTextCharacters() {
+    if (this.text == null) {
+      String value = getText();
+      this.text = value == null ? new char[0] : value.toCharArray();
+    }
+    return this.text;
+  }
+
+  @Override
+  public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) {
+    char[] characters = getTextCharacters();
+    int copied = Math.max(0, Math.min(length, characters.length - sourceStart));
+    System.arraycopy(characters, sourceStart, target, targetStart, copied);
+    return copied;
+  }
+
+  @Override
+  public int getTextStart() {
+    return 0;
+  }
+
+  @Override
+  public int getTextLength() {
+    return getTextCharacters().length;
+  }
+
+  @Override
+  public String getEncoding() {
+    return getEventType() == START_DOCUMENT && ((StartDocument) this.event).encodingSet() ?
+           ((StartDocument) this.event).getCharacterEncodingScheme() : null;
+  }
+
+  @Override
+  public boolean hasText() {
+    switch (getEventType()) {
+      case CHARACTERS:
+      case CDATA:
+      case SPACE:
+      case COMMENT:
+      case ENTITY_REFERENCE:
+      case DTD:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public Location getLocation() {
+    return this.event.getLocation();
+  }
+
+  @Override
+  public QName getName() {
+    if (this.event.isStartElement()) {
+      return this.event.asStartElement().getName();
+    }
+    if (this.event.isEndElement()) {
+      return this.event.asEndElement().getName();
+    }
+    throw new IllegalStateException("No name at event " + getEventType());
+  }
+
+  @Override
+  public String getLocalName() {
+    if (getEventType() == ENTITY_REFERENCE) {
+      return ((EntityReference) this.event).getName();
+    }
+    return getName().getLocalPart();
+  }
+
+  @Override
+  public boolean hasName() {
+    return this.event.isStartElement() || this.event.isEndElement();
+  }
+
+  @Override
+  public String getNamespaceURI() {
+    return hasName() ? emptyToNull(getName().getNamespaceURI()) : null;
+  }
+
+  @Override
+  public String getPrefix() {
+    return hasName() ? getName().getPrefix() : null;
+  }
+
+  @Override
+  public String getVersion() {
+    return getEventType() == START_DOCUMENT ? ((StartDocument) this.event).getVersion() : null;
+  }
+
+  @Override
+  public boolean isStandalone() {
+    return getEventType() == START_DOCUMENT && ((StartDocument) this.event).isStandalone();
+  }
+
+  @Override
+  public boolean standaloneSet() {
+    return getEventType() == START_DOCUMENT && ((StartDocument) this.event).standaloneSet();
+  }
+
+  @Override
+  public String getCharacterEncodingScheme() {
+    return getEventType() == START_DOCUMENT ?
+           ((StartDocument) this.event).getCharacterEncodingScheme() : null;
+  }
+
+  @Override
+  public String getPITarget() {
+    return getEventType() == PROCESSING_INSTRUCTION ?
+           ((ProcessingInstruction) this.event).getTarget() : null;
+  }
+
+  @Override
+  public String getPIData() {
+    return getEventType() == PROCESSING_INSTRUCTION ?
+           ((ProcessingInstruction) this.event).getData() : null;
+  }
+
+  private List<Attribute> startAttributes() {
+    if (getEventType() != START_ELEMENT && getEventType() != ATTRIBUTE) {
+      throw new IllegalStateException("No attributes at event " + getEventType());
+    }
+    return this.attributes;
+  }
+
+  private List<Namespace> elementNamespaces() {
+    if (!hasName() && getEventType() != NAMESPACE) {
+      throw new IllegalStateException("No namespaces at event " + getEventType());
+    }
+    return this.namespaces;
+  }
+
+  @Nullable
+  private static String emptyToNull(@Nullable String namespaceURI) {
+    return namespaceURI == null || XMLConstants.NULL_NS_URI.equals(namespaceURI) ?
+           null : namespaceURI;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <E> List<E> toList(Iterator<?> iterator) {
+    if (!iterator.hasNext()) {
+      return Collections.emptyList();
+    }
+    List<E> list = new ArrayList<>();
+    while (iterator.hasNext()) {
+      list.add((E) iterator.next());
+    }
+    return list;
+  }
+}
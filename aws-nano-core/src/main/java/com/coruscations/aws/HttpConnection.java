@@ -0,0 +1,438 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import static java.util.Comparator.nullsFirst;
+
+/**
+ * A single HTTP/1.1 keep-alive connection owned by a {@link ConnectionPool}.  Not thread safe; a
+ * connection is used by one request at a time.
+ */
+@ParametersAreNonnullByDefault
+class HttpConnection implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(HttpConnection.class.getName());
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+  private static final int MAX_LINE_LENGTH = 16 * 1024;
+
+  private final ConnectionPool.Route route;
+  private final Socket socket;
+  private final InputStream in;
+  private final OutputStream out;
+  private final long createdNanos;
+
+  private long idleSinceNanos;
+  private int requestCount;
+
+  private HttpConnection(ConnectionPool.Route route, Socket socket) throws IOException {
+    this.route = route;
+    this.socket = socket;
+    this.in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+    this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    this.createdNanos = System.nanoTime();
+    this.idleSinceNanos = this.createdNanos;
+  }
+
+  static HttpConnection open(ConnectionPool.Route route, HttpTransportConfig config)
+      throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setKeepAlive(true);
+      socket.connect(new InetSocketAddress(route.getHost(), route.getPort()),
+                     config.getConnectTimeout());
+      socket.setSoTimeout(config.getReadTimeout());
+      if (route.isSecure()) {
+        SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+        SSLSocket sslSocket =
+            (SSLSocket) factory.createSocket(socket, route.getHost(), route.getPort(), true);
+        SSLParameters parameters = sslSocket.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        sslSocket.setSSLParameters(parameters);
+        sslSocket.startHandshake();
+        socket = sslSocket;
+      }
+      LOG.log(Level.FINE, "Opened connection to {0}", route);
+      return new HttpConnection(route, socket);
+    } catch (IOException e) {
+      try {
+        socket.close();
+      } catch (IOException ce) {
+        e.addSuppressed(ce);
+      }
+      throw e;
+    }
+  }
+
+  ConnectionPool.Route getRoute() {
+    return this.route;
+  }
+
+  long getCreatedNanos() {
+    return this.createdNanos;
+  }
+
+  long getIdleSinceNanos() {
+    return this.idleSinceNanos;
+  }
+
+  void markIdle(long nowNanos) {
+    this.idleSinceNanos = nowNanos;
+  }
+
+  int getRequestCount() {
+    return this.requestCount;
+  }
+
+  /**
+   * Detects connections the server has closed (or written garbage to) while they sat idle, by
+   * attempting a read that is expected to time out immediately.
+   */
+  boolean isStale() {
+    if (this.socket.isClosed() || this.socket.isInputShutdown() ||
+        this.socket.isOutputShutdown()) {
+      return true;
+    }
+    try {
+      int soTimeout = this.socket.getSoTimeout();
+      try {
+        this.socket.setSoTimeout(1);
+        this.in.mark(1);
+        int read = this.in.read();
+        if (read >= 0) {
+          this.in.reset();
+          LOG.log(Level.FINE, "Unexpected data on idle connection to {0}", this.route);
+        }
+        return true;
+      } finally {
+        this.socket.setSoTimeout(soTimeout);
+      }
+    } catch (SocketTimeoutException e) {
+      return false;
+    } catch (IOException e) {
+      return true;
+    }
+  }
+
+  void writeRequest(HttpRequest request) throws IOException {
+    this.requestCount++;
+    this.out.write(encodeRequestHead(request, this.route));
+    long length = request.getContentLength();
+    if (length < 0) {
+      ChunkedOutputStream chunked = new ChunkedOutputStream(this.out);
+      request.getBody().writeTo(chunked);
+      chunked.finish();
+    } else if (length > 0) {
+      request.getBody().writeTo(this.out);
+    }
+    this.out.flush();
+  }
+
+  /**
+   * @return The request line and headers, adding {@code Host} and either {@code Content-Length}
+   *         or chunked {@code Transfer-Encoding} if the request does not have them
+   */
+  static byte[] encodeRequestHead(HttpRequest request, ConnectionPool.Route route) {
+    StringBuilder sb = new StringBuilder(512);
+    sb.append(request.getMethod().name()).append(' ').append(request.getRequestTarget())
+        .append(" HTTP/1.1\r\n");
+    Map<String, List<String>> headers = request.getHeaders();
+    boolean hasHost = false;
+    boolean hasContentLength = false;
+    for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+      String name = entry.getKey();
+      hasHost |= HttpHeaders.HOST.equalsIgnoreCase(name);
+      hasContentLength |= HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+      for (String value : entry.getValue()) {
+        sb.append(name).append(": ").append(value).append("\r\n");
+      }
+    }
+    if (!hasHost) {
+      sb.append(HttpHeaders.HOST).append(": ").append(route.getAuthority()).append("\r\n");
+    }
+    long length = request.getContentLength();
+    if (length < 0) {
+      sb.append(HttpHeaders.TRANSFER_ENCODING).append(": chunked\r\n");
+    } else if (!hasContentLength && (length > 0 || request.getMethod() == HttpMethod.PUT ||
+                                     request.getMethod() == HttpMethod.POST)) {
+      sb.append(HttpHeaders.CONTENT_LENGTH).append(": ").append(length).append("\r\n");
+    }
+    sb.append("\r\n");
+    return sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  ResponseHead readResponseHead(HttpMethod method) throws IOException {
+    while (true) {
+      String statusLine = readLine(true);
+      if (statusLine == null) {
+        throw new NoResponseException("Connection to " + this.route + " closed before response");
+      }
+      int responseCode = parseStatusCode(statusLine);
+      Map<String, List<String>> headers = readHeaders();
+      if (responseCode >= 100 && responseCode < 200) {
+        // Interim response; the real one follows.
+        continue;
+      }
+      headers.put(null, singletonList(statusLine));
+      boolean http10 = statusLine.startsWith("HTTP/1.0");
+      return new ResponseHead(responseCode, headers, http10, method);
+    }
+  }
+
+  private Map<String, List<String>> readHeaders() throws IOException {
+    Map<String, List<String>> headers = newHeaders();
+    List<String> values = null;
+    String line;
+    while ((line = readLine(false)) != null && !line.isEmpty()) {
+      values = addHeader(headers, values, line, this.route);
+    }
+    if (line == null) {
+      throw new EOFException("Connection to " + this.route + " closed while reading headers");
+    }
+    return headers;
+  }
+
+  static int parseStatusCode(String statusLine) throws IOException {
+    if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) {
+      throw new IOException("Invalid HTTP status line: " + statusLine);
+    }
+    try {
+      return Integer.parseInt(statusLine.substring(9, 12));
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid HTTP status line: " + statusLine, e);
+    }
+  }
+
+  static Map<String, List<String>> newHeaders() {
+    return new TreeMap<>(nullsFirst(String.CASE_INSENSITIVE_ORDER));
+  }
+
+  /**
+   * Adds a header line to the headers.
+   *
+   * @param values The values the previous line was added to, for folded lines
+   * @return The values this line was added to
+   */
+  @Nullable
+  static List<String> addHeader(Map<String, List<String>> headers, @Nullable List<String> values,
+                                String line, ConnectionPool.Route route) {
+    char first = line.charAt(0);
+    if ((first == ' ' || first == '\t') && values != null && !values.isEmpty()) {
+      // Obsolete line folding
+      int last = values.size() - 1;
+      values.set(last, values.get(last) + ' ' + line.trim());
+      return values;
+    }
+    int colon = line.indexOf(':');
+    if (colon <= 0) {
+      LOG.log(Level.FINE, "Ignoring malformed header line from {0}: {1}",
+              new Object[]{route, line});
+      return values;
+    }
+    String name = line.substring(0, colon).trim();
+    List<String> added = headers.get(name);
+    if (added == null) {
+      added = new ArrayList<>(1);
+      headers.put(name, added);
+    }
+    added.add(line.substring(colon + 1).trim());
+    return added;
+  }
+
+  /**
+   * @param allowEof Return {@code null} when the stream ends before any byte is read.
+   */
+  String readLine(boolean allowEof) throws IOException {
+    StringBuilder sb = new StringBuilder(64);
+    int b;
+    while ((b = this.in.read()) >= 0) {
+      if (b == '\n') {
+        int length = sb.length();
+        if (length > 0 && sb.charAt(length - 1) == '\r') {
+          sb.setLength(length - 1);
+        }
+        return sb.toString();
+      }
+      if (sb.length() >= MAX_LINE_LENGTH) {
+        throw new IOException("Line too long in response from " + this.route);
+      }
+      sb.append((char) b);
+    }
+    if (sb.length() == 0 && allowEof) {
+      return null;
+    }
+    throw new EOFException("Connection to " + this.route + " closed mid-line");
+  }
+
+  InputStream getInputStream() {
+    return this.in;
+  }
+
+  @Override
+  public void close() {
+    try {
+      this.socket.close();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Failed to close connection to " + this.route, e);
+    }
+  }
+
+  static List<String> singletonList(String value) {
+    List<String> list = new ArrayList<>(1);
+    list.add(value);
+    return list;
+  }
+
+  static class ResponseHead {
+
+    final int responseCode;
+    final Map<String, List<String>> headers;
+    final boolean http10;
+    final HttpMethod method;
+
+    ResponseHead(int responseCode, Map<String, List<String>> headers, boolean http10,
+                 HttpMethod method) {
+      this.responseCode = responseCode;
+      this.headers = headers;
+      this.http10 = http10;
+      this.method = method;
+    }
+
+    String getHeader(String name) {
+      List<String> values = this.headers.get(name);
+      return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    boolean hasBody() {
+      return this.method != HttpMethod.HEAD &&
+             this.responseCode != 204 && this.responseCode != 304;
+    }
+
+    boolean isChunked() {
+      String transferEncoding = getHeader(HttpHeaders.TRANSFER_ENCODING);
+      return transferEncoding != null && transferEncoding.toLowerCase().contains("chunked");
+    }
+
+    long getContentLength() {
+      String contentLength = getHeader(HttpHeaders.CONTENT_LENGTH);
+      if (contentLength == null) {
+        return -1;
+      }
+      try {
+        return Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    boolean isKeepAlive() {
+      String connection = getHeader(HttpHeaders.CONNECTION);
+      if (connection != null) {
+        String lower = connection.toLowerCase();
+        if (lower.contains("close")) {
+          return false;
+        }
+        if (lower.contains("keep-alive")) {
+          return true;
+        }
+      }
+      return !this.http10;
+    }
+  }
+
+  /**
+   * The server closed the connection without sending anything, which on a reused connection
+   * usually means it timed out the keep-alive; safe to retry on a fresh connection.
+   */
+  @SuppressWarnings("serial")
+  static class NoResponseException extends IOException {
+
+    NoResponseException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Frames each write as a chunk; {@link #finish} writes the last chunk without closing the
+   * connection's stream.
+   */
+  static class ChunkedOutputStream extends OutputStream {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+
+    ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        // An empty chunk would end the body
+        return;
+      }
+      this.out.write(chunkHeader(len));
+      this.out.write(b, off, len);
+      this.out.write(CRLF);
+    }
+
+    void finish() throws IOException {
+      this.out.write(LAST_CHUNK);
+    }
+
+    static byte[] chunkHeader(int length) {
+      return (Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static byte[] lastChunk() {
+      return LAST_CHUNK.clone();
+    }
+  }
+}
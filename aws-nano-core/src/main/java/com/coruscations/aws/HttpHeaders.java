@@ -20,11 +20,18 @@ package com.coruscations.aws;
 public interface HttpHeaders {
 
   String AUTHORIZATION = "Authorization";
+  String CONNECTION = "Connection";
+  String CONTENT_ENCODING = "Content-Encoding";
+  String CONTENT_LENGTH = "Content-Length";
+  String CONTENT_MD5 = "Content-MD5";
   String CONTENT_TYPE = "Content-Type";
   String DATE = "Date";
   String HOST = "Host";
+  String TRANSFER_ENCODING = "Transfer-Encoding";
   String USER_AGENT = "User-Agent";
 
   String X_AMZ_CONTENT_SHA256 = "x-amz-content-sha256";
   String X_AMZ_DATE = "X-Amz-Date";
+  String X_AMZ_DECODED_CONTENT_LENGTH = "x-amz-decoded-content-length";
+  String X_AMZ_SECURITY_TOKEN = "X-Amz-Security-Token";
 }
@@ -22,11 +22,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -35,6 +37,7 @@ import java.util.regex.Pattern;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class HttpHelper<T extends ErrorResponse> {
 
@@ -107,43 +110,128 @@ public class HttpHelper<T extends ErrorResponse> {
     }
   }
 
+  public String requestToString(HttpRequest request) {
+    return request.toString();
+  }
+
   public <S> S processRequest(HttpURLConnection connection,
                               XMLInputFactory xmlInputFactory,
                               Parser<S> parser)
       throws IOException {
-    int responseCode = connection.getResponseCode();
-    Map<String, List<String>> headers = connection.getHeaderFields();
-    Charset charset = getCharset(connection.getContentType());
-    T responseError = null;
-    try (InputStream is = getInputStream(connection, charset)) {
-      switch (responseCode) {
-        case HttpURLConnection.HTTP_OK:
-        case HttpURLConnection.HTTP_CREATED:
-        case HttpURLConnection.HTTP_ACCEPTED:
-        case HttpURLConnection.HTTP_NO_CONTENT:
-          return parseWithParser(responseCode, headers, is, charset, xmlInputFactory, parser);
-        default:
-          responseError = parseWithParser(responseCode, headers, is, charset, xmlInputFactory,
-                                          this.errorResponseParser);
+    // Describing the request disconnects it, which is only done on failure
+    return processResponse(connection.getURL(),
+                           new HttpURLConnectionTransport.Response(connection),
+                           () -> requestToString(connection), xmlInputFactory, parser);
+  }
+
+  /**
+   * Parse the response with the parser if successful, otherwise with the error parser.  The
+   * response is closed, which returns its connection to the transport.
+   */
+  public <S> S processResponse(HttpRequest request, HttpResponse response,
+                               XMLInputFactory xmlInputFactory, Parser<S> parser)
+      throws IOException {
+    try (HttpResponse closeable = response) {
+      return processResponse(request.getUrl(), closeable, () -> requestToString(request),
+                             xmlInputFactory, parser);
+    }
+  }
+
+  /**
+   * Open the body of a successful response for the caller to parse incrementally.  Errors are
+   * handled as by {@link #processResponse(HttpRequest, HttpResponse, XMLInputFactory, Parser)},
+   * closing the response and throwing.
+   */
+  public StreamingResponse openResponse(HttpRequest request, HttpResponse response,
+                                        XMLInputFactory xmlInputFactory)
+      throws IOException {
+    if (!isSuccessful(response.getResponseCode())) {
+      // Always throws, with the error parsed from the response
+      return processResponse(request, response, xmlInputFactory, (code, headers, reader) -> null);
+    }
+    boolean opened = false;
+    try {
+      Charset charset = getCharset(response.getContentType());
+      InputStream is = getInputStream(request.getUrl(), response, charset);
+      XMLStreamReader reader = is == null ? null :
+                               xmlInputFactory.createXMLStreamReader(is, charset.name());
+      StreamingResponse streamingResponse =
+          new StreamingResponse(response, response.getHeaders(), reader);
+      opened = true;
+      return streamingResponse;
+    } catch (XMLStreamException e) {
+      throw new ResponseParsingException(requestToString(request), "Failed to open response.", e);
+    } finally {
+      if (!opened) {
+        response.close();
       }
-      // Call disconnect here to get the connection to disconnect;
-      //   cannot be done after the input stream is closed.
-      connection.disconnect();
+    }
+  }
+
+  /**
+   * Open the body of a successful response as content for the caller to read, without parsing it.
+   * Errors are handled as by {@link #processResponse(HttpRequest, HttpResponse, XMLInputFactory,
+   * Parser)}, closing the response and throwing.
+   */
+  public ContentResponse openContent(HttpRequest request, HttpResponse response,
+                                     XMLInputFactory xmlInputFactory)
+      throws IOException {
+    if (!isSuccessful(response.getResponseCode())) {
+      // Always throws, with the error parsed from the response
+      return processResponse(request, response, xmlInputFactory, (code, headers, reader) -> null);
+    }
+    boolean opened = false;
+    try {
+      ContentResponse contentResponse = new ContentResponse(response, response.getBody());
+      opened = true;
+      return contentResponse;
+    } finally {
+      if (!opened) {
+        response.close();
+      }
+    }
+  }
+
+  private static boolean isSuccessful(int responseCode) {
+    switch (responseCode) {
+      case HttpURLConnection.HTTP_OK:
+      case HttpURLConnection.HTTP_CREATED:
+      case HttpURLConnection.HTTP_ACCEPTED:
+      case HttpURLConnection.HTTP_NO_CONTENT:
+      case HttpURLConnection.HTTP_PARTIAL:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private <S> S processResponse(URL url, HttpResponse response,
+                                Supplier<String> requestDescription,
+                                XMLInputFactory xmlInputFactory, Parser<S> parser)
+      throws IOException {
+    int responseCode = response.getResponseCode();
+    Map<String, List<String>> headers = response.getHeaders();
+    Charset charset = getCharset(response.getContentType());
+    T responseError;
+    try (InputStream is = getInputStream(url, response, charset)) {
+      if (isSuccessful(responseCode)) {
+        return parseWithParser(responseCode, headers, is, charset, xmlInputFactory, parser);
+      }
+      responseError = parseWithParser(responseCode, headers, is, charset, xmlInputFactory,
+                                      this.errorResponseParser);
     } catch (Exception e) {
-      throw new ResponseParsingException(requestToString(connection),
+      throw new ResponseParsingException(requestDescription.get(),
                                          "Failed to parse error response.", e);
     }
-    throw new ErrorResponseException(requestToString(connection), responseError);
+    throw new ErrorResponseException(requestDescription.get(), responseError);
   }
 
-  private InputStream getInputStream(HttpURLConnection connection, Charset charset)
+  private InputStream getInputStream(URL url, HttpResponse response, Charset charset)
       throws IOException {
-    // Java is really stupid sometimes!!!
-    InputStream is = connection.getResponseCode() < 400 ?
-                     connection.getInputStream() : connection.getErrorStream();
+    InputStream is = response.getBody();
     if (LOG.isLoggable(Level.FINE)) {
       if (is == null) {
-        LOG.fine("Null response from: " + connection.getURL());
+        LOG.fine("Null response from: " + url);
       } else {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         byte[] buf = new byte[65536];
@@ -153,9 +241,10 @@ public class HttpHelper<T extends ErrorResponse> {
             baos.write(buf, 0, len);
           }
         }
+        is.close();
         byte[] responseBytes = baos.toByteArray();
-        String response = new String(responseBytes, charset);
-        LOG.fine("Response from: " + connection.getURL() + "\n" + response);
+        String responseString = new String(responseBytes, charset);
+        LOG.fine("Response from: " + url + "\n" + responseString);
         is = new ByteArrayInputStream(responseBytes);
       }
     }
@@ -165,7 +254,15 @@ public class HttpHelper<T extends ErrorResponse> {
   private <S> S parseWithParser(int responseCode, Map<String, List<String>> headers,
                                 InputStream responseStream, Charset charset,
                                 XMLInputFactory xmlInputFactory, Parser<S> parser)
-      throws XMLStreamException {
+      throws IOException, XMLStreamException {
+    if (parser instanceof StreamParser) {
+      return ((StreamParser<S>) parser).parseStream(responseCode, headers, responseStream,
+                                                    charset, xmlInputFactory);
+    }
+    if (parser instanceof CursorParser) {
+      return parseWithCursorParser(responseCode, headers, responseStream, charset,
+                                   xmlInputFactory, (CursorParser<S>) parser);
+    }
     XMLEventReader reader = null;
     try {
       reader = responseStream == null ? null :
@@ -183,4 +280,24 @@ public class HttpHelper<T extends ErrorResponse> {
       }
     }
   }
+
+  private <S> S parseWithCursorParser(int responseCode, Map<String, List<String>> headers,
+                                      InputStream responseStream, Charset charset,
+                                      XMLInputFactory xmlInputFactory, CursorParser<S> parser)
+      throws XMLStreamException {
+    XMLStreamReader reader = null;
+    try {
+      reader = responseStream == null ? null :
+               xmlInputFactory.createXMLStreamReader(responseStream, charset.name());
+      return parser.parseCursor(responseCode, headers, reader);
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          LOG.log(Level.FINE, "Failed to close reader", e);
+        }
+      }
+    }
+  }
 }
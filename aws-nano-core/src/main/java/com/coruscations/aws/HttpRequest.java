@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A fully signed request, ready to be handed to an {@link HttpTransport}.
+ */
+@ParametersAreNonnullByDefault
+public class HttpRequest {
+
+  private final HttpMethod method;
+  private final URL url;
+  private final Map<String, List<String>> headers;
+  private final RequestBody body;
+
+  public HttpRequest(HttpMethod method, URL url, Map<String, List<String>> headers,
+                     @Nullable byte[] body) {
+    this(method, url, headers, body == null ? RequestBody.EMPTY : RequestBody.of(body));
+  }
+
+  public HttpRequest(HttpMethod method, URL url, Map<String, List<String>> headers,
+                     RequestBody body) {
+    this.method = method;
+    this.url = url;
+    this.headers = Collections.unmodifiableMap(headers);
+    this.body = body;
+  }
+
+  @Nonnull
+  public HttpMethod getMethod() {
+    return this.method;
+  }
+
+  @Nonnull
+  public URL getUrl() {
+    return this.url;
+  }
+
+  /**
+   * @return The path and query portion of the URL, as written on the HTTP request line.
+   */
+  @Nonnull
+  public String getRequestTarget() {
+    String file = this.url.getFile();
+    return file == null || file.isEmpty() ? "/" : file;
+  }
+
+  @Nonnull
+  public Map<String, List<String>> getHeaders() {
+    return this.headers;
+  }
+
+  @Nonnull
+  public RequestBody getBody() {
+    return this.body;
+  }
+
+  /**
+   * @return The number of body bytes to send: the body's own length, or failing that the {@code
+   *         Content-Length} set by a command that frames the body itself, or -1 if the body is to
+   *         be sent with chunked transfer encoding
+   */
+  public long getContentLength() {
+    long length = this.body.getContentLength();
+    if (length >= 0) {
+      return length;
+    }
+    for (Map.Entry<String, List<String>> entry : this.headers.entrySet()) {
+      if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(entry.getKey()) &&
+          !entry.getValue().isEmpty()) {
+        return Long.parseLong(entry.getValue().get(0).trim());
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(this.method).append(' ').append(this.url);
+    this.headers.forEach((name, values) -> values.forEach(
+        value -> sb.append('\n').append(name).append(':').append(value)));
+    return sb.toString();
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * The response to an {@link HttpRequest}; closing it returns the underlying connection to the
+ * transport (when it can be reused) or releases it.
+ */
+public interface HttpResponse extends Closeable {
+
+  int getResponseCode();
+
+  /**
+   * @return The response headers, keyed case-insensitively; like {@link
+   * java.net.HttpURLConnection#getHeaderFields()} the status line is mapped to the {@code null} key.
+   */
+  @Nonnull
+  Map<String, List<String>> getHeaders();
+
+  @Nullable
+  default String getHeader(String name) {
+    List<String> values = getHeaders().get(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  @Nullable
+  default String getContentType() {
+    return getHeader(HttpHeaders.CONTENT_TYPE);
+  }
+
+  /**
+   * @return The response body, or {@code null} if there is none.
+   */
+  @Nullable
+  InputStream getBody() throws IOException;
+
+  @Override
+  void close() throws IOException;
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Sends signed requests over the wire.  Implementations must be thread safe; a single instance is
+ * normally shared by every {@link Commands} instance with the same transport configuration (see
+ * {@link HttpTransportFactory}).
+ */
+@ParametersAreNonnullByDefault
+public interface HttpTransport extends Closeable {
+
+  /**
+   * Send the request and wait for the response headers; the body is streamed from the returned
+   * response, which must be closed by the caller.
+   */
+  @Nonnull
+  HttpResponse execute(HttpRequest request) throws IOException;
+
+  /**
+   * @return A snapshot of the connection pool, or {@code null} if this transport does not pool.
+   */
+  @Nullable
+  default ConnectionPoolStats getConnectionPoolStats() {
+    return null;
+  }
+
+  @Override
+  void close() throws IOException;
+}
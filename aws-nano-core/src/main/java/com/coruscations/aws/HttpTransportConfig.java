@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Transport settings, read from the environment passed to the {@link ConfigurationProvider}.  All
+ * times are in milliseconds; a max lifetime of zero means connections never expire by age.
+ */
+@ParametersAreNonnullByDefault
+public class HttpTransportConfig {
+
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+  public static final int DEFAULT_CONNECT_TIMEOUT = 10_000;
+  public static final int DEFAULT_READ_TIMEOUT = 60_000;
+  public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 60_000;
+  public static final long DEFAULT_IDLE_TIMEOUT = 60_000;
+  public static final long DEFAULT_MAX_LIFETIME = 600_000;
+  public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2_000;
+  public static final int DEFAULT_IO_THREADS =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+
+  public enum Type {
+    /** Keep-alive connections held in a bounded, per-route pool. */
+    POOLED,
+    /** {@link java.net.HttpURLConnection}, relying on the JDK's own keep-alive cache. */
+    URL_CONNECTION,
+    /** Non-blocking channels multiplexed over a few selector threads; see {@link #getIoThreads}. */
+    NIO
+  }
+
+  private final Type type;
+  private final int maxConnectionsPerRoute;
+  private final int connectTimeout;
+  private final int readTimeout;
+  private final int connectionRequestTimeout;
+  private final long idleTimeout;
+  private final long maxLifetime;
+  private final long validateAfterInactivity;
+  private final int ioThreads;
+
+  public HttpTransportConfig(Type type, int maxConnectionsPerRoute, int connectTimeout,
+                             int readTimeout, int connectionRequestTimeout, long idleTimeout,
+                             long maxLifetime, long validateAfterInactivity) {
+    this(type, maxConnectionsPerRoute, connectTimeout, readTimeout, connectionRequestTimeout,
+         idleTimeout, maxLifetime, validateAfterInactivity, DEFAULT_IO_THREADS);
+  }
+
+  public HttpTransportConfig(Type type, int maxConnectionsPerRoute, int connectTimeout,
+                             int readTimeout, int connectionRequestTimeout, long idleTimeout,
+                             long maxLifetime, long validateAfterInactivity, int ioThreads) {
+    if (maxConnectionsPerRoute < 1) {
+      throw new IllegalArgumentException("At least one connection per route must be allowed");
+    }
+    if (ioThreads < 1) {
+      throw new IllegalArgumentException("At least one I/O thread is required");
+    }
+    this.type = type;
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+    this.connectionRequestTimeout = connectionRequestTimeout;
+    this.idleTimeout = idleTimeout;
+    this.maxLifetime = maxLifetime;
+    this.validateAfterInactivity = validateAfterInactivity;
+    this.ioThreads = ioThreads;
+  }
+
+  public static HttpTransportConfig fromEnv(Map<String, ?> env) {
+    Object typeValue = env.get(Constants.HTTP_TRANSPORT);
+    Type type = typeValue == null ? Type.POOLED :
+                Type.valueOf(typeValue.toString().trim().toUpperCase());
+    return new HttpTransportConfig(
+        type,
+        (int) getLong(env, Constants.HTTP_MAX_CONNECTIONS_PER_ROUTE,
+                      DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+        (int) getLong(env, Constants.HTTP_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT),
+        (int) getLong(env, Constants.HTTP_READ_TIMEOUT, DEFAULT_READ_TIMEOUT),
+        (int) getLong(env, Constants.HTTP_CONNECTION_REQUEST_TIMEOUT,
+                      DEFAULT_CONNECTION_REQUEST_TIMEOUT),
+        getLong(env, Constants.HTTP_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT),
+        getLong(env, Constants.HTTP_MAX_LIFETIME, DEFAULT_MAX_LIFETIME),
+        getLong(env, Constants.HTTP_VALIDATE_AFTER_INACTIVITY, DEFAULT_VALIDATE_AFTER_INACTIVITY),
+        (int) getLong(env, Constants.HTTP_IO_THREADS, DEFAULT_IO_THREADS));
+  }
+
+  static long getLong(Map<String, ?> env, String name, long defaultValue) {
+    Object value = env.get(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    try {
+      return Long.parseLong(value.toString().trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid value for " + name + ": " + value, e);
+    }
+  }
+
+  public Type getType() {
+    return this.type;
+  }
+
+  public int getMaxConnectionsPerRoute() {
+    return this.maxConnectionsPerRoute;
+  }
+
+  public int getConnectTimeout() {
+    return this.connectTimeout;
+  }
+
+  public int getReadTimeout() {
+    return this.readTimeout;
+  }
+
+  public int getConnectionRequestTimeout() {
+    return this.connectionRequestTimeout;
+  }
+
+  public long getIdleTimeout() {
+    return this.idleTimeout;
+  }
+
+  public long getMaxLifetime() {
+    return this.maxLifetime;
+  }
+
+  public long getValidateAfterInactivity() {
+    return this.validateAfterInactivity;
+  }
+
+  /**
+   * @return The number of selector threads for the {@link Type#NIO} transport
+   */
+  public int getIoThreads() {
+    return this.ioThreads;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    HttpTransportConfig that = (HttpTransportConfig) o;
+    return maxConnectionsPerRoute == that.maxConnectionsPerRoute &&
+           connectTimeout == that.connectTimeout &&
+           readTimeout == that.readTimeout &&
+           connectionRequestTimeout == that.connectionRequestTimeout &&
+           idleTimeout == that.idleTimeout &&
+           maxLifetime == that.maxLifetime &&
+           validateAfterInactivity == that.validateAfterInactivity &&
+           ioThreads == that.ioThreads &&
+           type == that.type;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(type, maxConnectionsPerRoute, connectTimeout, readTimeout,
+                        connectionRequestTimeout, idleTimeout, maxLifetime,
+                        validateAfterInactivity, ioThreads);
+  }
+}
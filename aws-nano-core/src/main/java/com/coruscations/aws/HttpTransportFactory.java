@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Hands out transports shared by every caller with the same configuration, so that short-lived
+ * command objects all draw from the same connection pool.  A transport instance placed in the
+ * environment under {@link Constants#HTTP_TRANSPORT} is used as-is.
+ * <p>
+ * The {@link AsyncCommandExecutor} is shared the same way, by transport, so that its limit on
+ * requests in flight holds across every command object using the transport.
+ */
+@ParametersAreNonnullByDefault
+public class HttpTransportFactory {
+
+  private static final ConcurrentMap<HttpTransportConfig, HttpTransport> SHARED =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentMap<ExecutorKey, AsyncCommandExecutor> SHARED_EXECUTORS =
+      new ConcurrentHashMap<>();
+
+  private HttpTransportFactory() {
+  }
+
+  public static HttpTransport getHttpTransport(Map<String, ?> env) {
+    Object configured = env.get(Constants.HTTP_TRANSPORT);
+    if (configured instanceof HttpTransport) {
+      return (HttpTransport) configured;
+    }
+    return SHARED.computeIfAbsent(HttpTransportConfig.fromEnv(env),
+                                  HttpTransportFactory::createHttpTransport);
+  }
+
+  public static HttpTransport createHttpTransport(HttpTransportConfig config) {
+    switch (config.getType()) {
+      case URL_CONNECTION:
+        return new HttpURLConnectionTransport(config);
+      case NIO:
+        return new NioHttpTransport(config);
+      case POOLED:
+      default:
+        return new PooledHttpTransport(config);
+    }
+  }
+
+  /**
+   * @return The executor shared by every caller with the same transport, executor and limit on
+   * requests in flight
+   */
+  public static AsyncCommandExecutor getAsyncCommandExecutor(Map<String, ?> env) {
+    AsyncCommandExecutor created = AsyncCommandExecutor.fromEnv(env);
+    return SHARED_EXECUTORS.computeIfAbsent(
+        new ExecutorKey(getHttpTransport(env), created.getExecutor(), created.getMaxInFlight()),
+        key -> created);
+  }
+
+  private static final class ExecutorKey {
+
+    private final HttpTransport transport;
+    private final Executor executor;
+    private final int maxInFlight;
+
+    ExecutorKey(HttpTransport transport, Executor executor, int maxInFlight) {
+      this.transport = transport;
+      this.executor = executor;
+      this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      ExecutorKey that = (ExecutorKey) o;
+      return this.maxInFlight == that.maxInFlight && this.transport.equals(that.transport) &&
+             this.executor.equals(that.executor);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(this.transport, this.executor, this.maxInFlight);
+    }
+  }
+}
@@ -47,5 +47,15 @@ public interface HttpURLConnectionBuilder {
 
   String getAuthorization();
 
+  /**
+   * Sign the request and open a connection for it.  Only the headers are set on the connection;
+   * prefer {@link #buildRequest()} and an {@link HttpTransport}, which also send the body.
+   */
   HttpURLConnection build() throws IOException;
+
+  /**
+   * Sign the request.
+   * @return The signed request, ready to be executed by an {@link HttpTransport}
+   */
+  HttpRequest buildRequest() throws IOException;
 }
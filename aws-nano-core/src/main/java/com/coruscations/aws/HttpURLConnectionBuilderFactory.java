@@ -45,7 +45,7 @@ public class HttpURLConnectionBuilderFactory {
     builder.setPath(restCommand.getPath(endpoint));
     restCommand.addParameters(builder, endpoint);
 
-    builder.setBody(restCommand.createBody(endpoint));
+    builder.setBody(restCommand.createRequestBody(endpoint));
 
     builder.initializeHeaders();
     return builder;
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Transport on top of {@link HttpURLConnection}; connection reuse is left to the JDK keep-alive
+ * cache, which only works when the response is fully read and the connection is never
+ * disconnected.
+ */
+@ParametersAreNonnullByDefault
+class HttpURLConnectionTransport implements HttpTransport {
+
+  private final HttpTransportConfig config;
+
+  HttpURLConnectionTransport(HttpTransportConfig config) {
+    this.config = config;
+  }
+
+  @Nonnull
+  @Override
+  public HttpResponse execute(HttpRequest request) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) request.getUrl().openConnection();
+    connection.setConnectTimeout(this.config.getConnectTimeout());
+    connection.setReadTimeout(this.config.getReadTimeout());
+    connection.setRequestMethod(request.getMethod().name());
+    request.getHeaders().forEach(
+        (name, values) -> values.forEach(value -> connection.addRequestProperty(name, value)));
+    long length = request.getContentLength();
+    if (length != 0) {
+      connection.setDoOutput(true);
+      if (length > 0) {
+        connection.setFixedLengthStreamingMode(length);
+      } else {
+        connection.setChunkedStreamingMode(RequestBody.TRANSFER_BUFFER_SIZE);
+      }
+      try (OutputStream os = connection.getOutputStream()) {
+        request.getBody().writeTo(os);
+      }
+    }
+    return new Response(connection);
+  }
+
+  @Override
+  public void close() {
+    // Nothing to do; the JDK owns the cached connections.
+  }
+
+  static class Response implements HttpResponse {
+
+    private final HttpURLConnection connection;
+    private final int responseCode;
+    private InputStream body;
+
+    Response(HttpURLConnection connection) throws IOException {
+      this.connection = connection;
+      this.responseCode = connection.getResponseCode();
+    }
+
+    @Override
+    public int getResponseCode() {
+      return this.responseCode;
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return this.connection.getHeaderFields();
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return this.connection.getHeaderField(name);
+    }
+
+    @Override
+    public String getContentType() {
+      return this.connection.getContentType();
+    }
+
+    @Override
+    public InputStream getBody() throws IOException {
+      if (this.body == null) {
+        // Java is really stupid sometimes!!!
+        this.body = this.responseCode < 400 ?
+                    this.connection.getInputStream() : this.connection.getErrorStream();
+      }
+      return this.body;
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Closing (rather than disconnecting) leaves the socket in the keep-alive cache.
+      InputStream body = this.body;
+      if (body != null) {
+        body.close();
+      }
+    }
+  }
+}
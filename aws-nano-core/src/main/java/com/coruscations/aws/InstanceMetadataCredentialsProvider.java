@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Temporary credentials for the role of the container or EC2 instance this runs on.
+ * <p>
+ * In a container they come from the container credentials endpoint, given by {@code
+ * AWS_CONTAINER_CREDENTIALS_RELATIVE_URI} or {@code AWS_CONTAINER_CREDENTIALS_FULL_URI}, sending
+ * {@code AWS_CONTAINER_AUTHORIZATION_TOKEN} if it is set.  Otherwise they come from the EC2
+ * instance metadata service, unless {@code AWS_EC2_METADATA_DISABLED} is set, using IMDSv2: a
+ * session token is PUT for and held until shortly before it expires, then the role, unless given
+ * as {@code IAM_ROLE_NAME}, and its credentials are fetched with it.
+ * <p>
+ * Credentials are refreshed in the background once they are within {@link #PREFETCH_MILLIS} of
+ * expiring, or half their remaining lifetime if that is shorter, less a random jitter of up to a
+ * quarter of that again so that clients started together do not all call at once.  Requests only
+ * wait on the metadata service for the first credentials.  When a refresh fails, the credentials
+ * held are kept until they actually expire; when there are no credentials to be had, that is
+ * remembered for {@link #UNAVAILABLE_MILLIS}.
+ */
+@ParametersAreNonnullByDefault
+class InstanceMetadataCredentialsProvider
+    extends RefreshingCredentialsProvider<RefreshingCredentialsProvider.Loaded> {
+
+  private static final Logger LOG =
+      Logger.getLogger(InstanceMetadataCredentialsProvider.class.getName());
+
+  static final long DEFAULT_TIMEOUT_MILLIS = 1_000;
+  static final long PREFETCH_MILLIS = 15 * 60_000;
+  static final long EXPIRY_MARGIN_MILLIS = 60_000;
+  static final long UNAVAILABLE_MILLIS = 5_000;
+
+  private static final String EC2_ENDPOINT = "http://169.254.169.254";
+  private static final String CONTAINER_ENDPOINT = "http://169.254.170.2";
+  private static final String TOKEN_PATH = "/latest/api/token";
+  private static final String CREDENTIALS_PATH = "/latest/meta-data/iam/security-credentials/";
+  private static final String TOKEN_HEADER = "X-aws-ec2-metadata-token";
+  private static final String TOKEN_TTL_HEADER = "X-aws-ec2-metadata-token-ttl-seconds";
+  private static final int TOKEN_TTL_SECONDS = 21_600;
+
+  private final Map<String, ?> env;
+  private final int timeoutMillis;
+
+  @Nullable
+  private volatile String token;
+  private volatile long tokenExpiresAt;
+
+  /**
+   * @param env Where the endpoints and role are looked up first
+   */
+  InstanceMetadataCredentialsProvider(Map<String, ?> env, long timeoutMillis) {
+    super(true);
+    this.env = env;
+    this.timeoutMillis = (int) Math.min(Integer.MAX_VALUE, timeoutMillis);
+  }
+
+  @Override
+  protected Loaded load(@Nullable Loaded previous) {
+    long now = System.currentTimeMillis();
+    AwsCredentials credentials;
+    try {
+      credentials = fetch();
+    } catch (IOException | RuntimeException e) {
+      AwsCredentials held = previous == null ? null : previous.getCredentials();
+      Instant expiration = held == null ? null : held.getExpiration();
+      if (expiration != null && expiration.toEpochMilli() > now) {
+        LOG.log(Level.WARNING, "Failed refreshing instance credentials; keeping them until " +
+                               expiration, e);
+        return new Loaded(held, now + RETRY_MILLIS, expiration.toEpochMilli());
+      }
+      LOG.log(Level.FINE, "No instance credentials", e);
+      credentials = null;
+    }
+    if (credentials == null) {
+      return new Loaded(null, now + UNAVAILABLE_MILLIS, now + UNAVAILABLE_MILLIS);
+    }
+    Instant expiration = credentials.getExpiration();
+    if (expiration == null) {
+      return new Loaded(credentials, now + PREFETCH_MILLIS, Long.MAX_VALUE);
+    }
+    long expiresAt = expiration.toEpochMilli();
+    long remaining = Math.max(0, expiresAt - now);
+    long prefetch = Math.min(PREFETCH_MILLIS, remaining / 2);
+    long jitter = ThreadLocalRandom.current().nextLong(prefetch / 4 + 1);
+    long margin = Math.min(EXPIRY_MARGIN_MILLIS, remaining / 10);
+    LOG.log(Level.FINE, "Instance credentials {0} expire at {1}",
+            new Object[]{credentials.getAccessKey(), expiration});
+    return new Loaded(credentials, expiresAt - prefetch - jitter, expiresAt - margin);
+  }
+
+  /**
+   * @return The credentials, or null if there is nowhere to get them from
+   */
+  @Nullable
+  private AwsCredentials fetch() throws IOException {
+    String relativeUri = lookup(AwsCredentialProperty.AWS_CONTAINER_CREDENTIALS_RELATIVE_URI);
+    String fullUri = lookup(AwsCredentialProperty.AWS_CONTAINER_CREDENTIALS_FULL_URI);
+    if (relativeUri != null || fullUri != null) {
+      String authorization = lookup(AwsCredentialProperty.AWS_CONTAINER_AUTHORIZATION_TOKEN);
+      return parse(request("GET", relativeUri != null ? CONTAINER_ENDPOINT + relativeUri : fullUri,
+                           authorization == null ? Collections.emptyMap() :
+                           Collections.singletonMap(HttpHeaders.AUTHORIZATION, authorization)));
+    }
+    if (Boolean.parseBoolean(lookup(AwsCredentialProperty.AWS_EC2_METADATA_DISABLED))) {
+      return null;
+    }
+    String endpoint = lookup(AwsCredentialProperty.AWS_EC2_METADATA_SERVICE_ENDPOINT);
+    endpoint = endpoint == null ? EC2_ENDPOINT : endpoint.replaceAll("/+$", "");
+    try {
+      return fetchFromEc2(endpoint);
+    } catch (MetadataException e) {
+      if (e.getResponseCode() != HttpURLConnection.HTTP_UNAUTHORIZED) {
+        throw e;
+      }
+      // The session token is no longer accepted; get a new one and try once more
+      this.token = null;
+      return fetchFromEc2(endpoint);
+    }
+  }
+
+  private AwsCredentials fetchFromEc2(String endpoint) throws IOException {
+    Map<String, String> tokenHeader = Collections.singletonMap(TOKEN_HEADER, getToken(endpoint));
+    String role = lookup(AwsCredentialProperty.IAM_ROLE_NAME);
+    if (role == null) {
+      String roles = request("GET", endpoint + CREDENTIALS_PATH, tokenHeader).trim();
+      int newline = roles.indexOf('\n');
+      role = (newline < 0 ? roles : roles.substring(0, newline)).trim();
+      if (role.isEmpty()) {
+        throw new IOException("No role for the instance");
+      }
+    }
+    return parse(request("GET", endpoint + CREDENTIALS_PATH + role, tokenHeader));
+  }
+
+  private String getToken(String endpoint) throws IOException {
+    String token = this.token;
+    if (token == null || System.currentTimeMillis() >= this.tokenExpiresAt) {
+      long requestedAt = System.currentTimeMillis();
+      token = request("PUT", endpoint + TOKEN_PATH, Collections.singletonMap(
+          TOKEN_TTL_HEADER, String.valueOf(TOKEN_TTL_SECONDS))).trim();
+      // Renewed well before it expires, so it never expires between getting it and using it
+      this.tokenExpiresAt = requestedAt + TOKEN_TTL_SECONDS * 1000L / 2;
+      this.token = token;
+    }
+    return token;
+  }
+
+  private AwsCredentials parse(String body) throws IOException {
+    JSON json = JSON.getJSON();
+    Object parsed = json.parse(body);
+    String code = json.getString(parsed, "Code");
+    if (code != null && !"Success".equals(code)) {
+      throw new IOException("Instance credentials not available: " + code + " " +
+                            json.getString(parsed, "Message"));
+    }
+    String accessKey =
+        json.getString(parsed, AwsCredentialProperty.AWS_ACCESS_KEY_ID.getMetadataName());
+    String secretKey =
+        json.getString(parsed, AwsCredentialProperty.AWS_SECRET_KEY.getMetadataName());
+    if (accessKey == null || secretKey == null) {
+      throw new IOException("Instance credentials incomplete");
+    }
+    String expiration = json.getString(parsed, "Expiration");
+    try {
+      return new AwsCredentials(
+          accessKey, secretKey,
+          json.getString(parsed, AwsCredentialProperty.AWS_SESSION_TOKEN.getMetadataName()),
+          expiration == null ? null : Instant.parse(expiration));
+    } catch (DateTimeParseException e) {
+      throw new IOException("Invalid expiration for instance credentials: " + expiration, e);
+    }
+  }
+
+  private String request(String method, String url, Map<String, String> headers)
+      throws IOException {
+    // Link-local, so never through a proxy
+    HttpURLConnection connection =
+        (HttpURLConnection) new URL(url).openConnection(Proxy.NO_PROXY);
+    try {
+      connection.setRequestMethod(method);
+      connection.setConnectTimeout(this.timeoutMillis);
+      connection.setReadTimeout(this.timeoutMillis);
+      connection.setUseCaches(false);
+      headers.forEach(connection::setRequestProperty);
+      int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        throw new MetadataException(method + " " + url + " returned " + responseCode,
+                                    responseCode);
+      }
+      try (InputStream is = connection.getInputStream()) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = is.read(buffer)) >= 0) {
+          body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  @Nullable
+  private String lookup(AwsCredentialProperty property) {
+    return ConfigurationProvider.lookup(property, this.env, null);
+  }
+
+  @SuppressWarnings("serial")
+  private static class MetadataException extends IOException {
+
+    private final int responseCode;
+
+    MetadataException(String message, int responseCode) {
+      super(message);
+      this.responseCode = responseCode;
+    }
+
+    int getResponseCode() {
+      return this.responseCode;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A selector thread driving the {@link NioHttpConnection}s registered with it.  Connections are
+ * only touched from this thread; other threads hand them work through {@link #execute}.
+ */
+@ParametersAreNonnullByDefault
+class NioEventLoop implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(NioEventLoop.class.getName());
+
+  /** How often timeouts are checked, which bounds how late they fire. */
+  private static final long CHECK_INTERVAL_MILLIS = 250;
+
+  private final Selector selector;
+  private final Thread thread;
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  @Nullable
+  private final Runnable housekeeping;
+
+  private volatile boolean closed;
+
+  /**
+   * @param housekeeping Run on this thread as often as timeouts are checked
+   */
+  NioEventLoop(String name, @Nullable Runnable housekeeping) throws IOException {
+    this.selector = Selector.open();
+    this.housekeeping = housekeeping;
+    this.thread = new Thread(this::run, name);
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  Selector getSelector() {
+    return this.selector;
+  }
+
+  boolean inLoop() {
+    return Thread.currentThread() == this.thread;
+  }
+
+  /**
+   * Run the task on the loop thread, after any already queued.
+   */
+  void execute(Runnable task) {
+    this.tasks.add(task);
+    if (!inLoop()) {
+      this.selector.wakeup();
+    }
+  }
+
+  private void run() {
+    long lastCheck = System.nanoTime();
+    long checkInterval = TimeUnit.MILLISECONDS.toNanos(CHECK_INTERVAL_MILLIS);
+    while (!this.closed) {
+      try {
+        this.selector.select(CHECK_INTERVAL_MILLIS);
+        Iterator<SelectionKey> selected = this.selector.selectedKeys().iterator();
+        while (selected.hasNext()) {
+          SelectionKey key = selected.next();
+          selected.remove();
+          ((NioHttpConnection) key.attachment()).handle(key);
+        }
+        runTasks();
+        long now = System.nanoTime();
+        if (now - lastCheck >= checkInterval) {
+          lastCheck = now;
+          for (SelectionKey key : this.selector.keys().toArray(new SelectionKey[0])) {
+            if (key.isValid()) {
+              ((NioHttpConnection) key.attachment()).checkTimeouts(now);
+            }
+          }
+          if (this.housekeeping != null) {
+            this.housekeeping.run();
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        LOG.log(Level.WARNING, "Unexpected failure in " + this.thread.getName(), e);
+      }
+    }
+    runTasks();
+    IOException closed = new IOException("Transport closed");
+    for (SelectionKey key : this.selector.keys().toArray(new SelectionKey[0])) {
+      ((NioHttpConnection) key.attachment()).fail(closed);
+    }
+    try {
+      this.selector.close();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Failed to close selector", e);
+    }
+  }
+
+  private void runTasks() {
+    Runnable task;
+    while ((task = this.tasks.poll()) != null) {
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        LOG.log(Level.WARNING, "Unexpected failure in " + this.thread.getName(), e);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    this.closed = true;
+    this.selector.wakeup();
+  }
+}
@@ -0,0 +1,869 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+
+/**
+ * One non-blocking HTTP/1.1 keep-alive connection of an {@link NioHttpTransport}, optionally over
+ * TLS through an {@link SSLEngine}.  Everything here runs on the connection's {@link
+ * NioEventLoop}; the response is parsed as it arrives and handed to the caller through an {@link
+ * NioResponseBody}.
+ */
+@ParametersAreNonnullByDefault
+class NioHttpConnection {
+
+  private static final Logger LOG = Logger.getLogger(NioHttpConnection.class.getName());
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+  private static final int MAX_LINE_LENGTH = 16 * 1024;
+  private static final int MAX_HEAD_SIZE = 64 * 1024;
+
+  /** Bodies with at most this much left unread are drained on close rather than discarded. */
+  private static final long MAX_DRAIN = 64 * 1024;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+  private static final ByteBuffer[] NO_DATA = {EMPTY};
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private enum State {
+    HEAD, FIXED, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE
+  }
+
+  private final NioHttpTransport transport;
+  private final NioHttpTransport.RoutePool pool;
+  private final ConnectionPool.Route route;
+  private final NioEventLoop loop;
+  private final long createdNanos;
+
+  private SocketChannel channel;
+  private SelectionKey key;
+  @Nullable
+  private SSLEngine engine;
+  // Inbound buffers are kept ready for writing, outbound ones ready for reading
+  private ByteBuffer appIn = ByteBuffer.allocate(BUFFER_SIZE);
+  private ByteBuffer netIn;
+  private ByteBuffer netOut;
+  private ByteBuffer[] out = NO_DATA;
+  // The rest of the request body, when it is not all in memory
+  @Nullable
+  private RequestBody.FileRegion region;
+  private long regionOffset;
+  @Nullable
+  private NioRequestBody source;
+  @Nullable
+  private ByteBuffer sourceBuffer;
+  private boolean chunked;
+
+  private boolean ready;
+  private boolean writing;
+  private boolean paused;
+  private boolean closed;
+  private long lastActivityNanos;
+  // Guarded by the pool
+  private long idleSinceNanos;
+  private int requestCount;
+
+  @Nullable
+  private NioHttpTransport.Exchange exchange;
+  private boolean responseStarted;
+  private State state = State.HEAD;
+  private final StringBuilder line = new StringBuilder(64);
+  private int headSize;
+  @Nullable
+  private String statusLine;
+  private int responseCode;
+  private Map<String, List<String>> headers;
+  @Nullable
+  private List<String> lastValues;
+  private HttpConnection.ResponseHead head;
+  private boolean headReceived;
+  private long remaining;
+  @Nullable
+  private NioResponseBody body;
+  @Nullable
+  private NioHttpTransport.Response response;
+
+  NioHttpConnection(NioHttpTransport transport, NioHttpTransport.RoutePool pool,
+                    NioEventLoop loop) {
+    this.transport = transport;
+    this.pool = pool;
+    this.route = pool.route;
+    this.loop = loop;
+    this.createdNanos = System.nanoTime();
+    this.lastActivityNanos = this.createdNanos;
+  }
+
+  NioEventLoop getLoop() {
+    return this.loop;
+  }
+
+  long getCreatedNanos() {
+    return this.createdNanos;
+  }
+
+  long getIdleSinceNanos() {
+    return this.idleSinceNanos;
+  }
+
+  void markIdle(long nowNanos) {
+    this.idleSinceNanos = nowNanos;
+  }
+
+  /**
+   * Opens the connection, sending the first request once it is established.
+   */
+  void connect(NioHttpTransport.Exchange first) {
+    this.exchange = first;
+    try {
+      this.channel = SocketChannel.open();
+      this.channel.configureBlocking(false);
+      this.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      this.channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+      this.key = this.channel.register(this.loop.getSelector(), 0, this);
+      if (this.route.isSecure()) {
+        SSLEngine sslEngine = this.transport.getSslContext()
+            .createSSLEngine(this.route.getHost(), this.route.getPort());
+        sslEngine.setUseClientMode(true);
+        SSLParameters parameters = sslEngine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        sslEngine.setSSLParameters(parameters);
+        SSLSession session = sslEngine.getSession();
+        this.appIn = ByteBuffer.allocate(Math.max(BUFFER_SIZE,
+                                                  session.getApplicationBufferSize()));
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.netOut.flip();
+        this.engine = sslEngine;
+      }
+      if (this.channel.connect(new InetSocketAddress(this.route.getHost(),
+                                                     this.route.getPort()))) {
+        connected();
+      } else {
+        this.key.interestOps(SelectionKey.OP_CONNECT);
+      }
+    } catch (IOException | RuntimeException e) {
+      fail(asIOException(e));
+    }
+  }
+
+  /**
+   * Sends the request on this connection, which was idle or has just finished another.
+   */
+  void start(NioHttpTransport.Exchange next) {
+    if (this.closed) {
+      // Closed by the server just as it was leased
+      this.pool.release(this, false);
+      this.pool.submit(next);
+      return;
+    }
+    this.exchange = next;
+    try {
+      send();
+    } catch (IOException | RuntimeException e) {
+      fail(asIOException(e));
+    }
+  }
+
+  void handle(SelectionKey selected) {
+    try {
+      if (selected.isValid() && selected.isConnectable()) {
+        connected();
+      }
+      if (selected.isValid() && selected.isWritable()) {
+        flush();
+      }
+      if (selected.isValid() && selected.isReadable()) {
+        read();
+      }
+    } catch (IOException | RuntimeException e) {
+      fail(asIOException(e));
+    }
+  }
+
+  void checkTimeouts(long now) {
+    if (this.closed) {
+      return;
+    }
+    HttpTransportConfig config = this.transport.getConfig();
+    if (!this.ready) {
+      if (config.getConnectTimeout() > 0 &&
+          now - this.createdNanos > TimeUnit.MILLISECONDS.toNanos(config.getConnectTimeout())) {
+        fail(new SocketTimeoutException("Connect to " + this.route + " timed out"));
+      }
+    } else if (this.exchange != null && !this.paused && config.getReadTimeout() > 0 &&
+               now - this.lastActivityNanos >
+               TimeUnit.MILLISECONDS.toNanos(config.getReadTimeout())) {
+      fail(new SocketTimeoutException("Read from " + this.route + " timed out"));
+    }
+  }
+
+  private void connected() throws IOException {
+    if (!this.channel.finishConnect()) {
+      return;
+    }
+    this.lastActivityNanos = System.nanoTime();
+    if (this.engine == null) {
+      ready();
+    } else {
+      this.engine.beginHandshake();
+      flush();
+    }
+  }
+
+  private void ready() throws IOException {
+    this.ready = true;
+    LOG.log(Level.FINE, "Opened connection to {0}", this.route);
+    if (this.exchange != null) {
+      send();
+    } else {
+      updateInterest();
+    }
+  }
+
+  private void send() throws IOException {
+    this.requestCount++;
+    this.responseStarted = false;
+    this.lastActivityNanos = System.nanoTime();
+    HttpRequest request = this.exchange.request;
+    ByteBuffer requestHead = ByteBuffer.wrap(HttpConnection.encodeRequestHead(request, this.route));
+    RequestBody requestBody = request.getBody();
+    long length = request.getContentLength();
+    ByteBuffer buffer = requestBody.getBuffer();
+    this.out = new ByteBuffer[]{requestHead};
+    this.chunked = length < 0;
+    if (length == 0) {
+      // Nothing more to send
+    } else if (buffer != null && !this.chunked) {
+      this.out = new ByteBuffer[]{requestHead, buffer};
+    } else if (this.engine == null && requestBody instanceof RequestBody.FileRegion) {
+      // Straight from the file to the socket
+      this.region = (RequestBody.FileRegion) requestBody;
+      this.regionOffset = 0;
+    } else if (!this.chunked && (buffer = requestBody.map()) != null) {
+      // Encrypted straight from the mapped file
+      this.out = new ByteBuffer[]{requestHead, buffer};
+    } else {
+      // Streams, and anything else read through a channel, may block, so a worker reads them
+      this.source = new NioRequestBody(requestBody, this::sourceReady);
+    }
+    flush();
+  }
+
+  /**
+   * Called from the worker reading the request body when it has more to send.
+   */
+  private void sourceReady(NioRequestBody ready) {
+    this.loop.execute(() -> {
+      if (this.source != ready || this.closed) {
+        return;
+      }
+      try {
+        flush();
+      } catch (IOException | RuntimeException e) {
+        fail(asIOException(e));
+      }
+    });
+  }
+
+  /**
+   * Takes the next part of a body that is not in memory into {@link #out}, if its worker has read
+   * it yet.
+   *
+   * @return Whether there is more to send now
+   */
+  private boolean nextOutput() throws IOException {
+    if (this.source == null) {
+      return false;
+    }
+    this.out = NO_DATA;
+    if (this.sourceBuffer != null) {
+      this.source.recycle(this.sourceBuffer);
+      this.sourceBuffer = null;
+    }
+    ByteBuffer buffer = this.source.poll();
+    if (buffer == null) {
+      if (!this.source.isFinished()) {
+        // Flushed again once the worker has read more
+        return false;
+      }
+      this.source = null;
+      if (this.chunked) {
+        this.out = new ByteBuffer[]{ByteBuffer.wrap(HttpConnection.ChunkedOutputStream.lastChunk())};
+        return true;
+      }
+      return false;
+    }
+    this.sourceBuffer = buffer;
+    if (this.chunked) {
+      this.out = new ByteBuffer[]{
+          ByteBuffer.wrap(HttpConnection.ChunkedOutputStream.chunkHeader(buffer.remaining())),
+          buffer, ByteBuffer.wrap(CRLF)};
+    } else {
+      this.out = new ByteBuffer[]{buffer};
+    }
+    return true;
+  }
+
+  private boolean requestSent() {
+    return !hasRemaining(this.out) && this.region == null && this.source == null;
+  }
+
+  /**
+   * @return Whether there is request data to write now, rather than none or only some still being
+   *         read by the worker
+   */
+  private boolean hasOutput() {
+    return hasRemaining(this.out) || this.region != null;
+  }
+
+  private void flush() throws IOException {
+    if (this.engine == null) {
+      write();
+      this.writing = hasOutput();
+    } else {
+      wrapAndWrite();
+      this.writing = this.netOut.hasRemaining() || this.ready && hasOutput();
+      if (!this.ready && !this.closed &&
+          this.engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+        ready();
+        return;
+      }
+    }
+    updateInterest();
+  }
+
+  private void write() throws IOException {
+    while (true) {
+      if (hasRemaining(this.out)) {
+        if (this.channel.write(this.out) > 0) {
+          this.lastActivityNanos = System.nanoTime();
+        }
+        if (hasRemaining(this.out)) {
+          return;
+        }
+      }
+      if (this.region != null) {
+        long length = this.region.getContentLength();
+        long sent = this.region.transferTo(this.regionOffset, length - this.regionOffset,
+                                           this.channel);
+        if (sent > 0) {
+          this.lastActivityNanos = System.nanoTime();
+        }
+        this.regionOffset += sent;
+        if (this.regionOffset < length) {
+          return;
+        }
+        this.region = null;
+      } else if (!nextOutput()) {
+        return;
+      }
+    }
+  }
+
+  private void wrapAndWrite() throws IOException {
+    while (true) {
+      if (this.netOut.hasRemaining()) {
+        if (this.channel.write(this.netOut) > 0) {
+          this.lastActivityNanos = System.nanoTime();
+        }
+        if (this.netOut.hasRemaining()) {
+          return;
+        }
+      }
+      boolean appData = this.ready && (hasRemaining(this.out) || nextOutput());
+      if (!appData &&
+          this.engine.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+        return;
+      }
+      SSLEngineResult result;
+      this.netOut.compact();
+      try {
+        result = this.engine.wrap(appData ? this.out : NO_DATA, this.netOut);
+      } finally {
+        this.netOut.flip();
+      }
+      switch (result.getStatus()) {
+        case BUFFER_OVERFLOW:
+          this.netOut = growForReading(this.netOut,
+                                       this.engine.getSession().getPacketBufferSize());
+          continue;
+        case CLOSED:
+          throw new SSLException("TLS session to " + this.route + " closed");
+        default:
+          break;
+      }
+      if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+        runDelegatedTasks();
+      } else if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+        return;
+      }
+    }
+  }
+
+  private void read() throws IOException {
+    int read;
+    if (this.engine == null) {
+      read = this.channel.read(this.appIn);
+      if (read > 0) {
+        this.lastActivityNanos = System.nanoTime();
+        processInput();
+      }
+    } else {
+      read = this.channel.read(this.netIn);
+      if (read > 0) {
+        this.lastActivityNanos = System.nanoTime();
+        unwrap();
+      }
+    }
+    if (read < 0 && !this.closed) {
+      endOfStream();
+    }
+  }
+
+  private void unwrap() throws IOException {
+    boolean peerClosed = false;
+    this.netIn.flip();
+    try {
+      unwrapping:
+      while (this.netIn.hasRemaining() && !this.closed) {
+        SSLEngineResult result = this.engine.unwrap(this.netIn, this.appIn);
+        switch (result.getStatus()) {
+          case BUFFER_OVERFLOW:
+            if (this.ready && this.appIn.position() > 0) {
+              processInput();
+            } else {
+              this.appIn = growForWriting(this.appIn,
+                                          this.engine.getSession().getApplicationBufferSize());
+            }
+            continue;
+          case BUFFER_UNDERFLOW:
+            break unwrapping;
+          case CLOSED:
+            peerClosed = true;
+            break unwrapping;
+          default:
+            break;
+        }
+        SSLEngineResult.HandshakeStatus handshakeStatus = result.getHandshakeStatus();
+        if (handshakeStatus == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+          runDelegatedTasks();
+        }
+        if (this.engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP ||
+            !this.ready) {
+          flush();
+        }
+        if (this.ready && this.appIn.position() > 0) {
+          processInput();
+        }
+        if (result.bytesConsumed() == 0 && result.bytesProduced() == 0 &&
+            handshakeStatus != SSLEngineResult.HandshakeStatus.NEED_TASK) {
+          break;
+        }
+      }
+    } finally {
+      this.netIn.compact();
+    }
+    if (!this.netIn.hasRemaining()) {
+      this.netIn = growForWriting(this.netIn, this.engine.getSession().getPacketBufferSize());
+    }
+    if (peerClosed && !this.closed) {
+      endOfStream();
+    }
+  }
+
+  private void runDelegatedTasks() {
+    Runnable task;
+    while ((task = this.engine.getDelegatedTask()) != null) {
+      task.run();
+    }
+  }
+
+  private void processInput() throws IOException {
+    this.appIn.flip();
+    try {
+      if (this.appIn.hasRemaining()) {
+        process(this.appIn);
+      }
+    } finally {
+      this.appIn.compact();
+    }
+  }
+
+  /**
+   * Parses as much of the response as has arrived, consuming all of it.
+   */
+  private void process(ByteBuffer in) throws IOException {
+    while (in.hasRemaining()) {
+      if (this.exchange == null) {
+        throw new IOException("Unexpected data from " + this.route);
+      }
+      this.responseStarted = true;
+      switch (this.state) {
+        case HEAD:
+          if (readLine(in)) {
+            headLine(in);
+          }
+          break;
+        case FIXED: {
+          int count = (int) Math.min(this.remaining, in.remaining());
+          deliver(in, count);
+          this.remaining -= count;
+          if (this.remaining == 0) {
+            complete(in);
+          }
+          break;
+        }
+        case CHUNK_SIZE:
+          if (readLine(in)) {
+            String sizeLine = takeLine();
+            int extension = sizeLine.indexOf(';');
+            String size = (extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim();
+            try {
+              this.remaining = Long.parseLong(size, 16);
+            } catch (NumberFormatException e) {
+              throw new IOException("Invalid chunk size: " + sizeLine, e);
+            }
+            this.state = this.remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+          }
+          break;
+        case CHUNK_DATA: {
+          int count = (int) Math.min(this.remaining, in.remaining());
+          deliver(in, count);
+          this.remaining -= count;
+          if (this.remaining == 0) {
+            this.state = State.CHUNK_END;
+          }
+          break;
+        }
+        case CHUNK_END:
+          if (readLine(in)) {
+            takeLine();
+            this.state = State.CHUNK_SIZE;
+          }
+          break;
+        case TRAILERS:
+          if (readLine(in) && takeLine().isEmpty()) {
+            complete(in);
+          }
+          break;
+        case UNTIL_CLOSE:
+        default:
+          deliver(in, in.remaining());
+          break;
+      }
+    }
+    if (this.headReceived) {
+      // Streaming callers get the head once what has arrived with it is parsed, so that a small
+      // response is handed over complete, with the connection already back in the pool.
+      this.headReceived = false;
+      if (!this.exchange.buffered) {
+        this.exchange.future.complete(this.response);
+      }
+    }
+  }
+
+  private void headLine(ByteBuffer in) throws IOException {
+    String text = takeLine();
+    if (this.statusLine == null) {
+      this.responseCode = HttpConnection.parseStatusCode(text);
+      this.statusLine = text;
+      this.headers = HttpConnection.newHeaders();
+      this.lastValues = null;
+      return;
+    }
+    if (!text.isEmpty()) {
+      this.lastValues = HttpConnection.addHeader(this.headers, this.lastValues, text, this.route);
+      return;
+    }
+    if (this.responseCode >= 100 && this.responseCode < 200) {
+      // Interim response; the real one follows.
+      this.statusLine = null;
+      return;
+    }
+    this.headers.put(null, HttpConnection.singletonList(this.statusLine));
+    this.head = new HttpConnection.ResponseHead(this.responseCode, this.headers,
+                                                this.statusLine.startsWith("HTTP/1.0"),
+                                                this.exchange.request.getMethod());
+    boolean chunked = this.head.isChunked();
+    long contentLength = chunked ? -1 : this.head.getContentLength();
+    if (!this.head.hasBody() || (!chunked && contentLength == 0)) {
+      this.response = new NioHttpTransport.Response(this.head, null);
+      complete(in);
+      return;
+    }
+    NioHttpTransport.Exchange current = this.exchange;
+    this.body = new NioResponseBody(this.loop, () -> this.loop.execute(() -> resume(current)),
+                                    () -> this.loop.execute(() -> abort(current)));
+    this.response = new NioHttpTransport.Response(this.head, this.body);
+    this.remaining = contentLength;
+    this.state = chunked ? State.CHUNK_SIZE : contentLength >= 0 ? State.FIXED : State.UNTIL_CLOSE;
+    this.headReceived = true;
+  }
+
+  private boolean readLine(ByteBuffer in) throws IOException {
+    while (in.hasRemaining()) {
+      byte b = in.get();
+      if (this.state == State.HEAD && ++this.headSize > MAX_HEAD_SIZE) {
+        throw new IOException("Response head from " + this.route + " is too large");
+      }
+      if (b == '\n') {
+        int length = this.line.length();
+        if (length > 0 && this.line.charAt(length - 1) == '\r') {
+          this.line.setLength(length - 1);
+        }
+        return true;
+      }
+      if (this.line.length() >= MAX_LINE_LENGTH) {
+        throw new IOException("Line too long in response from " + this.route);
+      }
+      this.line.append((char) (b & 0xff));
+    }
+    return false;
+  }
+
+  private String takeLine() {
+    String text = this.line.toString();
+    this.line.setLength(0);
+    return text;
+  }
+
+  private void deliver(ByteBuffer in, int count) {
+    if (count == 0) {
+      return;
+    }
+    boolean full = this.body.offer(in.array(), in.arrayOffset() + in.position(), count,
+                                   !this.exchange.buffered);
+    in.position(in.position() + count);
+    if (full && !this.paused) {
+      this.paused = true;
+      updateInterest();
+    }
+  }
+
+  private void complete(ByteBuffer in) {
+    NioHttpTransport.Exchange done = this.exchange;
+    NioHttpTransport.Response completed = this.response;
+    NioResponseBody finished = this.body;
+    // A server may answer before reading all of the request, but then the connection is spent
+    boolean reusable = this.head.isKeepAlive() && this.state != State.UNTIL_CLOSE &&
+                       !in.hasRemaining() && requestSent();
+    this.exchange = null;
+    reset();
+    updateInterest();
+    // Release first, so that a caller sending its next request finds the connection idle
+    this.pool.release(this, reusable);
+    if (finished != null) {
+      finished.finish();
+    }
+    done.future.complete(completed);
+  }
+
+  private void resume(NioHttpTransport.Exchange paused) {
+    if (this.exchange == paused && this.paused) {
+      this.paused = false;
+      updateInterest();
+    }
+  }
+
+  /**
+   * The caller closed the body before its end; finish reading it if little is left, so that the
+   * connection can be reused, otherwise close the connection.
+   */
+  private void abort(NioHttpTransport.Exchange aborted) {
+    if (this.exchange != aborted || this.closed) {
+      return;
+    }
+    if (this.state == State.FIXED && this.remaining <= MAX_DRAIN) {
+      this.paused = false;
+      updateInterest();
+      return;
+    }
+    LOG.log(Level.FINE, "Closing connection to {0} with an unread response", this.route);
+    NioResponseBody unread = this.body;
+    this.exchange = null;
+    reset();
+    this.pool.release(this, false);
+    if (unread != null) {
+      unread.fail(new IOException("Response from " + this.route + " closed before its end"));
+    }
+  }
+
+  private void endOfStream() {
+    if (this.exchange != null && this.state == State.UNTIL_CLOSE) {
+      complete(EMPTY);
+    } else if (this.exchange != null) {
+      fail(this.responseStarted ?
+           new EOFException("Connection to " + this.route + " closed mid-response") :
+           new HttpConnection.NoResponseException(
+               "Connection to " + this.route + " closed before response"));
+    } else {
+      fail(new EOFException("Connection to " + this.route + " closed while idle"));
+    }
+  }
+
+  /**
+   * Closes the connection, failing or retrying its request.  A request that got no response on a
+   * reused connection is retried once on another, as the server may have closed it just as it was
+   * leased.
+   */
+  void fail(IOException e) {
+    if (this.closed && this.exchange == null) {
+      return;
+    }
+    NioHttpTransport.Exchange failed = this.exchange;
+    NioResponseBody failedBody = this.body;
+    boolean started = this.responseStarted;
+    this.exchange = null;
+    reset();
+    close();
+    if (failed == null) {
+      LOG.log(Level.FINE, "Idle connection to " + this.route + " closed", e);
+      this.pool.closed(this);
+      return;
+    }
+    this.pool.release(this, false);
+    if (failedBody != null) {
+      failedBody.fail(e);
+    }
+    if (!started && this.requestCount > 1 && !failed.retried &&
+        failed.request.getBody().isRepeatable() &&
+        !(e instanceof SocketTimeoutException)) {
+      LOG.log(Level.FINE, "Retrying request on a new connection to " + this.route, e);
+      failed.retried = true;
+      this.pool.submit(failed);
+    } else {
+      failed.fail(e);
+    }
+  }
+
+  void close() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    if (this.key != null) {
+      this.key.cancel();
+    }
+    if (this.engine != null) {
+      this.engine.closeOutbound();
+    }
+    if (this.channel != null) {
+      try {
+        this.channel.close();
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Failed to close connection to " + this.route, e);
+      }
+    }
+  }
+
+  private void reset() {
+    this.out = NO_DATA;
+    this.region = null;
+    if (this.source != null) {
+      this.source.close();
+      this.source = null;
+    }
+    this.sourceBuffer = null;
+    this.writing = false;
+    this.state = State.HEAD;
+    this.statusLine = null;
+    this.headers = null;
+    this.lastValues = null;
+    this.head = null;
+    this.headReceived = false;
+    this.remaining = 0;
+    this.body = null;
+    this.response = null;
+    this.headSize = 0;
+    this.line.setLength(0);
+    this.paused = false;
+    this.responseStarted = false;
+  }
+
+  private void updateInterest() {
+    if (this.closed || this.key == null || !this.key.isValid()) {
+      return;
+    }
+    int ops;
+    if (!this.channel.isConnected()) {
+      ops = SelectionKey.OP_CONNECT;
+    } else {
+      ops = (this.paused ? 0 : SelectionKey.OP_READ) | (this.writing ? SelectionKey.OP_WRITE : 0);
+    }
+    if (this.key.interestOps() != ops) {
+      this.key.interestOps(ops);
+    }
+  }
+
+  private IOException asIOException(Exception e) {
+    if (e instanceof IOException) {
+      return (IOException) e;
+    }
+    if (e instanceof UnresolvedAddressException) {
+      return new UnknownHostException(this.route.getHost());
+    }
+    return new IOException("Failed talking to " + this.route, e);
+  }
+
+  private static boolean hasRemaining(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (buffer.hasRemaining()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static ByteBuffer growForReading(ByteBuffer buffer, int minimum) {
+    ByteBuffer grown =
+        ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.remaining() + minimum));
+    grown.put(buffer);
+    grown.flip();
+    return grown;
+  }
+
+  private static ByteBuffer growForWriting(ByteBuffer buffer, int minimum) {
+    ByteBuffer grown =
+        ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + minimum));
+    buffer.flip();
+    grown.put(buffer);
+    return grown;
+  }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.net.ssl.SSLContext;
+
+/**
+ * HTTP/1.1 over non-blocking channels, with every connection multiplexed over a few selector
+ * threads ({@link HttpTransportConfig#getIoThreads()}).  Requests beyond a route's connection
+ * limit wait in a queue rather than on a thread, so with {@link #sendAsync} the number of
+ * requests in flight is not bounded by the number of threads.
+ * <p>
+ * Connections are kept alive and reused like those of {@link PooledHttpTransport}; a connection
+ * the server closes while idle is noticed as it happens rather than on the next lease.
+ */
+@ParametersAreNonnullByDefault
+class NioHttpTransport implements AsyncHttpTransport {
+
+  private static final Logger LOG = Logger.getLogger(NioHttpTransport.class.getName());
+
+  private final HttpTransportConfig config;
+  private final NioEventLoop[] loops;
+  private final AtomicInteger nextLoop = new AtomicInteger();
+  private final Map<ConnectionPool.Route, RoutePool> routePools = new ConcurrentHashMap<>();
+
+  private final LongAdder created = new LongAdder();
+  private final LongAdder reused = new LongAdder();
+  private final LongAdder expired = new LongAdder();
+  private final LongAdder stale = new LongAdder();
+
+  private volatile SSLContext sslContext;
+  private volatile boolean closed;
+
+  NioHttpTransport(HttpTransportConfig config) {
+    this.config = config;
+    this.loops = new NioEventLoop[config.getIoThreads()];
+    try {
+      for (int i = 0; i < this.loops.length; i++) {
+        this.loops[i] = new NioEventLoop("aws-nano-nio-" + i, i == 0 ? this::sweep : null);
+      }
+    } catch (IOException e) {
+      close();
+      throw new UncheckedIOException("Failed to open selector", e);
+    }
+  }
+
+  @Nonnull
+  @Override
+  public HttpResponse execute(HttpRequest request) throws IOException {
+    CompletableFuture<HttpResponse> future = send(request, false);
+    try {
+      // Every wait is bounded by the configured timeouts, which the event loops enforce
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.thenAccept(NioHttpTransport::closeQuietly);
+      throw new InterruptedIOException("Interrupted waiting for response from " +
+                                       request.getUrl());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  @Nonnull
+  @Override
+  public CompletableFuture<HttpResponse> sendAsync(HttpRequest request) {
+    return send(request, true);
+  }
+
+  private CompletableFuture<HttpResponse> send(HttpRequest request, boolean buffered) {
+    Exchange exchange = new Exchange(request, buffered);
+    ConnectionPool.Route route;
+    try {
+      route = ConnectionPool.Route.of(request.getUrl());
+    } catch (IOException e) {
+      exchange.fail(e);
+      return exchange.future;
+    }
+    this.routePools.computeIfAbsent(route, RoutePool::new).submit(exchange);
+    return exchange.future;
+  }
+
+  SSLContext getSslContext() throws IOException {
+    SSLContext context = this.sslContext;
+    if (context == null) {
+      try {
+        context = SSLContext.getDefault();
+      } catch (NoSuchAlgorithmException e) {
+        throw new IOException("No default TLS context", e);
+      }
+      this.sslContext = context;
+    }
+    return context;
+  }
+
+  HttpTransportConfig getConfig() {
+    return this.config;
+  }
+
+  void countStale() {
+    this.stale.increment();
+  }
+
+  private NioEventLoop nextLoop() {
+    return this.loops[Math.floorMod(this.nextLoop.getAndIncrement(), this.loops.length)];
+  }
+
+  /**
+   * Fails requests that have waited too long for a connection and closes expired idle ones.
+   */
+  private void sweep() {
+    long now = System.nanoTime();
+    for (RoutePool routePool : this.routePools.values()) {
+      routePool.sweep(now);
+    }
+  }
+
+  @Override
+  public ConnectionPoolStats getConnectionPoolStats() {
+    int leased = 0;
+    int idle = 0;
+    int pending = 0;
+    for (RoutePool routePool : this.routePools.values()) {
+      synchronized (routePool) {
+        leased += routePool.leased;
+        idle += routePool.idle.size();
+        pending += routePool.pending.size();
+      }
+    }
+    return new ConnectionPoolStats(leased, idle, pending, this.routePools.size(),
+                                   this.created.sum(), this.reused.sum(), this.expired.sum(),
+                                   this.stale.sum());
+  }
+
+  @Override
+  public void close() {
+    this.closed = true;
+    IOException closed = new IOException("Transport closed");
+    for (RoutePool routePool : this.routePools.values()) {
+      List<Exchange> pending;
+      synchronized (routePool) {
+        pending = new ArrayList<>(routePool.pending);
+        routePool.pending.clear();
+      }
+      pending.forEach(exchange -> exchange.fail(closed));
+    }
+    for (NioEventLoop loop : this.loops) {
+      if (loop != null) {
+        loop.close();
+      }
+    }
+  }
+
+  private static void closeQuietly(HttpResponse response) {
+    try {
+      response.close();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Failed to close abandoned response", e);
+    }
+  }
+
+  /**
+   * A request and the future for its response, which may move between connections while it
+   * waits or if it is retried.
+   */
+  static final class Exchange {
+
+    final HttpRequest request;
+    final boolean buffered;
+    final CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+    boolean retried;
+    long enqueuedNanos;
+
+    /**
+     * @param buffered Complete the future only once the whole body has been received
+     */
+    Exchange(HttpRequest request, boolean buffered) {
+      this.request = request;
+      this.buffered = buffered;
+    }
+
+    void fail(IOException e) {
+      this.future.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * The connections to one route.  Connections are handed out most recently released first, and
+   * requests wait in order of arrival when the route is at its limit.
+   */
+  final class RoutePool {
+
+    final ConnectionPool.Route route;
+    final Deque<NioHttpConnection> idle = new ArrayDeque<>();
+    final Deque<Exchange> pending = new ArrayDeque<>();
+    int total;
+    int leased;
+
+    RoutePool(ConnectionPool.Route route) {
+      this.route = route;
+    }
+
+    void submit(Exchange exchange) {
+      NioHttpConnection connection;
+      boolean open = false;
+      synchronized (this) {
+        if (NioHttpTransport.this.closed) {
+          exchange.fail(new IOException("Transport closed"));
+          return;
+        }
+        connection = this.idle.pollFirst();
+        if (connection != null) {
+          NioHttpTransport.this.reused.increment();
+        } else if (this.total < NioHttpTransport.this.config.getMaxConnectionsPerRoute()) {
+          this.total++;
+          open = true;
+        } else {
+          exchange.enqueuedNanos = System.nanoTime();
+          this.pending.addLast(exchange);
+          return;
+        }
+        this.leased++;
+      }
+      if (open) {
+        open(exchange);
+      } else {
+        NioHttpConnection leased = connection;
+        leased.getLoop().execute(() -> leased.start(exchange));
+      }
+    }
+
+    private void open(Exchange exchange) {
+      NioHttpTransport.this.created.increment();
+      NioHttpConnection connection =
+          new NioHttpConnection(NioHttpTransport.this, this, nextLoop());
+      connection.getLoop().execute(() -> connection.connect(exchange));
+    }
+
+    /**
+     * Called on the connection's loop when its exchange is over; a reusable connection goes to the
+     * next waiting request or back to the idle connections, any other is closed.
+     */
+    void release(NioHttpConnection connection, boolean reusable) {
+      Exchange next;
+      boolean open = false;
+      long now = System.nanoTime();
+      boolean reuse =
+          reusable && !NioHttpTransport.this.closed && !isExpired(connection, now, false);
+      synchronized (this) {
+        this.leased--;
+        if (reuse) {
+          next = this.pending.pollFirst();
+          if (next == null) {
+            connection.markIdle(now);
+            this.idle.addFirst(connection);
+          } else {
+            this.leased++;
+            NioHttpTransport.this.reused.increment();
+          }
+        } else {
+          this.total--;
+          next = this.pending.pollFirst();
+          if (next != null) {
+            this.total++;
+            this.leased++;
+            open = true;
+          }
+        }
+      }
+      if (!reuse) {
+        connection.close();
+      }
+      if (next != null) {
+        if (open) {
+          open(next);
+        } else {
+          connection.start(next);
+        }
+      }
+    }
+
+    /**
+     * Called on the connection's loop when an idle connection is closed by the server.
+     */
+    void closed(NioHttpConnection connection) {
+      synchronized (this) {
+        if (!this.idle.remove(connection)) {
+          // Leased at the same moment; the lease will notice that it is closed
+          return;
+        }
+        this.total--;
+      }
+      NioHttpTransport.this.stale.increment();
+    }
+
+    void sweep(long now) {
+      List<Exchange> timedOut = null;
+      List<NioHttpConnection> evicted = null;
+      long requestTimeout =
+          TimeUnit.MILLISECONDS.toNanos(NioHttpTransport.this.config.getConnectionRequestTimeout());
+      synchronized (this) {
+        if (requestTimeout > 0) {
+          Iterator<Exchange> it = this.pending.iterator();
+          while (it.hasNext()) {
+            Exchange exchange = it.next();
+            if (now - exchange.enqueuedNanos > requestTimeout) {
+              it.remove();
+              timedOut = timedOut == null ? new ArrayList<>() : timedOut;
+              timedOut.add(exchange);
+            }
+          }
+        }
+        Iterator<NioHttpConnection> it = this.idle.descendingIterator();
+        while (it.hasNext()) {
+          NioHttpConnection connection = it.next();
+          if (isExpired(connection, now, true)) {
+            it.remove();
+            this.total--;
+            evicted = evicted == null ? new ArrayList<>() : evicted;
+            evicted.add(connection);
+          }
+        }
+      }
+      if (timedOut != null) {
+        timedOut.forEach(exchange -> exchange.fail(new IOException(
+            "Timed out waiting for a connection to " + this.route + " (" +
+            NioHttpTransport.this.config.getMaxConnectionsPerRoute() + " in use)")));
+      }
+      if (evicted != null) {
+        NioHttpTransport.this.expired.add(evicted.size());
+        evicted.forEach(connection -> connection.getLoop().execute(connection::close));
+      }
+    }
+
+    private boolean isExpired(NioHttpConnection connection, long now, boolean idle) {
+      long idleTimeout = NioHttpTransport.this.config.getIdleTimeout();
+      if (idle && idleTimeout > 0 &&
+          now - connection.getIdleSinceNanos() > TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+        return true;
+      }
+      long maxLifetime = NioHttpTransport.this.config.getMaxLifetime();
+      return maxLifetime > 0 &&
+             now - connection.getCreatedNanos() > TimeUnit.MILLISECONDS.toNanos(maxLifetime);
+    }
+  }
+
+  static class Response implements HttpResponse {
+
+    private final HttpConnection.ResponseHead head;
+    private final Map<String, List<String>> headers;
+    @Nullable
+    private final NioResponseBody body;
+
+    Response(HttpConnection.ResponseHead head, @Nullable NioResponseBody body) {
+      this.head = head;
+      this.headers = Collections.unmodifiableMap(head.headers);
+      this.body = body;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return this.head.responseCode;
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return this.headers;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return this.head.getHeader(name);
+    }
+
+    @Override
+    public InputStream getBody() {
+      return this.body;
+    }
+
+    @Override
+    public void close() {
+      if (this.body != null) {
+        this.body.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A request body read from its source by a worker thread and sent by an {@link NioEventLoop},
+ * which must never wait on the source.  The worker fills up to {@link #BUFFERS} buffers ahead of
+ * the connection, then waits for one to be sent before reading more.
+ */
+@ParametersAreNonnullByDefault
+class NioRequestBody {
+
+  private static final Logger LOG = Logger.getLogger(NioRequestBody.class.getName());
+
+  private static final int BUFFERS = 2;
+
+  private static final ExecutorService READER = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "aws-nano-nio-request-body");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private final RequestBody body;
+  private final Consumer<NioRequestBody> ready;
+
+  private final Deque<ByteBuffer> filled = new ArrayDeque<>();
+  private final Deque<ByteBuffer> free = new ArrayDeque<>();
+  private boolean finished;
+  private boolean closed;
+  @Nullable
+  private IOException failure;
+
+  /**
+   * @param ready Called, from the worker, when a buffer has been filled or the source has ended or
+   *              failed
+   */
+  NioRequestBody(RequestBody body, Consumer<NioRequestBody> ready) {
+    this.body = body;
+    this.ready = ready;
+    for (int i = 0; i < BUFFERS; i++) {
+      this.free.add(ByteBuffer.allocate(RequestBody.TRANSFER_BUFFER_SIZE));
+    }
+    READER.execute(this::read);
+  }
+
+  /**
+   * @return The next filled buffer, or null if there is none yet or the source has ended
+   */
+  @Nullable
+  synchronized ByteBuffer poll() throws IOException {
+    if (this.failure != null) {
+      throw this.failure;
+    }
+    return this.filled.pollFirst();
+  }
+
+  /**
+   * @return Whether the source has ended and every buffer has been taken
+   */
+  synchronized boolean isFinished() {
+    return this.finished && this.filled.isEmpty();
+  }
+
+  /**
+   * Hands back a buffer that has been sent, to be filled again.
+   */
+  synchronized void recycle(ByteBuffer buffer) {
+    this.free.addLast(buffer);
+    notifyAll();
+  }
+
+  /**
+   * Stops the worker once its current read returns; the source itself is left open.
+   */
+  synchronized void close() {
+    this.closed = true;
+    this.filled.clear();
+    notifyAll();
+  }
+
+  private void read() {
+    try (ReadableByteChannel source = this.body.openChannel()) {
+      boolean end = false;
+      while (!end) {
+        ByteBuffer buffer;
+        synchronized (this) {
+          while (this.free.isEmpty() && !this.closed) {
+            wait();
+          }
+          if (this.closed) {
+            return;
+          }
+          buffer = this.free.removeFirst();
+        }
+        buffer.clear();
+        while (buffer.hasRemaining() && !end) {
+          end = source.read(buffer) < 0;
+        }
+        buffer.flip();
+        synchronized (this) {
+          if (this.closed) {
+            return;
+          }
+          if (buffer.hasRemaining()) {
+            this.filled.addLast(buffer);
+          } else {
+            this.free.addLast(buffer);
+          }
+          this.finished = end;
+        }
+        this.ready.accept(this);
+      }
+    } catch (IOException | RuntimeException e) {
+      synchronized (this) {
+        if (this.closed) {
+          LOG.log(Level.FINE, "Failed reading a request body no longer being sent", e);
+          return;
+        }
+        this.failure = e instanceof IOException ? (IOException) e : new IOException(e);
+      }
+      this.ready.accept(this);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
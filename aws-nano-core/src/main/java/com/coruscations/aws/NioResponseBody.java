@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A response body filled by an {@link NioEventLoop} and read by the caller, who waits for data
+ * as needed.  Streamed bodies push back on the connection: it stops reading from the socket while
+ * more than {@link #HIGH_WATER} bytes are waiting, until they have been read down to
+ * {@link #LOW_WATER}.
+ */
+@ParametersAreNonnullByDefault
+class NioResponseBody extends InputStream {
+
+  static final int HIGH_WATER = 1024 * 1024;
+  static final int LOW_WATER = 256 * 1024;
+
+  private final NioEventLoop loop;
+  private final Runnable resume;
+  private final Runnable abort;
+
+  private final Deque<byte[]> chunks = new ArrayDeque<>();
+  private int chunkOffset;
+  private long buffered;
+  private boolean paused;
+  private boolean finished;
+  private boolean closed;
+  private IOException failure;
+
+  /**
+   * @param loop   The loop filling the body
+   * @param resume Called, from the reading thread, when a paused connection should read again
+   * @param abort  Called, from the closing thread, when the body is closed before its end; the
+   *               connection then either reads the rest, finishing the body, or gives up on it,
+   *               failing the body
+   */
+  NioResponseBody(NioEventLoop loop, Runnable resume, Runnable abort) {
+    this.loop = loop;
+    this.resume = resume;
+    this.abort = abort;
+  }
+
+  /**
+   * Adds a copy of the bytes.
+   *
+   * @return Whether the caller is now far enough behind that the connection should pause
+   */
+  synchronized boolean offer(byte[] bytes, int offset, int length, boolean pauseWhenFull) {
+    if (this.closed || length == 0) {
+      return false;
+    }
+    this.chunks.addLast(Arrays.copyOfRange(bytes, offset, offset + length));
+    this.buffered += length;
+    notifyAll();
+    if (pauseWhenFull && this.buffered > HIGH_WATER) {
+      this.paused = true;
+    }
+    return this.paused;
+  }
+
+  synchronized void finish() {
+    this.finished = true;
+    notifyAll();
+  }
+
+  synchronized void fail(IOException e) {
+    if (!this.finished) {
+      this.failure = e;
+      notifyAll();
+    }
+  }
+
+  synchronized boolean isFinished() {
+    return this.finished;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int read = read(single, 0, 1);
+    return read < 0 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    int read = 0;
+    boolean resume;
+    synchronized (this) {
+      if (!awaitChunk()) {
+        return -1;
+      }
+      while (read < len && !this.chunks.isEmpty()) {
+        byte[] chunk = this.chunks.peekFirst();
+        int count = Math.min(len - read, chunk.length - this.chunkOffset);
+        System.arraycopy(chunk, this.chunkOffset, b, off + read, count);
+        read += count;
+        this.chunkOffset += count;
+        if (this.chunkOffset == chunk.length) {
+          this.chunks.removeFirst();
+          this.chunkOffset = 0;
+        }
+      }
+      resume = consumed(read);
+    }
+    if (resume) {
+      this.resume.run();
+    }
+    return read;
+  }
+
+  /**
+   * Writes the rest of the body to the target as it arrives, straight from the chunks read off
+   * the connection rather than copying them through a caller's buffer.
+   *
+   * @return The number of bytes written
+   */
+  long transferTo(WritableByteChannel target) throws IOException {
+    long transferred = 0;
+    while (true) {
+      ByteBuffer chunk;
+      boolean resume;
+      synchronized (this) {
+        if (!awaitChunk()) {
+          return transferred;
+        }
+        byte[] bytes = this.chunks.removeFirst();
+        chunk = ByteBuffer.wrap(bytes, this.chunkOffset, bytes.length - this.chunkOffset);
+        this.chunkOffset = 0;
+        resume = consumed(chunk.remaining());
+      }
+      if (resume) {
+        this.resume.run();
+      }
+      while (chunk.hasRemaining()) {
+        transferred += target.write(chunk);
+      }
+    }
+  }
+
+  /**
+   * @return Whether there is a chunk to read, once there is one or the body has ended
+   * @throws IOException if the body has been closed or has failed
+   */
+  private boolean awaitChunk() throws IOException {
+    while (this.chunks.isEmpty() && !this.finished && this.failure == null && !this.closed) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the response body");
+      }
+    }
+    if (this.closed) {
+      throw new IOException("Stream closed");
+    }
+    if (this.chunks.isEmpty()) {
+      if (this.failure != null) {
+        throw new IOException("Failed reading response body", this.failure);
+      }
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return Whether a paused connection should now resume
+   */
+  private boolean consumed(int count) {
+    this.buffered -= count;
+    if (this.paused && this.buffered <= LOW_WATER) {
+      this.paused = false;
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized int available() {
+    return (int) Math.min(Integer.MAX_VALUE, this.buffered);
+  }
+
+  @Override
+  public void close() {
+    boolean complete;
+    synchronized (this) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      complete = this.finished || this.failure != null;
+      this.chunks.clear();
+      this.buffered = 0;
+      notifyAll();
+    }
+    if (!complete) {
+      this.abort.run();
+      // On the loop, as in a stage of the response's future, waiting would keep it from ending
+      if (!this.loop.inLoop()) {
+        awaitEnd();
+      }
+    }
+  }
+
+  /**
+   * Waits for the connection to be done with the body, so that it is back in the pool, or
+   * closed, by the time the caller sends its next request.
+   */
+  private synchronized void awaitEnd() {
+    while (!this.finished && this.failure == null) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * How a request body that is not already in memory is covered by its signature, set with {@link
+ * Constants#PAYLOAD_SIGNING}.  Bodies in memory are always hashed, since that costs no extra read.
+ * Whatever the mode, a stream must be given its length to be sent to S3.
+ */
+@ParametersAreNonnullByDefault
+public enum PayloadSigning {
+  /**
+   * Hash the whole body before sending it, which reads a file twice; streams, which cannot be read
+   * twice, are sent as {@link #STREAMING} where the endpoint allows it.
+   */
+  SIGNED,
+  /**
+   * Send the body with {@code aws-chunked} content encoding, signing each chunk as it is sent
+   * with the signature of the one before, so that it is hashed and sent in a single pass.
+   */
+  STREAMING,
+  /**
+   * Leave the body out of the signature and rely on TLS for its integrity; over plain HTTP this
+   * falls back to {@link #STREAMING}.
+   */
+  UNSIGNED;
+
+  /**
+   * @return The mode set in the environment, or {@link #SIGNED}
+   */
+  @Nonnull
+  static PayloadSigning fromEnv(Map<String, ?> env) {
+    Object value = env.get(Constants.PAYLOAD_SIGNING);
+    if (value == null) {
+      return SIGNED;
+    }
+    if (value instanceof PayloadSigning) {
+      return (PayloadSigning) value;
+    }
+    return valueOf(value.toString().trim().toUpperCase());
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * HTTP/1.1 transport over pooled keep-alive sockets.  A connection goes back to the pool as soon as
+ * its response body has been read to the end (or the response is closed), so callers must always
+ * close the response.
+ */
+@ParametersAreNonnullByDefault
+class PooledHttpTransport implements HttpTransport {
+
+  private static final Logger LOG = Logger.getLogger(PooledHttpTransport.class.getName());
+
+  private final ConnectionPool pool;
+
+  PooledHttpTransport(HttpTransportConfig config) {
+    this.pool = new ConnectionPool(config);
+  }
+
+  @Nonnull
+  @Override
+  public HttpResponse execute(HttpRequest request) throws IOException {
+    ConnectionPool.Route route = ConnectionPool.Route.of(request.getUrl());
+    boolean retried = false;
+    while (true) {
+      HttpConnection connection = this.pool.lease(route);
+      boolean reused = connection.getRequestCount() > 0;
+      HttpConnection.ResponseHead head;
+      try {
+        connection.writeRequest(request);
+        head = connection.readResponseHead(request.getMethod());
+      } catch (IOException e) {
+        this.pool.release(connection, false);
+        // A reused connection may have been closed by the server just as it was leased
+        if (reused && !retried && request.getBody().isRepeatable() &&
+            (e instanceof SocketException || e instanceof HttpConnection.NoResponseException)) {
+          LOG.log(Level.FINE, "Retrying request on a new connection to " + route, e);
+          retried = true;
+          continue;
+        }
+        throw e;
+      } catch (RuntimeException e) {
+        this.pool.release(connection, false);
+        throw e;
+      }
+      return new Response(this.pool, connection, head);
+    }
+  }
+
+  @Override
+  public ConnectionPoolStats getConnectionPoolStats() {
+    return this.pool.getStats();
+  }
+
+  @Override
+  public void close() {
+    this.pool.close();
+  }
+
+  static class Response implements HttpResponse {
+
+    private final HttpConnection.ResponseHead head;
+    private final Map<String, List<String>> headers;
+    private final InputStream body;
+
+    Response(ConnectionPool pool, HttpConnection connection, HttpConnection.ResponseHead head) {
+      this.head = head;
+      this.headers = Collections.unmodifiableMap(head.headers);
+      boolean chunked = head.isChunked();
+      long contentLength = chunked ? -1 : head.getContentLength();
+      boolean keepAlive = head.isKeepAlive();
+      if (!head.hasBody() || (!chunked && contentLength == 0)) {
+        this.body = null;
+        pool.release(connection, keepAlive);
+      } else {
+        this.body = new ResponseBodyInputStream(
+            connection, chunked, contentLength, keepAlive,
+            reusable -> pool.release(connection, reusable));
+      }
+    }
+
+    @Override
+    public int getResponseCode() {
+      return this.head.responseCode;
+    }
+
+    @Nonnull
+    @Override
+    public Map<String, List<String>> getHeaders() {
+      return this.headers;
+    }
+
+    @Override
+    public String getHeader(String name) {
+      return this.head.getHeader(name);
+    }
+
+    @Override
+    public InputStream getBody() {
+      return this.body;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.body != null) {
+        this.body.close();
+      }
+    }
+  }
+}
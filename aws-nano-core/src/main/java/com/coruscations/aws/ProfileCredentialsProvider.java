@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Credentials and region from a profile in the shared config and credentials files, with values in
+ * the credentials file taking precedence.  The files are read once, then checked in the background
+ * every {@code recheckMillis} and read again only if their modification times have changed, so
+ * asking for credentials does not touch the filesystem after the first time.
+ * <p>
+ * This is based heavily on the AWS SDK code to parse these files, distributed under the Apache 2.0
+ * license at https://github.com/aws/aws-sdk-java.
+ */
+@ParametersAreNonnullByDefault
+class ProfileCredentialsProvider
+    extends RefreshingCredentialsProvider<ProfileCredentialsProvider.Profile> {
+
+  private static final Logger LOG = Logger.getLogger(ProfileCredentialsProvider.class.getName());
+
+  static final long DEFAULT_RECHECK_MILLIS = 5_000;
+
+  private static final Set<String> SUPPORTED_PROPERTIES =
+      Collections.unmodifiableSet(Arrays.stream(AwsCredentialProperty.values())
+                                      .map(AwsCredentialProperty::getIniFileName)
+                                      .filter(Objects::nonNull).collect(Collectors.toSet()));
+
+  private final Map<String, ?> env;
+  private final long recheckMillis;
+
+  /**
+   * @param env Where the file locations and profile name are looked up first
+   */
+  ProfileCredentialsProvider(Map<String, ?> env, long recheckMillis) {
+    this.env = env;
+    this.recheckMillis = recheckMillis;
+  }
+
+  @Override
+  @Nullable
+  public String getRegion() {
+    return current().properties.get(AwsCredentialProperty.AWS_DEFAULT_REGION.getIniFileName());
+  }
+
+  @Override
+  protected Profile load(@Nullable Profile previous) {
+    List<Path> paths = getPaths();
+    List<FileTime> modified = new ArrayList<>(paths.size());
+    for (Path path : paths) {
+      modified.add(getLastModifiedTime(path));
+    }
+    long staleAt = System.currentTimeMillis() + this.recheckMillis;
+    if (previous != null && previous.paths.equals(paths) && previous.modified.equals(modified)) {
+      return new Profile(previous.getCredentials(), previous.properties, paths, modified, staleAt);
+    }
+    String profileName = ConfigurationProvider.lookup(AwsCredentialProperty.AWS_DEFAULT_PROFILE,
+                                                      this.env, null);
+    profileName = profileName == null ? "default" : profileName;
+    Map<String, String> properties = new HashMap<>();
+    for (Path path : paths) {
+      Map<String, String> read = readIni(path, profileName);
+      if (read != null) {
+        properties.putAll(read);
+      }
+    }
+    LOG.log(Level.FINE, "Read profile {0} from {1}", new Object[]{profileName, paths});
+    String accessKey = properties.get(AwsCredentialProperty.AWS_ACCESS_KEY_ID.getIniFileName());
+    String secretKey = properties.get(AwsCredentialProperty.AWS_SECRET_KEY.getIniFileName());
+    String sessionToken =
+        properties.get(AwsCredentialProperty.AWS_SESSION_TOKEN.getIniFileName());
+    AwsCredentials credentials = accessKey == null || secretKey == null ? null :
+                                 new AwsCredentials(accessKey, secretKey, sessionToken, null);
+    return new Profile(credentials, properties, paths, modified, staleAt);
+  }
+
+  /**
+   * @return The files to read, in the order their values are applied
+   */
+  private List<Path> getPaths() {
+    Path homeAws = System.getProperty("user.home") == null ? null :
+                   Paths.get(System.getProperty("user.home"), ".aws");
+    Path credentials = readable(AwsCredentialProperty.AWS_CREDENTIAL_PROFILES_FILE);
+    if (credentials == null && homeAws != null) {
+      credentials = readable(homeAws.resolve("credentials"));
+    }
+    Path config = readable(AwsCredentialProperty.AWS_CONFIG_FILE);
+    if (credentials != null && "config".equals(String.valueOf(credentials.getFileName()))) {
+      // A config file given as the credentials file; use its credentials file too, if any
+      if (config == null) {
+        config = credentials;
+      }
+      credentials = readable(credentials.resolveSibling("credentials"));
+    }
+    if (config == null && credentials != null) {
+      config = readable(credentials.resolveSibling("config"));
+    }
+    if (config == null && homeAws != null) {
+      config = readable(homeAws.resolve("config"));
+    }
+    List<Path> paths = new ArrayList<>(2);
+    // We always want to read the config file first, if it exists,
+    //   then override values from the credentials file, if that exists.
+    if (config != null) {
+      paths.add(config);
+    }
+    if (credentials != null && !credentials.equals(config)) {
+      paths.add(credentials);
+    }
+    return paths;
+  }
+
+  @Nullable
+  private Path readable(AwsCredentialProperty property) {
+    String name = ConfigurationProvider.lookup(property, this.env,
+                                               n -> readable(Paths.get(n)) != null);
+    return name == null ? null : Paths.get(name).toAbsolutePath();
+  }
+
+  @Nullable
+  private static Path readable(Path path) {
+    return Files.isRegularFile(path) && Files.isReadable(path) ? path.toAbsolutePath() : null;
+  }
+
+  @Nullable
+  private static FileTime getLastModifiedTime(Path path) {
+    try {
+      return Files.getLastModifiedTime(path);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param path    The path of the properties file.
+   * @param profile The name of the profile to use.
+   */
+  @Nullable
+  private static Map<String, String> readIni(Path path, String profile) {
+    String currentProfile = null;
+    try (InputStream source = Files.newInputStream(path)) {
+      Map<String, String> properties = new HashMap<>();
+      Scanner scanner = new Scanner(source);
+      while (scanner.hasNextLine()) {
+        String line = scanner.nextLine().trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        if (line.startsWith("[") && line.endsWith("]")) {
+          currentProfile = line.substring(1, line.length() - 1).trim();
+          if (currentProfile.startsWith("profile ")) {
+            currentProfile = currentProfile.substring(currentProfile.lastIndexOf(' ') + 1);
+          }
+          continue;
+        }
+        if (currentProfile == null) {
+          throw new IllegalArgumentException(
+              "Property is defined without a preceding profile name. Current line: " + line);
+        }
+        if (!currentProfile.equals(profile)) {
+          continue;
+        }
+        String[] pair = line.split("=", 2);
+        if (pair.length != 2) {
+          throw new IllegalArgumentException(
+              String.format("Invalid property format: no '=' character is found in the line [%s].",
+                            line));
+        } else {
+          String key = pair[0].trim();
+          if (key.isEmpty() || !SUPPORTED_PROPERTIES.contains(key)) {
+            continue;
+          }
+          properties.put(key, pair[1].trim());
+        }
+      }
+      if (!properties.isEmpty()) {
+        return properties;
+      }
+    } catch (IOException e) {
+      if (LOG.isLoggable(Level.WARNING)) {
+        LOG.log(Level.WARNING, "Error reading AWS credential file: " + path, e);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The profile as read, with the files it was read from and their modification times.
+   */
+  static class Profile extends RefreshingCredentialsProvider.Loaded {
+
+    private final Map<String, String> properties;
+    private final List<Path> paths;
+    private final List<FileTime> modified;
+
+    Profile(@Nullable AwsCredentials credentials, Map<String, String> properties, List<Path> paths,
+            List<FileTime> modified, long staleAt) {
+      // The files can always be read again, so the profile never expires
+      super(credentials, staleAt, Long.MAX_VALUE);
+      this.properties = properties;
+      this.paths = paths;
+      this.modified = modified;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.util.Map;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Credentials from the environment passed in, Java system properties or environment variables, as
+ * found by {@link ConfigurationProvider#lookup}.  All of these are in memory, so they are looked up
+ * again each time.
+ */
+@ParametersAreNonnullByDefault
+class PropertyCredentialsProvider implements AwsCredentialsProvider {
+
+  private final Map<String, ?> env;
+  @Nullable
+  private volatile AwsCredentials last;
+
+  PropertyCredentialsProvider(Map<String, ?> env) {
+    this.env = env;
+  }
+
+  @Override
+  @Nullable
+  public AwsCredentials getCredentials() {
+    String accessKey = ConfigurationProvider.lookup(AwsCredentialProperty.AWS_ACCESS_KEY_ID,
+                                                    this.env, null);
+    String secretKey = ConfigurationProvider.lookup(AwsCredentialProperty.AWS_SECRET_KEY,
+                                                    this.env, null);
+    if (accessKey == null || secretKey == null) {
+      return null;
+    }
+    String sessionToken = ConfigurationProvider.lookup(AwsCredentialProperty.AWS_SESSION_TOKEN,
+                                                       this.env, null);
+    AwsCredentials last = this.last;
+    if (last == null || !last.getAccessKey().equals(accessKey) ||
+        !last.getSecretKey().equals(secretKey) ||
+        !Objects.equals(last.getSessionToken(), sessionToken)) {
+      last = new AwsCredentials(accessKey, secretKey, sessionToken, null);
+      this.last = last;
+    }
+    return last;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Answers from credentials held in memory.  Once they are stale they are loaded again on a
+ * background thread while the held ones are still handed out; callers only wait for a load when
+ * there is nothing loaded yet or what was loaded has expired.  A background load that fails keeps
+ * the held credentials and is not tried again for {@link #RETRY_MILLIS}.
+ * <p>
+ * With {@code prefetch}, the background load is also scheduled for when credentials become stale,
+ * rather than waiting for the first caller after that, so credentials which expire are replaced
+ * even when nothing asks for them between going stale and expiring.
+ *
+ * @param <L> What a load produces, which is passed to the next load
+ */
+@ParametersAreNonnullByDefault
+abstract class RefreshingCredentialsProvider<L extends RefreshingCredentialsProvider.Loaded>
+    implements AwsCredentialsProvider {
+
+  private static final Logger LOG = Logger.getLogger(RefreshingCredentialsProvider.class.getName());
+
+  static final long RETRY_MILLIS = 1000;
+
+  private static final ExecutorService REFRESHER = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "aws-nano-credentials-refresh");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private static final ScheduledExecutorService PREFETCHER =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aws-nano-credentials-prefetch");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final boolean prefetch;
+  private final AtomicBoolean refreshing = new AtomicBoolean();
+  @Nullable
+  private volatile L loaded;
+  private volatile long retryAt;
+
+  protected RefreshingCredentialsProvider() {
+    this(false);
+  }
+
+  /**
+   * @param prefetch Whether to refresh when the credentials become stale, whether or not they are
+   *                 asked for
+   */
+  protected RefreshingCredentialsProvider(boolean prefetch) {
+    this.prefetch = prefetch;
+  }
+
+  /**
+   * @param previous What the last load produced, if there was one
+   * @throws RuntimeException if the credentials could not be loaded
+   */
+  protected abstract L load(@Nullable L previous);
+
+  @Override
+  @Nullable
+  public AwsCredentials getCredentials() {
+    return current().getCredentials();
+  }
+
+  /**
+   * @return What was loaded, loading it first if needed and starting a refresh if it is stale
+   */
+  protected L current() {
+    L current = this.loaded;
+    long now = System.currentTimeMillis();
+    if (current == null || now >= current.getExpiresAt()) {
+      synchronized (this) {
+        current = this.loaded;
+        if (current == null || System.currentTimeMillis() >= current.getExpiresAt()) {
+          current = load(current);
+          this.loaded = current;
+          schedule(current, current.getStaleAt());
+        }
+      }
+    } else if (now >= current.getStaleAt() && now >= this.retryAt) {
+      startRefresh(current);
+    }
+    return current;
+  }
+
+  private void startRefresh(L stale) {
+    if (this.refreshing.compareAndSet(false, true)) {
+      try {
+        REFRESHER.execute(() -> refresh(stale));
+      } catch (RejectedExecutionException e) {
+        this.refreshing.set(false);
+      }
+    }
+  }
+
+  private void refresh(L stale) {
+    try {
+      L refreshed = load(stale);
+      synchronized (this) {
+        // Unless a caller loaded it again in the meantime
+        if (this.loaded == stale) {
+          this.loaded = refreshed;
+          schedule(refreshed, refreshed.getStaleAt());
+        }
+      }
+    } catch (RuntimeException e) {
+      this.retryAt = System.currentTimeMillis() + RETRY_MILLIS;
+      LOG.log(Level.WARNING, "Failed refreshing credentials; keeping the current ones", e);
+      schedule(stale, this.retryAt);
+    } finally {
+      this.refreshing.set(false);
+    }
+  }
+
+  /**
+   * Schedules a background refresh of what was loaded, if prefetching and it is still current then.
+   */
+  private void schedule(L loaded, long at) {
+    if (!this.prefetch || loaded.getCredentials() == null || at >= loaded.getExpiresAt()) {
+      return;
+    }
+    try {
+      PREFETCHER.schedule(() -> {
+        if (this.loaded == loaded) {
+          startRefresh(loaded);
+        }
+      }, Math.max(0, at - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOG.log(Level.FINE, "Credentials refresh not scheduled", e);
+    }
+  }
+
+  /**
+   * Loaded credentials, which are refreshed in the background after {@code staleAt} and no longer
+   * handed out after {@code expiresAt}, both in epoch milliseconds.
+   */
+  static class Loaded {
+
+    @Nullable
+    private final AwsCredentials credentials;
+    private final long staleAt;
+    private final long expiresAt;
+
+    Loaded(@Nullable AwsCredentials credentials, long staleAt, long expiresAt) {
+      this.credentials = credentials;
+      this.staleAt = staleAt;
+      this.expiresAt = expiresAt;
+    }
+
+    @Nullable
+    AwsCredentials getCredentials() {
+      return this.credentials;
+    }
+
+    long getStaleAt() {
+      return this.staleAt;
+    }
+
+    long getExpiresAt() {
+      return this.expiresAt;
+    }
+  }
+}
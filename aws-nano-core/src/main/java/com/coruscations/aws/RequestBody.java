@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The body of a request, written to the connection straight from its source rather than copied
+ * into a string or array first.  Bodies of unknown length are sent with chunked transfer encoding.
+ * <p>
+ * Repeatable bodies can be read more than once, so they can be hashed for signing and may be
+ * resent on a fresh connection; a stream can be read only once, so it is signed a chunk at a time
+ * as it is sent where the endpoint allows it, and otherwise sent as {@link
+ * SigningHelper#UNSIGNED_PAYLOAD}.  See {@link PayloadSigning}.
+ */
+@ParametersAreNonnullByDefault
+public abstract class RequestBody {
+
+  public static final RequestBody EMPTY = new InMemory(ByteBuffer.allocate(0));
+
+  static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
+  @Nonnull
+  public static RequestBody of(byte[] bytes) {
+    return of(bytes, 0, bytes.length);
+  }
+
+  @Nonnull
+  public static RequestBody of(byte[] bytes, int offset, int length) {
+    return length == 0 ? EMPTY : new InMemory(ByteBuffer.wrap(bytes, offset, length).slice());
+  }
+
+  /**
+   * @return The text encoded as UTF-8
+   */
+  @Nonnull
+  public static RequestBody of(String text) {
+    return text.isEmpty() ? EMPTY : of(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return The bytes between the buffer's position and limit, which it does not change
+   */
+  @Nonnull
+  public static RequestBody of(ByteBuffer buffer) {
+    return buffer.hasRemaining() ? new InMemory(buffer.slice()) : EMPTY;
+  }
+
+  /**
+   * @return {@code count} bytes of the file from {@code position}, read without moving the
+   *         channel's own position
+   */
+  @Nonnull
+  public static RequestBody of(FileChannel channel, long position, long count) {
+    if (position < 0 || count < 0) {
+      throw new IllegalArgumentException("Invalid file region: " + position + "+" + count);
+    }
+    return count == 0 ? EMPTY : new FileRegion(channel, position, count, false);
+  }
+
+  /**
+   * @return {@code count} bytes of the file from {@code position}, as {@link #of(FileChannel,
+   *         long, long)} but hashed and, where it cannot go straight from the file to the socket,
+   *         sent from a read-only mapping of the region rather than copied onto the heap.
+   *         Regions too large to map are read as usual.
+   */
+  @Nonnull
+  public static RequestBody mapped(FileChannel channel, long position, long count) {
+    if (position < 0 || count < 0) {
+      throw new IllegalArgumentException("Invalid file region: " + position + "+" + count);
+    }
+    return count == 0 ? EMPTY :
+           new FileRegion(channel, position, count, count <= Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param length The number of bytes the stream will supply, or -1 if not known
+   * @return A body that can be sent once, which reads the stream but does not close it
+   */
+  @Nonnull
+  public static RequestBody of(InputStream in, long length) {
+    return length == 0 ? EMPTY : new Stream(in, length);
+  }
+
+  /**
+   * @return The length in bytes, or -1 if it is not known in advance
+   */
+  public abstract long getContentLength();
+
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  /**
+   * Writes the whole body, for blocking transports.
+   */
+  public abstract void writeTo(OutputStream out) throws IOException;
+
+  /**
+   * Opens the body to be read from its start.
+   */
+  @Nonnull
+  public abstract ReadableByteChannel openChannel() throws IOException;
+
+  /**
+   * @return The body as a buffer of its own to be read once, or null unless it is already in memory
+   */
+  @Nullable
+  ByteBuffer getBuffer() {
+    return null;
+  }
+
+  /**
+   * @return The body as a buffer of its own to be read once, without copying it onto the heap, or
+   *         null if it cannot be had as one
+   */
+  @Nullable
+  ByteBuffer map() throws IOException {
+    return getBuffer();
+  }
+
+  private static final class InMemory extends RequestBody {
+
+    private final ByteBuffer buffer;
+
+    InMemory(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public long getContentLength() {
+      return this.buffer.remaining();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      ByteBuffer bytes = this.buffer.duplicate();
+      if (bytes.hasArray()) {
+        out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+      } else {
+        Channels.newChannel(out).write(bytes);
+      }
+    }
+
+    @Nonnull
+    @Override
+    public ReadableByteChannel openChannel() {
+      return Channels.newChannel(new ByteBufferInputStream(this.buffer.duplicate()));
+    }
+
+    @Override
+    ByteBuffer getBuffer() {
+      return this.buffer.duplicate();
+    }
+  }
+
+  /**
+   * A region of a file, which the non-blocking transport can send with {@link
+   * FileChannel#transferTo}.
+   */
+  static final class FileRegion extends RequestBody {
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+    private final boolean mappable;
+    // Mapped on first use and shared by every read, including those of a retry
+    @Nullable
+    private volatile MappedByteBuffer mapping;
+
+    FileRegion(FileChannel channel, long position, long count, boolean mappable) {
+      this.channel = channel;
+      this.position = position;
+      this.count = count;
+      this.mappable = mappable;
+    }
+
+    @Override
+    public long getContentLength() {
+      return this.count;
+    }
+
+    /**
+     * The mapping is released when it is garbage collected, not when the channel is closed.
+     */
+    @Nullable
+    @Override
+    ByteBuffer map() throws IOException {
+      if (!this.mappable) {
+        return null;
+      }
+      MappedByteBuffer mapping = this.mapping;
+      if (mapping == null) {
+        if (this.channel.size() < this.position + this.count) {
+          throw new IOException("File truncated before sending it");
+        }
+        mapping = this.channel.map(FileChannel.MapMode.READ_ONLY, this.position, this.count);
+        this.mapping = mapping;
+      }
+      return mapping.duplicate();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      WritableByteChannel target = Channels.newChannel(out);
+      ByteBuffer mapped = map();
+      if (mapped != null) {
+        while (mapped.hasRemaining()) {
+          target.write(mapped);
+        }
+        return;
+      }
+      long written = 0;
+      while (written < this.count) {
+        written += transferTo(written, this.count - written, target);
+      }
+    }
+
+    /**
+     * @return The number of bytes written, starting {@code offset} bytes into the region
+     */
+    long transferTo(long offset, long length, WritableByteChannel target) throws IOException {
+      long transferred = this.channel.transferTo(this.position + offset, length, target);
+      if (transferred == 0 && this.channel.size() < this.position + this.count) {
+        throw new IOException("File truncated while sending it");
+      }
+      return transferred;
+    }
+
+    @Nonnull
+    @Override
+    public ReadableByteChannel openChannel() {
+      return new ReadableByteChannel() {
+        private long offset;
+        private boolean open = true;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+          long left = FileRegion.this.count - this.offset;
+          if (left <= 0) {
+            return -1;
+          }
+          ByteBuffer target = dst;
+          if (dst.remaining() > left) {
+            target = dst.duplicate();
+            target.limit(target.position() + (int) left);
+          }
+          int read = FileRegion.this.channel.read(target, FileRegion.this.position + this.offset);
+          if (read < 0) {
+            throw new IOException("File truncated while sending it");
+          }
+          if (target != dst) {
+            dst.position(target.position());
+          }
+          this.offset += read;
+          return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+          return this.open;
+        }
+
+        @Override
+        public void close() {
+          // The file channel belongs to the caller
+          this.open = false;
+        }
+      };
+    }
+  }
+
+  private static final class Stream extends RequestBody {
+
+    private final InputStream in;
+    private final long length;
+    private boolean opened;
+
+    Stream(InputStream in, long length) {
+      this.in = in;
+      this.length = length;
+    }
+
+    @Override
+    public long getContentLength() {
+      return this.length;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return false;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+      ReadableByteChannel channel = openChannel();
+      ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+      while (channel.read(buffer) >= 0) {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+    }
+
+    /**
+     * @return A channel over the stream that stops at its length, if known, failing if the stream
+     *         ends before it; closing the channel leaves the stream open
+     */
+    @Nonnull
+    @Override
+    public ReadableByteChannel openChannel() throws IOException {
+      synchronized (this) {
+        if (this.opened) {
+          throw new IOException("A streamed request body can only be sent once");
+        }
+        this.opened = true;
+      }
+      ReadableByteChannel source = Channels.newChannel(this.in);
+      return new ReadableByteChannel() {
+        private long remaining = Stream.this.length < 0 ? Long.MAX_VALUE : Stream.this.length;
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+          if (this.remaining == 0) {
+            return -1;
+          }
+          ByteBuffer target = dst;
+          if (dst.remaining() > this.remaining) {
+            target = dst.duplicate();
+            target.limit(target.position() + (int) this.remaining);
+          }
+          int read = source.read(target);
+          if (read < 0) {
+            if (Stream.this.length < 0) {
+              return -1;
+            }
+            throw new IOException("Request body ended " + this.remaining + " bytes short of " +
+                                  Stream.this.length);
+          }
+          if (target != dst) {
+            dst.position(target.position());
+          }
+          this.remaining -= read;
+          return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+          return source.isOpen();
+        }
+
+        @Override
+        public void close() {
+          // The stream belongs to the caller
+        }
+      };
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!this.buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, this.buffer.remaining());
+      this.buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return this.buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Reads exactly one response body off a keep-alive connection, honoring either the content
+ * length or chunked framing.  The release callback is invoked exactly once: with {@code true}
+ * when the body was consumed to its end and the connection may be reused, {@code false} when the
+ * connection must be discarded.
+ */
+@ParametersAreNonnullByDefault
+class ResponseBodyInputStream extends InputStream {
+
+  /** Bodies with at most this much left unread are drained on close rather than discarded. */
+  private static final long MAX_DRAIN = 64 * 1024;
+
+  private final HttpConnection connection;
+  private final InputStream in;
+  private final boolean chunked;
+  private final boolean reusable;
+  private final Consumer<Boolean> release;
+
+  // Bytes left in the body (fixed length) or in the current chunk; -1 until close for neither
+  private long remaining;
+  private boolean eof;
+  private boolean released;
+
+  ResponseBodyInputStream(HttpConnection connection, boolean chunked, long contentLength,
+                          boolean reusable, Consumer<Boolean> release) {
+    this.connection = connection;
+    this.in = connection.getInputStream();
+    this.chunked = chunked;
+    this.reusable = reusable && (chunked || contentLength >= 0);
+    this.release = release;
+    this.remaining = chunked ? 0 : contentLength;
+    if (!chunked && contentLength == 0) {
+      finish();
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int read = read(single, 0, 1);
+    return read < 0 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (this.eof) {
+      return -1;
+    }
+    if (this.released) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    try {
+      if (this.chunked && this.remaining == 0 && !nextChunk()) {
+        return -1;
+      }
+      int toRead = this.remaining < 0 ? len : (int) Math.min(len, this.remaining);
+      int read = this.in.read(b, off, toRead);
+      if (read < 0) {
+        if (this.remaining < 0) {
+          // Delimited by connection close
+          finish();
+          return -1;
+        }
+        throw new EOFException("Connection to " + this.connection.getRoute() +
+                               " closed with " + this.remaining + " bytes of body left");
+      }
+      if (this.remaining > 0) {
+        this.remaining -= read;
+        if (this.remaining == 0) {
+          if (this.chunked) {
+            this.connection.readLine(false);
+          } else {
+            finish();
+          }
+        }
+      }
+      return read;
+    } catch (IOException e) {
+      releaseOnce(false);
+      throw e;
+    }
+  }
+
+  private boolean nextChunk() throws IOException {
+    String sizeLine = this.connection.readLine(false);
+    int extension = sizeLine.indexOf(';');
+    String size = (extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim();
+    try {
+      this.remaining = Long.parseLong(size, 16);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid chunk size: " + sizeLine, e);
+    }
+    if (this.remaining == 0) {
+      // Skip trailers
+      String line;
+      do {
+        line = this.connection.readLine(false);
+      } while (!line.isEmpty());
+      finish();
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int available() throws IOException {
+    if (this.eof || this.released) {
+      return 0;
+    }
+    int available = this.in.available();
+    return this.remaining < 0 ? available : (int) Math.min(available, this.remaining);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.eof || this.released) {
+      return;
+    }
+    if (this.reusable && (this.chunked || this.remaining <= MAX_DRAIN)) {
+      byte[] buffer = new byte[8192];
+      long drained = 0;
+      try {
+        while (!this.eof && drained <= MAX_DRAIN) {
+          int read = read(buffer, 0, buffer.length);
+          if (read < 0) {
+            break;
+          }
+          drained += read;
+        }
+      } catch (IOException e) {
+        // Already released as not reusable
+        return;
+      }
+    }
+    releaseOnce(false);
+  }
+
+  private void finish() {
+    this.eof = true;
+    releaseOnce(this.reusable);
+  }
+
+  private void releaseOnce(boolean reuse) {
+    if (!this.released) {
+      this.released = true;
+      this.release.accept(reuse);
+    }
+  }
+}
@@ -42,6 +42,15 @@ public interface RestCommand<T extends RestCommandResponse> {
     return "";
   }
 
+  /**
+   * @return The body to send; by default {@link #createBody} as UTF-8.  Commands uploading data
+   * should return it from its source rather than building a string.
+   */
+  @Nonnull
+  default RequestBody createRequestBody(Endpoint endpoint) {
+    return RequestBody.of(createBody(endpoint));
+  }
+
   default void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
   }
 
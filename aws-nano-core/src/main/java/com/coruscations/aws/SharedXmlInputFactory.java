@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.EventFilter;
+import javax.xml.stream.StreamFilter;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLReporter;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.XMLEventAllocator;
+import javax.xml.transform.Source;
+
+/**
+ * An {@link XMLInputFactory} configured once and then shared by every caller with the same
+ * configuration, so that short-lived command objects neither look up a factory implementation
+ * each time nor configure it differently.
+ * <p>
+ * The implementation is the platform default unless {@link Constants#XML_INPUT_FACTORY} names
+ * one.  Text is not coalesced unless {@link Constants#XML_COALESCING} is set, since the parsers
+ * read text with {@link ElementTextReader}, which joins it anyway.  DTDs are refused unless
+ * {@link Constants#XML_SUPPORT_DTD} is set, and external entities are never resolved, as nothing
+ * S3 sends needs either.  Setting any property of the shared factory fails; an {@link
+ * XMLInputFactory} instance placed in the environment under {@link Constants#XML_INPUT_FACTORY}
+ * is used as-is instead.
+ */
+@ParametersAreNonnullByDefault
+public final class SharedXmlInputFactory extends XMLInputFactory {
+
+  private static final Logger LOG = Logger.getLogger(SharedXmlInputFactory.class.getName());
+
+  private static final ConcurrentMap<List<Object>, XMLInputFactory> SHARED =
+      new ConcurrentHashMap<>();
+
+  private final XMLInputFactory factory;
+
+  private SharedXmlInputFactory(XMLInputFactory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * @return The factory for the configuration, shared with every other caller with the same
+   */
+  public static XMLInputFactory get(ConfigurationProvider configurationProvider) {
+    Object configured = configurationProvider.getEnv().get(Constants.XML_INPUT_FACTORY);
+    if (configured instanceof XMLInputFactory) {
+      return (XMLInputFactory) configured;
+    }
+    String implementation = configured == null ? null : configured.toString().trim();
+    boolean coalescing = configurationProvider.getBoolean(Constants.XML_COALESCING, false);
+    boolean supportDtd = configurationProvider.getBoolean(Constants.XML_SUPPORT_DTD, false);
+    return SHARED.computeIfAbsent(Arrays.asList(implementation, coalescing, supportDtd),
+                                  key -> create(implementation, coalescing, supportDtd));
+  }
+
+  private static XMLInputFactory create(@Nullable String implementation, boolean coalescing,
+                                        boolean supportDtd) {
+    XMLInputFactory factory;
+    if (implementation == null || implementation.isEmpty()) {
+      factory = XMLInputFactory.newFactory();
+    } else {
+      try {
+        factory = Class.forName(implementation).asSubclass(XMLInputFactory.class)
+            .getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        throw new IllegalArgumentException("Invalid value for " + Constants.XML_INPUT_FACTORY +
+                                           ": " + implementation, e);
+      }
+    }
+    factory.setProperty(IS_COALESCING, coalescing);
+    factory.setProperty(SUPPORT_DTD, supportDtd);
+    factory.setProperty(IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    LOG.log(Level.FINE, "Sharing {0} (coalescing {1}, DTDs {2})",
+            new Object[]{factory.getClass().getName(), coalescing, supportDtd});
+    return new SharedXmlInputFactory(factory);
+  }
+
+  @Override
+  public XMLStreamReader createXMLStreamReader(Reader reader) throws XMLStreamException {
+    return this.factory.createXMLStreamReader(reader);
+  }
+
+  @Override
+  public XMLStreamReader createXMLStreamReader(Source source) throws XMLStreamException {
+    return this.factory.createXMLStreamReader(source);
+  }
+
+  @Override
+  public XMLStreamReader createXMLStreamReader(InputStream stream) throws XMLStreamException {
+    return this.factory.createXMLStreamReader(stream);
+  }
+
+  @Override
+  public XMLStreamReader createXMLStreamReader(InputStream stream, String encoding)
+      throws XMLStreamException {
+    return this.factory.createXMLStreamReader(stream, encoding);
+  }
+
+  @Override
+  public XMLStreamReader createXMLStreamReader(String systemId, InputStream stream)
+      throws XMLStreamException {
+    return this.factory.createXMLStreamReader(systemId, stream);
+  }
+
+  @Override
+  public XMLStreamReader createXMLStreamReader(String systemId, Reader reader)
+      throws XMLStreamException {
+    return this.factory.createXMLStreamReader(systemId, reader);
+  }
+
+  @Override
+  public XMLEventReader createXMLEventReader(Reader reader) throws XMLStreamException {
+    return this.factory.createXMLEventReader(reader);
+  }
+
+  @Override
+  public XMLEventReader createXMLEventReader(String systemId, Reader reader)
+      throws XMLStreamException {
+    return this.factory.createXMLEventReader(systemId, reader);
+  }
+
+  @Override
+  public XMLEventReader createXMLEventReader(XMLStreamReader reader) throws XMLStreamException {
+    return this.factory.createXMLEventReader(reader);
+  }
+
+  @Override
+  public XMLEventReader createXMLEventReader(Source source) throws XMLStreamException {
+    return this.factory.createXMLEventReader(source);
+  }
+
+  @Override
+  public XMLEventReader createXMLEventReader(InputStream stream) throws XMLStreamException {
+    return this.factory.createXMLEventReader(stream);
+  }
+
+  @Override
+  public XMLEventReader createXMLEventReader(InputStream stream, String encoding)
+      throws XMLStreamException {
+    return this.factory.createXMLEventReader(stream, encoding);
+  }
+
+  @Override
+  public XMLEventReader createXMLEventReader(String systemId, InputStream stream)
+      throws XMLStreamException {
+    return this.factory.createXMLEventReader(systemId, stream);
+  }
+
+  @Override
+  public XMLStreamReader createFilteredReader(XMLStreamReader reader, StreamFilter filter)
+      throws XMLStreamException {
+    return this.factory.createFilteredReader(reader, filter);
+  }
+
+  @Override
+  public XMLEventReader createFilteredReader(XMLEventReader reader, EventFilter filter)
+      throws XMLStreamException {
+    return this.factory.createFilteredReader(reader, filter);
+  }
+
+  @Override
+  public XMLResolver getXMLResolver() {
+    return this.factory.getXMLResolver();
+  }
+
+  @Override
+  public void setXMLResolver(XMLResolver resolver) {
+    throw new UnsupportedOperationException("The shared XML input factory cannot be changed");
+  }
+
+  @Override
+  public XMLReporter getXMLReporter() {
+    return this.factory.getXMLReporter();
+  }
+
+  @Override
+  public void setXMLReporter(XMLReporter reporter) {
+    throw new UnsupportedOperationException("The shared XML input factory cannot be changed");
+  }
+
+  @Override
+  public void setProperty(String name, Object value) {
+    throw new UnsupportedOperationException("The shared XML input factory cannot be changed");
+  }
+
+  @Override
+  public Object getProperty(String name) {
+    return this.factory.getProperty(name);
+  }
+
+  @Override
+  public boolean isPropertySupported(String name) {
+    return this.factory.isPropertySupported(name);
+  }
+
+  @Override
+  public void setEventAllocator(XMLEventAllocator allocator) {
+    throw new UnsupportedOperationException("The shared XML input factory cannot be changed");
+  }
+
+  @Override
+  public XMLEventAllocator getEventAllocator() {
+    return this.factory.getEventAllocator();
+  }
+}
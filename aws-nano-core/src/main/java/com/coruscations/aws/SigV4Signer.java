@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Computes SigV4 signatures by writing the canonical request and the string to sign straight into
+ * a reusable per-thread byte buffer and hashing it in place, so that signing allocates little more
+ * than the resulting authorization header.  The output is identical to the string based
+ * {@link StandardHttpURLConnectionBuilder#createCanonicalRequest()} and friends, which remain for
+ * diagnostics.
+ * <p>
+ * Instances are not thread safe; use {@link #get()}.
+ */
+@ParametersAreNonnullByDefault
+class SigV4Signer {
+
+  private static final ThreadLocal<SigV4Signer> SIGNERS = ThreadLocal.withInitial(SigV4Signer::new);
+
+  private static final byte[] ALGORITHM = "AWS4-HMAC-SHA256".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] AWS4_REQUEST = "aws4_request".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] CREDENTIAL = " Credential=".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SIGNED_HEADERS =
+      ", SignedHeaders=".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] SIGNATURE = ", Signature=".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] UPPER_HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+  private static final int HASH_LENGTH = 32;
+
+  private final MessageDigest sha256 = SigningHelper.getMessageDigest(
+      SigningHelper.SHA_256_ALGORITHM);
+  private final Mac hmacSha256 = SigningHelper.getMac(SigningHelper.HMAC_SHA_256_ALGORITHM);
+  private SecretKeySpec macKey;
+
+  private final byte[] hash = new byte[HASH_LENGTH];
+
+  // The canonical request, then the string to sign, then the authorization header
+  private byte[] buffer = new byte[1024];
+  private int length;
+
+  // Encoded query keys and values, referenced by offset
+  private byte[] scratch = new byte[256];
+  private int scratchLength;
+  // Per query parameter: key start, key end, value start, value end
+  private int[] parameters = new int[32];
+  private int[] order = new int[8];
+  // Start and end of each path segment kept after normalization
+  private int[] segments = new int[32];
+
+  static SigV4Signer get() {
+    return SIGNERS.get();
+  }
+
+  /**
+   * @param signedHeaders The names of the headers to sign, sorted case insensitively
+   * @param formattedDateTime The request date, as {@code yyyyMMdd'T'HHmmss'Z'}
+   * @return The value for the {@code Authorization} header
+   */
+  String createAuthorization(HttpMethod method, @Nullable String path, List<String[]> query,
+                             Map<String, List<String>> headers, Collection<String> signedHeaders,
+                             String bodyHash, String formattedDateTime, String region,
+                             String service, @Nullable String accessKey, SecretKeySpec signingKey)
+      throws InvalidKeyException {
+    writeCanonicalRequest(method, path, query, headers, signedHeaders, bodyHash);
+    hash(this.sha256, 0, this.length);
+
+    // String to sign, overwriting the canonical request
+    this.length = 0;
+    write(ALGORITHM);
+    write('\n');
+    write(formattedDateTime);
+    write('\n');
+    writeScope(formattedDateTime, region, service);
+    write('\n');
+    writeHex(this.hash);
+
+    if (signingKey != this.macKey) {
+      this.hmacSha256.init(signingKey);
+      this.macKey = signingKey;
+    }
+    this.hmacSha256.update(this.buffer, 0, this.length);
+    try {
+      this.hmacSha256.doFinal(this.hash, 0);
+    } catch (ShortBufferException e) {
+      throw new IllegalStateException("Signature does not fit in hash buffer", e);
+    }
+
+    // Authorization
+    this.length = 0;
+    write(ALGORITHM);
+    write(CREDENTIAL);
+    write(String.valueOf(accessKey));
+    write('/');
+    writeScope(formattedDateTime, region, service);
+    write(SIGNED_HEADERS);
+    writeSignedHeaders(signedHeaders);
+    write(SIGNATURE);
+    writeHex(this.hash);
+    return new String(this.buffer, 0, this.length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return The canonical request as a string; for tests and diagnostics
+   */
+  String createCanonicalRequest(HttpMethod method, @Nullable String path, List<String[]> query,
+                                Map<String, List<String>> headers,
+                                Collection<String> signedHeaders, String bodyHash) {
+    writeCanonicalRequest(method, path, query, headers, signedHeaders, bodyHash);
+    return new String(this.buffer, 0, this.length, StandardCharsets.UTF_8);
+  }
+
+  private void writeCanonicalRequest(HttpMethod method, @Nullable String path,
+                                     List<String[]> query, Map<String, List<String>> headers,
+                                     Collection<String> signedHeaders, String bodyHash) {
+    this.length = 0;
+    write(method.name());
+    write('\n');
+    writeCanonicalPath(path);
+    write('\n');
+    writeCanonicalQuery(query);
+    write('\n');
+    writeCanonicalHeaders(headers, signedHeaders);
+    write('\n');
+    writeSignedHeaders(signedHeaders);
+    write('\n');
+    write(bodyHash);
+  }
+
+  private void writeScope(String formattedDateTime, String region, String service) {
+    int t = formattedDateTime.indexOf('T');
+    write(formattedDateTime, 0, t < 0 ? formattedDateTime.length() : t);
+    write('/');
+    write(region);
+    write('/');
+    write(service);
+    write('/');
+    write(AWS4_REQUEST);
+  }
+
+  /**
+   * Same result as normalizing the path with {@link java.nio.file.Path#normalize()}: repeated
+   * slashes and {@code .} segments are dropped and {@code ..} segments are resolved; a trailing
+   * slash is kept.
+   */
+  private void writeCanonicalPath(@Nullable String path) {
+    if (path == null || path.isEmpty()) {
+      write('/');
+      return;
+    }
+    int pathLength = path.length();
+    boolean absolute = path.charAt(0) == '/';
+    int count = 0;
+    int start = 0;
+    while (start < pathLength) {
+      int end = path.indexOf('/', start);
+      if (end < 0) {
+        end = pathLength;
+      }
+      int segmentLength = end - start;
+      boolean current = segmentLength == 0 || (segmentLength == 1 && path.charAt(start) == '.');
+      boolean parent = segmentLength == 2 && path.charAt(start) == '.' &&
+                       path.charAt(start + 1) == '.';
+      if (parent && count > 0 && !isParent(path, count - 1)) {
+        count--;
+      } else if (!current && !(parent && absolute)) {
+        // A leading ".." is only kept in relative paths
+        count = addSegment(count, start, end);
+      }
+      start = end + 1;
+    }
+    int normalizedLength = absolute ? 1 : 0;
+    for (int i = 0; i < count; i++) {
+      normalizedLength += this.segments[2 * i + 1] - this.segments[2 * i] + (i > 0 ? 1 : 0);
+    }
+    write('/');
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        write('/');
+      }
+      write(path, this.segments[2 * i], this.segments[2 * i + 1]);
+    }
+    if (normalizedLength > 1 && path.charAt(pathLength - 1) == '/') {
+      write('/');
+    }
+  }
+
+  private boolean isParent(String path, int segment) {
+    int start = this.segments[2 * segment];
+    return this.segments[2 * segment + 1] - start == 2 &&
+           path.charAt(start) == '.' && path.charAt(start + 1) == '.';
+  }
+
+  private int addSegment(int count, int start, int end) {
+    if (2 * count + 2 > this.segments.length) {
+      this.segments = Arrays.copyOf(this.segments, this.segments.length * 2);
+    }
+    this.segments[2 * count] = start;
+    this.segments[2 * count + 1] = end;
+    return count + 1;
+  }
+
+  /**
+   * Encodes every key and value, sorts the pairs by key then value and drops exact duplicates.
+   */
+  private void writeCanonicalQuery(List<String[]> query) {
+    int count = query.size();
+    if (count == 0) {
+      return;
+    }
+    if (this.parameters.length < count * 4) {
+      this.parameters = new int[Integer.highestOneBit(count * 4) * 2];
+    }
+    if (this.order.length < count) {
+      this.order = new int[Integer.highestOneBit(count) * 2];
+    }
+    this.scratchLength = 0;
+    int p = 0;
+    for (String[] keyVal : query) {
+      this.parameters[4 * p] = this.scratchLength;
+      encodeQueryComponent(keyVal[0]);
+      this.parameters[4 * p + 1] = this.scratchLength;
+      this.parameters[4 * p + 2] = this.scratchLength;
+      encodeQueryComponent(keyVal.length > 1 ? keyVal[1] : null);
+      this.parameters[4 * p + 3] = this.scratchLength;
+      this.order[p] = p;
+      p++;
+    }
+    // Insertion sort; queries are small and this avoids boxing
+    for (int i = 1; i < count; i++) {
+      int current = this.order[i];
+      int j = i - 1;
+      while (j >= 0 && compareParameters(this.order[j], current) > 0) {
+        this.order[j + 1] = this.order[j];
+        j--;
+      }
+      this.order[j + 1] = current;
+    }
+    int previous = -1;
+    for (int i = 0; i < count; i++) {
+      int current = this.order[i];
+      if (previous >= 0 && compareParameters(previous, current) == 0) {
+        continue;
+      }
+      if (previous >= 0) {
+        write('&');
+      }
+      writeScratch(this.parameters[4 * current], this.parameters[4 * current + 1]);
+      write('=');
+      writeScratch(this.parameters[4 * current + 2], this.parameters[4 * current + 3]);
+      previous = current;
+    }
+  }
+
+  private int compareParameters(int a, int b) {
+    int compare = compareScratch(this.parameters[4 * a], this.parameters[4 * a + 1],
+                                 this.parameters[4 * b], this.parameters[4 * b + 1]);
+    return compare != 0 ? compare :
+           compareScratch(this.parameters[4 * a + 2], this.parameters[4 * a + 3],
+                          this.parameters[4 * b + 2], this.parameters[4 * b + 3]);
+  }
+
+  private int compareScratch(int aStart, int aEnd, int bStart, int bEnd) {
+    // Encoded components are ASCII, so a signed byte comparison is fine
+    for (int a = aStart, b = bStart; a < aEnd && b < bEnd; a++, b++) {
+      int compare = this.scratch[a] - this.scratch[b];
+      if (compare != 0) {
+        return compare;
+      }
+    }
+    return (aEnd - aStart) - (bEnd - bStart);
+  }
+
+  /**
+   * Same encoding as {@link EncodingHelper#awsEncodeURLComponent(String, boolean)} for
+   * non-path components: unreserved characters are kept and everything else is percent encoded
+   * as UTF-8, with unpaired surrogates encoded as {@code ?}.
+   */
+  private void encodeQueryComponent(@Nullable String value) {
+    if (value == null) {
+      return;
+    }
+    int valueLength = value.length();
+    ensureScratchCapacity(valueLength * 3);
+    for (int i = 0; i < valueLength; i++) {
+      char c = value.charAt(i);
+      if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+          c == '-' || c == '.' || c == '_' || c == '~') {
+        this.scratch[this.scratchLength++] = (byte) c;
+      } else if (c < 0x80) {
+        percentEncode(c);
+      } else if (c < 0x800) {
+        percentEncode(0xc0 | (c >> 6));
+        percentEncode(0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < valueLength &&
+                 Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        percentEncode(0xf0 | (codePoint >> 18));
+        percentEncode(0x80 | ((codePoint >> 12) & 0x3f));
+        percentEncode(0x80 | ((codePoint >> 6) & 0x3f));
+        percentEncode(0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        percentEncode('?');
+      } else {
+        percentEncode(0xe0 | (c >> 12));
+        percentEncode(0x80 | ((c >> 6) & 0x3f));
+        percentEncode(0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  private void percentEncode(int b) {
+    ensureScratchCapacity(3);
+    this.scratch[this.scratchLength++] = '%';
+    this.scratch[this.scratchLength++] = UPPER_HEX[(b >> 4) & 0x0f];
+    this.scratch[this.scratchLength++] = UPPER_HEX[b & 0x0f];
+  }
+
+  private void writeCanonicalHeaders(Map<String, List<String>> headers,
+                                     Collection<String> signedHeaders) {
+    for (String signedHeader : signedHeaders) {
+      List<String> values = headers.get(signedHeader);
+      if (values == null) {
+        throw new IllegalStateException("Signed header \"" + signedHeader + "\" not set.");
+      }
+      writeLowerCase(signedHeader);
+      write(':');
+      int size = values.size();
+      if (size == 1) {
+        String value = values.get(0);
+        int start = trimStart(value);
+        int end = trimEnd(value, start);
+        if (end - start >= 2 && value.charAt(start) == '"' && value.charAt(end - 1) == '"' &&
+            value.indexOf(' ', start) - start > 0 && value.indexOf(' ', start) < end) {
+          // Rare enough to not be worth avoiding the allocation; squash inside spaces
+          String trimmed = value.substring(start, end);
+          write(Arrays.stream(trimmed.substring(1, trimmed.length() - 1).split("\\s+"))
+                    .collect(Collectors.joining(" ", "\"", "\"")));
+        } else {
+          write(value, start, end);
+        }
+      } else {
+        for (int i = 0; i < size; i++) {
+          if (i > 0) {
+            write(',');
+          }
+          String value = values.get(i);
+          int start = trimStart(value);
+          write(value, start, trimEnd(value, start));
+        }
+      }
+      write('\n');
+    }
+  }
+
+  private void writeSignedHeaders(Collection<String> signedHeaders) {
+    boolean first = true;
+    for (String signedHeader : signedHeaders) {
+      if (!first) {
+        write(';');
+      }
+      first = false;
+      writeLowerCase(signedHeader);
+    }
+  }
+
+  /** {@link String#trim()} start index. */
+  private static int trimStart(String value) {
+    int start = 0;
+    int end = value.length();
+    while (start < end && value.charAt(start) <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  /** {@link String#trim()} end index. */
+  private static int trimEnd(String value, int start) {
+    int end = value.length();
+    while (end > start && value.charAt(end - 1) <= ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  private void hash(MessageDigest digest, int offset, int length) {
+    digest.update(this.buffer, offset, length);
+    try {
+      digest.digest(this.hash, 0, HASH_LENGTH);
+    } catch (DigestException e) {
+      throw new IllegalStateException("Digest does not fit in hash buffer", e);
+    }
+  }
+
+  private void writeHex(byte[] bytes) {
+    ensureCapacity(bytes.length * 2);
+    SigningHelper.toHex(bytes, 0, bytes.length, this.buffer, this.length);
+    this.length += bytes.length * 2;
+  }
+
+  private void writeScratch(int start, int end) {
+    int count = end - start;
+    ensureCapacity(count);
+    System.arraycopy(this.scratch, start, this.buffer, this.length, count);
+    this.length += count;
+  }
+
+  private void write(byte[] bytes) {
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, this.buffer, this.length, bytes.length);
+    this.length += bytes.length;
+  }
+
+  private void write(char c) {
+    ensureCapacity(1);
+    this.buffer[this.length++] = (byte) c;
+  }
+
+  private void write(String s) {
+    write(s, 0, s.length());
+  }
+
+  private void writeLowerCase(String s) {
+    int start = this.length;
+    write(s, 0, s.length());
+    for (int i = start; i < this.length; i++) {
+      byte b = this.buffer[i];
+      if (b >= 'A' && b <= 'Z') {
+        this.buffer[i] = (byte) (b + ('a' - 'A'));
+      } else if (b < 0) {
+        // Not ASCII; fall back to the JDK for correct case mapping
+        this.length = start;
+        write(s.toLowerCase());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Writes the characters as UTF-8; unpaired surrogates become {@code ?} as with
+   * {@link String#getBytes(java.nio.charset.Charset)}.
+   */
+  private void write(String s, int start, int end) {
+    ensureCapacity((end - start) * 3);
+    byte[] buffer = this.buffer;
+    int length = this.length;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        buffer[length++] = (byte) c;
+      } else if (c < 0x800) {
+        buffer[length++] = (byte) (0xc0 | (c >> 6));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < end &&
+                 Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        buffer[length++] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[length++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (Character.isSurrogate(c)) {
+        buffer[length++] = '?';
+      } else {
+        buffer[length++] = (byte) (0xe0 | (c >> 12));
+        buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        buffer[length++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+    this.length = length;
+  }
+
+  private void ensureCapacity(int additional) {
+    int required = this.length + additional;
+    if (required > this.buffer.length) {
+      this.buffer = Arrays.copyOf(this.buffer, Math.max(required, this.buffer.length * 2));
+    }
+  }
+
+  private void ensureScratchCapacity(int additional) {
+    int required = this.scratchLength + additional;
+    if (required > this.scratch.length) {
+      this.scratch = Arrays.copyOf(this.scratch, Math.max(required, this.scratch.length * 2));
+    }
+  }
+}
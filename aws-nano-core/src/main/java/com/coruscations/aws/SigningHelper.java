@@ -17,9 +17,13 @@
 
 package com.coruscations.aws;
 
-import java.math.BigInteger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 import javax.crypto.Mac;
 
@@ -29,20 +33,75 @@ class SigningHelper {
   public static final String HMAC_SHA_256_ALGORITHM = "HmacSHA256";
   public static final String SHA256_EMPTY_STRING_HASH =
       "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+  /** The payload hash S3 accepts in place of one for a body that can only be read once. */
+  public static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+  private static final byte[] HEX_DIGITS =
+      "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
 
   public static String hash(String text, MessageDigest messageDigest) {
-    byte[] hash = messageDigest.digest(text.getBytes());
+    byte[] hash = messageDigest.digest(text.getBytes(StandardCharsets.UTF_8));
     return hashBytesToString(hash, 64);
   }
 
+  /**
+   * @return The hex hash of the bytes between the buffer's position and limit, consuming them
+   */
+  static String hash(ByteBuffer bytes, MessageDigest messageDigest) {
+    messageDigest.update(bytes);
+    return hashBytesToString(messageDigest.digest(), 64);
+  }
+
+  /**
+   * @return The hex hash of a repeatable body, read through in full unless it can be mapped
+   */
+  static String hash(RequestBody body, MessageDigest messageDigest) throws IOException {
+    ByteBuffer buffer = body.map();
+    if (buffer != null) {
+      return hash(buffer, messageDigest);
+    }
+    ByteBuffer chunk = ByteBuffer.allocate(RequestBody.TRANSFER_BUFFER_SIZE);
+    try (ReadableByteChannel channel = body.openChannel()) {
+      while (channel.read(chunk) >= 0) {
+        chunk.flip();
+        messageDigest.update(chunk);
+        chunk.clear();
+      }
+    }
+    return hashBytesToString(messageDigest.digest(), 64);
+  }
+
+  /**
+   * @return The unsigned hex value of the bytes, without leading zeros but zero padded to at
+   * least {@code length} characters
+   */
   public static String hashBytesToString(byte[] hash, int length) {
-    BigInteger bi = new BigInteger(1, hash);
-    String result = bi.toString(16);
-    // Zero pad in case the first characters end up being chopped because they are zero
-    while (result.length() < length) {
-      result = "0" + result;
+    byte[] hex = new byte[hash.length * 2];
+    toHex(hash, 0, hash.length, hex, 0);
+    int start = 0;
+    while (start < hex.length - 1 && hex[start] == '0') {
+      start++;
+    }
+    int digits = hex.length - start;
+    if (digits >= length) {
+      return new String(hex, start, digits, StandardCharsets.US_ASCII);
+    }
+    byte[] padded = new byte[length];
+    Arrays.fill(padded, 0, length - digits, (byte) '0');
+    System.arraycopy(hex, start, padded, length - digits, digits);
+    return new String(padded, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Write the lower case hex of {@code length} bytes into {@code out}, which must have room for
+   * twice as many bytes.
+   */
+  static void toHex(byte[] bytes, int offset, int length, byte[] out, int outOffset) {
+    for (int i = offset, end = offset + length, o = outOffset; i < end; i++) {
+      int b = bytes[i];
+      out[o++] = HEX_DIGITS[(b >> 4) & 0x0f];
+      out[o++] = HEX_DIGITS[b & 0x0f];
     }
-    return result;
   }
 
   static MessageDigest getMessageDigest(String algorithm) {
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Process-wide cache of derived SigV4 signing keys.  A signing key only depends on the secret, the
+ * date, the region and the service, so the four chained HMACs are done once per day rather than
+ * once per request.  Entries more than a day older than the newest date seen are evicted.
+ */
+@ParametersAreNonnullByDefault
+class SigningKeyCache {
+
+  private static final Logger LOG = Logger.getLogger(SigningKeyCache.class.getName());
+
+  private static final byte[] AWS4_REQUEST = "aws4_request".getBytes(StandardCharsets.UTF_8);
+
+  /** Guards against unbounded growth with many credentials, regions or services. */
+  static final int MAX_ENTRIES = 1024;
+
+  private static final SigningKeyCache INSTANCE = new SigningKeyCache();
+
+  private final Map<Key, Entry> cache = new ConcurrentHashMap<>();
+  private volatile String newestDate = "";
+
+  static SigningKeyCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param mac An HMAC-SHA256 instance owned by the caller, used if the key must be derived
+   * @param formattedDate The date portion of the request date, as {@code yyyyMMdd}
+   */
+  SecretKeySpec getSigningKey(String accessKey, String secretKey, String formattedDate,
+                              String region, String service, Mac mac)
+      throws InvalidKeyException {
+    Key key = new Key(accessKey, formattedDate, region, service);
+    Entry entry = this.cache.get(key);
+    if (entry != null && Objects.equals(entry.secretKey, secretKey)) {
+      return entry.signingKey;
+    }
+    SecretKeySpec signingKey = deriveSigningKey(secretKey, formattedDate, region, service, mac);
+    if (formattedDate.compareTo(this.newestDate) > 0) {
+      rollover(formattedDate);
+    }
+    if (this.cache.size() >= MAX_ENTRIES) {
+      LOG.log(Level.FINE, "Signing key cache full; clearing {0} entries", this.cache.size());
+      this.cache.clear();
+    }
+    this.cache.put(key, new Entry(secretKey, signingKey));
+    return signingKey;
+  }
+
+  static SecretKeySpec deriveSigningKey(String secretKey, String formattedDate, String region,
+                                        String service, Mac mac)
+      throws InvalidKeyException {
+    byte[] keyBytes = ("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8);
+    mac.init(new SecretKeySpec(keyBytes, SigningHelper.HMAC_SHA_256_ALGORITHM));
+    byte[] signedDate = mac.doFinal(formattedDate.getBytes(StandardCharsets.UTF_8));
+
+    mac.init(new SecretKeySpec(signedDate, SigningHelper.HMAC_SHA_256_ALGORITHM));
+    byte[] signedRegion = mac.doFinal(region.getBytes(StandardCharsets.UTF_8));
+
+    mac.init(new SecretKeySpec(signedRegion, SigningHelper.HMAC_SHA_256_ALGORITHM));
+    byte[] signedService = mac.doFinal(service.getBytes(StandardCharsets.UTF_8));
+
+    mac.init(new SecretKeySpec(signedService, SigningHelper.HMAC_SHA_256_ALGORITHM));
+    return new SecretKeySpec(mac.doFinal(AWS4_REQUEST), SigningHelper.HMAC_SHA_256_ALGORITHM);
+  }
+
+  private synchronized void rollover(String formattedDate) {
+    if (formattedDate.compareTo(this.newestDate) <= 0) {
+      return;
+    }
+    this.newestDate = formattedDate;
+    String oldest;
+    try {
+      oldest = LocalDate.parse(formattedDate, DateTimeFormatter.BASIC_ISO_DATE).minusDays(1)
+          .format(DateTimeFormatter.BASIC_ISO_DATE);
+    } catch (RuntimeException e) {
+      // Not a date we understand; compare lexically against it
+      oldest = formattedDate;
+    }
+    String keep = oldest;
+    // Requests signed just before midnight may still be in flight, so keep the previous day
+    this.cache.keySet().removeIf(key -> key.date.compareTo(keep) < 0);
+  }
+
+  int size() {
+    return this.cache.size();
+  }
+
+  void clear() {
+    this.cache.clear();
+    this.newestDate = "";
+  }
+
+  private static final class Key {
+
+    final String accessKey;
+    final String date;
+    final String region;
+    final String service;
+    final int hashCode;
+
+    Key(String accessKey, String date, String region, String service) {
+      this.accessKey = accessKey;
+      this.date = date;
+      this.region = region;
+      this.service = service;
+      this.hashCode = Objects.hash(accessKey, date, region, service);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return this.hashCode == that.hashCode && Objects.equals(this.accessKey, that.accessKey) &&
+             this.date.equals(that.date) && this.region.equals(that.region) &&
+             this.service.equals(that.service);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hashCode;
+    }
+  }
+
+  private static final class Entry {
+
+    // Kept to detect a rotated secret for the same access key
+    final String secretKey;
+    final SecretKeySpec signingKey;
+
+    Entry(String secretKey, SecretKeySpec signingKey) {
+      this.secretKey = secretKey;
+      this.signingKey = signingKey;
+    }
+  }
+}
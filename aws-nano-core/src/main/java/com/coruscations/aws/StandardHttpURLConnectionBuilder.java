@@ -17,10 +17,12 @@
 
 package com.coruscations.aws;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.security.InvalidKeyException;
@@ -66,7 +68,6 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
   private static final Logger LOG = Logger.getLogger(
       StandardHttpURLConnectionBuilder.class.getName());
 
-  private static final byte[] AWS4_REQUEST = "aws4_request".getBytes(StandardCharsets.UTF_8);
   private static final DateTimeFormatter DATE_FORMAT = new DateTimeFormatterBuilder()
       .appendValue(YEAR, 4).appendValue(MONTH_OF_YEAR, 2).appendValue(DAY_OF_MONTH, 2)
       .appendLiteral('T').appendValue(HOUR_OF_DAY, 2).appendValue(MINUTE_OF_HOUR, 2)
@@ -74,7 +75,6 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
 
   private static final Collator US_ASCII_BINARY_COLLATOR =
       new BinaryCollator(StandardCharsets.US_ASCII);
-  private static final Collator UTF8_BINARY_COLLATOR = new BinaryCollator(StandardCharsets.UTF_8);
 
   private static final String CONTENT_TYPE_AMZ_JSON_1_0 = "application/x-amz-json-1.0";
 
@@ -88,10 +88,19 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
   private HttpMethod method;
   private Endpoint endpoint;
   private String path;
+  // Null until buildRequest settles how a body that is not in memory is signed
+  @Nullable
   private String bodyHash = SigningHelper.SHA256_EMPTY_STRING_HASH;
+  private RequestBody body = RequestBody.EMPTY;
+  // Whether the body is sent as signed aws-chunked chunks, seeded with the request signature
+  private boolean chunkSigned;
+  private SecretKeySpec signingKey;
+  @Nullable
+  private AwsCredentials credentials;
 
-  private final Map<String, List<String>> headers = new TreeMap<>(UTF8_BINARY_COLLATOR);
-  private final Set<String> signedHeaders = new TreeSet<>(UTF8_BINARY_COLLATOR);
+  // Header names are case insensitive, and signed headers are sorted by their lower case names
+  private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private final Set<String> signedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
 
   private final List<String[]> query = new LinkedList<>();
 
@@ -127,8 +136,18 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
   }
 
   public void setBody(String body) {
-    this.bodyHash = body == null || body.isEmpty() ? SigningHelper.SHA256_EMPTY_STRING_HASH :
-                    SigningHelper.hash(body, this.sha256);
+    setBody(body == null ? RequestBody.EMPTY : RequestBody.of(body));
+  }
+
+  public void setBody(RequestBody body) {
+    this.body = body;
+    this.chunkSigned = false;
+    if (body.getContentLength() == 0) {
+      this.bodyHash = SigningHelper.SHA256_EMPTY_STRING_HASH;
+    } else {
+      ByteBuffer buffer = body.getBuffer();
+      this.bodyHash = buffer == null ? null : SigningHelper.hash(buffer, this.sha256);
+    }
   }
 
   public void setHost(String host) {
@@ -155,28 +174,95 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
     return this;
   }
 
+  @Override
   public HttpURLConnection build() throws IOException {
+    HttpRequest request = buildRequest();
+    HttpURLConnection con = (HttpURLConnection) request.getUrl().openConnection();
+    con.setRequestMethod(this.method.name());
+    // Set the headers
+    request.getHeaders().forEach(
+        (name, values) -> values.forEach(val -> con.setRequestProperty(name, val)));
+    return con;
+  }
+
+  @Override
+  public HttpRequest buildRequest() throws IOException {
     try {
+      if (this.bodyHash == null) {
+        signPayload();
+      }
       initializeHeaders();
-      this.canonicalRequest = createCanonicalRequest();
-      this.requestStringToSign = createRequestStringToSign(this.canonicalRequest);
-      this.authorization = createAuthorization(this.requestStringToSign);
+      // The canonical request and string to sign are only built as strings if asked for
+      this.canonicalRequest = null;
+      this.requestStringToSign = null;
+      this.authorization = createSignerAuthorization();
+      LOG.log(Level.FINER, "Authorization: {0}", this.authorization);
       this.headers.put(AUTHORIZATION, Collections.singletonList(this.authorization));
-
-      // TODO: Pool connections???
-      URL url = new URL(createRequestUrl());
-      HttpURLConnection con = (HttpURLConnection) url.openConnection();
-      con.setRequestMethod(this.method.name());
-      // Set the headers
-      this.headers.entrySet().stream()
-          .forEach(e -> e.getValue().stream()
-              .forEach(val -> con.setRequestProperty(e.getKey(), val)));
-      return con;
-    } catch (InvalidKeyException | NoSuchAlgorithmException | URISyntaxException e) {
+      RequestBody body = this.body;
+      if (this.chunkSigned) {
+        String formattedDateTime = getFormattedDateTime();
+        String scope = format("%s/%s/%s/aws4_request",
+                              formattedDateTime.substring(0, formattedDateTime.indexOf('T')),
+                              getEndpoint().getRegion(), this.serviceName);
+        String seedSignature =
+            this.authorization.substring(this.authorization.lastIndexOf('=') + 1);
+        body = new AwsChunkedRequestBody(this.body, RequestBody.TRANSFER_BUFFER_SIZE,
+                                         seedSignature, formattedDateTime, scope,
+                                         this.signingKey);
+      }
+      return new HttpRequest(this.method, new URL(createRequestUrl()), this.headers, body);
+    } catch (InvalidKeyException e) {
       throw new IOException("Failed to create signed request", e);
     }
   }
 
+  /**
+   * Settles how a body that is not in memory is covered by the signature, following the {@link
+   * PayloadSigning} mode: hashing it up front costs a full read before it is sent, so a stream,
+   * which can only be read once, is signed in chunks instead where the endpoint takes them.  A
+   * stream that cannot be sent that way is read into memory and hashed, so that it is never sent
+   * unsigned unless asked for.
+   *
+   * @throws IOException If the endpoint needs the length of the body and it is not known
+   */
+  private void signPayload() throws IOException {
+    PayloadSigning payloadSigning = PayloadSigning.fromEnv(this.configurationProvider.getEnv());
+    Endpoint endpoint = getEndpoint();
+    long length = this.body.getContentLength();
+    // Only endpoints that take the content hash header take the alternatives to it
+    boolean hashHeader = endpoint.isRequireContentHashHeader();
+    if (hashHeader && length < 0) {
+      // These take neither a chunked transfer encoding nor aws-chunked signing without a length
+      throw new IOException("A request body of unknown length cannot be sent to " +
+                            endpoint.getHost() + "; give the length of the stream");
+    }
+    if (hashHeader && payloadSigning == PayloadSigning.UNSIGNED &&
+        endpoint.getPreferredScheme() == Endpoint.Scheme.HTTPS) {
+      this.bodyHash = SigningHelper.UNSIGNED_PAYLOAD;
+    } else if (hashHeader && length > 0 &&
+               (payloadSigning != PayloadSigning.SIGNED || !this.body.isRepeatable())) {
+      this.bodyHash = AwsChunkedRequestBody.STREAMING_PAYLOAD;
+      this.chunkSigned = true;
+      String encoding = singleHeader(CONTENT_ENCODING);
+      this.headers.put(CONTENT_ENCODING, Collections.singletonList(
+          encoding == null ? AwsChunkedRequestBody.AWS_CHUNKED :
+          AwsChunkedRequestBody.AWS_CHUNKED + "," + encoding));
+      this.signedHeaders.add(CONTENT_ENCODING);
+      this.headers.put(X_AMZ_DECODED_CONTENT_LENGTH,
+                       Collections.singletonList(String.valueOf(length)));
+      this.signedHeaders.add(X_AMZ_DECODED_CONTENT_LENGTH);
+    } else {
+      if (!this.body.isRepeatable()) {
+        // Hashing reads it, so it has to be held to be read again when sent
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+            length > 0 && length < Integer.MAX_VALUE ? (int) length : 32);
+        this.body.writeTo(buffer);
+        this.body = RequestBody.of(buffer.toByteArray());
+      }
+      this.bodyHash = SigningHelper.hash(this.body, this.sha256);
+    }
+  }
+
   void initializeHeaders() {
     // Set required headers
     normalizeHost();
@@ -186,11 +272,30 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
     addDefaultConditionally(USER_AGENT, DEFAULT_USER_AGENT);
 
     // Add the content hash unless suppressed because AWS expects it pretty much all the time.
-    if (getEndpoint().isRequireContentHashHeader() &&
+    if (getEndpoint().isRequireContentHashHeader() && this.bodyHash != null &&
         !this.headers.containsKey(X_AMZ_CONTENT_SHA256)) {
       this.headers.put(X_AMZ_CONTENT_SHA256, Collections.singletonList(this.bodyHash));
       this.signedHeaders.add(X_AMZ_CONTENT_SHA256);
     }
+
+    // The credentials the request is signed with, and their session token if they are temporary
+    this.credentials = this.configurationProvider.getCredentials();
+    String sessionToken = this.credentials.getSessionToken();
+    if (sessionToken != null) {
+      this.headers.put(X_AMZ_SECURITY_TOKEN, Collections.singletonList(sessionToken));
+      this.signedHeaders.add(X_AMZ_SECURITY_TOKEN);
+    }
+  }
+
+  /**
+   * @return The credentials taken when the headers were initialized, so that one set is used for
+   * the whole request even if they are refreshed meanwhile
+   */
+  private AwsCredentials getCredentials() {
+    if (this.credentials == null) {
+      this.credentials = this.configurationProvider.getCredentials();
+    }
+    return this.credentials;
   }
 
   String createCanonicalRequest() throws NoSuchAlgorithmException, URISyntaxException {
@@ -202,6 +307,34 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
     return canonicalRequest;
   }
 
+  /**
+   * Sign with the {@link SigV4Signer}; same result as {@link #createAuthorization(String)} on the
+   * string to sign for {@link #createCanonicalRequest()}.
+   */
+  String createSignerAuthorization() throws InvalidKeyException {
+    String formattedDateTime = getFormattedDateTime();
+    String formattedDate = formattedDateTime.substring(0, formattedDateTime.indexOf('T'));
+    String region = getEndpoint().getRegion();
+    AwsCredentials credentials = getCredentials();
+    this.signingKey = SigningKeyCache.getInstance().getSigningKey(
+        credentials.getAccessKey(), credentials.getSecretKey(),
+        formattedDate, region, this.serviceName, this.hmacSha256);
+    return SigV4Signer.get().createAuthorization(
+        this.method, this.path, this.query, this.headers, this.signedHeaders, this.bodyHash,
+        formattedDateTime, region, this.serviceName, credentials.getAccessKey(),
+        this.signingKey);
+  }
+
+  /**
+   * @return The canonical request as written by the {@link SigV4Signer}, for comparison with
+   * {@link #createCanonicalRequest()}
+   */
+  String createSignerCanonicalRequest() {
+    return SigV4Signer.get().createCanonicalRequest(this.method, this.path, this.query,
+                                                    this.headers, this.signedHeaders,
+                                                    this.bodyHash);
+  }
+
   String createRequestStringToSign(String canonicalRequest) {
     String canonicalRequestHash = SigningHelper.hash(canonicalRequest, this.sha256);
     String formattedDateTime = getFormattedDateTime();
@@ -215,31 +348,20 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
 
   String createAuthorization(String stringToSign)
       throws InvalidKeyException {
-    String keyString = "AWS4" + this.configurationProvider.getSecretKey();
-    byte[] keyBytes = keyString.getBytes(StandardCharsets.UTF_8);
-
-    this.hmacSha256.init(new SecretKeySpec(keyBytes, SigningHelper.HMAC_SHA_256_ALGORITHM));
     String formattedDateTime = getFormattedDateTime();
     String formattedDate = formattedDateTime.substring(0, formattedDateTime.indexOf('T'));
-    byte[] signedDate = this.hmacSha256.doFinal(formattedDate.getBytes(StandardCharsets.UTF_8));
-
-    this.hmacSha256.init(new SecretKeySpec(signedDate, SigningHelper.HMAC_SHA_256_ALGORITHM));
-    byte[] signedRegion =
-        this.hmacSha256.doFinal(getEndpoint().getRegion().getBytes(StandardCharsets.UTF_8));
-
-    this.hmacSha256.init(new SecretKeySpec(signedRegion, SigningHelper.HMAC_SHA_256_ALGORITHM));
-    byte[] signedService = this.hmacSha256.doFinal(serviceName.getBytes(StandardCharsets.UTF_8));
+    AwsCredentials credentials = getCredentials();
+    SecretKeySpec signingKey = SigningKeyCache.getInstance().getSigningKey(
+        credentials.getAccessKey(), credentials.getSecretKey(),
+        formattedDate, getEndpoint().getRegion(), this.serviceName, this.hmacSha256);
 
-    this.hmacSha256.init(new SecretKeySpec(signedService, SigningHelper.HMAC_SHA_256_ALGORITHM));
-    byte[] signingKey = this.hmacSha256.doFinal(AWS4_REQUEST);
-
-    this.hmacSha256.init(new SecretKeySpec(signingKey, SigningHelper.HMAC_SHA_256_ALGORITHM));
+    this.hmacSha256.init(signingKey);
     String signature = SigningHelper.hashBytesToString(
         this.hmacSha256.doFinal(stringToSign.getBytes()), 64);
 
     String authorization = format("AWS4-HMAC-SHA256 Credential=%s/%s/%s/%s/aws4_request, " +
                                   "SignedHeaders=%s, Signature=%s",
-                                  this.configurationProvider.getAccessKey(), formattedDate,
+                                  credentials.getAccessKey(), formattedDate,
                                   getEndpoint().getRegion(), serviceName, canonicalSignedHeaders(),
                                   signature);
     LOG.log(Level.FINER, "Authorization: {0}", authorization);
@@ -261,9 +383,9 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
         } else {
           urlBuilder.append('&');
         }
-        urlBuilder.append(q[0]);
-        if (q.length > 1 && !q[1].isEmpty()) {
-          urlBuilder.append('=').append(q[1]);
+        urlBuilder.append(EncodingHelper.awsEncodeURLComponent(q[0], false));
+        if (q.length > 1 && q[1] != null && !q[1].isEmpty()) {
+          urlBuilder.append('=').append(EncodingHelper.awsEncodeURLComponent(q[1], false));
         }
       }
     }
@@ -424,11 +546,22 @@ class StandardHttpURLConnectionBuilder implements HttpHeaders, HttpURLConnection
 
   @Override
   public String getCanonicalRequest() {
+    if (this.canonicalRequest == null && this.authorization != null) {
+      try {
+        this.canonicalRequest = createCanonicalRequest();
+      } catch (NoSuchAlgorithmException | URISyntaxException | RuntimeException e) {
+        LOG.log(Level.FINE, "Failed to recreate canonical request", e);
+      }
+    }
     return this.canonicalRequest;
   }
 
   @Override
   public String getRequestStringToSign() {
+    String canonicalRequest = getCanonicalRequest();
+    if (this.requestStringToSign == null && canonicalRequest != null) {
+      this.requestStringToSign = createRequestStringToSign(canonicalRequest);
+    }
     return this.requestStringToSign;
   }
 
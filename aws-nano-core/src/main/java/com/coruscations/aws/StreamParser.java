@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A {@link CursorParser} that can also read the raw response body itself, for responses simple
+ * and large enough that scanning the bytes beats a general XML parser.  {@link HttpHelper} prefers
+ * {@link #parseStream}; implementations fall back to StAX, using the given factory, for anything
+ * they do not understand.
+ */
+public interface StreamParser<T> extends CursorParser<T> {
+
+  @Nullable
+  T parseStream(int responseCode, Map<String, List<String>> headers, @Nullable InputStream body,
+                Charset charset, XMLInputFactory xmlInputFactory)
+      throws IOException, XMLStreamException;
+}
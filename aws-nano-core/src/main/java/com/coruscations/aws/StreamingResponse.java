@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A successful response whose body is left open for the caller to read incrementally with the
+ * cursor API, rather than being handed to a {@link Parser} in one go.  The connection stays leased until this is
+ * closed, so callers must close it once they are done with the reader.
+ */
+public class StreamingResponse implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(StreamingResponse.class.getName());
+
+  private final HttpResponse response;
+  private final Map<String, List<String>> headers;
+  @Nullable
+  private final XMLStreamReader reader;
+
+  StreamingResponse(HttpResponse response, Map<String, List<String>> headers,
+                    @Nullable XMLStreamReader reader) {
+    this.response = response;
+    this.headers = headers;
+    this.reader = reader;
+  }
+
+  public int getResponseCode() {
+    return this.response.getResponseCode();
+  }
+
+  @Nonnull
+  public Map<String, List<String>> getHeaders() {
+    return this.headers;
+  }
+
+  /**
+   * @return A reader over the response body, or {@code null} if there is none.
+   */
+  @Nullable
+  public XMLStreamReader getReader() {
+    return this.reader;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.reader != null) {
+      try {
+        this.reader.close();
+      } catch (XMLStreamException e) {
+        LOG.log(Level.FINE, "Failed to close reader", e);
+      }
+    }
+    this.response.close();
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class AsyncCommandExecutorTest extends TestLogging {
+
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+
+  @After
+  public void after() {
+    this.executor.shutdownNow();
+  }
+
+  @Test
+  public void testSubmitWaitsForSlot() throws Exception {
+    AsyncCommandExecutor async = new AsyncCommandExecutor(this.executor, 2);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<String> first = async.submit(() -> await(release, "first"));
+    CompletableFuture<String> second = async.submit(() -> await(release, "second"));
+    Assert.assertEquals(2, async.getInFlight());
+
+    CompletableFuture<CompletableFuture<String>> third =
+        CompletableFuture.supplyAsync(() -> async.submit(() -> "third"), this.executor);
+    try {
+      third.get(200, TimeUnit.MILLISECONDS);
+      Assert.fail("Submitting past the limit should wait");
+    } catch (TimeoutException e) {
+      // Expected
+    }
+    release.countDown();
+    Assert.assertEquals("first", first.get(5, TimeUnit.SECONDS));
+    Assert.assertEquals("second", second.get(5, TimeUnit.SECONDS));
+    Assert.assertEquals("third", third.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+    Assert.assertEquals(0, async.getInFlight());
+  }
+
+  @Test
+  public void testFailureCompletesExceptionallyAndReleasesSlot() throws Exception {
+    AsyncCommandExecutor async = new AsyncCommandExecutor(this.executor, 1);
+    CompletableFuture<String> failed = async.submit(() -> {
+      throw new IOException("failed");
+    });
+    try {
+      failed.get(5, TimeUnit.SECONDS);
+      Assert.fail("The call failed");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+    Assert.assertEquals("next", async.submit(() -> "next").get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testDependentStageCanSubmitAtLimit() throws Exception {
+    AsyncCommandExecutor async = new AsyncCommandExecutor(this.executor, 1);
+    CompletableFuture<String> chained =
+        async.submit(() -> "first").thenCompose(first -> async.submit(() -> first + ",second"));
+    Assert.assertEquals("first,second", chained.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRejectedSubmissionReleasesSlot() throws Exception {
+    ExecutorService shutDown = Executors.newSingleThreadExecutor();
+    shutDown.shutdown();
+    AsyncCommandExecutor async = new AsyncCommandExecutor(shutDown, 1);
+    Assert.assertTrue(async.submit(() -> "rejected").isCompletedExceptionally());
+    Assert.assertEquals(0, async.getInFlight());
+  }
+
+  private static String await(CountDownLatch latch, String result) throws IOException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.spec.SecretKeySpec;
+
+public class AwsChunkedRequestBodyTest extends TestLogging {
+
+  private static final String ACCESS_KEY = "AKIDEXAMPLE";
+  private static final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+
+  // The chunked upload example from the S3 SigV4 documentation
+  private static final String EXAMPLE_SECRET_KEY = "wJalrXUtnFEMI/K7MDENG/bPxRfiCYEXAMPLEKEY";
+  private static final String EXAMPLE_DATE_TIME = "20130524T000000Z";
+  private static final String EXAMPLE_SCOPE = "20130524/us-east-1/s3/aws4_request";
+  private static final String EXAMPLE_SEED_SIGNATURE =
+      "4f232c4386841ef735655705268965c44a0e4690baa4adea153f7db9fa80a0a9";
+  private static final int EXAMPLE_CHUNK_SIZE = 64 * 1024;
+  private static final String EXAMPLE_ENCODED_START =
+      "10000;chunk-signature=ad80c730a21e5b8d04586a2213dd63b9a0e99e0e2307b0ade35a65485a288648\r\n";
+  private static final String EXAMPLE_ENCODED_MIDDLE =
+      "\r\n400;chunk-signature=0055627c9e194cb4542bae2aa5492e3c1575bbb81b612b7d234b86a503ef5497\r\n";
+  private static final String EXAMPLE_ENCODED_END =
+      "\r\n0;chunk-signature=b6c6ea8a5354eaf15b3cb7646744f4275b71ea724fed81ceb9323e279d449df9" +
+      "\r\n\r\n";
+
+  @Test
+  public void testEncodedLength() {
+    Assert.assertEquals(66824, AwsChunkedRequestBody.getEncodedLength(66560, EXAMPLE_CHUNK_SIZE));
+    Assert.assertEquals(86, AwsChunkedRequestBody.getEncodedLength(0, EXAMPLE_CHUNK_SIZE));
+    Assert.assertEquals(2 * 65626 + 86,
+                        AwsChunkedRequestBody.getEncodedLength(2 * 65536, EXAMPLE_CHUNK_SIZE));
+  }
+
+  @Test
+  public void testDocumentedExample() throws IOException, InvalidKeyException {
+    byte[] data = new byte[66560];
+    Arrays.fill(data, (byte) 'a');
+    byte[] expected = expectedExample(data);
+
+    AwsChunkedRequestBody body = exampleBody(RequestBody.of(data));
+    Assert.assertEquals(66824, body.getContentLength());
+    Assert.assertEquals(data.length, body.getDecodedContentLength());
+    Assert.assertTrue(body.isRepeatable());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    body.writeTo(out);
+    Assert.assertArrayEquals(expected, out.toByteArray());
+    // Read again, through a channel in pieces that do not line up with the chunks
+    Assert.assertArrayEquals(expected, readChannel(body, 1000));
+  }
+
+  @Test
+  public void testStreamAndFileSources() throws IOException, InvalidKeyException {
+    byte[] data = new byte[66560];
+    Arrays.fill(data, (byte) 'a');
+    byte[] expected = expectedExample(data);
+
+    AwsChunkedRequestBody stream =
+        exampleBody(RequestBody.of(new ByteArrayInputStream(data), data.length));
+    Assert.assertFalse(stream.isRepeatable());
+    Assert.assertArrayEquals(expected, readChannel(stream, 8192));
+
+    try (FileChannel file = createFile(data)) {
+      AwsChunkedRequestBody region = exampleBody(RequestBody.of(file, 0, data.length));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      region.writeTo(out);
+      Assert.assertArrayEquals(expected, out.toByteArray());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testShortSourceFails() throws IOException, InvalidKeyException {
+    byte[] data = new byte[1000];
+    exampleBody(RequestBody.of(new ByteArrayInputStream(data, 0, 500), data.length))
+        .writeTo(new ByteArrayOutputStream());
+  }
+
+  @Test
+  public void testSignedModeHashesFile() throws IOException {
+    byte[] data = "file contents".getBytes(StandardCharsets.UTF_8);
+    try (FileChannel file = createFile(data)) {
+      HttpRequest request = buildFileRequest(null, Endpoint.Scheme.HTTPS, file);
+      Assert.assertEquals(SigningHelper.hash("file contents", SigningHelper.getMessageDigest(
+                              SigningHelper.SHA_256_ALGORITHM)),
+                          header(request, HttpHeaders.X_AMZ_CONTENT_SHA256));
+      Assert.assertNull(request.getHeaders().get(HttpHeaders.CONTENT_ENCODING));
+      Assert.assertEquals(data.length, request.getContentLength());
+    }
+  }
+
+  @Test
+  public void testStreamingMode() throws IOException {
+    byte[] data = new byte[100000];
+    try (FileChannel file = createFile(data)) {
+      assertStreaming(buildFileRequest(PayloadSigning.STREAMING, Endpoint.Scheme.HTTPS, file),
+                      data);
+    }
+  }
+
+  @Test
+  public void testUnsignedModeNeedsHttps() throws IOException {
+    byte[] data = new byte[100000];
+    try (FileChannel file = createFile(data)) {
+      HttpRequest request = buildFileRequest(PayloadSigning.UNSIGNED, Endpoint.Scheme.HTTPS, file);
+      Assert.assertEquals(SigningHelper.UNSIGNED_PAYLOAD,
+                          header(request, HttpHeaders.X_AMZ_CONTENT_SHA256));
+      Assert.assertEquals(data.length, request.getContentLength());
+
+      assertStreaming(buildFileRequest(PayloadSigning.UNSIGNED, Endpoint.Scheme.HTTP, file), data);
+    }
+  }
+
+  @Test
+  public void testStreamIsChunkSigned() throws IOException {
+    byte[] data = new byte[1000];
+    StandardHttpURLConnectionBuilder builder = createBuilder(null, Endpoint.Scheme.HTTPS);
+    builder.setBody(RequestBody.of(new ByteArrayInputStream(data), data.length));
+    assertStreaming(builder.buildRequest(), data);
+  }
+
+  @Test
+  public void testStreamInEveryModeAndScheme() throws IOException {
+    byte[] data = new byte[1000];
+    for (PayloadSigning payloadSigning : PayloadSigning.values()) {
+      for (Endpoint.Scheme scheme : Endpoint.Scheme.values()) {
+        StandardHttpURLConnectionBuilder builder = createBuilder(payloadSigning, scheme);
+        builder.setBody(RequestBody.of(new ByteArrayInputStream(data), data.length));
+        HttpRequest request = builder.buildRequest();
+        if (payloadSigning == PayloadSigning.UNSIGNED && scheme == Endpoint.Scheme.HTTPS) {
+          Assert.assertEquals(SigningHelper.UNSIGNED_PAYLOAD,
+                              header(request, HttpHeaders.X_AMZ_CONTENT_SHA256));
+          Assert.assertEquals(data.length, request.getContentLength());
+        } else {
+          assertStreaming(request, data);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testStreamOfUnknownLengthFails() {
+    for (PayloadSigning payloadSigning : PayloadSigning.values()) {
+      for (Endpoint.Scheme scheme : Endpoint.Scheme.values()) {
+        StandardHttpURLConnectionBuilder builder = createBuilder(payloadSigning, scheme);
+        builder.setBody(RequestBody.of(new ByteArrayInputStream(new byte[1000]), -1));
+        try {
+          builder.buildRequest();
+          Assert.fail("Sent a stream of unknown length " + payloadSigning + " over " + scheme);
+        } catch (IOException e) {
+          Assert.assertTrue(e.getMessage().contains("unknown length"));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testStreamIsHashedWithoutHashHeader() throws IOException {
+    byte[] data = "stream contents".getBytes(StandardCharsets.UTF_8);
+    for (Endpoint.Scheme scheme : Endpoint.Scheme.values()) {
+      StandardHttpURLConnectionBuilder builder =
+          createBuilder(PayloadSigning.UNSIGNED, scheme);
+      builder.setEndpoint(new Endpoint("us-east-1", new Endpoint.Scheme[]{scheme},
+                                       "sts.amazonaws.com", false, false));
+      builder.setBody(RequestBody.of(new ByteArrayInputStream(data), -1));
+      HttpRequest request = builder.buildRequest();
+      Assert.assertNull(request.getHeaders().get(HttpHeaders.X_AMZ_CONTENT_SHA256));
+      Assert.assertTrue(request.getBody().isRepeatable());
+      Assert.assertEquals(data.length, request.getContentLength());
+      Assert.assertArrayEquals(data, readChannel(request.getBody(), 4096));
+    }
+  }
+
+  private static void assertStreaming(HttpRequest request, byte[] data) throws IOException {
+    Assert.assertEquals(AwsChunkedRequestBody.STREAMING_PAYLOAD,
+                        header(request, HttpHeaders.X_AMZ_CONTENT_SHA256));
+    Assert.assertEquals(AwsChunkedRequestBody.AWS_CHUNKED,
+                        header(request, HttpHeaders.CONTENT_ENCODING));
+    Assert.assertEquals(String.valueOf(data.length),
+                        header(request, HttpHeaders.X_AMZ_DECODED_CONTENT_LENGTH));
+    Assert.assertTrue(header(request, HttpHeaders.AUTHORIZATION)
+                          .contains("content-encoding;date;host;x-amz-content-sha256;" +
+                                    "x-amz-decoded-content-length"));
+    Assert.assertEquals(AwsChunkedRequestBody.getEncodedLength(
+        data.length, RequestBody.TRANSFER_BUFFER_SIZE), request.getContentLength());
+    byte[] encoded = readChannel(request.getBody(), 4096);
+    Assert.assertEquals(request.getContentLength(), encoded.length);
+    Assert.assertArrayEquals(data, decode(encoded));
+  }
+
+  private static String header(HttpRequest request, String name) {
+    return request.getHeaders().get(name).get(0);
+  }
+
+  private static HttpRequest buildFileRequest(PayloadSigning payloadSigning,
+                                              Endpoint.Scheme scheme, FileChannel file)
+      throws IOException {
+    StandardHttpURLConnectionBuilder builder = createBuilder(payloadSigning, scheme);
+    builder.setBody(RequestBody.of(file, 0, file.size()));
+    return builder.buildRequest();
+  }
+
+  private static FileChannel createFile(byte[] data) throws IOException {
+    Path file = Files.createTempFile("chunked", ".bin");
+    Files.write(file, data);
+    return FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.DELETE_ON_CLOSE);
+  }
+
+  private static StandardHttpURLConnectionBuilder createBuilder(PayloadSigning payloadSigning,
+                                                                Endpoint.Scheme scheme) {
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_ACCESS_KEY_ID.getEnvName(), ACCESS_KEY);
+    env.put(AwsCredentialProperty.AWS_SECRET_KEY.getEnvName(), SECRET_KEY);
+    env.put(HttpHeaders.USER_AGENT, new Object());
+    if (payloadSigning != null) {
+      env.put(Constants.PAYLOAD_SIGNING, payloadSigning.name().toLowerCase());
+    }
+    StandardHttpURLConnectionBuilder builder =
+        new StandardHttpURLConnectionBuilder(new ConfigurationProvider(env));
+    builder.setServiceName("s3");
+    builder.setMethod(HttpMethod.PUT);
+    builder.setEndpoint(new Endpoint("us-east-1", new Endpoint.Scheme[]{scheme},
+                                     "s3.amazonaws.com", true, true));
+    builder.setPath("/examplebucket/chunkObject.txt");
+    return builder;
+  }
+
+  private static AwsChunkedRequestBody exampleBody(RequestBody source)
+      throws InvalidKeyException {
+    SecretKeySpec signingKey = SigningKeyCache.deriveSigningKey(
+        EXAMPLE_SECRET_KEY, "20130524", "us-east-1", "s3",
+        SigningHelper.getMac(SigningHelper.HMAC_SHA_256_ALGORITHM));
+    return new AwsChunkedRequestBody(source, EXAMPLE_CHUNK_SIZE, EXAMPLE_SEED_SIGNATURE,
+                                     EXAMPLE_DATE_TIME, EXAMPLE_SCOPE, signingKey);
+  }
+
+  private static byte[] expectedExample(byte[] data) {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    byte[] start = EXAMPLE_ENCODED_START.getBytes(StandardCharsets.US_ASCII);
+    byte[] middle = EXAMPLE_ENCODED_MIDDLE.getBytes(StandardCharsets.US_ASCII);
+    byte[] end = EXAMPLE_ENCODED_END.getBytes(StandardCharsets.US_ASCII);
+    expected.write(start, 0, start.length);
+    expected.write(data, 0, EXAMPLE_CHUNK_SIZE);
+    expected.write(middle, 0, middle.length);
+    expected.write(data, EXAMPLE_CHUNK_SIZE, data.length - EXAMPLE_CHUNK_SIZE);
+    expected.write(end, 0, end.length);
+    return expected.toByteArray();
+  }
+
+  private static byte[] readChannel(RequestBody body, int bufferSize) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+    try (ReadableByteChannel channel = body.openChannel()) {
+      while (channel.read(buffer) >= 0) {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @return The data in an {@code aws-chunked} body, checking the framing but not the signatures
+   */
+  private static byte[] decode(byte[] encoded) {
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    int position = 0;
+    while (true) {
+      int headerEnd = indexOfCrLf(encoded, position);
+      String header = new String(encoded, position, headerEnd - position,
+                                 StandardCharsets.US_ASCII);
+      String[] parts = header.split(";chunk-signature=");
+      Assert.assertEquals(header, 2, parts.length);
+      Assert.assertEquals(64, parts[1].length());
+      int size = Integer.parseInt(parts[0], 16);
+      position = headerEnd + 2;
+      data.write(encoded, position, size);
+      position += size;
+      Assert.assertEquals('\r', encoded[position]);
+      Assert.assertEquals('\n', encoded[position + 1]);
+      position += 2;
+      if (size == 0) {
+        Assert.assertEquals(encoded.length, position);
+        return data.toByteArray();
+      }
+    }
+  }
+
+  private static int indexOfCrLf(byte[] bytes, int from) {
+    for (int i = from; i < bytes.length - 1; i++) {
+      if (bytes[i] == '\r' && bytes[i + 1] == '\n') {
+        return i;
+      }
+    }
+    throw new AssertionError("No line end after " + from);
+  }
+}
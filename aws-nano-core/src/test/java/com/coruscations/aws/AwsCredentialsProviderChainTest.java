@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AwsCredentialsProviderChainTest extends TestLogging {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private Path credentialsFile(String content) throws IOException {
+    Path credentials = this.folder.newFolder().toPath().resolve("credentials");
+    Files.write(credentials, content.getBytes(StandardCharsets.UTF_8));
+    return credentials;
+  }
+
+  private static Map<String, Object> env(Path credentials) {
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_CREDENTIAL_PROFILES_FILE.getEnvName(),
+            credentials.toString());
+    return env;
+  }
+
+  @Test
+  public void testEnvironmentBeforeProfile() throws IOException {
+    Map<String, Object> env = env(credentialsFile(
+        "[default]\naws_access_key_id = PROFILE\naws_secret_access_key = profile-secret\n"));
+    env.put(AwsCredentialProperty.AWS_ACCESS_KEY_ID.getEnvName(), "ENVIRONMENT");
+    env.put(AwsCredentialProperty.AWS_SECRET_KEY.getEnvName(), "environment-secret");
+    ConfigurationProvider configurationProvider = new ConfigurationProvider(env);
+    Assert.assertEquals("ENVIRONMENT", configurationProvider.getAccessKey());
+    Assert.assertEquals("environment-secret", configurationProvider.getSecretKey());
+    Assert.assertEquals("us-east-1", configurationProvider.getRegion());
+  }
+
+  @Test
+  public void testNamedProfileFromBothFiles() throws IOException {
+    Path credentials = credentialsFile(
+        "# Shared credentials\n\n[default]\naws_access_key_id = DEFAULT\n" +
+        "aws_secret_access_key = default-secret\n\n[other]\naws_access_key_id = OTHER\n" +
+        "aws_secret_access_key = other-secret\n");
+    Path config = this.folder.newFile("settings").toPath();
+    Files.write(config, ("[default]\nregion = us-west-2\n\n[profile other]\nregion = eu-west-1\n" +
+                         "aws_access_key_id = OVERRIDDEN\n").getBytes(StandardCharsets.UTF_8));
+    Map<String, Object> env = env(credentials);
+    env.put(AwsCredentialProperty.AWS_CONFIG_FILE.getEnvName(), config.toString());
+    env.put(AwsCredentialProperty.AWS_DEFAULT_PROFILE.getEnvName(), "other");
+    ConfigurationProvider configurationProvider = new ConfigurationProvider(env);
+    Assert.assertEquals("OTHER", configurationProvider.getAccessKey());
+    Assert.assertEquals("other-secret", configurationProvider.getSecretKey());
+    Assert.assertEquals("eu-west-1", configurationProvider.getRegion());
+  }
+
+  @Test
+  public void testSharedBySettings() throws IOException {
+    Map<String, Object> env = env(credentialsFile(
+        "[default]\naws_access_key_id = PROFILE\naws_secret_access_key = profile-secret\n"));
+    AwsCredentialsProvider provider = AwsCredentialsProviderChain.forEnvironment(env);
+    Map<String, Object> other = new HashMap<>(env);
+    other.put(Constants.HTTP_TRANSPORT, "NIO");
+    Assert.assertSame(provider, AwsCredentialsProviderChain.forEnvironment(other));
+    other.put(AwsCredentialProperty.AWS_DEFAULT_PROFILE.getEnvName(), "other");
+    Assert.assertFalse(provider == AwsCredentialsProviderChain.forEnvironment(other));
+  }
+
+  @Test
+  public void testProfileHeldUntilRechecked() throws IOException {
+    Path credentials = credentialsFile(
+        "[default]\naws_access_key_id = PROFILE\naws_secret_access_key = profile-secret\n");
+    AwsCredentialsProvider provider = AwsCredentialsProviderChain.forEnvironment(env(credentials));
+    Assert.assertEquals("PROFILE", provider.getCredentials().getAccessKey());
+    Files.delete(credentials);
+    Assert.assertEquals("PROFILE", provider.getCredentials().getAccessKey());
+  }
+
+  @Test
+  public void testChangedProfileReadInBackground() throws Exception {
+    Path credentials = credentialsFile(
+        "[default]\naws_access_key_id = BEFORE\naws_secret_access_key = before-secret\n");
+    Map<String, Object> env = env(credentials);
+    env.put(Constants.CREDENTIALS_RECHECK_INTERVAL, 50);
+    ConfigurationProvider configurationProvider = new ConfigurationProvider(env);
+    Assert.assertEquals("BEFORE", configurationProvider.getAccessKey());
+    FileTime modified = Files.getLastModifiedTime(credentials);
+    Files.write(credentials, ("[default]\naws_access_key_id = AFTER\n" +
+                              "aws_secret_access_key = after-secret\n")
+        .getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(credentials, FileTime.fromMillis(modified.toMillis() + 2000));
+    Thread.sleep(100);
+    // The stale credentials are still handed out while the file is read again
+    Assert.assertEquals("BEFORE", configurationProvider.getAccessKey());
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!"AFTER".equals(configurationProvider.getAccessKey()) &&
+           System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    AwsCredentials after = configurationProvider.getCredentials();
+    Assert.assertEquals("AFTER", after.getAccessKey());
+    Assert.assertEquals("after-secret", after.getSecretKey());
+  }
+
+  @Test
+  public void testConfiguredProvider() {
+    AtomicReference<AwsCredentials> current =
+        new AtomicReference<>(new AwsCredentials("FIRST", "first-secret"));
+    Map<String, Object> env = new HashMap<>();
+    env.put(Constants.CREDENTIALS_PROVIDER, (AwsCredentialsProvider) current::get);
+    ConfigurationProvider configurationProvider = new ConfigurationProvider(env);
+    Assert.assertEquals("FIRST", configurationProvider.getAccessKey());
+    current.set(new AwsCredentials("SECOND", "second-secret"));
+    Assert.assertEquals("SECOND", configurationProvider.getAccessKey());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testNoCredentials() throws IOException {
+    Map<String, Object> env = env(credentialsFile("[default]\nregion = us-west-2\n"));
+    env.put(AwsCredentialProperty.AWS_EC2_METADATA_DISABLED.getEnvName(), "true");
+    new ConfigurationProvider(env);
+  }
+}
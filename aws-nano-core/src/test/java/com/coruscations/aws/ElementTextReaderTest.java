@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+public class ElementTextReaderTest extends TestLogging {
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newFactory();
+
+  private final ElementTextReader text = new ElementTextReader();
+
+  private static XMLStreamReader open(String xml) throws XMLStreamException {
+    XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+    // Position on the first child of the root
+    reader.nextTag();
+    reader.nextTag();
+    return reader;
+  }
+
+  @Test
+  public void testText() throws XMLStreamException {
+    XMLStreamReader reader = open("<a><b>&quot;etag&quot; <![CDATA[x<y]]></b><c/></a>");
+    Assert.assertEquals("\"etag\" x<y", this.text.getText(reader));
+    Assert.assertEquals(XMLStreamConstants.END_ELEMENT, reader.getEventType());
+    Assert.assertEquals("b", reader.getLocalName());
+    reader.nextTag();
+    Assert.assertEquals("", this.text.getText(reader));
+  }
+
+  @Test
+  public void testSharedText() throws XMLStreamException {
+    XMLStreamReader reader = open("<a><b>owner</b><b>other</b><b>owner</b></a>");
+    String first = this.text.getSharedText(reader);
+    reader.nextTag();
+    String other = this.text.getSharedText(reader);
+    reader.nextTag();
+    String second = this.text.getSharedText(reader);
+    Assert.assertEquals("owner", first);
+    Assert.assertEquals("other", other);
+    Assert.assertSame(first, second);
+  }
+
+  @Test
+  public void testNumbers() throws XMLStreamException {
+    XMLStreamReader reader = open("<a><b> 1024 </b><b>-7</b><b>9223372036854775807</b>" +
+                                  "<b>TRUE</b><b>false</b></a>");
+    Assert.assertEquals(1024L, this.text.getLong(reader));
+    reader.nextTag();
+    Assert.assertEquals(-7L, this.text.getLong(reader));
+    reader.nextTag();
+    Assert.assertEquals(Long.MAX_VALUE, this.text.getLong(reader));
+    reader.nextTag();
+    Assert.assertTrue(this.text.getBoolean(reader));
+    reader.nextTag();
+    Assert.assertFalse(this.text.getBoolean(reader));
+  }
+
+  @Test(expected = NumberFormatException.class)
+  public void testInvalidNumber() throws XMLStreamException {
+    this.text.getLong(open("<a><b>12x</b></a>"));
+  }
+
+  @Test
+  public void testTimestamps() throws XMLStreamException {
+    XMLStreamReader reader = open("<a><b>2016-09-05T12:34:56.789Z</b><b>2016-09-05T12:34:56Z</b>" +
+                                  "<b>2016-09-05T14:34:56.5+02:00</b></a>");
+    Assert.assertEquals(OffsetDateTime.of(2016, 9, 5, 12, 34, 56, 789_000_000, ZoneOffset.UTC),
+                        this.text.getTimestamp(reader));
+    reader.nextTag();
+    Assert.assertEquals(OffsetDateTime.of(2016, 9, 5, 12, 34, 56, 0, ZoneOffset.UTC),
+                        this.text.getTimestamp(reader));
+    reader.nextTag();
+    Assert.assertEquals(OffsetDateTime.of(2016, 9, 5, 14, 34, 56, 500_000_000,
+                                          ZoneOffset.ofHours(2)),
+                        this.text.getTimestamp(reader));
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void testMixedContent() throws XMLStreamException {
+    this.text.getText(open("<a><b>text<c/></b></a>"));
+  }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Checks {@link EventStreamReader} against a stream reader reading the same document from the
+ * same factory.
+ */
+public class EventStreamReaderTest extends TestLogging {
+
+  private static final String DOCUMENT =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<!-- A listing -->\n" +
+      "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"\n" +
+      "                  xmlns:x=\"urn:example\" x:kind=\"listing\" version=\"2\">\n" +
+      "  <?sort binary?>\n" +
+      "  <Name>bucket</Name>\n" +
+      "  <Contents>\n" +
+      "    <Key>a &amp; b &lt;c&gt; &#x41;</Key>\n" +
+      "    <ETag><![CDATA[\"etag<1>\"]]></ETag>\n" +
+      "    <x:Owner x:id=\"7\" plain=\"yes\"><!-- nobody --></x:Owner>\n" +
+      "    <Empty/>\n" +
+      "  </Contents>\n" +
+      "</ListBucketResult>\n";
+
+  private static final String ENTITIES =
+      "<!DOCTYPE a [<!ENTITY owner \"the owner\">]>\n" +
+      "<a><b>by &owner;</b></a>";
+
+  @Test
+  public void testMatchesStreamReader() throws XMLStreamException {
+    assertSameEvents(XMLInputFactory.newFactory(), DOCUMENT);
+
+    XMLInputFactory coalescing = XMLInputFactory.newFactory();
+    coalescing.setProperty(XMLInputFactory.IS_COALESCING, true);
+    assertSameEvents(coalescing, DOCUMENT);
+  }
+
+  @Test
+  public void testEntityReferences() throws XMLStreamException {
+    assertSameEvents(XMLInputFactory.newFactory(), ENTITIES);
+
+    XMLInputFactory unreplaced = XMLInputFactory.newFactory();
+    unreplaced.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+    assertSameEvents(unreplaced, ENTITIES);
+
+    XMLStreamReader reader = open(unreplaced, ENTITIES);
+    toElement(reader, "b");
+    Assert.assertEquals(XMLStreamConstants.CHARACTERS, reader.next());
+    Assert.assertEquals(XMLStreamConstants.ENTITY_REFERENCE, reader.next());
+    Assert.assertEquals("owner", reader.getLocalName());
+    Assert.assertEquals("the owner", reader.getText());
+  }
+
+  @Test
+  public void testGetElementText() throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    XMLStreamReader expected = factory.createXMLStreamReader(new StringReader(DOCUMENT));
+    XMLStreamReader actual = open(factory, DOCUMENT);
+    for (String name : new String[]{"Name", "Key", "ETag", "Owner", "Empty"}) {
+      toElement(expected, name);
+      toElement(actual, name);
+      Assert.assertEquals(name, expected.getElementText(), actual.getElementText());
+      Assert.assertEquals(XMLStreamConstants.END_ELEMENT, actual.getEventType());
+      Assert.assertEquals(name, actual.getLocalName());
+    }
+    Assert.assertEquals("a & b <c> A", getElementText(factory, "Key"));
+    Assert.assertEquals("\"etag<1>\"", getElementText(factory, "ETag"));
+    Assert.assertEquals("", getElementText(factory, "Owner"));
+
+    XMLStreamReader reader = open(factory, DOCUMENT);
+    toElement(reader, "Contents");
+    try {
+      reader.getElementText();
+      Assert.fail("An element holding elements has no text");
+    } catch (XMLStreamException e) {
+      // Expected
+    }
+    try {
+      open(factory, DOCUMENT).getElementText();
+      Assert.fail("There is no text before the first element");
+    } catch (XMLStreamException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testNextTag() throws XMLStreamException {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    XMLStreamReader expected = factory.createXMLStreamReader(new StringReader(DOCUMENT));
+    XMLStreamReader actual = open(factory, DOCUMENT);
+    // Past the comment, the processing instruction and the whitespace between elements
+    for (String name : new String[]{"ListBucketResult", "Name"}) {
+      Assert.assertEquals(expected.nextTag(), actual.nextTag());
+      Assert.assertEquals(name, expected.getLocalName());
+      Assert.assertEquals(name, actual.getLocalName());
+    }
+    try {
+      actual.nextTag();
+      Assert.fail("The text of an element is not whitespace");
+    } catch (XMLStreamException e) {
+      // Expected
+    }
+    try {
+      expected.nextTag();
+      Assert.fail("The stream reader should fail the same way");
+    } catch (XMLStreamException e) {
+      // Expected
+    }
+
+    // Past a comment to the end of an element, and on through empty elements
+    expected = factory.createXMLStreamReader(new StringReader(DOCUMENT));
+    actual = open(factory, DOCUMENT);
+    toElement(expected, "Owner");
+    toElement(actual, "Owner");
+    for (String name : new String[]{"Owner", "Empty", "Empty", "Contents"}) {
+      int type = expected.nextTag();
+      Assert.assertEquals(type, actual.nextTag());
+      Assert.assertEquals(name, expected.getLocalName());
+      Assert.assertEquals(name, actual.getLocalName());
+    }
+    Assert.assertEquals(XMLStreamConstants.END_ELEMENT, actual.getEventType());
+  }
+
+  @Test
+  public void testStartsAtDocumentStart() throws XMLStreamException {
+    XMLEventReader events =
+        XMLInputFactory.newFactory().createXMLEventReader(new StringReader(DOCUMENT));
+    // A reader that has already passed the start of the document
+    events.nextEvent();
+    XMLStreamReader reader = new EventStreamReader(events);
+    Assert.assertEquals(XMLStreamConstants.START_DOCUMENT, reader.getEventType());
+    Assert.assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+    Assert.assertEquals("ListBucketResult", reader.getLocalName());
+  }
+
+  private static String getElementText(XMLInputFactory factory, String name)
+      throws XMLStreamException {
+    XMLStreamReader reader = open(factory, DOCUMENT);
+    toElement(reader, name);
+    return reader.getElementText();
+  }
+
+  private static XMLStreamReader open(XMLInputFactory factory, String xml)
+      throws XMLStreamException {
+    return new EventStreamReader(factory.createXMLEventReader(new StringReader(xml)));
+  }
+
+  private static void toElement(XMLStreamReader reader, String name) throws XMLStreamException {
+    while (!reader.isStartElement() || !name.equals(reader.getLocalName())) {
+      reader.next();
+    }
+  }
+
+  private static void assertSameEvents(XMLInputFactory factory, String xml)
+      throws XMLStreamException {
+    XMLStreamReader expected = factory.createXMLStreamReader(new StringReader(xml));
+    XMLStreamReader actual = open(factory, xml);
+    assertSameEvent(expected, actual);
+    while (expected.hasNext()) {
+      Assert.assertTrue(actual.hasNext());
+      Assert.assertEquals(expected.next(), actual.next());
+      assertSameEvent(expected, actual);
+    }
+    Assert.assertFalse(actual.hasNext());
+  }
+
+  private static void assertSameEvent(XMLStreamReader expected, XMLStreamReader actual) {
+    int type = expected.getEventType();
+    String event = "event " + type;
+    Assert.assertEquals(event, type, actual.getEventType());
+    Assert.assertEquals(event, expected.hasName(), actual.hasName());
+    Assert.assertEquals(event, expected.hasText(), actual.hasText());
+    Assert.assertEquals(event, expected.isStartElement(), actual.isStartElement());
+    Assert.assertEquals(event, expected.isEndElement(), actual.isEndElement());
+    Assert.assertEquals(event, expected.isCharacters(), actual.isCharacters());
+    Assert.assertEquals(event, expected.isWhiteSpace(), actual.isWhiteSpace());
+    if (expected.hasName()) {
+      Assert.assertEquals(event, expected.getName(), actual.getName());
+      Assert.assertEquals(event, expected.getLocalName(), actual.getLocalName());
+      Assert.assertEquals(event, expected.getNamespaceURI(), actual.getNamespaceURI());
+      Assert.assertEquals(event, expected.getPrefix(), actual.getPrefix());
+      Assert.assertEquals(event, namespaces(expected), namespaces(actual));
+    }
+    if (type == XMLStreamConstants.START_ELEMENT) {
+      Assert.assertEquals(event, attributes(expected), attributes(actual));
+      for (int i = 0; i < expected.getAttributeCount(); i++) {
+        QName name = expected.getAttributeName(i);
+        Assert.assertEquals(name.toString(),
+                            expected.getAttributeValue(name.getNamespaceURI(),
+                                                       name.getLocalPart()),
+                            actual.getAttributeValue(name.getNamespaceURI(),
+                                                     name.getLocalPart()));
+        Assert.assertEquals(name.toString(),
+                            expected.getAttributeValue(null, name.getLocalPart()),
+                            actual.getAttributeValue(null, name.getLocalPart()));
+      }
+      Assert.assertNull(actual.getAttributeValue(null, "missing"));
+      for (String prefix : new String[]{"", "x", "missing"}) {
+        Assert.assertEquals(prefix, expected.getNamespaceURI(prefix),
+                            actual.getNamespaceURI(prefix));
+        Assert.assertEquals(prefix, expected.getNamespaceContext().getNamespaceURI(prefix),
+                            actual.getNamespaceContext().getNamespaceURI(prefix));
+      }
+    }
+    if (expected.hasText()) {
+      Assert.assertEquals(event, expected.getText(), actual.getText());
+    }
+    if (expected.isCharacters() || type == XMLStreamConstants.CDATA ||
+        type == XMLStreamConstants.SPACE || type == XMLStreamConstants.COMMENT) {
+      Assert.assertEquals(event, expected.getTextLength(), actual.getTextLength());
+      Assert.assertEquals(event,
+                          new String(expected.getTextCharacters(), expected.getTextStart(),
+                                     expected.getTextLength()),
+                          new String(actual.getTextCharacters(), actual.getTextStart(),
+                                     actual.getTextLength()));
+    }
+    if (type == XMLStreamConstants.ENTITY_REFERENCE) {
+      Assert.assertEquals(event, expected.getLocalName(), actual.getLocalName());
+    }
+    if (type == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+      Assert.assertEquals(event, expected.getPITarget(), actual.getPITarget());
+      Assert.assertEquals(event, expected.getPIData(), actual.getPIData());
+    }
+    if (type == XMLStreamConstants.START_DOCUMENT) {
+      // The JDK's start document event drops the declared encoding, so it is not compared
+      Assert.assertEquals(event, expected.getVersion(), actual.getVersion());
+      Assert.assertEquals(event, expected.standaloneSet(), actual.standaloneSet());
+    }
+  }
+
+  /**
+   * @return The attributes by name, since an event need not keep them in document order
+   */
+  private static Map<QName, String> attributes(XMLStreamReader reader) {
+    Map<QName, String> attributes = new HashMap<>();
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      Assert.assertEquals(reader.getAttributeName(i),
+                          new QName(nullToEmpty(reader.getAttributeNamespace(i)),
+                                    reader.getAttributeLocalName(i),
+                                    reader.getAttributePrefix(i)));
+      attributes.put(reader.getAttributeName(i), reader.getAttributeValue(i));
+    }
+    return attributes;
+  }
+
+  /**
+   * @return The namespaces declared by prefix, with the default namespace under the empty prefix
+   */
+  private static Map<String, String> namespaces(XMLStreamReader reader) {
+    Map<String, String> namespaces = new HashMap<>();
+    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+      namespaces.put(nullToEmpty(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i));
+    }
+    return namespaces;
+  }
+
+  private static String nullToEmpty(String value) {
+    return value == null ? "" : value;
+  }
+}
@@ -181,6 +181,27 @@ public class HttpURLConnectionBuilderFactoryTest extends TestLogging {
                         this.testRestCommand.authorizationHeader, authorization);
   }
 
+  @Test
+  public void testSignerCanonicalRequest() {
+    StandardHttpURLConnectionBuilder builder =
+        (StandardHttpURLConnectionBuilder) this.testRestCommand.createRestRequestBuilder();
+    Assert.assertEquals(this.testRestCommand.testName + ": Canonical request did not match",
+                        this.testRestCommand.canonicalRequest,
+                        builder.createSignerCanonicalRequest());
+  }
+
+  @Test
+  public void testBuildRequestAuthorization() throws IOException {
+    StandardHttpURLConnectionBuilder builder =
+        (StandardHttpURLConnectionBuilder) this.testRestCommand.createRestRequestBuilder();
+    HttpRequest request = builder.buildRequest();
+    Assert.assertEquals(this.testRestCommand.testName + ": Authorization did not match",
+                        this.testRestCommand.authorizationHeader,
+                        request.getHeaders().get(HttpHeaders.AUTHORIZATION).get(0));
+    Assert.assertEquals(this.testRestCommand.testName + ": Canonical request did not match",
+                        this.testRestCommand.canonicalRequest, builder.getCanonicalRequest());
+  }
+
   private static class TestRestCommand implements RestCommand<EmptyRestCommandResponse> {
 
     private final String testName;
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Against a stub of the EC2 instance metadata service and the container credentials endpoint.
+ */
+public class InstanceMetadataCredentialsProviderTest extends TestLogging {
+
+  private static final String ROLE = "test-role";
+  private static final String CREDENTIALS_PATH = "/latest/meta-data/iam/security-credentials/";
+
+  private final AtomicInteger tokenRequests = new AtomicInteger();
+  private final AtomicInteger credentialRequests = new AtomicInteger();
+
+  private HttpServer server;
+  private String baseUrl;
+  private volatile String token;
+  private volatile long lifetimeMillis = 3_600_000;
+  private volatile boolean failing;
+
+  @Before
+  public void startServer() throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.createContext("/latest/api/token", exchange -> {
+      if (!"PUT".equals(exchange.getRequestMethod()) ||
+          exchange.getRequestHeaders().getFirst("X-aws-ec2-metadata-token-ttl-seconds") == null) {
+        respond(exchange, 400, "");
+        return;
+      }
+      this.token = "token-" + this.tokenRequests.incrementAndGet();
+      respond(exchange, 200, this.token);
+    });
+    this.server.createContext(CREDENTIALS_PATH, exchange -> {
+      String token = exchange.getRequestHeaders().getFirst("X-aws-ec2-metadata-token");
+      if (token == null || !token.equals(this.token)) {
+        respond(exchange, 401, "");
+      } else if (exchange.getRequestURI().getPath().equals(CREDENTIALS_PATH)) {
+        respond(exchange, 200, ROLE + "\n");
+      } else if (exchange.getRequestURI().getPath().equals(CREDENTIALS_PATH + ROLE)) {
+        respondWithCredentials(exchange);
+      } else {
+        respond(exchange, 404, "");
+      }
+    });
+    this.server.createContext("/container", exchange -> {
+      if (!"secret-auth".equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+        respond(exchange, 403, "");
+      } else {
+        respondWithCredentials(exchange);
+      }
+    });
+    this.server.setExecutor(Executors.newCachedThreadPool());
+    this.server.start();
+    this.baseUrl = "http://" + this.server.getAddress().getHostString() + ':' +
+                   this.server.getAddress().getPort();
+  }
+
+  @After
+  public void stopServer() {
+    this.server.stop(0);
+  }
+
+  private void respondWithCredentials(HttpExchange exchange) throws IOException {
+    if (this.failing) {
+      respond(exchange, 500, "");
+      return;
+    }
+    int count = this.credentialRequests.incrementAndGet();
+    Instant expiration = Instant.ofEpochMilli(System.currentTimeMillis() + this.lifetimeMillis);
+    respond(exchange, 200, "{\"Code\":\"Success\",\"Type\":\"AWS-HMAC\"," +
+                           "\"AccessKeyId\":\"ASIA" + count + "\"," +
+                           "\"SecretAccessKey\":\"secret-" + count + "\"," +
+                           "\"Token\":\"session-" + count + "\"," +
+                           "\"Expiration\":\"" + expiration + "\"}");
+  }
+
+  private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+
+  private InstanceMetadataCredentialsProvider ec2Provider() {
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_EC2_METADATA_SERVICE_ENDPOINT.getEnvName(), this.baseUrl);
+    return new InstanceMetadataCredentialsProvider(env, 1000);
+  }
+
+  @Test
+  public void testEc2CredentialsWithSessionToken() {
+    InstanceMetadataCredentialsProvider provider = ec2Provider();
+    AwsCredentials credentials = provider.getCredentials();
+    Assert.assertNotNull(credentials);
+    Assert.assertEquals("ASIA1", credentials.getAccessKey());
+    Assert.assertEquals("secret-1", credentials.getSecretKey());
+    Assert.assertEquals("session-1", credentials.getSessionToken());
+    Assert.assertNotNull(credentials.getExpiration());
+    // Held, not fetched again
+    Assert.assertSame(credentials, provider.getCredentials());
+    Assert.assertEquals(1, this.tokenRequests.get());
+    Assert.assertEquals(1, this.credentialRequests.get());
+  }
+
+  @Test
+  public void testSessionTokenIsSigned() throws IOException, URISyntaxException {
+    Map<String, Object> env = new HashMap<>();
+    env.put(Constants.CREDENTIALS_PROVIDER, ec2Provider());
+    StandardHttpURLConnectionBuilder builder =
+        new StandardHttpURLConnectionBuilder(new ConfigurationProvider(env));
+    builder.setServiceName("s3");
+    builder.setMethod(HttpMethod.GET);
+    builder.setEndpoint(new Endpoint("us-east-1", this.baseUrl, false, true));
+    builder.setPath("/bucket/key");
+    HttpRequest request = builder.buildRequest();
+    Map<String, List<String>> headers = request.getHeaders();
+    Assert.assertEquals("session-1", headers.get(HttpHeaders.X_AMZ_SECURITY_TOKEN).get(0));
+    String authorization = headers.get(HttpHeaders.AUTHORIZATION).get(0);
+    Assert.assertTrue(authorization,
+                      authorization.startsWith("AWS4-HMAC-SHA256 Credential=ASIA1/"));
+    Assert.assertTrue(authorization, authorization.contains("x-amz-security-token"));
+  }
+
+  @Test
+  public void testRefreshedAheadOfExpiration() throws InterruptedException {
+    this.lifetimeMillis = 3_000;
+    InstanceMetadataCredentialsProvider provider = ec2Provider();
+    Assert.assertEquals("ASIA1", provider.getCredentials().getAccessKey());
+    // A new session token is needed for the refresh
+    this.token = "revoked";
+    // Nothing asks, but the credentials are refreshed once stale, before they expire
+    long deadline = System.currentTimeMillis() + 2_500;
+    while (this.credentialRequests.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(2, this.credentialRequests.get());
+    Assert.assertEquals(2, this.tokenRequests.get());
+    Assert.assertEquals("ASIA2", awaitAccessKey(provider, "ASIA2"));
+  }
+
+  @Test
+  public void testHeldUntilExpirationWhenRefreshFails() throws InterruptedException {
+    this.lifetimeMillis = 3_000;
+    InstanceMetadataCredentialsProvider provider = ec2Provider();
+    AwsCredentials credentials = provider.getCredentials();
+    this.failing = true;
+    Thread.sleep(1_600);
+    Assert.assertSame(credentials, provider.getCredentials());
+    this.failing = false;
+    // Tried again shortly after failing
+    long deadline = System.currentTimeMillis() + 1_000;
+    while (this.credentialRequests.get() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals("ASIA2", awaitAccessKey(provider, "ASIA2"));
+  }
+
+  /**
+   * @return The access key once it is the expected one, or after a second, as the response may
+   * not have been handled yet
+   */
+  private static String awaitAccessKey(AwsCredentialsProvider provider, String expected)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 1_000;
+    String accessKey = provider.getCredentials().getAccessKey();
+    while (!expected.equals(accessKey) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      accessKey = provider.getCredentials().getAccessKey();
+    }
+    return accessKey;
+  }
+
+  @Test
+  public void testContainerCredentials() {
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_CONTAINER_CREDENTIALS_FULL_URI.getEnvName(),
+            this.baseUrl + "/container");
+    env.put(AwsCredentialProperty.AWS_CONTAINER_AUTHORIZATION_TOKEN.getEnvName(), "secret-auth");
+    AwsCredentials credentials =
+        new InstanceMetadataCredentialsProvider(env, 1000).getCredentials();
+    Assert.assertNotNull(credentials);
+    Assert.assertEquals("ASIA1", credentials.getAccessKey());
+    Assert.assertEquals(0, this.tokenRequests.get());
+  }
+
+  @Test
+  public void testUnavailable() {
+    this.server.stop(0);
+    Assert.assertNull(ec2Provider().getCredentials());
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_EC2_METADATA_DISABLED.getEnvName(), "true");
+    Assert.assertNull(new InstanceMetadataCredentialsProvider(env, 1000).getCredentials());
+  }
+}
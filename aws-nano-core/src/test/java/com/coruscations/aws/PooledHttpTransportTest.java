@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class PooledHttpTransportTest extends TestLogging {
+
+  private static final byte[] PAYLOAD = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+  private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+  private HttpServer server;
+  private String baseUrl;
+
+  @Before
+  public void startServer() throws IOException {
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.server.createContext("/fixed", exchange -> respond(exchange, PAYLOAD.length));
+    this.server.createContext("/chunked", exchange -> respond(exchange, 0));
+    this.server.createContext("/slow", exchange -> {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      respond(exchange, PAYLOAD.length);
+    });
+    this.server.createContext("/echo", exchange -> {
+      this.clientPorts.add(exchange.getRemoteAddress().getPort());
+      byte[] body = readFully(exchange.getRequestBody());
+      exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+      try (OutputStream os = exchange.getResponseBody()) {
+        os.write(body);
+      }
+    });
+    this.server.setExecutor(Executors.newCachedThreadPool());
+    this.server.start();
+    this.baseUrl = "http://" + this.server.getAddress().getHostString() + ':' +
+                   this.server.getAddress().getPort();
+  }
+
+  @After
+  public void stopServer() {
+    this.server.stop(0);
+  }
+
+  private void respond(HttpExchange exchange, long length) throws IOException {
+    this.clientPorts.add(exchange.getRemoteAddress().getPort());
+    readFully(exchange.getRequestBody());
+    exchange.sendResponseHeaders(200, length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(PAYLOAD);
+    }
+  }
+
+  @Test
+  public void testSequentialRequestsReuseConnection() throws IOException {
+    try (HttpTransport transport = createTransport(4, 1000)) {
+      for (int i = 0; i < 20; i++) {
+        Assert.assertArrayEquals(PAYLOAD, get(transport, i % 2 == 0 ? "/fixed" : "/chunked"));
+      }
+      ConnectionPoolStats stats = transport.getConnectionPoolStats();
+      Assert.assertNotNull(stats);
+      Assert.assertEquals(1, this.clientPorts.size());
+      Assert.assertEquals(1, stats.getCreated());
+      Assert.assertEquals(19, stats.getReused());
+      Assert.assertEquals(0, stats.getLeased());
+      Assert.assertEquals(1, stats.getIdle());
+    }
+  }
+
+  @Test
+  public void testUnreadBodyIsDrainedOnClose() throws IOException {
+    try (HttpTransport transport = createTransport(4, 1000)) {
+      for (int i = 0; i < 5; i++) {
+        try (HttpResponse response = transport.execute(request(HttpMethod.GET, "/fixed", null))) {
+          Assert.assertEquals(200, response.getResponseCode());
+        }
+      }
+      Assert.assertEquals(1, this.clientPorts.size());
+    }
+  }
+
+  @Test
+  public void testRequestBodyIsSent() throws IOException {
+    try (HttpTransport transport = createTransport(4, 1000)) {
+      byte[] body = "<CreateBucketConfiguration/>".getBytes(StandardCharsets.UTF_8);
+      try (HttpResponse response = transport.execute(request(HttpMethod.PUT, "/echo", body))) {
+        Assert.assertEquals(200, response.getResponseCode());
+        Assert.assertArrayEquals(body, readFully(response.getBody()));
+      }
+      try (HttpResponse response = transport.execute(request(HttpMethod.PUT, "/echo", null))) {
+        Assert.assertEquals(200, response.getResponseCode());
+        Assert.assertNull(response.getBody());
+      }
+      Assert.assertEquals(1, this.clientPorts.size());
+    }
+  }
+
+  @Test
+  public void testStreamedRequestBodies() throws IOException {
+    byte[] large = new byte[1024 * 1024 + 3];
+    new Random(7).nextBytes(large);
+    Path file = Files.createTempFile("pooled-transport", ".bin");
+    try (HttpTransport transport = createTransport(4, 1000)) {
+      Files.write(file, large);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        Assert.assertArrayEquals(Arrays.copyOfRange(large, 10, 10 + 100_000),
+                                 echo(transport, RequestBody.of(channel, 10, 100_000)));
+      }
+      Assert.assertArrayEquals(
+          large, echo(transport, RequestBody.of(new ByteArrayInputStream(large), -1)));
+      Assert.assertArrayEquals(
+          PAYLOAD, echo(transport, RequestBody.of(new ByteArrayInputStream(PAYLOAD),
+                                                  PAYLOAD.length)));
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testConcurrentRequestsBoundedPerRoute() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (HttpTransport transport = createTransport(2, 10_000)) {
+      List<Future<byte[]>> futures = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        futures.add(executor.submit(() -> get(transport, "/slow")));
+      }
+      for (Future<byte[]> future : futures) {
+        Assert.assertArrayEquals(PAYLOAD, future.get());
+      }
+      ConnectionPoolStats stats = transport.getConnectionPoolStats();
+      Assert.assertNotNull(stats);
+      Assert.assertTrue("Too many connections: " + this.clientPorts, this.clientPorts.size() <= 2);
+      Assert.assertTrue(stats.getCreated() <= 2);
+      Assert.assertEquals(16, stats.getCreated() + stats.getReused());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testConnectionRequestTimeout() throws IOException {
+    try (HttpTransport transport = createTransport(1, 100)) {
+      HttpResponse leased = transport.execute(request(HttpMethod.GET, "/fixed", null));
+      try {
+        transport.execute(request(HttpMethod.GET, "/fixed", null));
+      } finally {
+        leased.close();
+      }
+    }
+  }
+
+  private HttpTransport createTransport(int maxConnections, int connectionRequestTimeout) {
+    return HttpTransportFactory.createHttpTransport(
+        new HttpTransportConfig(HttpTransportConfig.Type.POOLED, maxConnections, 1000, 5000,
+                                connectionRequestTimeout, 60_000, 0, 2000));
+  }
+
+  private HttpRequest request(HttpMethod method, String path, byte[] body) throws IOException {
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    headers.put(HttpHeaders.USER_AGENT, Collections.singletonList("test"));
+    return new HttpRequest(method, new URL(this.baseUrl + path), headers, body);
+  }
+
+  private byte[] echo(HttpTransport transport, RequestBody body) throws IOException {
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    HttpRequest request =
+        new HttpRequest(HttpMethod.PUT, new URL(this.baseUrl + "/echo"), headers, body);
+    try (HttpResponse response = transport.execute(request)) {
+      Assert.assertEquals(200, response.getResponseCode());
+      return readFully(response.getBody());
+    }
+  }
+
+  private byte[] get(HttpTransport transport, String path) throws IOException {
+    try (HttpResponse response = transport.execute(request(HttpMethod.GET, path, null))) {
+      Assert.assertEquals(200, response.getResponseCode());
+      return readFully(response.getBody());
+    }
+  }
+
+  private static byte[] readFully(InputStream is) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] buf = new byte[4096];
+    int len;
+    while ((len = is.read(buf)) >= 0) {
+      baos.write(buf, 0, len);
+    }
+    return baos.toByteArray();
+  }
+}
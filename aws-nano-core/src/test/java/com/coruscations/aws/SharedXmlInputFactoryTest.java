@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+public class SharedXmlInputFactoryTest extends TestLogging {
+
+  private static XMLInputFactory get(@Nullable String name, @Nullable Object value) {
+    Map<String, Object> env = new HashMap<>();
+    env.put(AwsCredentialProperty.AWS_ACCESS_KEY_ID.getEnvName(), "AKIDEXAMPLE");
+    env.put(AwsCredentialProperty.AWS_SECRET_KEY.getEnvName(), "secret");
+    if (name != null) {
+      env.put(name, value);
+    }
+    return SharedXmlInputFactory.get(new ConfigurationProvider(env));
+  }
+
+  @Test
+  public void testSharedByConfiguration() {
+    XMLInputFactory factory = get(null, null);
+    Assert.assertSame(factory, get(Constants.XML_COALESCING, "false"));
+    Assert.assertEquals(Boolean.FALSE, factory.getProperty(XMLInputFactory.IS_COALESCING));
+    Assert.assertEquals(Boolean.FALSE, factory.getProperty(XMLInputFactory.SUPPORT_DTD));
+    XMLInputFactory coalescing = get(Constants.XML_COALESCING, true);
+    Assert.assertFalse(factory == coalescing);
+    Assert.assertEquals(Boolean.TRUE, coalescing.getProperty(XMLInputFactory.IS_COALESCING));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testCannotBeChanged() {
+    get(Constants.XML_COALESCING, "false").setProperty(XMLInputFactory.SUPPORT_DTD, true);
+  }
+
+  @Test
+  public void testConfiguredInstanceIsUsed() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    Assert.assertSame(factory, get(Constants.XML_INPUT_FACTORY, factory));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidImplementation() {
+    get(Constants.XML_INPUT_FACTORY, String.class.getName());
+  }
+
+  @Test
+  public void testEntitiesAreNotExpanded() throws XMLStreamException {
+    XMLStreamReader reader = get(Constants.XML_SUPPORT_DTD, false).createXMLStreamReader(
+        new StringReader("<!DOCTYPE a [<!ENTITY x \"expanded\">]><a>&x;</a>"));
+    try {
+      reader.nextTag();
+      Assert.assertNotEquals("expanded", ElementTextReader.forThread().getText(reader));
+    } catch (XMLStreamException e) {
+      // Refused outright
+    }
+  }
+
+  @Test
+  public void testTextReaderPerThread() throws Exception {
+    ElementTextReader text = ElementTextReader.forThread();
+    Assert.assertSame(text, ElementTextReader.forThread());
+    Assert.assertFalse(text == CompletableFuture.supplyAsync(ElementTextReader::forThread).get());
+  }
+}
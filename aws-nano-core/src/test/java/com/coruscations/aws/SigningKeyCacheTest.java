@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.security.InvalidKeyException;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+public class SigningKeyCacheTest extends TestLogging {
+
+  private static final String ACCESS_KEY = "AKIDEXAMPLE";
+  private static final String SECRET_KEY = "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY";
+
+  private final Mac mac = SigningHelper.getMac(SigningHelper.HMAC_SHA_256_ALGORITHM);
+
+  @Test
+  public void testCachedKeyMatchesDerivedKey() throws InvalidKeyException {
+    SigningKeyCache cache = new SigningKeyCache();
+    SecretKeySpec first =
+        cache.getSigningKey(ACCESS_KEY, SECRET_KEY, "20150830", "us-east-1", "iam", this.mac);
+    SecretKeySpec second =
+        cache.getSigningKey(ACCESS_KEY, SECRET_KEY, "20150830", "us-east-1", "iam", this.mac);
+    Assert.assertSame(first, second);
+    // Example signing key from the AWS SigV4 documentation
+    Assert.assertEquals("c4afb1cc5771d871763a393e44b703571b55cc28424d1a5e86da6ed3c154a4b9",
+                        SigningHelper.hashBytesToString(first.getEncoded(), 64));
+    Assert.assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testRotatedSecretIsRederived() throws InvalidKeyException {
+    SigningKeyCache cache = new SigningKeyCache();
+    SecretKeySpec original =
+        cache.getSigningKey(ACCESS_KEY, SECRET_KEY, "20150830", "us-east-1", "s3", this.mac);
+    SecretKeySpec rotated =
+        cache.getSigningKey(ACCESS_KEY, "rotated", "20150830", "us-east-1", "s3", this.mac);
+    Assert.assertNotEquals(SigningHelper.hashBytesToString(original.getEncoded(), 64),
+                           SigningHelper.hashBytesToString(rotated.getEncoded(), 64));
+  }
+
+  @Test
+  public void testDayRolloverEvictsOldDates() throws InvalidKeyException {
+    SigningKeyCache cache = new SigningKeyCache();
+    cache.getSigningKey(ACCESS_KEY, SECRET_KEY, "20150829", "us-east-1", "s3", this.mac);
+    cache.getSigningKey(ACCESS_KEY, SECRET_KEY, "20150830", "us-east-1", "s3", this.mac);
+    Assert.assertEquals(2, cache.size());
+    cache.getSigningKey(ACCESS_KEY, SECRET_KEY, "20150831", "us-east-1", "s3", this.mac);
+    Assert.assertEquals(2, cache.size());
+  }
+}
@@ -17,7 +17,8 @@
 
 package com.coruscations.aws.s3.fs;
 
-import com.coruscations.aws.ConfigurationProvider;
+import com.coruscations.aws.AwsCredentials;
+import com.coruscations.aws.AwsCredentialsProviderChain;
 import com.coruscations.aws.Constants;
 
 import java.io.ByteArrayOutputStream;
@@ -144,16 +145,15 @@ public class S3FileSystemProvider extends FileSystemProvider {
       secretKey = decode(userInfo[1]);
     }
     String endpoint = uri.getHost();
-    ConfigurationProvider configurationProvider = null;
     if (accessKey == null || secretKey == null) {
-      configurationProvider = new ConfigurationProvider(env);
-      accessKey = configurationProvider.getAccessKey();
-      secretKey = configurationProvider.getSecretKey();
-    }
-    if (endpoint == null) {
-      if (configurationProvider == null) {
-        configurationProvider = new ConfigurationProvider(env);
+      // The chain is shared, so this is answered from memory after the first lookup
+      AwsCredentials credentials = AwsCredentialsProviderChain.forEnvironment(env).getCredentials();
+      if (credentials == null) {
+        throw new IllegalStateException(
+            "Credentials not found in the environment, profile files or instance metadata");
       }
+      accessKey = credentials.getAccessKey();
+      secretKey = credentials.getSecretKey();
     }
     return new FSKey(accessKey, secretKey, endpoint, uri.getPath());
   }
@@ -220,7 +220,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
   public void copy(Path source, Path target, CopyOption... options) throws IOException {
     S3Path s3Source = toS3Path(source);
     S3Path s3Target = toS3Path(target);
-    // Todo: Create an implementation for this method.
+    // Todo: Copy server side, as S3ObjectCommands#copy does, once S3Path has a bucket and key.
 
   }
 
@@ -228,7 +228,7 @@ public class S3FileSystemProvider extends FileSystemProvider {
   public void move(Path source, Path target, CopyOption... options) throws IOException {
     S3Path s3Source = toS3Path(source);
     S3Path s3Target = toS3Path(target);
-    // Todo: Create an implementation for this method.
+    // Todo: Copy then delete, as S3ObjectCommands#move does, once S3Path has a bucket and key.
 
   }
 
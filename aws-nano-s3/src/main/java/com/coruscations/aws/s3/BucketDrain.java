@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ErrorResponse;
+import com.coruscations.aws.ErrorResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Empties a bucket, or the part of it under a prefix, and can then remove the bucket.
+ * <p>
+ * Objects are listed with pages prefetched on another thread and fed straight into a
+ * {@link BulkDelete}, so each page is listed while the keys of the one before are being deleted.
+ * Deleting keys already listed does not disturb the listing, which goes on from a marker.
+ * <p>
+ * Multipart uploads in progress are not objects, so are listed and aborted separately; left, they
+ * keep their parts stored and stop the bucket from being removed.  Versions of objects in a
+ * versioned bucket are not deleted.
+ */
+@ParametersAreNonnullByDefault
+class BucketDrain {
+
+  private static final Logger LOG = Logger.getLogger(BucketDrain.class.getName());
+
+  private final S3BucketCommands bucketCommands;
+  private final String bucketName;
+  private final int parallelism;
+  private final int attempts;
+  private final int prefetchPages;
+  @Nullable
+  private Consumer<BulkDelete.Result> progressConsumer;
+
+  BucketDrain(S3BucketCommands bucketCommands, String bucketName, int parallelism, int attempts,
+              int prefetchPages) {
+    this.bucketCommands = bucketCommands;
+    this.bucketName = bucketName;
+    this.parallelism = parallelism;
+    this.attempts = attempts;
+    // Without at least one page prefetched, listing would wait on deleting
+    this.prefetchPages = Math.max(1, prefetchPages);
+  }
+
+  /**
+   * Report the running totals of the deletes as each batch finishes, as
+   * {@link BulkDelete#onProgress} does.
+   */
+  BucketDrain onProgress(@Nullable Consumer<BulkDelete.Result> progressConsumer) {
+    this.progressConsumer = progressConsumer;
+    return this;
+  }
+
+  /**
+   * Deletes every object under the prefix, or in the bucket if there is none.
+   *
+   * @return The number of objects deleted and the keys that failed
+   */
+  BulkDelete.Result deletePrefix(@Nullable String prefix) throws IOException {
+    try (Stream<BucketGet.BucketItem> listing = this.bucketCommands.list(
+        this.bucketName, null, prefix, null, this.prefetchPages).stream()) {
+      Iterator<String> keys = listing.map(BucketGet.BucketItem::getKey).iterator();
+      BulkDelete.Result result = new BulkDelete(
+          (bucketName, batch) -> this.bucketCommands.deleteObjects(bucketName, batch, true),
+          this.bucketName, this.parallelism, this.attempts)
+          .onProgress(this.progressConsumer)
+          .delete(keys);
+      LOG.log(Level.FINE, "Deleted {0} from {1}: {2}",
+              new Object[]{prefix == null ? "everything" : prefix, this.bucketName, result});
+      return result;
+    }
+  }
+
+  /**
+   * Aborts every multipart upload in progress under the prefix, or in the bucket if there is none.
+   *
+   * @return The number of uploads aborted
+   */
+  int abortUploads(@Nullable String prefix) throws IOException {
+    int aborted = 0;
+    String keyMarker = null;
+    String uploadIdMarker = null;
+    BucketGetUploads.Response page;
+    try {
+      do {
+        String pageKeyMarker = keyMarker;
+        String pageUploadIdMarker = uploadIdMarker;
+        page = PartRetries.run(this.attempts, "listing uploads in " + this.bucketName,
+                               () -> this.bucketCommands.listUploads(this.bucketName, prefix,
+                                                                     pageKeyMarker,
+                                                                     pageUploadIdMarker));
+        for (BucketGetUploads.Upload upload : page.getUploads()) {
+          if (upload.getKey() != null && upload.getUploadId() != null &&
+              abort(upload.getKey(), upload.getUploadId())) {
+            aborted++;
+          }
+        }
+        keyMarker = page.getNextKeyMarker();
+        uploadIdMarker = page.getNextUploadIdMarker();
+      } while (page.isTruncated() && keyMarker != null);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted aborting uploads in " + this.bucketName);
+    }
+    return aborted;
+  }
+
+  /**
+   * @return Whether the upload was aborted, rather than already gone
+   */
+  private boolean abort(String key, String uploadId) throws IOException, InterruptedException {
+    try {
+      PartRetries.run(this.attempts, "abort of upload " + uploadId + " of " + key,
+                      () -> this.bucketCommands.abortUpload(this.bucketName, key, uploadId));
+      return true;
+    } catch (ErrorResponseException e) {
+      ErrorResponse errorResponse = e.getErrorResponse();
+      if (errorResponse == null ||
+          errorResponse.getResponseCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+        throw e;
+      }
+      // Completed or aborted since it was listed
+      return false;
+    }
+  }
+
+  /**
+   * Deletes every object, aborts every upload and then removes the bucket.  If any object could
+   * not be deleted, the bucket is left as it is with the objects that failed.
+   *
+   * @return The number of objects deleted
+   */
+  BulkDelete.Result drainAndRemove() throws IOException {
+    BulkDelete.Result result = deletePrefix(null);
+    List<ObjectsDelete.Failure> failures = result.getFailures();
+    if (!failures.isEmpty()) {
+      throw new IOException(failures.size() + " objects could not be deleted from " +
+                            this.bucketName + ", including " + failures.get(0));
+    }
+    int aborted = abortUploads(null);
+    this.bucketCommands.remove(this.bucketName);
+    LOG.log(Level.INFO, "Removed {0} after deleting {1} and aborting {2} uploads",
+            new Object[]{this.bucketName, result, aborted});
+    return result;
+  }
+}
@@ -17,15 +17,16 @@
 
 package com.coruscations.aws.s3;
 
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
 import com.coruscations.aws.Endpoint;
 import com.coruscations.aws.HttpMethod;
 import com.coruscations.aws.HttpURLConnectionBuilder;
-import com.coruscations.aws.Parser;
 import com.coruscations.aws.RestCommandResponse;
 
 import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -36,8 +37,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 @ParametersAreNonnullByDefault
 class BucketGet extends BucketRestCommand<BucketGet.Response> {
@@ -61,10 +62,20 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
   private final String marker;
   @Nullable
   private final Integer maxKeys;
+  private final boolean scan;
 
   public BucketGet(String bucketName, @Nullable Character delimiter, @Nullable String prefix,
                    @Nullable String encodingType, @Nullable String marker,
                    @Nullable Integer maxKeys) {
+    this(bucketName, delimiter, prefix, encodingType, marker, maxKeys, false);
+  }
+
+  /**
+   * @param scan Whether to parse the response with {@link ListBucketResultScanner}
+   */
+  public BucketGet(String bucketName, @Nullable Character delimiter, @Nullable String prefix,
+                   @Nullable String encodingType, @Nullable String marker,
+                   @Nullable Integer maxKeys, boolean scan) {
     super(bucketName);
     this.bucketName = bucketName;
     this.delimiter = delimiter;
@@ -72,6 +83,7 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
     this.encodingType = encodingType;
     this.marker = marker;
     this.maxKeys = maxKeys;
+    this.scan = scan;
   }
 
   @Nonnull
@@ -95,16 +107,28 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
     }
   }
 
+  /**
+   * @return The scanner, falling back to the StAX parser, if scanning was asked for, otherwise
+   *         just the StAX parser
+   */
   @Nonnull
   @Override
-  public Parser<Response> getResponseParser() {
+  public CursorParser<Response> getResponseParser() {
+    CursorParser<Response> parser = getCursorParser();
+    return this.scan ? new ListBucketResultScanner(parser) : parser;
+  }
+
+  static CursorParser<Response> getCursorParser() {
     return (responseCode, headers, reader) -> {
 
       if (reader == null) {
         return new Response(responseCode, headers);
       }
 
+      ElementTextReader text = ElementTextReader.forThread();
+
       String name = null;
+      String prefix = null;
       String encodingType = null;
       String delimiter = null;
       String marker = null;
@@ -112,141 +136,151 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
       long maxKeys = 1000;
       boolean truncated = false;
 
-      List<BucketItem> items = new LinkedList<>();
-      List<CommonPrefix> commonPrefixes = new LinkedList<>();
-
-      String key = null;
-      String lastModified = null;
-      String eTag = null;
-      String size = null;
-      String storageClass = null;
-
-      // Shared by ListBucketResult and CommonPrefix
-      String prefix = null;
-
-      // Shared by Contents and CommonPrefix
-      String ownerId = null;
-      String ownerDisplayName = null;
-
-      boolean isContents = false;
-      boolean isCommonPrefix = false;
+      List<BucketItem> items = new ArrayList<>();
+      List<CommonPrefix> commonPrefixes = new ArrayList<>();
 
       while (reader.hasNext()) {
-        XMLEvent event = reader.nextEvent();
-        int next = event.getEventType();
-        if (next == XMLStreamConstants.START_ELEMENT) {
-          StartElement startElement = event.asStartElement();
-          String elementName = startElement.getName().getLocalPart();
-          switch (elementName) {
-            case "Contents":
-              if (isCommonPrefix) {
-                commonPrefixes.add(new CommonPrefix(prefix, ownerId, ownerDisplayName));
-                prefix = null;
-                ownerId = null;
-                ownerDisplayName = null;
-              } else if (key != null) {
-                items.add(new BucketItem(key, lastModified, eTag, size, storageClass, ownerId,
-                                         ownerDisplayName));
-              }
-              key = null;
-              lastModified = null;
-              eTag = null;
-              size = null;
-              storageClass = null;
-              ownerId = null;
-              ownerDisplayName = null;
-              isContents = true;
-              isCommonPrefix = false;
-              break;
-            case "CommonPrefixes":
-              if (isContents) {
-                items.add(new BucketItem(key, lastModified, eTag, size, storageClass, ownerId,
-                                         ownerDisplayName));
-                key = null;
-                lastModified = null;
-                eTag = null;
-                size = null;
-                storageClass = null;
-                ownerId = null;
-                ownerDisplayName = null;
-              } else if (prefix != null) {
-                commonPrefixes.add(new CommonPrefix(prefix, ownerId, ownerDisplayName));
-              }
-              prefix = null;
-              ownerId = null;
-              ownerDisplayName = null;
-              isCommonPrefix = true;
-              isContents = false;
-              break;
-            case "Delimiter":
-              delimiter = reader.getElementText();
-              break;
-            case "DisplayName":
-              ownerDisplayName = reader.getElementText();
-              break;
-            case "Encoding-Type":
-              encodingType = reader.getElementText();
-              break;
-            case "ETag":
-              eTag = reader.getElementText();
-              break;
-            case "ID":
-              ownerId = reader.getElementText();
-              break;
-            case "IsTruncated":
-              truncated = Boolean.valueOf(reader.getElementText());
-              break;
-            case "Key":
-              key = reader.getElementText();
-              break;
-            case "LastModified":
-              lastModified = reader.getElementText();
-              break;
-            case "Marker":
-              marker = reader.getElementText();
-              break;
-            case "MaxKeys":
-              String maxKeysText = reader.getElementText();
-              maxKeys = maxKeysText == null || maxKeysText.isEmpty() ?
-                        1000L : Long.valueOf(maxKeysText);
-              break;
-            case "Name":
-              name = reader.getElementText();
-              break;
-            case "NextMarker":
-              nextMarker = reader.getElementText();
-              break;
-            case "Prefix":
-              prefix = reader.getElementText();
-              break;
-            case "Size":
-              size = reader.getElementText();
-              break;
-            case "StorageClass":
-              storageClass = reader.getElementText();
-              break;
-            case "Owner":
-            case "ListBucketResult":
-              // Ignore
-              break;
-            default:
-              LOG.log(Level.FINE, "Unknown element in list bucket response: {0}", elementName);
-              break;
-          }
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String elementName = reader.getLocalName();
+        switch (elementName) {
+          case "Contents":
+            items.add(readContents(reader, text));
+            break;
+          case "CommonPrefixes":
+            commonPrefixes.add(readCommonPrefix(reader, text));
+            break;
+          case "Delimiter":
+            delimiter = text.getText(reader);
+            break;
+          case "Encoding-Type":
+            encodingType = text.getText(reader);
+            break;
+          case "IsTruncated":
+            truncated = text.getBoolean(reader);
+            break;
+          case "Marker":
+            marker = text.getText(reader);
+            break;
+          case "MaxKeys":
+            String maxKeysText = text.getText(reader);
+            maxKeys = maxKeysText.isEmpty() ? 1000L : Long.valueOf(maxKeysText);
+            break;
+          case "Name":
+            name = text.getText(reader);
+            break;
+          case "NextMarker":
+            nextMarker = text.getText(reader);
+            break;
+          case "Prefix":
+            prefix = text.getText(reader);
+            break;
+          case "ListBucketResult":
+            // Ignore
+            break;
+          default:
+            LOG.log(Level.FINE, "Unknown element in list bucket response: {0}", elementName);
+            break;
         }
-      }
-      if (isContents && key != null) {
-        items.add(new BucketItem(key, lastModified, eTag, size, storageClass, ownerId,
-                                 ownerDisplayName));
-      }
-      if (isCommonPrefix && prefix != null) {
-        commonPrefixes.add(new CommonPrefix(prefix, ownerId, ownerDisplayName));
       }
       return new Response(responseCode, headers, name, prefix, delimiter, encodingType, marker,
                           nextMarker, maxKeys, truncated, items, commonPrefixes);
     };
   }
 
+  /**
+   * Reads a {@code Contents} element, from its start to its end.  Owners and storage classes are
+   * shared between items read with the same text reader.
+   */
+  static BucketItem readContents(XMLStreamReader reader, ElementTextReader text)
+      throws XMLStreamException {
+    String key = null;
+    OffsetDateTime lastModified = null;
+    String eTag = null;
+    long size = 0;
+    StorageClass storageClass = null;
+    String ownerId = null;
+    String ownerDisplayName = null;
+
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && "Contents".equals(reader.getLocalName())) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      String elementName = reader.getLocalName();
+      switch (elementName) {
+        case "Key":
+          key = text.getText(reader);
+          break;
+        case "LastModified":
+          lastModified = text.getTimestamp(reader);
+          break;
+        case "ETag":
+          eTag = text.getText(reader);
+          break;
+        case "Size":
+          size = text.getLong(reader);
+          break;
+        case "StorageClass":
+          storageClass = StorageClass.valueOf(text.getSharedText(reader));
+          break;
+        case "ID":
+          ownerId = text.getSharedText(reader);
+          break;
+        case "DisplayName":
+          ownerDisplayName = text.getSharedText(reader);
+          break;
+        case "Owner":
+          // Ignore
+          break;
+        default:
+          LOG.log(Level.FINE, "Unknown element in list bucket contents: {0}", elementName);
+          break;
+      }
+    }
+    return new BucketItem(key, lastModified, eTag, size, storageClass, ownerId, ownerDisplayName);
+  }
+
+  /**
+   * Reads a {@code CommonPrefixes} element, from its start to its end.
+   */
+  static CommonPrefix readCommonPrefix(XMLStreamReader reader, ElementTextReader text)
+      throws XMLStreamException {
+    String prefix = null;
+    String ownerId = null;
+    String ownerDisplayName = null;
+
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT &&
+          "CommonPrefixes".equals(reader.getLocalName())) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      switch (reader.getLocalName()) {
+        case "Prefix":
+          prefix = text.getText(reader);
+          break;
+        case "ID":
+          ownerId = text.getSharedText(reader);
+          break;
+        case "DisplayName":
+          ownerDisplayName = text.getSharedText(reader);
+          break;
+        default:
+          // Owner and anything unknown
+          break;
+      }
+    }
+    return new CommonPrefix(prefix, ownerId, ownerDisplayName);
+  }
+
   public static class Response extends RestCommandResponse {
 
     private final String name;
@@ -333,9 +367,16 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
     private static final DateTimeFormatter LAST_MODIFIED_FORMATTER =
         DateTimeFormatter.ISO_DATE_TIME;
 
-    private final String key;
+    // Either the value or the bytes it has yet to be decoded from
+    @Nullable
+    private String key;
+    @Nullable
+    private final Utf8Text keyText;
     private final OffsetDateTime lastModified;
-    private final String eTag;
+    @Nullable
+    private String eTag;
+    @Nullable
+    private final Utf8Text eTagText;
     private final long size;
     private final StorageClass storageClass;
     private final String ownerId;
@@ -350,8 +391,25 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
     public BucketItem(String key, OffsetDateTime lastModified, String eTag, long size,
                       StorageClass storageClass, String ownerId, String ownerDisplayName) {
       this.key = key;
+      this.keyText = null;
       this.lastModified = lastModified;
       this.eTag = eTag;
+      this.eTagText = null;
+      this.size = size;
+      this.storageClass = storageClass;
+      this.ownerId = ownerId;
+      this.ownerDisplayName = ownerDisplayName;
+    }
+
+    /**
+     * An item whose key and ETag are decoded on first use, for {@link ListBucketResultScanner}.
+     */
+    BucketItem(Utf8Text keyText, OffsetDateTime lastModified, @Nullable Utf8Text eTagText,
+               long size, @Nullable StorageClass storageClass, @Nullable String ownerId,
+               @Nullable String ownerDisplayName) {
+      this.keyText = keyText;
+      this.lastModified = lastModified;
+      this.eTagText = eTagText;
       this.size = size;
       this.storageClass = storageClass;
       this.ownerId = ownerId;
@@ -359,6 +417,12 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
     }
 
     public String getKey() {
+      String key = this.key;
+      if (key == null && this.keyText != null) {
+        // Racy but idempotent, as strings are immutable
+        key = this.keyText.toString();
+        this.key = key;
+      }
       return key;
     }
 
@@ -367,6 +431,12 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
     }
 
     public String geteTag() {
+      String eTag = this.eTag;
+      if (eTag == null && this.eTagText != null) {
+        // Racy but idempotent, as strings are immutable
+        eTag = this.eTagText.toString();
+        this.eTag = eTag;
+      }
       return eTag;
     }
 
@@ -396,9 +466,9 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
       }
       BucketItem that = (BucketItem) o;
       return size == that.size &&
-             Objects.equals(key, that.key) &&
+             Objects.equals(getKey(), that.getKey()) &&
              Objects.equals(lastModified, that.lastModified) &&
-             Objects.equals(eTag, that.eTag) &&
+             Objects.equals(geteTag(), that.geteTag()) &&
              Objects.equals(storageClass, that.storageClass) &&
              Objects.equals(ownerId, that.ownerId) &&
              Objects.equals(ownerDisplayName, that.ownerDisplayName);
@@ -406,7 +476,8 @@ class BucketGet extends BucketRestCommand<BucketGet.Response> {
 
     @Override
     public int hashCode() {
-      return Objects.hash(key, lastModified, eTag, size, storageClass, ownerId, ownerDisplayName);
+      return Objects.hash(getKey(), lastModified, geteTag(), size, storageClass, ownerId,
+                          ownerDisplayName);
     }
   }
 
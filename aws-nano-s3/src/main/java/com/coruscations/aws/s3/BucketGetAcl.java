@@ -17,10 +17,11 @@
 
 package com.coruscations.aws.s3;
 
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
 import com.coruscations.aws.Endpoint;
 import com.coruscations.aws.HttpMethod;
 import com.coruscations.aws.HttpURLConnectionBuilder;
-import com.coruscations.aws.Parser;
 import com.grack.nanojson.JsonWriter;
 
 import java.util.LinkedList;
@@ -33,8 +34,6 @@ import javax.annotation.Nonnull;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
 
 @ParametersAreNonnullByDefault
 class BucketGetAcl extends BucketRestCommand<BucketGetAcl.Response> {
@@ -57,13 +56,15 @@ class BucketGetAcl extends BucketRestCommand<BucketGetAcl.Response> {
   }
 
   @Override
-  public Parser<Response> getResponseParser() {
+  public CursorParser<Response> getResponseParser() {
     return (responseCode, headers, reader) -> {
 
       if (reader == null) {
         return new Response(responseCode, headers, null, null, null);
       }
 
+      ElementTextReader text = ElementTextReader.forThread();
+
       String ownerId = null;
       String ownerDisplayName = null;
 
@@ -78,25 +79,22 @@ class BucketGetAcl extends BucketRestCommand<BucketGetAcl.Response> {
       List<Grant> grants = new LinkedList<>();
 
       while (reader.hasNext()) {
-        XMLEvent event = reader.nextEvent();
-        int next = event.getEventType();
-        if (next == XMLStreamConstants.START_ELEMENT) {
-          StartElement startElement = event.asStartElement();
-          String elementName = startElement.getName().getLocalPart();
+        if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+          String elementName = reader.getLocalName();
           switch (elementName) {
             case "ID":
               if (inOwner) {
-                ownerId = reader.getElementText();
+                ownerId = text.getText(reader);
               } else if (inAcl) {
-                item = reader.getElementText();
+                item = text.getText(reader);
                 type = Grantee.Type.ID;
               }
               break;
             case "DisplayName":
               if (inOwner) {
-                ownerDisplayName = reader.getElementText();
+                ownerDisplayName = text.getText(reader);
               } else if (inAcl) {
-                displayName = reader.getElementText();
+                displayName = text.getText(reader);
               }
               break;
             case "Grant":
@@ -112,15 +110,15 @@ class BucketGetAcl extends BucketRestCommand<BucketGetAcl.Response> {
               displayName = null;
               break;
             case "URI":
-              item = reader.getElementText();
+              item = text.getText(reader);
               type = Grantee.Type.URI;
               break;
             case "EmailAddress":
-              item = reader.getElementText();
+              item = text.getText(reader);
               type = Grantee.Type.URI;
               break;
             case "Permission":
-              String permissionText = reader.getElementText();
+              String permissionText = text.getSharedText(reader);
               permission = Grant.Permission.valueOf(permissionText);
               break;
             case "Owner":
@@ -17,10 +17,10 @@
 
 package com.coruscations.aws.s3;
 
+import com.coruscations.aws.CursorParser;
 import com.coruscations.aws.Endpoint;
 import com.coruscations.aws.HttpMethod;
 import com.coruscations.aws.HttpURLConnectionBuilder;
-import com.coruscations.aws.Parser;
 import com.coruscations.aws.RestCommandResponse;
 import com.grack.nanojson.JsonWriter;
 
@@ -54,7 +54,7 @@ class BucketGetCors extends BucketRestCommand<BucketGetCors.Response> {
 
   @Nonnull
   @Override
-  public Parser<Response> getResponseParser() {
+  public CursorParser<Response> getResponseParser() {
     return (responseCode, headers, reader) -> new Response(responseCode, headers,
                                                            reader == null ? null :
                                                            new Cors(reader));
@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Lists a page of the multipart uploads in progress in a bucket (ListMultipartUploads), from after
+ * a key and upload id marker.
+ */
+@ParametersAreNonnullByDefault
+class BucketGetUploads extends BucketRestCommand<BucketGetUploads.Response> {
+
+  private static final Logger LOG = Logger.getLogger(BucketGetUploads.class.getName());
+
+  @Nullable
+  private final String prefix;
+  @Nullable
+  private final String keyMarker;
+  @Nullable
+  private final String uploadIdMarker;
+
+  public BucketGetUploads(String bucketName, @Nullable String prefix, @Nullable String keyMarker,
+                          @Nullable String uploadIdMarker) {
+    super(bucketName);
+    this.prefix = prefix;
+    this.keyMarker = keyMarker;
+    this.uploadIdMarker = uploadIdMarker;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.GET;
+  }
+
+  @Override
+  public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addQueryParameter("uploads", "");
+    if (this.prefix != null) {
+      builder.addQueryParameter("prefix", this.prefix);
+    }
+    if (this.keyMarker != null) {
+      builder.addQueryParameter("key-marker", this.keyMarker);
+      if (this.uploadIdMarker != null) {
+        builder.addQueryParameter("upload-id-marker", this.uploadIdMarker);
+      }
+    }
+  }
+
+  @Nonnull
+  @Override
+  public CursorParser<Response> getResponseParser() {
+    return (responseCode, headers, reader) -> {
+      if (reader == null) {
+        return new Response(responseCode, headers, Collections.emptyList(), false, null, null);
+      }
+      ElementTextReader text = ElementTextReader.forThread();
+      List<Upload> uploads = new ArrayList<>();
+      boolean truncated = false;
+      String nextKeyMarker = null;
+      String nextUploadIdMarker = null;
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String elementName = reader.getLocalName();
+        switch (elementName) {
+          case "Upload":
+            uploads.add(readUpload(reader, text));
+            break;
+          case "IsTruncated":
+            truncated = text.getBoolean(reader);
+            break;
+          case "NextKeyMarker":
+            nextKeyMarker = text.getText(reader);
+            break;
+          case "NextUploadIdMarker":
+            nextUploadIdMarker = text.getText(reader);
+            break;
+          case "ListMultipartUploadsResult":
+          case "Bucket":
+          case "KeyMarker":
+          case "UploadIdMarker":
+          case "Prefix":
+          case "Delimiter":
+          case "MaxUploads":
+          case "CommonPrefixes":
+            // Not needed
+            break;
+          default:
+            LOG.log(Level.FINE, "Unknown element in list uploads response: {0}", elementName);
+            break;
+        }
+      }
+      return new Response(responseCode, headers, uploads, truncated, nextKeyMarker,
+                          nextUploadIdMarker);
+    };
+  }
+
+  /**
+   * Reads an {@code Upload} element, from its start to its end.
+   */
+  private static Upload readUpload(XMLStreamReader reader, ElementTextReader text)
+      throws XMLStreamException {
+    String key = null;
+    String uploadId = null;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && "Upload".equals(reader.getLocalName())) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      switch (reader.getLocalName()) {
+        case "Key":
+          key = text.getText(reader);
+          break;
+        case "UploadId":
+          uploadId = text.getText(reader);
+          break;
+        default:
+          // Initiator, owner, storage class, initiated and anything unknown
+          break;
+      }
+    }
+    return new Upload(key, uploadId);
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    private final List<Upload> uploads;
+    private final boolean truncated;
+    @Nullable
+    private final String nextKeyMarker;
+    @Nullable
+    private final String nextUploadIdMarker;
+
+    Response(int responseCode, Map<String, List<String>> headers, List<Upload> uploads,
+             boolean truncated, @Nullable String nextKeyMarker,
+             @Nullable String nextUploadIdMarker) {
+      super(responseCode, headers);
+      this.uploads = uploads;
+      this.truncated = truncated;
+      this.nextKeyMarker = nextKeyMarker;
+      this.nextUploadIdMarker = nextUploadIdMarker;
+    }
+
+    public List<Upload> getUploads() {
+      return this.uploads;
+    }
+
+    public boolean isTruncated() {
+      return this.truncated;
+    }
+
+    @Nullable
+    public String getNextKeyMarker() {
+      return this.nextKeyMarker;
+    }
+
+    @Nullable
+    public String getNextUploadIdMarker() {
+      return this.nextUploadIdMarker;
+    }
+
+    @Override
+    public String toString() {
+      return this.uploads.size() + " uploads" + (this.truncated ? " (truncated)" : "");
+    }
+  }
+
+  public static class Upload {
+
+    @Nullable
+    private final String key;
+    @Nullable
+    private final String uploadId;
+
+    Upload(@Nullable String key, @Nullable String uploadId) {
+      this.key = key;
+      this.uploadId = uploadId;
+    }
+
+    @Nullable
+    public String getKey() {
+      return this.key;
+    }
+
+    @Nullable
+    public String getUploadId() {
+      return this.uploadId;
+    }
+
+    @Override
+    public String toString() {
+      return this.key + " (" + this.uploadId + ")";
+    }
+  }
+}
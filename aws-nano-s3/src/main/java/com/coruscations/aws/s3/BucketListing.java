@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ElementTextReader;
+import com.coruscations.aws.StreamingResponse;
+import com.coruscations.aws.s3.BucketGet.BucketItem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Lazily lists the objects in a bucket, requesting the next page once the marker for it is
+ * known.
+ * <p>
+ * Without prefetching each {@code Contents} element is parsed off the response as it is reached,
+ * and the next page is only requested once the current one is exhausted.  With a prefetch depth
+ * of {@code n}, a background task parses whole pages and requests the next one as soon as the
+ * last key has been read, keeping up to {@code n} parsed pages ahead of the consumer; listing
+ * then takes roughly the longer of the network and consumer time rather than their sum.  Either
+ * way memory is bounded by the pages in flight, not the size of the bucket.
+ * <p>
+ * Failures are thrown as {@link UncheckedIOException}.  The listing must be closed if it is
+ * abandoned before the end, otherwise the connection serving the current page is not released.
+ */
+@ParametersAreNonnullByDefault
+class BucketListing implements Iterator<BucketItem>, Closeable {
+
+  private static final Logger LOG = Logger.getLogger(BucketListing.class.getName());
+
+  private static final ExecutorService PREFETCH_EXECUTOR = Executors.newCachedThreadPool(
+      runnable -> {
+        Thread thread = new Thread(runnable, "aws-nano-s3-list-prefetch");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final S3BucketCommands bucketCommands;
+  private final String bucketName;
+  @Nullable
+  private final Character delimiter;
+  @Nullable
+  private final String prefix;
+  @Nullable
+  private final Integer maxKeys;
+  private final int prefetchPages;
+  @Nullable
+  private Consumer<String> commonPrefixConsumer;
+
+  // Only used by whichever thread is requesting pages
+  @Nullable
+  private String marker;
+  private boolean morePages = true;
+  @Nullable
+  private Page page;
+
+  // Only used when prefetching
+  @Nullable
+  private BlockingQueue<Prefetched> prefetched;
+  @Nullable
+  private Future<?> prefetcher;
+  private Iterator<BucketItem> prefetchedItems = Collections.emptyIterator();
+  private boolean prefetchedAll;
+
+  private volatile boolean closed;
+  @Nullable
+  private BucketItem next;
+
+  BucketListing(S3BucketCommands bucketCommands, String bucketName, @Nullable Character delimiter,
+                @Nullable String prefix, @Nullable String marker, @Nullable Integer maxKeys,
+                int prefetchPages) {
+    if (prefetchPages < 0) {
+      throw new IllegalArgumentException("Prefetch depth cannot be negative: " + prefetchPages);
+    }
+    this.bucketCommands = bucketCommands;
+    this.bucketName = bucketName;
+    this.delimiter = delimiter;
+    this.prefix = prefix;
+    this.marker = marker;
+    this.maxKeys = maxKeys;
+    this.prefetchPages = prefetchPages;
+  }
+
+  /**
+   * Report each common prefix to the consumer as its page is read; with prefetching, this is
+   * before any of the items from that page are returned.  Must be set before iterating.
+   */
+  BucketListing onCommonPrefix(Consumer<String> commonPrefixConsumer) {
+    this.commonPrefixConsumer = commonPrefixConsumer;
+    return this;
+  }
+
+  /**
+   * @return A sequential stream over the remaining items; closing the stream closes the listing.
+   */
+  Stream<BucketItem> stream() {
+    Spliterator<BucketItem> spliterator = Spliterators.spliteratorUnknownSize(
+        this, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false).onClose(() -> {
+      try {
+        close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (this.next != null) {
+      return true;
+    }
+    if (this.closed) {
+      return false;
+    }
+    try {
+      this.next = this.prefetchPages == 0 ? readNext() : takeNext();
+      return this.next != null;
+    } catch (IOException e) {
+      closeQuietly();
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public BucketItem next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    BucketItem item = this.next;
+    this.next = null;
+    return item;
+  }
+
+  /**
+   * @return The next item off the current page, requesting pages as needed
+   */
+  @Nullable
+  private BucketItem readNext() throws IOException {
+    while (this.page != null || this.morePages) {
+      if (this.page == null) {
+        openPage();
+      }
+      BucketItem item = this.page.readItem();
+      if (item != null) {
+        return item;
+      }
+      closePage();
+    }
+    return null;
+  }
+
+  /**
+   * @return The next item from the prefetched pages, starting the prefetcher if needed
+   */
+  @Nullable
+  private BucketItem takeNext() throws IOException {
+    if (this.prefetched == null) {
+      this.prefetched = new ArrayBlockingQueue<>(this.prefetchPages);
+      this.prefetcher = PREFETCH_EXECUTOR.submit(this::prefetch);
+    }
+    while (!this.prefetchedItems.hasNext()) {
+      if (this.prefetchedAll) {
+        // The prefetcher has finished, so nothing more will be queued
+        return null;
+      }
+      Prefetched page;
+      try {
+        page = this.prefetched.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted listing bucket " + this.bucketName);
+      }
+      if (page.failure != null) {
+        throw page.failure;
+      }
+      if (page.items == null) {
+        this.prefetchedAll = true;
+        return null;
+      }
+      this.prefetchedItems = page.items.iterator();
+    }
+    return this.prefetchedItems.next();
+  }
+
+  private void prefetch() {
+    BlockingQueue<Prefetched> queue = this.prefetched;
+    try {
+      while (this.morePages && !this.closed) {
+        openPage();
+        List<BucketItem> items = new ArrayList<>();
+        for (BucketItem item = this.page.readItem(); item != null; item = this.page.readItem()) {
+          items.add(item);
+        }
+        // Requests the next page before the consumer has seen this one
+        closePage();
+        queue.put(new Prefetched(items, null));
+      }
+      queue.put(new Prefetched(null, null));
+    } catch (IOException e) {
+      closePageQuietly();
+      offerFailure(queue, e);
+    } catch (InterruptedException e) {
+      closePageQuietly();
+    } catch (RuntimeException e) {
+      closePageQuietly();
+      offerFailure(queue, new IOException("Failed listing bucket " + this.bucketName, e));
+    }
+  }
+
+  private void offerFailure(BlockingQueue<Prefetched> queue, IOException e) {
+    try {
+      queue.put(new Prefetched(null, e));
+    } catch (InterruptedException ie) {
+      LOG.log(Level.FINE, "Listing closed before failure was seen", e);
+    }
+  }
+
+  private void openPage() throws IOException {
+    this.page = new Page(this.bucketCommands.openListing(this.bucketName, this.delimiter,
+                                                         this.prefix, this.marker,
+                                                         this.maxKeys),
+                         this.commonPrefixConsumer);
+  }
+
+  private void closePage() throws IOException {
+    Page closing = this.page;
+    this.page = null;
+    if (closing == null) {
+      return;
+    }
+    closing.close();
+    String pageMarker = closing.getNextPageMarker();
+    this.morePages = closing.truncated && pageMarker != null;
+    if (closing.truncated && pageMarker == null) {
+      LOG.log(Level.WARNING, "Truncated listing of bucket {0} without a marker, stopping",
+              this.bucketName);
+    }
+    this.marker = pageMarker;
+  }
+
+  private void closePageQuietly() {
+    Page closing = this.page;
+    this.page = null;
+    if (closing != null) {
+      try {
+        closing.close();
+      } catch (IOException e) {
+        LOG.log(Level.FINE, "Failed to close listing page of bucket " + this.bucketName, e);
+      }
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Failed to close listing of bucket " + this.bucketName, e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.closed = true;
+    this.next = null;
+    this.prefetchedItems = Collections.emptyIterator();
+    if (this.prefetcher != null) {
+      // The prefetcher closes its own page once interrupted
+      this.prefetcher.cancel(true);
+      this.prefetched.clear();
+      return;
+    }
+    this.morePages = false;
+    Page closing = this.page;
+    this.page = null;
+    if (closing != null) {
+      closing.close();
+    }
+  }
+
+  /**
+   * A page of results as it is being read, noting the elements needed to request the next page.
+   */
+  private static class Page implements Closeable {
+
+    private final StreamingResponse response;
+    @Nullable
+    private final XMLStreamReader reader;
+    private final ElementTextReader text = new ElementTextReader();
+    @Nullable
+    private final Consumer<String> commonPrefixConsumer;
+
+    private boolean truncated;
+    @Nullable
+    private String nextMarker;
+    @Nullable
+    private String lastKey;
+    @Nullable
+    private String lastCommonPrefix;
+
+    Page(StreamingResponse response, @Nullable Consumer<String> commonPrefixConsumer) {
+      this.response = response;
+      this.reader = response.getReader();
+      this.commonPrefixConsumer = commonPrefixConsumer;
+    }
+
+    /**
+     * Reads up to the end of the next {@code Contents} element.
+     *
+     * @return The item, or {@code null} if the page has been exhausted
+     */
+    @Nullable
+    BucketItem readItem() throws IOException {
+      if (this.reader == null) {
+        return null;
+      }
+      try {
+        return readContents(this.reader);
+      } catch (XMLStreamException e) {
+        throw new IOException("Failed to parse bucket listing", e);
+      }
+    }
+
+    @Nullable
+    private BucketItem readContents(XMLStreamReader reader) throws XMLStreamException {
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        switch (reader.getLocalName()) {
+          case "Contents":
+            BucketItem item = BucketGet.readContents(reader, this.text);
+            this.lastKey = item.getKey();
+            return item;
+          case "CommonPrefixes":
+            String commonPrefix = BucketGet.readCommonPrefix(reader, this.text).getPrefix();
+            this.lastCommonPrefix = commonPrefix;
+            if (this.commonPrefixConsumer != null && commonPrefix != null) {
+              this.commonPrefixConsumer.accept(commonPrefix);
+            }
+            break;
+          case "IsTruncated":
+            this.truncated = this.text.getBoolean(reader);
+            break;
+          case "NextMarker":
+            this.nextMarker = this.text.getText(reader);
+            break;
+          default:
+            // The remaining elements describe the request rather than the items
+            break;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * @return The marker for the page after this one; without a delimiter S3 omits NextMarker,
+     * and the last key (or common prefix) is used instead
+     */
+    @Nullable
+    String getNextPageMarker() {
+      if (this.nextMarker != null) {
+        return this.nextMarker;
+      }
+      if (this.lastKey == null) {
+        return this.lastCommonPrefix;
+      }
+      // S3 lists in UTF-8 byte order, which String.compareTo does not follow above the BMP
+      return this.lastCommonPrefix == null ||
+             ParallelBucketListing.KEY_ORDER.compare(this.lastKey, this.lastCommonPrefix) >= 0 ?
+             this.lastKey : this.lastCommonPrefix;
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.response.close();
+    }
+  }
+
+  /**
+   * A page parsed by the prefetcher: its items, a failure, or neither at the end of the listing.
+   */
+  private static class Prefetched {
+
+    @Nullable
+    private final List<BucketItem> items;
+    @Nullable
+    private final IOException failure;
+
+    Prefetched(@Nullable List<BucketItem> items, @Nullable IOException failure) {
+      this.items = items;
+      this.failure = failure;
+    }
+  }
+}
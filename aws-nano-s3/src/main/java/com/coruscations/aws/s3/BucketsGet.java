@@ -17,17 +17,17 @@
 
 package com.coruscations.aws.s3;
 
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
 import com.coruscations.aws.Endpoint;
 import com.coruscations.aws.HttpMethod;
-import com.coruscations.aws.Parser;
 import com.grack.nanojson.JsonStringWriter;
 import com.grack.nanojson.JsonWriter;
 
 import java.time.OffsetDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -37,8 +37,6 @@ import java.util.logging.Logger;
 import javax.annotation.Nonnull;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
 
 class BucketsGet implements S3RestCommand<BucketsGet.Response> {
 
@@ -58,34 +56,32 @@ class BucketsGet implements S3RestCommand<BucketsGet.Response> {
 
   @Nonnull
   @Override
-  public Parser<Response> getResponseParser() {
-    return  (responseCode, headers, reader) -> {
+  public CursorParser<Response> getResponseParser() {
+    return (responseCode, headers, reader) -> {
 
       if (reader == null) {
         return new Response(responseCode, headers, null, null, null);
       }
 
+      ElementTextReader text = ElementTextReader.forThread();
+
       String ownerId = null;
       String ownerDisplayName = null;
 
-      Collection<BucketsGet.Bucket> buckets = new LinkedList<>();
+      Collection<BucketsGet.Bucket> buckets = new ArrayList<>();
 
       String bucketName = null;
-      DateTimeFormatter dateParser = DateTimeFormatter.ISO_DATE_TIME;
       OffsetDateTime bucketCreationDate = null;
 
       while (reader.hasNext()) {
-        XMLEvent event = reader.nextEvent();
-        int next = event.getEventType();
-        if (next == XMLStreamConstants.START_ELEMENT) {
-          StartElement startElement = event.asStartElement();
-          String elementName = startElement.getName().getLocalPart();
+        if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+          String elementName = reader.getLocalName();
           switch (elementName) {
             case "ID":
-              ownerId = reader.getElementText();
+              ownerId = text.getText(reader);
               break;
             case "DisplayName":
-              ownerDisplayName = reader.getElementText();
+              ownerDisplayName = text.getText(reader);
               break;
             case "Bucket":
               if (bucketName != null) {
@@ -95,12 +91,10 @@ class BucketsGet implements S3RestCommand<BucketsGet.Response> {
               bucketCreationDate = null;
               break;
             case "Name":
-              bucketName = reader.getElementText();
+              bucketName = text.getText(reader);
               break;
             case "CreationDate":
-              String dateString = reader.getElementText();
-              bucketCreationDate = dateString == null ? null :
-                                   dateParser.parse(dateString, OffsetDateTime::from);
+              bucketCreationDate = text.getTimestamp(reader);
               break;
             case "ListAllMyBucketsResult":
             case "Owner":
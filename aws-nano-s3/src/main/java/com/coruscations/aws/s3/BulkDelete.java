@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ErrorResponse;
+import com.coruscations.aws.ErrorResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Deletes any number of objects in batches of up to {@link ObjectsDelete#MAX_KEYS} keys, with up
+ * to {@code parallelism} batches being deleted at once.
+ * <p>
+ * Each batch is one DeleteObjects request sent through the {@link BatchRequest} given, so that
+ * either the object or the bucket commands can run it on their own transport.
+ * <p>
+ * Keys are taken from an iterator, such as a {@link BucketListing}, only as batches are sent, so
+ * no more than {@code parallelism} batches are held at once however many keys there are.  Batches
+ * are sent in quiet mode, so that responses only list the keys that failed.  Keys that fail are
+ * reported, not thrown: a batch that still fails after {@code attempts} tries has each of its keys
+ * reported as failed, and the run goes on with the next batch.
+ */
+@ParametersAreNonnullByDefault
+class BulkDelete {
+
+  private static final Logger LOG = Logger.getLogger(BulkDelete.class.getName());
+
+  static final int DEFAULT_PARALLELISM = 4;
+  static final int DEFAULT_ATTEMPTS = 3;
+
+  private final BatchRequest request;
+  private final String bucketName;
+  private final int parallelism;
+  private final int attempts;
+  @Nullable
+  private Consumer<Result> progressConsumer;
+
+  BulkDelete(BatchRequest request, String bucketName, int parallelism, int attempts) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+    }
+    if (attempts < 1) {
+      throw new IllegalArgumentException("Attempts must be at least one: " + attempts);
+    }
+    this.request = request;
+    this.bucketName = bucketName;
+    this.parallelism = parallelism;
+    this.attempts = attempts;
+  }
+
+  /**
+   * Report the running totals to the consumer each time a batch finishes, on the thread deleting.
+   * The totals go on changing after the call, so should be read during it.
+   */
+  BulkDelete onProgress(@Nullable Consumer<Result> progressConsumer) {
+    this.progressConsumer = progressConsumer;
+    return this;
+  }
+
+  /**
+   * Deletes every key the iterator gives.
+   *
+   * @return The number of keys deleted and the keys that failed
+   * @throws IOException If the keys could not be read, including as an
+   *                     {@link UncheckedIOException} from the iterator
+   */
+  Result delete(Iterator<String> keys) throws IOException {
+    Result result = new Result();
+    ExecutorService executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "aws-nano-s3-bulk-delete");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      CompletionService<Result> completion = new ExecutorCompletionService<>(executor);
+      int pending = 0;
+      List<String> batch = nextBatch(keys);
+      while (!batch.isEmpty()) {
+        List<String> submitted = batch;
+        completion.submit(() -> deleteBatch(submitted));
+        pending++;
+        if (batch.size() < ObjectsDelete.MAX_KEYS) {
+          break;
+        }
+        if (pending == this.parallelism) {
+          // Wait for a batch to finish before reading the keys of another
+          add(result, getResult(completion.take()));
+          pending--;
+        }
+        batch = nextBatch(keys);
+      }
+      for (; pending > 0; pending--) {
+        add(result, getResult(completion.take()));
+      }
+      result.finish();
+      return result;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted deleting from " + this.bucketName);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void add(Result result, Result batch) {
+    result.add(batch);
+    if (this.progressConsumer != null) {
+      this.progressConsumer.accept(result);
+    }
+  }
+
+  private static List<String> nextBatch(Iterator<String> keys) {
+    List<String> batch = new ArrayList<>();
+    while (batch.size() < ObjectsDelete.MAX_KEYS && keys.hasNext()) {
+      batch.add(keys.next());
+    }
+    return batch;
+  }
+
+  private Result deleteBatch(List<String> batch) throws InterruptedException {
+    Result result = new Result();
+    result.batches = 1;
+    String description = batch.size() + " keys from " + batch.get(0) + " in " + this.bucketName;
+    try {
+      ObjectsDelete.Response response = PartRetries.run(
+          this.attempts, "deletion of " + description,
+          () -> this.request.send(this.bucketName, batch));
+      result.deleted = batch.size() - response.getFailures().size();
+      result.failures.addAll(response.getFailures());
+    } catch (InterruptedIOException e) {
+      throw new InterruptedException(e.getMessage());
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed deleting " + description, e);
+      String code = e.getClass().getSimpleName();
+      if (e instanceof ErrorResponseException) {
+        ErrorResponse errorResponse = ((ErrorResponseException) e).getErrorResponse();
+        if (errorResponse instanceof S3ErrorResponse &&
+            ((S3ErrorResponse) errorResponse).getCode() != null) {
+          code = ((S3ErrorResponse) errorResponse).getCode();
+        }
+      }
+      for (String key : batch) {
+        result.failures.add(new ObjectsDelete.Failure(key, code, e.getMessage()));
+      }
+    }
+    return result;
+  }
+
+  private Result getResult(Future<Result> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      }
+      throw new IOException("Failed deleting from " + this.bucketName, cause);
+    } catch (CancellationException e) {
+      throw new InterruptedIOException("Deleting from " + this.bucketName + " cancelled");
+    }
+  }
+
+  /**
+   * Sends a single DeleteObjects request in quiet mode.
+   */
+  @FunctionalInterface
+  interface BatchRequest {
+
+    ObjectsDelete.Response send(String bucketName, List<String> keys) throws IOException;
+  }
+
+  /**
+   * The outcome of deleting keys: how many were deleted, which were not, and how quickly.
+   */
+  static class Result {
+
+    private final long started = System.nanoTime();
+    private long finished;
+    private long deleted;
+    private int batches;
+    private final List<ObjectsDelete.Failure> failures = new ArrayList<>();
+
+    private void add(Result batch) {
+      this.deleted += batch.deleted;
+      this.batches += batch.batches;
+      this.failures.addAll(batch.failures);
+    }
+
+    private void finish() {
+      this.finished = System.nanoTime();
+    }
+
+    /**
+     * @return The number of keys deleted, including any that did not exist
+     */
+    long getDeleted() {
+      return this.deleted;
+    }
+
+    List<ObjectsDelete.Failure> getFailures() {
+      return this.failures;
+    }
+
+    /**
+     * @return The number of batches finished, whether or not their keys were deleted
+     */
+    int getBatches() {
+      return this.batches;
+    }
+
+    /**
+     * @return The time taken so far, or in all once finished
+     */
+    Duration getElapsed() {
+      return Duration.ofNanos((this.finished == 0 ? System.nanoTime() : this.finished) -
+                              this.started);
+    }
+
+    /**
+     * @return The keys deleted a second over the time taken
+     */
+    double getDeletesPerSecond() {
+      long nanos = getElapsed().toNanos();
+      return nanos == 0 ? 0 : this.deleted * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d deleted, %d failed in %d batches (%.0f/s)", this.deleted,
+                           this.failures.size(), this.batches, getDeletesPerSecond());
+    }
+  }
+}
@@ -17,6 +17,7 @@
 
 package com.coruscations.aws.s3;
 
+import com.coruscations.aws.ElementTextReader;
 import com.coruscations.aws.HttpMethod;
 import com.grack.nanojson.JsonStringWriter;
 
@@ -32,13 +33,11 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.xml.stream.XMLEventFactory;
-import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.XMLStreamReader;
 
 import static java.util.Collections.singleton;
 
@@ -54,7 +53,8 @@ public class Cors {
   public Cors() {
   }
 
-  public Cors(@Nonnull XMLEventReader reader) throws XMLStreamException {
+  public Cors(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+    ElementTextReader text = ElementTextReader.forThread();
     String id = null;
     Collection<String> allowedOrigins = new LinkedHashSet<>();
     Collection<HttpMethod> allowedMethods = new LinkedHashSet<>();
@@ -62,11 +62,8 @@ public class Cors {
     Collection<String> exposeHeaders = new LinkedHashSet<>();
 
     while (reader.hasNext()) {
-      XMLEvent event = reader.nextEvent();
-      int next = event.getEventType();
-      if (next == XMLStreamConstants.START_ELEMENT) {
-        StartElement startElement = event.asStartElement();
-        String elementName = startElement.getName().getLocalPart();
+      if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+        String elementName = reader.getLocalName();
         switch (elementName) {
           case "CORSRule":
             if (!allowedMethods.isEmpty() && !allowedMethods.isEmpty()) {
@@ -79,19 +76,19 @@ public class Cors {
             exposeHeaders = new LinkedHashSet<>();
             break;
           case "ID":
-            id = reader.getElementText();
+            id = text.getText(reader);
             break;
           case "AllowedOrigin":
-            allowedOrigins.add(reader.getElementText());
+            allowedOrigins.add(text.getText(reader));
             break;
           case "AllowedMethod":
-            allowedMethods.add(HttpMethod.valueOf(reader.getElementText()));
+            allowedMethods.add(HttpMethod.valueOf(text.getText(reader)));
             break;
           case "MaxAgeSeconds":
-            maxAgeSeconds = Integer.valueOf(reader.getElementText());
+            maxAgeSeconds = Integer.valueOf(text.getText(reader));
             break;
           case "ExposeHeader":
-            allowedMethods.add(HttpMethod.valueOf(reader.getElementText()));
+            allowedMethods.add(HttpMethod.valueOf(text.getText(reader)));
             break;
           case "CORSConfiguration":
             // Ignore these
@@ -0,0 +1,794 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.StreamParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Parses ListBucketResult straight from the UTF-8 bytes of the body, without an XML parser.  Keys
+ * and ETags are left as bytes until they are asked for, and owners are shared between items.
+ * <p>
+ * Only the plain element and text structure S3 sends is understood; comments, CDATA, a DTD,
+ * namespace prefixes, other encodings, malformed UTF-8 and the like all hand the body to the StAX
+ * parser instead, so the results never differ.
+ */
+@ParametersAreNonnullByDefault
+class ListBucketResultScanner implements StreamParser<BucketGet.Response> {
+
+  private static final Logger LOG = Logger.getLogger(ListBucketResultScanner.class.getName());
+
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+  private static final long DEFAULT_MAX_KEYS = 1000L;
+  private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ISO_DATE_TIME;
+
+  private static final byte[] XML_DECLARATION = ascii("<?xml");
+  private static final byte[] ENCODING = ascii("encoding");
+  private static final byte[] UTF_8 = ascii("UTF-8");
+  private static final byte[] TRUE = ascii("true");
+  private static final byte[][] ENTITY_NAMES = {
+      ascii("quot"), ascii("amp"), ascii("lt"), ascii("gt"), ascii("apos")
+  };
+
+  private static final byte[] LIST_BUCKET_RESULT = ascii("ListBucketResult");
+  private static final byte[] CONTENTS = ascii("Contents");
+  private static final byte[] COMMON_PREFIXES = ascii("CommonPrefixes");
+  private static final byte[] DELIMITER = ascii("Delimiter");
+  private static final byte[] ENCODING_TYPE = ascii("Encoding-Type");
+  private static final byte[] IS_TRUNCATED = ascii("IsTruncated");
+  private static final byte[] MARKER = ascii("Marker");
+  private static final byte[] MAX_KEYS = ascii("MaxKeys");
+  private static final byte[] NAME = ascii("Name");
+  private static final byte[] NEXT_MARKER = ascii("NextMarker");
+  private static final byte[] PREFIX = ascii("Prefix");
+  private static final byte[] KEY = ascii("Key");
+  private static final byte[] LAST_MODIFIED = ascii("LastModified");
+  private static final byte[] ETAG = ascii("ETag");
+  private static final byte[] SIZE = ascii("Size");
+  private static final byte[] STORAGE_CLASS = ascii("StorageClass");
+  private static final byte[] OWNER = ascii("Owner");
+  private static final byte[] ID = ascii("ID");
+  private static final byte[] DISPLAY_NAME = ascii("DisplayName");
+
+  private static final StorageClass[] STORAGE_CLASSES = StorageClass.values();
+  private static final byte[][] STORAGE_CLASS_NAMES = new byte[STORAGE_CLASSES.length][];
+
+  static {
+    for (int i = 0; i < STORAGE_CLASSES.length; i++) {
+      STORAGE_CLASS_NAMES[i] = ascii(STORAGE_CLASSES[i].name());
+    }
+  }
+
+  private final CursorParser<BucketGet.Response> fallback;
+
+  /**
+   * @param fallback The StAX parser for bodies the scanner does not understand
+   */
+  ListBucketResultScanner(CursorParser<BucketGet.Response> fallback) {
+    this.fallback = fallback;
+  }
+
+  @Nullable
+  @Override
+  public BucketGet.Response parseCursor(int responseCode, Map<String, List<String>> headers,
+                                        @Nullable XMLStreamReader reader)
+      throws XMLStreamException {
+    return this.fallback.parseCursor(responseCode, headers, reader);
+  }
+
+  @Nullable
+  @Override
+  public BucketGet.Response parseStream(int responseCode, Map<String, List<String>> headers,
+                                        @Nullable InputStream body, Charset charset,
+                                        XMLInputFactory xmlInputFactory)
+      throws IOException, XMLStreamException {
+    if (body == null) {
+      return this.fallback.parseCursor(responseCode, headers, null);
+    }
+    byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    int length = 0;
+    int read;
+    while ((read = body.read(buffer, length, buffer.length - length)) >= 0) {
+      length += read;
+      if (length == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+    if (length < buffer.length - buffer.length / 4) {
+      // Lazily decoded keys keep the buffer alive for as long as the items, so trim it
+      buffer = Arrays.copyOf(buffer, length);
+    }
+    return parse(responseCode, headers, buffer, length, charset, xmlInputFactory);
+  }
+
+  /**
+   * Scans the first {@code length} bytes of a complete body, or parses them with StAX if they
+   * cannot be scanned.  The array must not be modified afterwards.
+   */
+  @Nullable
+  BucketGet.Response parse(int responseCode, Map<String, List<String>> headers, byte[] body,
+                           int length, Charset charset, XMLInputFactory xmlInputFactory)
+      throws XMLStreamException {
+    if (StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset)) {
+      try {
+        return new Scan(body, length).scan(responseCode, headers);
+      } catch (UnexpectedContentException e) {
+        LOG.log(Level.FINE, "Parsing list bucket response with StAX: {0}", e.getMessage());
+      }
+    }
+    XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(
+        new ByteArrayInputStream(body, 0, length), charset.name());
+    try {
+      return this.fallback.parseCursor(responseCode, headers, reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static byte[] ascii(String value) {
+    return value.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Thrown, without a stack trace, for anything the scanner does not handle.
+   */
+  private static class UnexpectedContentException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    UnexpectedContentException(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  /**
+   * The state of a single scan.  Each element method expects the position to be just past the
+   * start tag, which {@link #startTag()} leaves in {@link #nameStart} and {@link #nameEnd}.
+   */
+  private static final class Scan {
+
+    private static final int SHARED_ID = 0;
+    private static final int SHARED_DISPLAY_NAME = 1;
+
+    private final byte[] bytes;
+    private final int limit;
+    private int pos;
+
+    private int nameStart;
+    private int nameEnd;
+    private boolean emptyElement;
+
+    private int textStart;
+    private int textEnd;
+    private boolean textEscaped;
+
+    private String ownerId;
+    private String ownerDisplayName;
+
+    // The last owner values and where they were read from, as owners rarely change
+    private final String[] shared = new String[2];
+    private final int[] sharedStart = new int[2];
+    private final int[] sharedLength = new int[2];
+
+    Scan(byte[] bytes, int limit) {
+      this.bytes = bytes;
+      this.limit = limit;
+    }
+
+    @Nonnull
+    BucketGet.Response scan(int responseCode, Map<String, List<String>> headers)
+        throws UnexpectedContentException {
+      skipProlog();
+      if (!startTag() || !nameIs(LIST_BUCKET_RESULT) || this.emptyElement) {
+        throw new UnexpectedContentException("Not a ListBucketResult");
+      }
+
+      String name = null;
+      String prefix = null;
+      String encodingType = null;
+      String delimiter = null;
+      String marker = null;
+      String nextMarker = null;
+      long maxKeys = DEFAULT_MAX_KEYS;
+      boolean truncated = false;
+
+      List<BucketGet.BucketItem> items = new ArrayList<>();
+      List<BucketGet.CommonPrefix> commonPrefixes = new ArrayList<>();
+
+      while (true) {
+        skipWhitespace();
+        if (endTag(LIST_BUCKET_RESULT)) {
+          break;
+        }
+        if (!startTag()) {
+          throw new UnexpectedContentException("Unexpected content at " + this.pos);
+        }
+        if (nameIs(CONTENTS)) {
+          items.add(contents());
+        } else if (nameIs(COMMON_PREFIXES)) {
+          commonPrefixes.add(commonPrefix());
+        } else {
+          text();
+          if (nameIs(NAME)) {
+            name = string();
+          } else if (nameIs(PREFIX)) {
+            prefix = string();
+          } else if (nameIs(MARKER)) {
+            marker = string();
+          } else if (nameIs(NEXT_MARKER)) {
+            nextMarker = string();
+          } else if (nameIs(MAX_KEYS)) {
+            maxKeys = this.textStart == this.textEnd ? DEFAULT_MAX_KEYS : number();
+          } else if (nameIs(IS_TRUNCATED)) {
+            truncated = textEqualsIgnoreCase(TRUE);
+          } else if (nameIs(DELIMITER)) {
+            delimiter = string();
+          } else if (nameIs(ENCODING_TYPE)) {
+            encodingType = string();
+          } else if (LOG.isLoggable(Level.FINE)) {
+            LOG.log(Level.FINE, "Unknown element in list bucket response: {0}", tagName());
+          }
+        }
+      }
+      skipWhitespace();
+      if (this.pos != this.limit) {
+        throw new UnexpectedContentException("Content after the root element");
+      }
+      return new BucketGet.Response(responseCode, headers, name, prefix, delimiter, encodingType,
+                                    marker, nextMarker, maxKeys, truncated, items,
+                                    commonPrefixes);
+    }
+
+    private BucketGet.BucketItem contents() throws UnexpectedContentException {
+      if (this.emptyElement) {
+        throw new UnexpectedContentException("Empty Contents");
+      }
+      Utf8Text key = null;
+      OffsetDateTime lastModified = null;
+      Utf8Text eTag = null;
+      long size = 0;
+      StorageClass storageClass = null;
+      this.ownerId = null;
+      this.ownerDisplayName = null;
+
+      while (true) {
+        skipWhitespace();
+        if (endTag(CONTENTS)) {
+          break;
+        }
+        if (!startTag()) {
+          throw new UnexpectedContentException("Unexpected content at " + this.pos);
+        }
+        if (nameIs(OWNER)) {
+          owner();
+          continue;
+        }
+        text();
+        if (nameIs(KEY)) {
+          key = new Utf8Text(this.bytes, this.textStart, this.textEnd - this.textStart,
+                             this.textEscaped);
+        } else if (nameIs(LAST_MODIFIED)) {
+          lastModified = timestamp();
+        } else if (nameIs(ETAG)) {
+          eTag = new Utf8Text(this.bytes, this.textStart, this.textEnd - this.textStart,
+                              this.textEscaped);
+        } else if (nameIs(SIZE)) {
+          size = number();
+        } else if (nameIs(STORAGE_CLASS)) {
+          storageClass = storageClass();
+        } else if (LOG.isLoggable(Level.FINE)) {
+          LOG.log(Level.FINE, "Unknown element in list bucket contents: {0}", tagName());
+        }
+      }
+      if (key == null) {
+        throw new UnexpectedContentException("Contents without a Key");
+      }
+      return new BucketGet.BucketItem(key, lastModified, eTag, size, storageClass, this.ownerId,
+                                      this.ownerDisplayName);
+    }
+
+    private BucketGet.CommonPrefix commonPrefix() throws UnexpectedContentException {
+      String prefix = null;
+      this.ownerId = null;
+      this.ownerDisplayName = null;
+      while (!this.emptyElement) {
+        skipWhitespace();
+        if (endTag(COMMON_PREFIXES)) {
+          break;
+        }
+        if (!startTag()) {
+          throw new UnexpectedContentException("Unexpected content at " + this.pos);
+        }
+        if (nameIs(OWNER)) {
+          owner();
+          continue;
+        }
+        text();
+        if (nameIs(PREFIX)) {
+          prefix = string();
+        }
+      }
+      return new BucketGet.CommonPrefix(prefix, this.ownerId, this.ownerDisplayName);
+    }
+
+    private void owner() throws UnexpectedContentException {
+      while (!this.emptyElement) {
+        skipWhitespace();
+        if (endTag(OWNER)) {
+          break;
+        }
+        if (!startTag()) {
+          throw new UnexpectedContentException("Unexpected content at " + this.pos);
+        }
+        text();
+        if (nameIs(ID)) {
+          this.ownerId = shared(SHARED_ID);
+        } else if (nameIs(DISPLAY_NAME)) {
+          this.ownerDisplayName = shared(SHARED_DISPLAY_NAME);
+        }
+      }
+    }
+
+    private void skipProlog() throws UnexpectedContentException {
+      if (this.limit >= 3 && (this.bytes[0] & 0xFF) == 0xEF && (this.bytes[1] & 0xFF) == 0xBB &&
+          (this.bytes[2] & 0xFF) == 0xBF) {
+        this.pos = 3;
+      }
+      if (startsWith(XML_DECLARATION, this.pos)) {
+        int end = indexOf((byte) '?', this.pos + XML_DECLARATION.length);
+        if (end < 0 || end + 1 >= this.limit || this.bytes[end + 1] != '>') {
+          throw new UnexpectedContentException("Unterminated XML declaration");
+        }
+        checkEncoding(this.pos + XML_DECLARATION.length, end);
+        this.pos = end + 2;
+      }
+      skipWhitespace();
+    }
+
+    private void checkEncoding(int start, int end) throws UnexpectedContentException {
+      for (int i = start; i < end; i++) {
+        if (!startsWith(ENCODING, i)) {
+          continue;
+        }
+        int quote = i + ENCODING.length;
+        while (quote < end && this.bytes[quote] != '"' && this.bytes[quote] != '\'') {
+          quote++;
+        }
+        int close = quote + 1 + UTF_8.length;
+        if (close >= end || this.bytes[close] != this.bytes[quote] ||
+            !regionEqualsIgnoreCase(quote + 1, UTF_8)) {
+          throw new UnexpectedContentException("Encoding is not UTF-8");
+        }
+        return;
+      }
+    }
+
+    /**
+     * Reads a start tag if there is one at the position.
+     *
+     * @return false, without moving, if there is not
+     */
+    private boolean startTag() throws UnexpectedContentException {
+      if (this.pos + 1 >= this.limit || this.bytes[this.pos] != '<' ||
+          !isNameStart(this.bytes[this.pos + 1])) {
+        return false;
+      }
+      int i = this.pos + 1;
+      this.nameStart = i;
+      while (i < this.limit && isNameChar(this.bytes[i])) {
+        i++;
+      }
+      this.nameEnd = i;
+      // Skip attributes, which only ever declare the namespace
+      byte quote = 0;
+      while (i < this.limit && (quote != 0 || this.bytes[i] != '>')) {
+        byte b = this.bytes[i];
+        if (quote != 0) {
+          if (b == quote) {
+            quote = 0;
+          }
+        } else if (b == '"' || b == '\'') {
+          quote = b;
+        } else if (b == '<' || b == ':' && i == this.nameEnd) {
+          throw new UnexpectedContentException("Malformed start tag at " + this.pos);
+        }
+        i++;
+      }
+      if (i == this.limit) {
+        throw new UnexpectedContentException("Unterminated start tag at " + this.pos);
+      }
+      this.emptyElement = this.bytes[i - 1] == '/';
+      this.pos = i + 1;
+      return true;
+    }
+
+    /**
+     * Reads the end tag for the name if there is one at the position.
+     *
+     * @return false, without moving, if there is no end tag
+     * @throws UnexpectedContentException if it is the end tag for another element
+     */
+    private boolean endTag(byte[] name) throws UnexpectedContentException {
+      return endTag(name, 0, name.length);
+    }
+
+    private boolean endTag(byte[] name, int offset, int length) throws UnexpectedContentException {
+      if (this.pos + 1 >= this.limit || this.bytes[this.pos] != '<' ||
+          this.bytes[this.pos + 1] != '/') {
+        return false;
+      }
+      int i = this.pos + 2;
+      if (i + length > this.limit || !regionEquals(name, offset, i, length)) {
+        throw new UnexpectedContentException("Unexpected end tag at " + this.pos);
+      }
+      i += length;
+      while (i < this.limit && isWhitespace(this.bytes[i])) {
+        i++;
+      }
+      if (i == this.limit || this.bytes[i] != '>') {
+        throw new UnexpectedContentException("Unexpected end tag at " + this.pos);
+      }
+      this.pos = i + 1;
+      return true;
+    }
+
+    /**
+     * Reads the text of a text-only element and its end tag, checking entities and UTF-8 on the
+     * way.
+     */
+    private void text() throws UnexpectedContentException {
+      this.textStart = this.pos;
+      this.textEscaped = false;
+      if (this.emptyElement) {
+        this.textEnd = this.pos;
+        return;
+      }
+      int i = this.pos;
+      while (i < this.limit) {
+        int b = this.bytes[i];
+        if (b == '<') {
+          break;
+        } else if (b == '&') {
+          i = entity(i);
+          this.textEscaped = true;
+        } else if (b < 0) {
+          i = utf8Sequence(i);
+        } else if (b < 0x20 && b != '\t' && b != '\n') {
+          // Includes '\r', which an XML parser would normalise
+          throw new UnexpectedContentException("Control character at " + i);
+        } else if (b == '>' && i >= 2 && this.bytes[i - 1] == ']' && this.bytes[i - 2] == ']') {
+          throw new UnexpectedContentException("Unescaped ]]> at " + i);
+        } else {
+          i++;
+        }
+      }
+      this.textEnd = i;
+      this.pos = i;
+      if (!endTag(this.bytes, this.nameStart, this.nameEnd - this.nameStart)) {
+        throw new UnexpectedContentException("Element content in " + tagName());
+      }
+    }
+
+    /**
+     * @return The index after the entity starting at {@code i}
+     */
+    private int entity(int i) throws UnexpectedContentException {
+      int end = i + 1;
+      while (end < this.limit && end - i <= 9 && this.bytes[end] != ';') {
+        end++;
+      }
+      if (end == this.limit || this.bytes[end] != ';' || !isEntity(i + 1, end)) {
+        throw new UnexpectedContentException("Unsupported entity at " + i);
+      }
+      return end + 1;
+    }
+
+    private boolean isEntity(int start, int end) {
+      if (this.bytes[start] == '#') {
+        return isXmlChar(Utf8Text.entity(new AsciiSequence(this.bytes), start, end));
+      }
+      for (byte[] name : ENTITY_NAMES) {
+        if (name.length == end - start && regionEquals(name, 0, start, name.length)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return The index after the well formed multi-byte sequence starting at {@code i}
+     */
+    private int utf8Sequence(int i) throws UnexpectedContentException {
+      int b = this.bytes[i] & 0xFF;
+      int length;
+      int codePoint;
+      if (b >= 0xC2 && b <= 0xDF) {
+        length = 2;
+        codePoint = b & 0x1F;
+      } else if (b >= 0xE0 && b <= 0xEF) {
+        length = 3;
+        codePoint = b & 0x0F;
+      } else if (b >= 0xF0 && b <= 0xF4) {
+        length = 4;
+        codePoint = b & 0x07;
+      } else {
+        throw new UnexpectedContentException("Malformed UTF-8 at " + i);
+      }
+      if (i + length > this.limit) {
+        throw new UnexpectedContentException("Truncated UTF-8 at " + i);
+      }
+      for (int j = i + 1; j < i + length; j++) {
+        int continuation = this.bytes[j] & 0xFF;
+        if ((continuation & 0xC0) != 0x80) {
+          throw new UnexpectedContentException("Malformed UTF-8 at " + i);
+        }
+        codePoint = codePoint << 6 | continuation & 0x3F;
+      }
+      // Rejects overlong forms and surrogates along with the non-characters XML excludes
+      if (codePoint < (length == 3 ? 0x800 : 0x10000) && length > 2 || !isXmlChar(codePoint)) {
+        throw new UnexpectedContentException("Invalid character at " + i);
+      }
+      return i + length;
+    }
+
+    private String string() {
+      String raw = new String(this.bytes, this.textStart, this.textEnd - this.textStart,
+                              StandardCharsets.UTF_8);
+      return this.textEscaped ? Utf8Text.unescape(raw) : raw;
+    }
+
+    private String shared(int slot) {
+      int length = this.textEnd - this.textStart;
+      String candidate = this.shared[slot];
+      if (candidate != null && !this.textEscaped && this.sharedLength[slot] == length &&
+          regionEquals(this.bytes, this.sharedStart[slot], this.textStart, length)) {
+        return candidate;
+      }
+      String value = string();
+      if (!this.textEscaped) {
+        this.shared[slot] = value;
+        this.sharedStart[slot] = this.textStart;
+        this.sharedLength[slot] = length;
+      }
+      return value;
+    }
+
+    private long number() throws UnexpectedContentException {
+      int length = this.textEnd - this.textStart;
+      if (length == 0 || length > 18) {
+        throw new UnexpectedContentException("Unsupported number in " + tagName());
+      }
+      long value = 0;
+      for (int i = this.textStart; i < this.textEnd; i++) {
+        int digit = this.bytes[i] - '0';
+        if (digit < 0 || digit > 9) {
+          throw new UnexpectedContentException("Unsupported number in " + tagName());
+        }
+        value = value * 10 + digit;
+      }
+      return value;
+    }
+
+    private OffsetDateTime timestamp() throws UnexpectedContentException {
+      OffsetDateTime timestamp = parseUtcTimestamp();
+      if (timestamp != null) {
+        return timestamp;
+      }
+      try {
+        return TIMESTAMP_FORMATTER.parse(string(), OffsetDateTime::from);
+      } catch (DateTimeException e) {
+        throw new UnexpectedContentException("Unsupported timestamp: " + string());
+      }
+    }
+
+    /**
+     * @return The timestamp if it is in the UTC form S3 uses, otherwise null
+     */
+    private OffsetDateTime parseUtcTimestamp() {
+      byte[] b = this.bytes;
+      int s = this.textStart;
+      int len = this.textEnd - s;
+      if (len < 20 || b[s + len - 1] != 'Z' || b[s + 4] != '-' || b[s + 7] != '-' ||
+          b[s + 10] != 'T' || b[s + 13] != ':' || b[s + 16] != ':') {
+        return null;
+      }
+      int year = digits(b, s, 4);
+      int month = digits(b, s + 5, 2);
+      int day = digits(b, s + 8, 2);
+      int hour = digits(b, s + 11, 2);
+      int minute = digits(b, s + 14, 2);
+      int second = digits(b, s + 17, 2);
+      int nanos = 0;
+      if (len > 20) {
+        int fractionDigits = len - 21;
+        if (b[s + 19] != '.' || fractionDigits < 1 || fractionDigits > 9) {
+          return null;
+        }
+        nanos = digits(b, s + 20, fractionDigits);
+        for (int i = fractionDigits; i < 9 && nanos >= 0; i++) {
+          nanos *= 10;
+        }
+      }
+      if ((year | month | day | hour | minute | second | nanos) < 0) {
+        return null;
+      }
+      try {
+        return OffsetDateTime.of(year, month, day, hour, minute, second, nanos, ZoneOffset.UTC);
+      } catch (DateTimeException e) {
+        return null;
+      }
+    }
+
+    private StorageClass storageClass() throws UnexpectedContentException {
+      int length = this.textEnd - this.textStart;
+      for (int i = 0; i < STORAGE_CLASS_NAMES.length; i++) {
+        byte[] name = STORAGE_CLASS_NAMES[i];
+        if (name.length == length && regionEquals(name, 0, this.textStart, length)) {
+          return STORAGE_CLASSES[i];
+        }
+      }
+      throw new UnexpectedContentException("Unknown storage class: " + string());
+    }
+
+    private void skipWhitespace() {
+      while (this.pos < this.limit && isWhitespace(this.bytes[this.pos])) {
+        this.pos++;
+      }
+    }
+
+    private boolean nameIs(byte[] name) {
+      return this.nameEnd - this.nameStart == name.length &&
+             regionEquals(name, 0, this.nameStart, name.length);
+    }
+
+    private String tagName() {
+      return new String(this.bytes, this.nameStart, this.nameEnd - this.nameStart,
+                        StandardCharsets.US_ASCII);
+    }
+
+    private boolean textEqualsIgnoreCase(byte[] value) {
+      return this.textEnd - this.textStart == value.length &&
+             regionEqualsIgnoreCase(this.textStart, value);
+    }
+
+    private boolean startsWith(byte[] prefix, int at) {
+      return at + prefix.length <= this.limit && regionEquals(prefix, 0, at, prefix.length);
+    }
+
+    private int indexOf(byte b, int from) {
+      for (int i = from; i < this.limit; i++) {
+        if (this.bytes[i] == b) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Compares {@code length} bytes of {@code other} from {@code offset} with the body at
+     * {@code at}, which the caller has checked is in range.
+     */
+    private boolean regionEquals(byte[] other, int offset, int at, int length) {
+      for (int i = 0; i < length; i++) {
+        if (this.bytes[at + i] != other[offset + i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private boolean regionEqualsIgnoreCase(int at, byte[] value) {
+      for (int i = 0; i < value.length; i++) {
+        int b = this.bytes[at + i];
+        if (b >= 'a' && b <= 'z') {
+          b -= 'a' - 'A';
+        }
+        int v = value[i];
+        if (v >= 'a' && v <= 'z') {
+          v -= 'a' - 'A';
+        }
+        if (b != v) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int digits(byte[] b, int offset, int count) {
+      int value = 0;
+      for (int i = offset; i < offset + count; i++) {
+        int digit = b[i] - '0';
+        if (digit < 0 || digit > 9) {
+          return -1;
+        }
+        value = value * 10 + digit;
+      }
+      return value;
+    }
+
+    private static boolean isWhitespace(byte b) {
+      return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isNameStart(byte b) {
+      return b >= 'A' && b <= 'Z' || b >= 'a' && b <= 'z' || b == '_';
+    }
+
+    private static boolean isNameChar(byte b) {
+      return isNameStart(b) || b >= '0' && b <= '9' || b == '-' || b == '.';
+    }
+
+    private static boolean isXmlChar(int codePoint) {
+      return codePoint == '\t' || codePoint == '\n' || codePoint == '\r' ||
+             codePoint >= 0x20 && codePoint <= 0xD7FF ||
+             codePoint >= 0xE000 && codePoint <= 0xFFFD ||
+             codePoint >= 0x10000 && codePoint <= 0x10FFFF;
+    }
+  }
+
+  /**
+   * Bytes as characters, for entity names and character references, which are ASCII.
+   */
+  private static final class AsciiSequence implements CharSequence {
+
+    private final byte[] bytes;
+
+    AsciiSequence(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int length() {
+      return this.bytes.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) (this.bytes[index] & 0xFF);
+    }
+
+    @Nonnull
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return new String(this.bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+  }
+}
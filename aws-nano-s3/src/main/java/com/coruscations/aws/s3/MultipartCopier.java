@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Copies an object within S3, so that its content never passes through the client.
+ * <p>
+ * The source is HEADed for its length, ETag and metadata.  Objects no larger than {@code
+ * threshold} bytes, which may be at most the {@link ObjectCopy#MAX_LENGTH 5 GB} S3 copies in one
+ * request, are copied with a single CopyObject.  Larger ones are copied as a multipart upload
+ * whose parts of {@code partSize} bytes are each an UploadPartCopy of a range of the source, with
+ * up to {@code parallelism} running at once; the source's content type and user metadata are
+ * given to the upload, since S3 does not copy them to it.  Every request is conditional on the
+ * source's ETag, so a source replaced during the copy fails it rather than producing a mix of two
+ * versions.
+ * <p>
+ * Each request is retried on its own up to {@code attempts} times in all.  If a part still fails,
+ * or the upload cannot be completed, the remaining parts are stopped and the upload is aborted.
+ */
+@ParametersAreNonnullByDefault
+class MultipartCopier {
+
+  private static final Logger LOG = Logger.getLogger(MultipartCopier.class.getName());
+
+  private final S3ObjectCommands objectCommands;
+  private final String sourceBucketName;
+  private final String sourceObjectKey;
+  private final String bucketName;
+  private final String objectKey;
+  private final long threshold;
+  private final long partSize;
+  private final int parallelism;
+  private final int attempts;
+
+  MultipartCopier(S3ObjectCommands objectCommands, String sourceBucketName,
+                  String sourceObjectKey, String bucketName, String objectKey, long threshold,
+                  long partSize, int parallelism, int attempts) {
+    if (threshold < 0 || threshold > ObjectCopy.MAX_LENGTH) {
+      throw new IllegalArgumentException("Invalid copy threshold: " + threshold);
+    }
+    if (partSize < 1 || partSize > ObjectCopy.MAX_LENGTH) {
+      throw new IllegalArgumentException("Invalid part size: " + partSize);
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+    }
+    if (attempts < 1) {
+      throw new IllegalArgumentException("Attempts must be at least one: " + attempts);
+    }
+    this.objectCommands = objectCommands;
+    this.sourceBucketName = sourceBucketName;
+    this.sourceObjectKey = sourceObjectKey;
+    this.bucketName = bucketName;
+    this.objectKey = objectKey;
+    this.threshold = threshold;
+    this.partSize = partSize;
+    this.parallelism = parallelism;
+    this.attempts = attempts;
+  }
+
+  /**
+   * Copies the source to the target, replacing any object there.  An object copied onto itself is
+   * left as it is.
+   *
+   * @return The ETag of the copy
+   */
+  @Nullable
+  String copy() throws IOException {
+    ObjectHead.Response head = this.objectCommands.head(this.sourceBucketName,
+                                                        this.sourceObjectKey);
+    long length = head.getContentLength();
+    if (length < 0) {
+      throw new IOException("No length given for " + this.sourceObjectKey);
+    }
+    if (this.sourceBucketName.equals(this.bucketName) &&
+        this.sourceObjectKey.equals(this.objectKey)) {
+      // S3 refuses to copy an object onto itself without changing it
+      return head.getETag();
+    }
+    try {
+      if (length <= this.threshold) {
+        return copyObject(head.getETag());
+      }
+      return copyParts(head, length);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted copying " + this.sourceObjectKey);
+    }
+  }
+
+  @Nullable
+  private String copyObject(@Nullable String etag) throws IOException, InterruptedException {
+    return PartRetries.run(this.attempts, "copy of " + this.sourceObjectKey, () -> {
+      ObjectCopy.Response response = this.objectCommands.copyObject(
+          this.sourceBucketName, this.sourceObjectKey, this.bucketName, this.objectKey, etag);
+      if (response.getErrorCode() != null) {
+        // Sent after a 200 status, and worth retrying whatever it is
+        throw new IOException("Failed copying " + this.sourceObjectKey + ": " + response);
+      }
+      return response.getETag();
+    });
+  }
+
+  /**
+   * @return The part size within S3's part limit for an object of the length
+   */
+  private long getPartSize(long length) {
+    return Math.max(this.partSize, (length + MultipartUploadPart.MAX_PART_NUMBER - 1) /
+                                   MultipartUploadPart.MAX_PART_NUMBER);
+  }
+
+  @Nullable
+  private String copyParts(ObjectHead.Response head, long length)
+      throws IOException, InterruptedException {
+    long size = getPartSize(length);
+    int parts = (int) ((length + size - 1) / size);
+    String uploadId = this.objectCommands.createMultipartUpload(
+        this.bucketName, this.objectKey, head.getContentType(), head.getUserMetadata())
+        .getUploadId();
+    if (uploadId == null) {
+      throw new IOException("No upload id given for " + this.objectKey);
+    }
+    LOG.log(Level.FINE, "Copying {0} to {1} in {2} parts as upload {3}",
+            new Object[]{this.sourceObjectKey, this.objectKey, parts, uploadId});
+    SortedMap<Integer, String> partETags = new ConcurrentSkipListMap<>();
+    boolean completed = false;
+    try (PartExecutor executor = new PartExecutor(Math.min(parts, this.parallelism),
+                                                  "aws-nano-s3-multipart-copy",
+                                                  "copying " + this.sourceObjectKey)) {
+      for (int partNumber = 1; partNumber <= parts; partNumber++) {
+        int number = partNumber;
+        long start = (partNumber - 1) * size;
+        long end = Math.min(start + size, length) - 1;
+        executor.submit(() -> {
+          partETags.put(number, copyPart(uploadId, number, start, end, head.getETag()));
+          return number;
+        });
+      }
+      executor.awaitParts();
+      String etag = PartExecutor.complete(this.objectCommands, this.attempts, this.bucketName,
+                                          this.objectKey, uploadId, partETags);
+      completed = true;
+      return etag;
+    } finally {
+      // The executor has been closed, so no part is still being copied
+      if (!completed) {
+        PartExecutor.abort(this.objectCommands, this.bucketName, this.objectKey, uploadId);
+      }
+    }
+  }
+
+  private String copyPart(String uploadId, int partNumber, long start, long end,
+                          @Nullable String etag) throws IOException, InterruptedException {
+    String description = "part " + partNumber + " of " + this.objectKey;
+    String partETag = PartRetries.run(this.attempts, description, () -> {
+      ObjectCopy.Response response = this.objectCommands.copyPart(
+          this.sourceBucketName, this.sourceObjectKey, this.bucketName, this.objectKey, uploadId,
+          partNumber, start, end, etag);
+      if (response.getErrorCode() != null) {
+        throw new IOException("Failed copying " + description + ": " + response);
+      }
+      return response.getETag();
+    });
+    if (partETag == null) {
+      throw new IOException("No ETag given for " + description);
+    }
+    return partETag;
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpHeaders;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Completes a multipart upload (CompleteMultipartUpload) from its parts' ETags.
+ * <p>
+ * S3 may fail the completion after it has sent a 200 status, with an {@code Error} document as
+ * the body; the response then has an {@link Response#getErrorCode() error code}.
+ */
+@ParametersAreNonnullByDefault
+class MultipartUploadComplete extends ObjectRestCommand<MultipartUploadComplete.Response> {
+
+  private static final Logger LOG = Logger.getLogger(MultipartUploadComplete.class.getName());
+
+  private final String uploadId;
+  private final SortedMap<Integer, String> partETags;
+
+  /**
+   * @param partETags The ETag of each part, by part number
+   */
+  public MultipartUploadComplete(String bucketName, String objectKey, String uploadId,
+                                 SortedMap<Integer, String> partETags) {
+    super(bucketName, objectKey);
+    if (partETags.isEmpty()) {
+      throw new IllegalArgumentException("No parts to complete " + objectKey);
+    }
+    this.uploadId = uploadId;
+    this.partETags = partETags;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.POST;
+  }
+
+  @Override
+  public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addQueryParameter("uploadId", this.uploadId);
+  }
+
+  @Override
+  public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addHeader(HttpHeaders.CONTENT_TYPE, "application/xml", true);
+  }
+
+  @Nonnull
+  @Override
+  public String createBody(Endpoint endpoint) {
+    StringBuilder sb = new StringBuilder(64 + this.partETags.size() * 96);
+    sb.append("<CompleteMultipartUpload xmlns=\"").append(XMLNS).append("\">");
+    this.partETags.forEach((partNumber, etag) ->
+                               sb.append("<Part><PartNumber>").append(partNumber)
+                                   .append("</PartNumber><ETag>").append(etag)
+                                   .append("</ETag></Part>"));
+    return sb.append("</CompleteMultipartUpload>").toString();
+  }
+
+  @Nonnull
+  @Override
+  public CursorParser<Response> getResponseParser() {
+    return (responseCode, headers, reader) -> {
+      String location = null;
+      String etag = null;
+      String errorCode = null;
+      String errorMessage = null;
+      if (reader != null) {
+        ElementTextReader text = ElementTextReader.forThread();
+        while (reader.hasNext()) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            continue;
+          }
+          String elementName = reader.getLocalName();
+          switch (elementName) {
+            case "Location":
+              location = text.getText(reader);
+              break;
+            case "ETag":
+              etag = text.getText(reader);
+              break;
+            case "Code":
+              errorCode = text.getText(reader);
+              break;
+            case "Message":
+              errorMessage = text.getText(reader);
+              break;
+            case "CompleteMultipartUploadResult":
+            case "Bucket":
+            case "Key":
+            case "Error":
+              // Not needed
+              break;
+            default:
+              LOG.log(Level.FINE, "Unknown element in complete multipart upload response: {0}",
+                      elementName);
+              break;
+          }
+        }
+      }
+      return new Response(responseCode, headers, location, etag, errorCode, errorMessage);
+    };
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    @Nullable
+    private final String location;
+    @Nullable
+    private final String etag;
+    @Nullable
+    private final String errorCode;
+    @Nullable
+    private final String errorMessage;
+
+    Response(int responseCode, Map<String, List<String>> headers, @Nullable String location,
+             @Nullable String etag, @Nullable String errorCode, @Nullable String errorMessage) {
+      super(responseCode, headers);
+      this.location = location;
+      this.etag = etag;
+      this.errorCode = errorCode;
+      this.errorMessage = errorMessage;
+    }
+
+    @Nullable
+    public String getLocation() {
+      return this.location;
+    }
+
+    /**
+     * @return The ETag of the whole object, which for multipart uploads is not its MD5
+     */
+    @Nullable
+    public String getETag() {
+      return this.etag;
+    }
+
+    /**
+     * @return The code of an error sent in place of the result, or null if it succeeded
+     */
+    @Nullable
+    public String getErrorCode() {
+      return this.errorCode;
+    }
+
+    @Nullable
+    public String getErrorMessage() {
+      return this.errorMessage;
+    }
+
+    @Override
+    public String toString() {
+      return this.errorCode == null ? this.location + " (" + this.etag + ")" :
+             this.errorCode + ": " + this.errorMessage;
+    }
+  }
+}
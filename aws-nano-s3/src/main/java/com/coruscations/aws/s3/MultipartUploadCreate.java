@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpHeaders;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Starts a multipart upload (CreateMultipartUpload), returning the id its parts are uploaded to.
+ */
+@ParametersAreNonnullByDefault
+class MultipartUploadCreate extends ObjectRestCommand<MultipartUploadCreate.Response> {
+
+  private static final Logger LOG = Logger.getLogger(MultipartUploadCreate.class.getName());
+
+  @Nullable
+  private final String contentType;
+  private final Map<String, String> userMetadata;
+
+  public MultipartUploadCreate(String bucketName, String objectKey, @Nullable String contentType) {
+    this(bucketName, objectKey, contentType, Collections.emptyMap());
+  }
+
+  /**
+   * @param userMetadata The object's {@code x-amz-meta-} headers, by name without the prefix
+   */
+  public MultipartUploadCreate(String bucketName, String objectKey, @Nullable String contentType,
+                               Map<String, String> userMetadata) {
+    super(bucketName, objectKey);
+    this.contentType = contentType;
+    this.userMetadata = userMetadata;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.POST;
+  }
+
+  @Override
+  public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addQueryParameter("uploads", "");
+  }
+
+  @Override
+  public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    if (this.contentType != null) {
+      builder.addHeader(HttpHeaders.CONTENT_TYPE, this.contentType, true);
+    }
+    this.userMetadata.forEach((name, value) ->
+                                  builder.addHeader(USER_METADATA_PREFIX + name, value, true));
+  }
+
+  @Nonnull
+  @Override
+  public CursorParser<Response> getResponseParser() {
+    return (responseCode, headers, reader) -> {
+      String uploadId = null;
+      if (reader != null) {
+        ElementTextReader text = ElementTextReader.forThread();
+        while (reader.hasNext()) {
+          if (reader.next() == XMLStreamConstants.START_ELEMENT &&
+              "UploadId".equals(reader.getLocalName())) {
+            uploadId = text.getText(reader);
+          }
+        }
+      }
+      return new Response(responseCode, headers, uploadId);
+    };
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    @Nullable
+    private final String uploadId;
+
+    Response(int responseCode, Map<String, List<String>> headers, @Nullable String uploadId) {
+      super(responseCode, headers);
+      this.uploadId = uploadId;
+    }
+
+    @Nullable
+    public String getUploadId() {
+      return this.uploadId;
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(this.uploadId);
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Lists the parts uploaded so far to a multipart upload (ListParts), a page at a time from after
+ * a part number marker.
+ */
+@ParametersAreNonnullByDefault
+class MultipartUploadListParts extends ObjectRestCommand<MultipartUploadListParts.Response> {
+
+  private static final Logger LOG = Logger.getLogger(MultipartUploadListParts.class.getName());
+
+  private final String uploadId;
+  private final int partNumberMarker;
+
+  /**
+   * @param partNumberMarker The part number to list from after, or zero to list from the start
+   */
+  public MultipartUploadListParts(String bucketName, String objectKey, String uploadId,
+                                  int partNumberMarker) {
+    super(bucketName, objectKey);
+    this.uploadId = uploadId;
+    this.partNumberMarker = partNumberMarker;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.GET;
+  }
+
+  @Override
+  public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    if (this.partNumberMarker > 0) {
+      builder.addQueryParameter("part-number-marker", String.valueOf(this.partNumberMarker));
+    }
+    builder.addQueryParameter("uploadId", this.uploadId);
+  }
+
+  @Nonnull
+  @Override
+  public CursorParser<Response> getResponseParser() {
+    return (responseCode, headers, reader) -> {
+      if (reader == null) {
+        return new Response(responseCode, headers, Collections.emptyList(), false, 0);
+      }
+      ElementTextReader text = ElementTextReader.forThread();
+      List<Part> parts = new ArrayList<>();
+      boolean truncated = false;
+      int nextPartNumberMarker = 0;
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String elementName = reader.getLocalName();
+        switch (elementName) {
+          case "Part":
+            parts.add(readPart(reader, text));
+            break;
+          case "IsTruncated":
+            truncated = text.getBoolean(reader);
+            break;
+          case "NextPartNumberMarker":
+            String marker = text.getText(reader);
+            nextPartNumberMarker = marker.isEmpty() ? 0 : Integer.parseInt(marker);
+            break;
+          case "ListPartsResult":
+          case "Bucket":
+          case "Key":
+          case "UploadId":
+          case "PartNumberMarker":
+          case "MaxParts":
+          case "Initiator":
+          case "Owner":
+          case "ID":
+          case "DisplayName":
+          case "StorageClass":
+            // Not needed
+            break;
+          default:
+            LOG.log(Level.FINE, "Unknown element in list parts response: {0}", elementName);
+            break;
+        }
+      }
+      return new Response(responseCode, headers, parts, truncated, nextPartNumberMarker);
+    };
+  }
+
+  /**
+   * Reads a {@code Part} element, from its start to its end.
+   */
+  private static Part readPart(XMLStreamReader reader, ElementTextReader text)
+      throws XMLStreamException {
+    int partNumber = 0;
+    String etag = null;
+    long size = 0;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && "Part".equals(reader.getLocalName())) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      switch (reader.getLocalName()) {
+        case "PartNumber":
+          partNumber = (int) text.getLong(reader);
+          break;
+        case "ETag":
+          etag = text.getText(reader);
+          break;
+        case "Size":
+          size = text.getLong(reader);
+          break;
+        default:
+          // LastModified and anything unknown
+          break;
+      }
+    }
+    return new Part(partNumber, etag, size);
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    private final List<Part> parts;
+    private final boolean truncated;
+    private final int nextPartNumberMarker;
+
+    Response(int responseCode, Map<String, List<String>> headers, List<Part> parts,
+             boolean truncated, int nextPartNumberMarker) {
+      super(responseCode, headers);
+      this.parts = parts;
+      this.truncated = truncated;
+      this.nextPartNumberMarker = nextPartNumberMarker;
+    }
+
+    public List<Part> getParts() {
+      return this.parts;
+    }
+
+    public boolean isTruncated() {
+      return this.truncated;
+    }
+
+    /**
+     * @return The marker to list the next page from, if {@link #isTruncated() truncated}
+     */
+    public int getNextPartNumberMarker() {
+      return this.nextPartNumberMarker;
+    }
+
+    @Override
+    public String toString() {
+      return this.parts.size() + " parts" + (this.truncated ? " (truncated)" : "");
+    }
+  }
+
+  public static class Part {
+
+    private final int partNumber;
+    @Nullable
+    private final String etag;
+    private final long size;
+
+    Part(int partNumber, @Nullable String etag, long size) {
+      this.partNumber = partNumber;
+      this.etag = etag;
+      this.size = size;
+    }
+
+    public int getPartNumber() {
+      return this.partNumber;
+    }
+
+    @Nullable
+    public String getETag() {
+      return this.etag;
+    }
+
+    public long getSize() {
+      return this.size;
+    }
+
+    @Override
+    public String toString() {
+      return this.partNumber + " " + this.etag + " (" + this.size + " bytes)";
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.Parser;
+import com.coruscations.aws.RequestBody;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Uploads one part of a multipart upload (UploadPart).
+ */
+@ParametersAreNonnullByDefault
+class MultipartUploadPart extends ObjectRestCommand<MultipartUploadPart.Response> {
+
+  private static final Logger LOG = Logger.getLogger(MultipartUploadPart.class.getName());
+
+  static final int MIN_PART_NUMBER = 1;
+  static final int MAX_PART_NUMBER = 10000;
+
+  private final String uploadId;
+  private final int partNumber;
+  private final RequestBody body;
+
+  public MultipartUploadPart(String bucketName, String objectKey, String uploadId, int partNumber,
+                             RequestBody body) {
+    super(bucketName, objectKey);
+    if (partNumber < MIN_PART_NUMBER || partNumber > MAX_PART_NUMBER) {
+      throw new IllegalArgumentException("Invalid part number: " + partNumber);
+    }
+    this.uploadId = uploadId;
+    this.partNumber = partNumber;
+    this.body = body;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.PUT;
+  }
+
+  @Override
+  public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addQueryParameter("partNumber", String.valueOf(this.partNumber));
+    builder.addQueryParameter("uploadId", this.uploadId);
+  }
+
+  @Nonnull
+  @Override
+  public RequestBody createRequestBody(Endpoint endpoint) {
+    return this.body;
+  }
+
+  @Nonnull
+  @Override
+  public Parser<Response> getResponseParser() {
+    return (CursorParser<Response>) (responseCode, headers, reader) ->
+        new Response(responseCode, headers);
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    Response(int responseCode, Map<String, List<String>> headers) {
+      super(responseCode, headers);
+    }
+
+    /**
+     * @return The part's ETag, which completing the upload needs
+     */
+    @Nullable
+    public String getETag() {
+      return getHeader(getHeaders(), ETAG);
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(getETag());
+    }
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Copies a range of an object within S3 as one part of a multipart upload (UploadPartCopy).
+ * <p>
+ * The response is that of {@link ObjectCopy}, and may likewise carry an error after a 200 status.
+ */
+@ParametersAreNonnullByDefault
+class MultipartUploadPartCopy extends ObjectRestCommand<ObjectCopy.Response> {
+
+  private static final Logger LOG = Logger.getLogger(MultipartUploadPartCopy.class.getName());
+
+  private static final String COPY_SOURCE_RANGE = "x-amz-copy-source-range";
+
+  private final String uploadId;
+  private final int partNumber;
+  private final String sourceBucketName;
+  private final String sourceObjectKey;
+  private final long start;
+  private final long end;
+  @Nullable
+  private final String ifMatch;
+
+  /**
+   * @param start   The first byte of the source to copy
+   * @param end     The last byte of the source to copy, inclusive
+   * @param ifMatch The ETag the source must still have for the part to be copied, or null to copy
+   *                it whatever it is
+   */
+  public MultipartUploadPartCopy(String sourceBucketName, String sourceObjectKey,
+                                 String bucketName, String objectKey, String uploadId,
+                                 int partNumber, long start, long end, @Nullable String ifMatch) {
+    super(bucketName, objectKey);
+    if (partNumber < MultipartUploadPart.MIN_PART_NUMBER ||
+        partNumber > MultipartUploadPart.MAX_PART_NUMBER) {
+      throw new IllegalArgumentException("Invalid part number: " + partNumber);
+    }
+    if (start < 0 || end < start) {
+      throw new IllegalArgumentException("Invalid range: " + start + "-" + end);
+    }
+    this.uploadId = uploadId;
+    this.partNumber = partNumber;
+    this.sourceBucketName = validateBucketName(sourceBucketName);
+    this.sourceObjectKey = validateObjectKey(sourceObjectKey);
+    this.start = start;
+    this.end = end;
+    this.ifMatch = ifMatch;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.PUT;
+  }
+
+  @Override
+  public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addQueryParameter("partNumber", String.valueOf(this.partNumber));
+    builder.addQueryParameter("uploadId", this.uploadId);
+  }
+
+  @Override
+  public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    ObjectCopy.addCopySource(builder, this.sourceBucketName, this.sourceObjectKey, this.ifMatch);
+    builder.addHeader(COPY_SOURCE_RANGE, "bytes=" + this.start + "-" + this.end, true);
+  }
+
+  @Nonnull
+  @Override
+  public CursorParser<ObjectCopy.Response> getResponseParser() {
+    return ObjectCopy.getCopyResultParser();
+  }
+}
@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ErrorResponse;
+import com.coruscations.aws.ErrorResponseException;
+import com.coruscations.aws.RequestBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Uploads an object as a multipart upload with several parts uploading at once.
+ * <p>
+ * Content no longer than one part is uploaded with a single PUT instead.  Otherwise an upload is
+ * created and parts of {@code partSize} bytes are uploaded by up to {@code parallelism} threads,
+ * each part retried on its own up to {@code attempts} times in all, then the upload is completed
+ * from their ETags.  If a part still fails, or the upload cannot be completed, the remaining parts
+ * are stopped and the upload is aborted so that S3 does not keep the parts already stored.
+ * <p>
+ * Files are split into larger parts where needed to stay within S3's part limit, and each part is
+ * mapped rather than read: it is hashed for signing from the mapping, then sent straight from the
+ * file or, where it has to be encrypted first, from the mapping.  The mapped pages are the page
+ * cache's own, so a part costs no heap however large it is.  Streams are read into buffers of {@code partSize} bytes,
+ * of which there are at most {@code parallelism}; reading waits for an upload to free one, so a
+ * slow connection holds back the stream rather than filling the heap.
+ * <p>
+ * File uploads can also be made resumable with an {@link UploadJournal}, in which case a failed
+ * upload is left in progress rather than aborted.
+ */
+@ParametersAreNonnullByDefault
+class MultipartUploader {
+
+  private static final Logger LOG = Logger.getLogger(MultipartUploader.class.getName());
+
+  private final S3ObjectCommands objectCommands;
+  private final String bucketName;
+  private final String objectKey;
+  @Nullable
+  private final String contentType;
+  private final long partSize;
+  private final int parallelism;
+  private final int attempts;
+
+  MultipartUploader(S3ObjectCommands objectCommands, String bucketName, String objectKey,
+                    @Nullable String contentType, long partSize, int parallelism, int attempts) {
+    if (partSize < 1 || partSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid part size: " + partSize);
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+    }
+    if (attempts < 1) {
+      throw new IllegalArgumentException("Attempts must be at least one: " + attempts);
+    }
+    this.objectCommands = objectCommands;
+    this.bucketName = bucketName;
+    this.objectKey = objectKey;
+    this.contentType = contentType;
+    this.partSize = partSize;
+    this.parallelism = parallelism;
+    this.attempts = attempts;
+  }
+
+  /**
+   * Uploads the file as the object.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String upload(Path source) throws IOException {
+    try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+      return upload(file);
+    }
+  }
+
+  /**
+   * Uploads the whole of the open file as the object, leaving it open.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String upload(FileChannel file) throws IOException {
+    long length = file.size();
+    if (length <= this.partSize) {
+      return put(RequestBody.mapped(file, 0, length));
+    }
+    return upload(new Upload(createUpload(), null, Collections.emptyMap()),
+                  fileParts(file, length, getPartSize(length)));
+  }
+
+  /**
+   * Uploads the whole of the open file as the object as {@link #upload(FileChannel)} does, but
+   * recording the upload and each part uploaded in a journal at {@code journalPath}.
+   * <p>
+   * If the journal is left from an earlier upload of the same length to the same object, that
+   * upload is resumed instead of a new one being created: its parts are listed, and those that S3
+   * holds with the ETag and size recorded for them, and whose bytes in the file still have the
+   * recorded checksum, are kept; the rest are uploaded again.  A journal for any other upload is
+   * replaced, and its upload aborted.
+   * <p>
+   * The journal is deleted once the upload is complete.  If the upload fails it is not aborted,
+   * but left with its journal to be resumed.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String upload(FileChannel file, Path journalPath) throws IOException {
+    long length = file.size();
+    UploadJournal journal = UploadJournal.open(journalPath);
+    Map<Integer, String> partETags = Collections.emptyMap();
+    if (journal != null) {
+      try {
+        partETags = resume(file, journal, length);
+      } catch (IOException e) {
+        journal.close();
+        throw e;
+      }
+      if (partETags == null) {
+        journal.close();
+        journal = null;
+      }
+    }
+    if (journal == null) {
+      if (length <= this.partSize) {
+        String etag = put(RequestBody.mapped(file, 0, length));
+        Files.deleteIfExists(journalPath);
+        return etag;
+      }
+      partETags = Collections.emptyMap();
+      journal = UploadJournal.create(journalPath, this.bucketName, this.objectKey, createUpload(),
+                                     length, getPartSize(length));
+    }
+    return upload(new Upload(journal.getUploadId(), journal, partETags),
+                  fileParts(file, length, journal.getPartSize()));
+  }
+
+  /**
+   * Reconciles the parts recorded in the journal with those S3 holds for its upload.
+   *
+   * @return The ETags of the parts that need not be uploaded again, by part number, or null if the
+   *         upload cannot be resumed
+   */
+  @Nullable
+  private Map<Integer, String> resume(FileChannel file, UploadJournal journal, long length)
+      throws IOException {
+    if (!journal.getBucketName().equals(this.bucketName) ||
+        !journal.getObjectKey().equals(this.objectKey) || journal.getLength() != length) {
+      LOG.log(Level.INFO, "Aborting upload {0} of {1} to replace it",
+              new Object[]{journal.getUploadId(), journal.getObjectKey()});
+      PartExecutor.abort(this.objectCommands, journal.getBucketName(), journal.getObjectKey(),
+                         journal.getUploadId());
+      return null;
+    }
+    Map<Integer, MultipartUploadListParts.Part> listed = new HashMap<>();
+    int marker = 0;
+    try {
+      MultipartUploadListParts.Response response;
+      do {
+        response = this.objectCommands.listParts(this.bucketName, this.objectKey,
+                                                 journal.getUploadId(), marker);
+        for (MultipartUploadListParts.Part part : response.getParts()) {
+          listed.put(part.getPartNumber(), part);
+        }
+        marker = response.getNextPartNumberMarker();
+      } while (response.isTruncated() && marker > 0);
+    } catch (ErrorResponseException e) {
+      ErrorResponse errorResponse = e.getErrorResponse();
+      if (errorResponse == null ||
+          errorResponse.getResponseCode() != HttpURLConnection.HTTP_NOT_FOUND) {
+        throw e;
+      }
+      // Completed or aborted since the journal was written
+      LOG.log(Level.INFO, "Upload {0} of {1} is gone, starting again",
+              new Object[]{journal.getUploadId(), this.objectKey});
+      return null;
+    }
+    long size = journal.getPartSize();
+    Map<Integer, String> partETags = new HashMap<>();
+    for (UploadJournal.Part part : journal.getParts().values()) {
+      long start = (part.getPartNumber() - 1L) * size;
+      MultipartUploadListParts.Part held = listed.get(part.getPartNumber());
+      if (held != null && part.getETag().equals(held.getETag()) &&
+          part.getStart() == start && part.getCount() == Math.min(size, length - start) &&
+          held.getSize() == part.getCount() &&
+          UploadJournal.checksum(file, start, part.getCount()) == part.getChecksum()) {
+        partETags.put(part.getPartNumber(), part.getETag());
+      }
+    }
+    LOG.log(Level.FINE, "Resuming upload {0} of {1} with {2} of {3} parts kept",
+            new Object[]{journal.getUploadId(), this.objectKey, partETags.size(), listed.size()});
+    return partETags;
+  }
+
+  /**
+   * @return The part size within S3's part limit for a file of the length
+   */
+  private long getPartSize(long length) {
+    return Math.max(this.partSize, (length + MultipartUploadPart.MAX_PART_NUMBER - 1) /
+                                   MultipartUploadPart.MAX_PART_NUMBER);
+  }
+
+  private static PartSource fileParts(FileChannel file, long length, long size) {
+    int parts = (int) ((length + size - 1) / size);
+    return (upload, executor) -> {
+      for (int partNumber = 1; partNumber <= parts; partNumber++) {
+        if (!upload.isUploaded(partNumber)) {
+          long start = (partNumber - 1) * size;
+          upload.submit(executor, file, partNumber, start, Math.min(size, length - start));
+        }
+      }
+    };
+  }
+
+  /**
+   * Uploads the content of the stream as the object, reading it to the end but not closing it.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String upload(InputStream in) throws IOException {
+    BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(this.parallelism);
+    byte[] first = new byte[(int) this.partSize];
+    int length = fill(in, first);
+    if (length < first.length) {
+      return put(RequestBody.of(first, 0, length));
+    }
+    Upload created = new Upload(createUpload(), null, Collections.emptyMap());
+    return upload(created, (upload, executor) -> {
+      upload.submit(executor, 1, RequestBody.of(first), () -> buffers.add(first));
+      int allocated = 1;
+      int partNumber = 1;
+      while (true) {
+        byte[] buffer = buffers.poll();
+        if (buffer == null && allocated < this.parallelism) {
+          buffer = new byte[(int) this.partSize];
+          allocated++;
+        }
+        if (buffer == null) {
+          // Every buffer is being uploaded; failed parts give theirs back too
+          buffer = buffers.take();
+          executor.checkFailed();
+        }
+        int read = fill(in, buffer);
+        if (read == 0) {
+          return;
+        }
+        if (++partNumber > MultipartUploadPart.MAX_PART_NUMBER) {
+          throw new IOException("More than " + MultipartUploadPart.MAX_PART_NUMBER + " parts of " +
+                                this.partSize + " bytes uploading " + this.objectKey);
+        }
+        byte[] part = buffer;
+        upload.submit(executor, partNumber, RequestBody.of(part, 0, read),
+                      () -> buffers.add(part));
+        executor.checkFailed();
+      }
+    });
+  }
+
+  /**
+   * @return The number of bytes read into the buffer, which is only short of filling it at the
+   *         end of the stream
+   */
+  private static int fill(InputStream in, byte[] buffer) throws IOException {
+    int length = 0;
+    while (length < buffer.length) {
+      int read = in.read(buffer, length, buffer.length - length);
+      if (read < 0) {
+        break;
+      }
+      length += read;
+    }
+    return length;
+  }
+
+  @Nullable
+  private String put(RequestBody body) throws IOException {
+    try {
+      return PartRetries.run(this.attempts, "upload of " + this.objectKey, () ->
+          this.objectCommands.put(this.bucketName, this.objectKey, body, this.contentType)
+              .getETag());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted uploading " + this.objectKey);
+    }
+  }
+
+  private String createUpload() throws IOException {
+    String uploadId = this.objectCommands.createMultipartUpload(this.bucketName, this.objectKey,
+                                                                this.contentType).getUploadId();
+    if (uploadId == null) {
+      throw new IOException("No upload id given for " + this.objectKey);
+    }
+    return uploadId;
+  }
+
+  @Nullable
+  private String upload(Upload upload, PartSource source) throws IOException {
+    boolean completed = false;
+    try (PartExecutor executor = new PartExecutor(this.parallelism, "aws-nano-s3-multipart-upload",
+                                                  "uploading " + this.objectKey)) {
+      source.submitParts(upload, executor);
+      executor.awaitParts();
+      String etag = PartExecutor.complete(this.objectCommands, this.attempts, this.bucketName,
+                                          this.objectKey, upload.uploadId, upload.partETags);
+      completed = true;
+      upload.finish();
+      return etag;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted uploading " + this.objectKey);
+    } finally {
+      // The executor has been closed, so no part is still being uploaded
+      if (!completed) {
+        upload.abort();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface PartSource {
+
+    /**
+     * Submits every part of the content that the upload does not already have.
+     */
+    void submitParts(Upload upload, PartExecutor executor)
+        throws IOException, InterruptedException;
+  }
+
+  /**
+   * A created multipart upload and the ETags of its parts uploaded so far, recorded in its journal
+   * if it has one.
+   */
+  private class Upload {
+
+    private final String uploadId;
+    @Nullable
+    private final UploadJournal journal;
+    private final SortedMap<Integer, String> partETags = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param partETags The parts already uploaded, by part number
+     */
+    Upload(String uploadId, @Nullable UploadJournal journal, Map<Integer, String> partETags) {
+      this.uploadId = uploadId;
+      this.journal = journal;
+      this.partETags.putAll(partETags);
+    }
+
+    boolean isUploaded(int partNumber) {
+      return this.partETags.containsKey(partNumber);
+    }
+
+    /**
+     * @param release Run once the part is finished with, whether or not it was uploaded
+     */
+    void submit(PartExecutor executor, int partNumber, RequestBody body,
+                @Nullable Runnable release) {
+      executor.submit(() -> {
+        try {
+          this.partETags.put(partNumber, uploadPart(partNumber, body));
+          return partNumber;
+        } finally {
+          if (release != null) {
+            release.run();
+          }
+        }
+      });
+    }
+
+    /**
+     * Submits {@code count} bytes of the file from {@code start} as the part.
+     */
+    void submit(PartExecutor executor, FileChannel file, int partNumber, long start,
+                long count) {
+      executor.submit(() -> {
+        // Taken before uploading, so a part changed meanwhile fails to match when resuming
+        long checksum = this.journal == null ? 0 : UploadJournal.checksum(file, start, count);
+        String etag = uploadPart(partNumber, RequestBody.mapped(file, start, count));
+        if (this.journal != null) {
+          this.journal.record(new UploadJournal.Part(partNumber, start, count, checksum, etag));
+        }
+        this.partETags.put(partNumber, etag);
+        return partNumber;
+      });
+    }
+
+    private String uploadPart(int partNumber, RequestBody body)
+        throws IOException, InterruptedException {
+      String etag = PartRetries.run(
+          attempts, "part " + partNumber + " of " + objectKey,
+          () -> objectCommands.uploadPart(bucketName, objectKey, this.uploadId, partNumber, body)
+              .getETag());
+      if (etag == null) {
+        throw new IOException("No ETag given for part " + partNumber + " of " + objectKey);
+      }
+      return etag;
+    }
+
+    /**
+     * Deletes the journal of the completed upload.
+     */
+    void finish() {
+      if (this.journal != null) {
+        try {
+          this.journal.delete();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Failed to delete the journal of upload " + this.uploadId, e);
+        }
+      }
+    }
+
+    /**
+     * Aborts the upload, unless it has a journal to be resumed from.
+     */
+    void abort() {
+      if (this.journal != null) {
+        LOG.log(Level.INFO, "Leaving upload {0} of {1} to be resumed",
+                new Object[]{this.uploadId, objectKey});
+        try {
+          this.journal.close();
+        } catch (IOException e) {
+          LOG.log(Level.WARNING, "Failed to close the journal of upload " + this.uploadId, e);
+        }
+        return;
+      }
+      PartExecutor.abort(objectCommands, bucketName, objectKey, this.uploadId);
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
+import com.coruscations.aws.EncodingHelper;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+
+/**
+ * Copies an object within S3 (CopyObject), keeping its metadata, without its content passing
+ * through the client.  S3 copies objects of up to {@link #MAX_LENGTH} bytes this way; larger
+ * ones are copied in parts with {@link MultipartUploadPartCopy}.
+ * <p>
+ * As with completing a multipart upload, S3 may fail the copy after it has sent a 200 status;
+ * the response then has an {@link Response#getErrorCode() error code}.
+ */
+@ParametersAreNonnullByDefault
+class ObjectCopy extends ObjectRestCommand<ObjectCopy.Response> {
+
+  private static final Logger LOG = Logger.getLogger(ObjectCopy.class.getName());
+
+  static final long MAX_LENGTH = 5L * 1024 * 1024 * 1024;
+  static final String COPY_SOURCE = "x-amz-copy-source";
+  static final String COPY_SOURCE_IF_MATCH = "x-amz-copy-source-if-match";
+
+  private final String sourceBucketName;
+  private final String sourceObjectKey;
+  @Nullable
+  private final String ifMatch;
+
+  /**
+   * @param ifMatch The ETag the source must still have for it to be copied, or null to copy it
+   *                whatever it is
+   */
+  public ObjectCopy(String sourceBucketName, String sourceObjectKey, String bucketName,
+                    String objectKey, @Nullable String ifMatch) {
+    super(bucketName, objectKey);
+    this.sourceBucketName = validateBucketName(sourceBucketName);
+    this.sourceObjectKey = validateObjectKey(sourceObjectKey);
+    this.ifMatch = ifMatch;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.PUT;
+  }
+
+  @Override
+  public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    addCopySource(builder, this.sourceBucketName, this.sourceObjectKey, this.ifMatch);
+  }
+
+  @Nonnull
+  @Override
+  public CursorParser<Response> getResponseParser() {
+    return getCopyResultParser();
+  }
+
+  static void addCopySource(HttpURLConnectionBuilder builder, String bucketName,
+                            String objectKey, @Nullable String ifMatch) {
+    builder.addHeader(COPY_SOURCE,
+                      "/" + bucketName + "/" + EncodingHelper.awsEncodePath(objectKey), true);
+    if (ifMatch != null) {
+      builder.addHeader(COPY_SOURCE_IF_MATCH, ifMatch, true);
+    }
+  }
+
+  /**
+   * @return A parser of the result of copying an object or a part, which S3 gives in the same
+   *         form for both
+   */
+  static CursorParser<Response> getCopyResultParser() {
+    return (responseCode, headers, reader) -> {
+      String etag = null;
+      String errorCode = null;
+      String errorMessage = null;
+      if (reader != null) {
+        ElementTextReader text = ElementTextReader.forThread();
+        while (reader.hasNext()) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            continue;
+          }
+          String elementName = reader.getLocalName();
+          switch (elementName) {
+            case "ETag":
+              etag = text.getText(reader);
+              break;
+            case "Code":
+              errorCode = text.getText(reader);
+              break;
+            case "Message":
+              errorMessage = text.getText(reader);
+              break;
+            case "CopyObjectResult":
+            case "CopyPartResult":
+            case "LastModified":
+            case "Error":
+              // Not needed
+              break;
+            default:
+              LOG.log(Level.FINE, "Unknown element in copy response: {0}", elementName);
+              break;
+          }
+        }
+      }
+      return new Response(responseCode, headers, etag, errorCode, errorMessage);
+    };
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    @Nullable
+    private final String etag;
+    @Nullable
+    private final String errorCode;
+    @Nullable
+    private final String errorMessage;
+
+    Response(int responseCode, Map<String, List<String>> headers, @Nullable String etag,
+             @Nullable String errorCode, @Nullable String errorMessage) {
+      super(responseCode, headers);
+      this.etag = etag;
+      this.errorCode = errorCode;
+      this.errorMessage = errorMessage;
+    }
+
+    /**
+     * @return The ETag of the copy, or of the part for a part copied
+     */
+    @Nullable
+    public String getETag() {
+      return this.etag;
+    }
+
+    /**
+     * @return The code of an error sent in place of the result, or null if it succeeded
+     */
+    @Nullable
+    public String getErrorCode() {
+      return this.errorCode;
+    }
+
+    @Nullable
+    public String getErrorMessage() {
+      return this.errorMessage;
+    }
+
+    @Override
+    public String toString() {
+      return this.errorCode == null ? String.valueOf(this.etag) :
+             this.errorCode + ": " + this.errorMessage;
+    }
+  }
+}
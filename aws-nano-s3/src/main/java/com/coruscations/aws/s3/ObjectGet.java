@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ContentResponse;
+import com.coruscations.aws.EmptyRestCommandResponse;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.Parser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Downloads an object.  The body is not parsed: {@link S3ObjectCommands} executes this for its
+ * content, which the caller reads from the {@link Response} as it arrives.
+ */
+@ParametersAreNonnullByDefault
+class ObjectGet extends ObjectRestCommand<EmptyRestCommandResponse> {
+
+  private static final Logger LOG = Logger.getLogger(ObjectGet.class.getName());
+
+  private static final String IF_MATCH = "If-Match";
+  private static final String RANGE = "Range";
+  static final String CONTENT_RANGE = "Content-Range";
+
+  private final long rangeStart;
+  private final long rangeEnd;
+  @Nullable
+  private final String ifMatch;
+
+  public ObjectGet(String bucketName, String objectKey) {
+    this(bucketName, objectKey, -1, -1, null);
+  }
+
+  /**
+   * @param rangeStart The offset of the first byte to get, or -1 for the whole object
+   * @param rangeEnd   The offset of the last byte to get, or -1 for the rest of the object
+   * @param ifMatch    The ETag the object must still have, which S3 otherwise refuses with 412
+   */
+  public ObjectGet(String bucketName, String objectKey, long rangeStart, long rangeEnd,
+                   @Nullable String ifMatch) {
+    super(bucketName, objectKey);
+    if (rangeStart < 0 && rangeEnd >= 0 || rangeEnd >= 0 && rangeEnd < rangeStart) {
+      throw new IllegalArgumentException("Invalid range: " + rangeStart + "-" + rangeEnd);
+    }
+    this.rangeStart = rangeStart;
+    this.rangeEnd = rangeEnd;
+    this.ifMatch = ifMatch;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.GET;
+  }
+
+  @Override
+  public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    if (this.rangeStart >= 0) {
+      builder.addHeader(RANGE, "bytes=" + this.rangeStart + "-" +
+                               (this.rangeEnd >= 0 ? String.valueOf(this.rangeEnd) : ""), true);
+    }
+    if (this.ifMatch != null) {
+      builder.addHeader(IF_MATCH, this.ifMatch, true);
+    }
+  }
+
+  /**
+   * Only used if the command is executed for a parsed response, which leaves out the body.
+   */
+  @Nonnull
+  @Override
+  public Parser<EmptyRestCommandResponse> getResponseParser() {
+    return EmptyRestCommandResponse.getResponseParser();
+  }
+
+  /**
+   * An object being downloaded; the connection is held until this is closed.
+   */
+  public static class Response implements Closeable {
+
+    private final ContentResponse content;
+
+    Response(ContentResponse content) {
+      this.content = content;
+    }
+
+    public int getResponseCode() {
+      return this.content.getResponseCode();
+    }
+
+    @Nonnull
+    public Map<String, List<String>> getHeaders() {
+      return this.content.getHeaders();
+    }
+
+    /**
+     * @return The length of the content, or -1 if the response did not give it
+     */
+    public long getContentLength() {
+      return this.content.getContentLength();
+    }
+
+    @Nullable
+    public String getContentType() {
+      return this.content.getContentType();
+    }
+
+    @Nullable
+    public String getETag() {
+      return this.content.getHeader(ETAG);
+    }
+
+    /**
+     * @return The range returned for a ranged request, as {@code bytes first-last/length}
+     */
+    @Nullable
+    public String getContentRange() {
+      return this.content.getHeader(CONTENT_RANGE);
+    }
+
+    @Nullable
+    public OffsetDateTime getLastModified() {
+      return ObjectRestCommand.getLastModified(getHeaders());
+    }
+
+    /**
+     * @return The {@code x-amz-meta-} headers, by name without the prefix in lower case
+     */
+    @Nonnull
+    public Map<String, String> getUserMetadata() {
+      return ObjectRestCommand.getUserMetadata(getHeaders());
+    }
+
+    /**
+     * @see ContentResponse#getInputStream()
+     */
+    @Nonnull
+    public InputStream getInputStream() {
+      return this.content.getInputStream();
+    }
+
+    /**
+     * @see ContentResponse#getChannel()
+     */
+    @Nonnull
+    public ReadableByteChannel getChannel() {
+      return this.content.getChannel();
+    }
+
+    /**
+     * @see ContentResponse#transferTo(WritableByteChannel)
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+      return this.content.transferTo(target);
+    }
+
+    /**
+     * @see ContentResponse#transferTo(FileChannel, long)
+     */
+    public long transferTo(FileChannel file, long position) throws IOException {
+      return this.content.transferTo(file, position);
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.content.close();
+    }
+
+    @Override
+    public String toString() {
+      return getETag() + " (" + getContentLength() + " bytes)";
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.HttpHeaders;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.Parser;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+@ParametersAreNonnullByDefault
+class ObjectHead extends ObjectRestCommand<ObjectHead.Response> {
+
+  private static final Logger LOG = Logger.getLogger(ObjectHead.class.getName());
+
+  public ObjectHead(String bucketName, String objectKey) {
+    super(bucketName, objectKey);
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.HEAD;
+  }
+
+  @Nonnull
+  @Override
+  public Parser<Response> getResponseParser() {
+    return (CursorParser<Response>) (responseCode, headers, reader) ->
+        new Response(responseCode, headers);
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    Response(int responseCode, Map<String, List<String>> headers) {
+      super(responseCode, headers);
+    }
+
+    /**
+     * @return The length of the object, or -1 if the response did not give it
+     */
+    public long getContentLength() {
+      return ObjectRestCommand.getContentLength(getHeaders());
+    }
+
+    @Nullable
+    public String getContentType() {
+      return getHeader(getHeaders(), HttpHeaders.CONTENT_TYPE);
+    }
+
+    @Nullable
+    public String getETag() {
+      return getHeader(getHeaders(), ETAG);
+    }
+
+    @Nullable
+    public OffsetDateTime getLastModified() {
+      return ObjectRestCommand.getLastModified(getHeaders());
+    }
+
+    /**
+     * @return The {@code x-amz-meta-} headers, by name without the prefix in lower case
+     */
+    @Nonnull
+    public Map<String, String> getUserMetadata() {
+      return ObjectRestCommand.getUserMetadata(getHeaders());
+    }
+
+    @Override
+    public String toString() {
+      return getETag() + " (" + getContentLength() + " bytes)";
+    }
+  }
+}
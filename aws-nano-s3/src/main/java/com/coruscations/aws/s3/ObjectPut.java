@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpHeaders;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.Parser;
+import com.coruscations.aws.RequestBody;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Uploads an object in a single request.
+ */
+@ParametersAreNonnullByDefault
+class ObjectPut extends ObjectRestCommand<ObjectPut.Response> {
+
+  private static final Logger LOG = Logger.getLogger(ObjectPut.class.getName());
+
+  private final RequestBody body;
+  @Nullable
+  private final String contentType;
+
+  public ObjectPut(String bucketName, String objectKey, RequestBody body,
+                   @Nullable String contentType) {
+    super(bucketName, objectKey);
+    this.body = body;
+    this.contentType = contentType;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.PUT;
+  }
+
+  @Nonnull
+  @Override
+  public RequestBody createRequestBody(Endpoint endpoint) {
+    return this.body;
+  }
+
+  @Override
+  public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    if (this.contentType != null) {
+      builder.addHeader(HttpHeaders.CONTENT_TYPE, this.contentType, true);
+    }
+  }
+
+  @Nonnull
+  @Override
+  public Parser<Response> getResponseParser() {
+    return (CursorParser<Response>) (responseCode, headers, reader) ->
+        new Response(responseCode, headers);
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    Response(int responseCode, Map<String, List<String>> headers) {
+      super(responseCode, headers);
+    }
+
+    @Nullable
+    public String getETag() {
+      return getHeader(getHeaders(), ETAG);
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(getETag());
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.EncodingHelper;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpHeaders;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+abstract class ObjectRestCommand<T extends RestCommandResponse> extends BucketRestCommand<T> {
+
+  private static final Logger LOG = Logger.getLogger(ObjectRestCommand.class.getName());
+
+  static final String ETAG = "ETag";
+  static final String LAST_MODIFIED = "Last-Modified";
+  static final String USER_METADATA_PREFIX = "x-amz-meta-";
+
+  protected final String objectKey;
+
+  protected ObjectRestCommand(String bucketName, String objectKey) {
+    super(bucketName);
+    this.objectKey = validateObjectKey(objectKey);
+  }
+
+  @Nonnull
+  @Override
+  public String getPath(Endpoint endpoint) {
+    return super.getPath(endpoint) + EncodingHelper.awsEncodePath(this.objectKey);
+  }
+
+  @Nonnull
+  protected String validateObjectKey(String objectKey) {
+    if (objectKey == null || objectKey.isEmpty()) {
+      throw new IllegalArgumentException("Object key not set");
+    }
+    return objectKey;
+  }
+
+  /**
+   * @return The first value of the header, whatever the case of its name in the response
+   */
+  @Nullable
+  static String getHeader(Map<String, List<String>> headers, String name) {
+    List<String> values = headers.get(name);
+    if (values == null) {
+      // HttpURLConnection keeps the names as the server sent them
+      for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+        if (name.equalsIgnoreCase(header.getKey())) {
+          values = header.getValue();
+          break;
+        }
+      }
+    }
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+
+  /**
+   * @return The {@code Content-Length}, or -1 if it is missing or invalid
+   */
+  static long getContentLength(Map<String, List<String>> headers) {
+    String contentLength = getHeader(headers, HttpHeaders.CONTENT_LENGTH);
+    if (contentLength != null) {
+      try {
+        return Long.parseLong(contentLength.trim());
+      } catch (NumberFormatException e) {
+        LOG.log(Level.FINE, "Invalid Content-Length: {0}", contentLength);
+      }
+    }
+    return -1;
+  }
+
+  @Nullable
+  static OffsetDateTime getLastModified(Map<String, List<String>> headers) {
+    String lastModified = getHeader(headers, LAST_MODIFIED);
+    if (lastModified == null) {
+      return null;
+    }
+    try {
+      return OffsetDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME);
+    } catch (DateTimeParseException e) {
+      LOG.log(Level.FINE, "Invalid Last-Modified: {0}", lastModified);
+      return null;
+    }
+  }
+
+  /**
+   * @return The {@code x-amz-meta-} headers, by name without the prefix in lower case
+   */
+  @Nonnull
+  static Map<String, String> getUserMetadata(Map<String, List<String>> headers) {
+    Map<String, String> metadata = new TreeMap<>();
+    headers.forEach((name, values) -> {
+      if (name != null && !values.isEmpty() &&
+          name.regionMatches(true, 0, USER_METADATA_PREFIX, 0, USER_METADATA_PREFIX.length())) {
+        metadata.put(name.substring(USER_METADATA_PREFIX.length()).toLowerCase(Locale.ROOT),
+                     values.get(0));
+      }
+    });
+    return metadata;
+  }
+}
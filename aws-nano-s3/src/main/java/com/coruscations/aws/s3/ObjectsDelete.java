@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
+import com.coruscations.aws.Endpoint;
+import com.coruscations.aws.HttpHeaders;
+import com.coruscations.aws.HttpMethod;
+import com.coruscations.aws.HttpURLConnectionBuilder;
+import com.coruscations.aws.RequestBody;
+import com.coruscations.aws.RestCommandResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Deletes up to {@link #MAX_KEYS} objects in one request (DeleteObjects).
+ * <p>
+ * Keys that fail to delete do not fail the request; they are given as the response's
+ * {@link Response#getFailures() failures}.  In quiet mode S3 lists only those, rather than every
+ * key deleted as well.
+ */
+@ParametersAreNonnullByDefault
+class ObjectsDelete extends BucketRestCommand<ObjectsDelete.Response> {
+
+  private static final Logger LOG = Logger.getLogger(ObjectsDelete.class.getName());
+
+  static final int MAX_KEYS = 1000;
+
+  private final byte[] body;
+  private final String md5;
+
+  public ObjectsDelete(String bucketName, Collection<String> keys, boolean quiet) {
+    super(bucketName);
+    if (keys.isEmpty() || keys.size() > MAX_KEYS) {
+      throw new IllegalArgumentException("Between 1 and " + MAX_KEYS + " keys may be deleted " +
+                                         "at once: " + keys.size());
+    }
+    StringBuilder sb = new StringBuilder(64 + keys.size() * 64);
+    sb.append("<Delete xmlns=\"").append(XMLNS).append("\"><Quiet>").append(quiet)
+        .append("</Quiet>");
+    for (String key : keys) {
+      appendEscaped(sb.append("<Object><Key>"), key).append("</Key></Object>");
+    }
+    this.body = sb.append("</Delete>").toString().getBytes(StandardCharsets.UTF_8);
+    try {
+      // S3 refuses the request without it
+      this.md5 = Base64.getEncoder().encodeToString(
+          MessageDigest.getInstance("MD5").digest(this.body));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("MD5 not supported", e);
+    }
+  }
+
+  private static StringBuilder appendEscaped(StringBuilder sb, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&':
+          sb.append("&amp;");
+          break;
+        case '<':
+          sb.append("&lt;");
+          break;
+        case '>':
+          sb.append("&gt;");
+          break;
+        case '\r':
+          // Would otherwise be read as a line break
+          sb.append("&#13;");
+          break;
+        default:
+          sb.append(c);
+          break;
+      }
+    }
+    return sb;
+  }
+
+  @Nonnull
+  @Override
+  public HttpMethod getMethod() {
+    return HttpMethod.POST;
+  }
+
+  @Override
+  public void addParameters(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addQueryParameter("delete", "");
+  }
+
+  @Override
+  public void addHeaders(HttpURLConnectionBuilder builder, Endpoint endpoint) {
+    builder.addHeader(HttpHeaders.CONTENT_TYPE, "application/xml", true);
+    builder.addHeader(HttpHeaders.CONTENT_MD5, this.md5, true);
+  }
+
+  @Nonnull
+  @Override
+  public RequestBody createRequestBody(Endpoint endpoint) {
+    return RequestBody.of(this.body);
+  }
+
+  @Nonnull
+  @Override
+  public CursorParser<Response> getResponseParser() {
+    return (responseCode, headers, reader) -> {
+      if (reader == null) {
+        return new Response(responseCode, headers, Collections.emptyList(),
+                            Collections.emptyList());
+      }
+      ElementTextReader text = ElementTextReader.forThread();
+      List<String> deleted = new ArrayList<>();
+      List<Failure> failures = new ArrayList<>();
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String elementName = reader.getLocalName();
+        switch (elementName) {
+          case "Deleted":
+            String key = readDeleted(reader, text);
+            if (key != null) {
+              deleted.add(key);
+            }
+            break;
+          case "Error":
+            failures.add(readError(reader, text));
+            break;
+          case "DeleteResult":
+            // Ignore
+            break;
+          default:
+            LOG.log(Level.FINE, "Unknown element in delete objects response: {0}", elementName);
+            break;
+        }
+      }
+      return new Response(responseCode, headers, deleted, failures);
+    };
+  }
+
+  /**
+   * Reads a {@code Deleted} element, from its start to its end.
+   */
+  @Nullable
+  private static String readDeleted(XMLStreamReader reader, ElementTextReader text)
+      throws XMLStreamException {
+    String key = null;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && "Deleted".equals(reader.getLocalName())) {
+        break;
+      }
+      if (event == XMLStreamConstants.START_ELEMENT && "Key".equals(reader.getLocalName())) {
+        key = text.getText(reader);
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Reads an {@code Error} element, from its start to its end.
+   */
+  private static Failure readError(XMLStreamReader reader, ElementTextReader text)
+      throws XMLStreamException {
+    String key = null;
+    String code = null;
+    String message = null;
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.END_ELEMENT && "Error".equals(reader.getLocalName())) {
+        break;
+      }
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      switch (reader.getLocalName()) {
+        case "Key":
+          key = text.getText(reader);
+          break;
+        case "Code":
+          code = text.getSharedText(reader);
+          break;
+        case "Message":
+          message = text.getText(reader);
+          break;
+        default:
+          // VersionId and anything unknown
+          break;
+      }
+    }
+    return new Failure(key, code, message);
+  }
+
+  public static class Response extends RestCommandResponse {
+
+    private final List<String> deleted;
+    private final List<Failure> failures;
+
+    Response(int responseCode, Map<String, List<String>> headers, List<String> deleted,
+             List<Failure> failures) {
+      super(responseCode, headers);
+      this.deleted = deleted;
+      this.failures = failures;
+    }
+
+    /**
+     * @return The keys deleted, which are not given in quiet mode
+     */
+    public List<String> getDeleted() {
+      return this.deleted;
+    }
+
+    public List<Failure> getFailures() {
+      return this.failures;
+    }
+
+    @Override
+    public String toString() {
+      return this.deleted.size() + " deleted, " + this.failures.size() + " failed";
+    }
+  }
+
+  /**
+   * A key that could not be deleted, and why.
+   */
+  public static class Failure {
+
+    @Nullable
+    private final String key;
+    @Nullable
+    private final String code;
+    @Nullable
+    private final String message;
+
+    Failure(@Nullable String key, @Nullable String code, @Nullable String message) {
+      this.key = key;
+      this.code = code;
+      this.message = message;
+    }
+
+    @Nullable
+    public String getKey() {
+      return this.key;
+    }
+
+    @Nullable
+    public String getCode() {
+      return this.code;
+    }
+
+    @Nullable
+    public String getMessage() {
+      return this.message;
+    }
+
+    @Override
+    public String toString() {
+      return this.key + ": " + this.code + " (" + this.message + ")";
+    }
+  }
+}
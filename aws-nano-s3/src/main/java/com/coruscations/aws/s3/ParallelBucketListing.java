@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.s3.BucketGet.BucketItem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Lists a bucket with several listings running at once, each covering a disjoint part of the
+ * key space.
+ * <p>
+ * The key space is split either at caller supplied split points, or by listing the prefix with a
+ * delimiter and starting a listing for each common prefix as it is found; the keys directly under
+ * the prefix come from that discovery listing itself.  Listings run on a pool of {@code
+ * parallelism} threads (plus one for discovery) and hand pages of results to the consumer through
+ * bounded queues, so a slow consumer holds back the listings rather than filling the heap.
+ * <p>
+ * Unordered listings return items as soon as any listing produces them.  Ordered listings return
+ * items in S3 (UTF-8 binary) key order by a k-way merge over the listings; a listing only has to
+ * produce its first page once the merge reaches the lower bound of its range, so ranges further
+ * along the key space can be listed ahead while earlier ones are consumed.
+ * <p>
+ * As with {@link BucketListing}, failures are thrown as {@link UncheckedIOException} and the
+ * listing must be closed if it is abandoned before the end.
+ */
+@ParametersAreNonnullByDefault
+class ParallelBucketListing implements Iterator<BucketItem>, Closeable {
+
+  private static final Logger LOG = Logger.getLogger(ParallelBucketListing.class.getName());
+
+  /** S3 lists keys in UTF-8 byte order, which is code point rather than UTF-16 order. */
+  static final Comparator<String> KEY_ORDER = ParallelBucketListing::compareKeys;
+
+  private static final int BATCH_SIZE = 1000;
+  private static final int BATCHES_PER_PARTITION = 2;
+
+  private final S3BucketCommands bucketCommands;
+  private final String bucketName;
+  @Nullable
+  private final String prefix;
+  private final char delimiter;
+  private final List<String> splitPoints;
+  private final int parallelism;
+  private final boolean ordered;
+
+  @Nullable
+  private ExecutorService executor;
+  private volatile boolean closed;
+
+  // Partitions found by discovery, waiting for the consumer to merge them
+  private final Queue<Partition> discovered = new ConcurrentLinkedQueue<>();
+
+  // Unordered: all partitions share one queue, ended once the last partition completes
+  private final AtomicInteger running = new AtomicInteger();
+  @Nullable
+  private BlockingQueue<Batch> shared;
+  private Iterator<BucketItem> sharedItems = Collections.emptyIterator();
+
+  // Ordered: each partition has its own queue, merged by the next key each can offer
+  private final PriorityQueue<Partition> merge =
+      new PriorityQueue<>(Comparator.comparing(Partition::getNextKeyBound, KEY_ORDER));
+
+  @Nullable
+  private BucketItem next;
+
+  ParallelBucketListing(S3BucketCommands bucketCommands, String bucketName,
+                        @Nullable String prefix, char delimiter,
+                        @Nullable Collection<String> splitPoints, int parallelism,
+                        boolean ordered) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+    }
+    this.bucketCommands = bucketCommands;
+    this.bucketName = bucketName;
+    this.prefix = prefix;
+    this.delimiter = delimiter;
+    List<String> sortedSplitPoints = new ArrayList<>();
+    if (splitPoints != null) {
+      TreeSet<String> unique = new TreeSet<>(KEY_ORDER);
+      unique.addAll(splitPoints);
+      sortedSplitPoints.addAll(unique);
+    }
+    this.splitPoints = sortedSplitPoints;
+    this.parallelism = parallelism;
+    this.ordered = ordered;
+  }
+
+  /**
+   * @return A sequential stream over the remaining items; closing the stream closes the listing.
+   */
+  Stream<BucketItem> stream() {
+    int characteristics = Spliterator.DISTINCT | Spliterator.NONNULL;
+    if (this.ordered) {
+      characteristics |= Spliterator.ORDERED;
+    }
+    Spliterator<BucketItem> spliterator = Spliterators.spliteratorUnknownSize(this,
+                                                                              characteristics);
+    return StreamSupport.stream(spliterator, false).onClose(() -> {
+      try {
+        close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (this.next != null) {
+      return true;
+    }
+    if (this.closed) {
+      return false;
+    }
+    try {
+      if (this.executor == null) {
+        start();
+      }
+      this.next = this.ordered ? mergeNext() : takeNext();
+      if (this.next == null) {
+        close();
+      }
+      return this.next != null;
+    } catch (IOException e) {
+      closeQuietly();
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closeQuietly();
+      throw new UncheckedIOException(
+          new InterruptedIOException("Interrupted listing bucket " + this.bucketName));
+    }
+  }
+
+  @Override
+  public BucketItem next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    BucketItem item = this.next;
+    this.next = null;
+    return item;
+  }
+
+  private void start() {
+    boolean discover = this.splitPoints.isEmpty();
+    this.executor = Executors.newFixedThreadPool(
+        discover ? this.parallelism + 1 : this.parallelism, runnable -> {
+          Thread thread = new Thread(runnable, "aws-nano-s3-parallel-list");
+          thread.setDaemon(true);
+          return thread;
+        });
+    if (!this.ordered) {
+      this.shared = new ArrayBlockingQueue<>(this.parallelism * BATCHES_PER_PARTITION);
+    }
+    List<Partition> partitions = new ArrayList<>();
+    if (discover) {
+      String lowerBound = this.prefix == null ? "" : this.prefix;
+      partitions.add(new Partition(lowerBound, this.prefix, this.delimiter, null, null));
+    } else {
+      String marker = null;
+      for (String splitPoint : this.splitPoints) {
+        partitions.add(new Partition(marker == null ? "" : marker, this.prefix, null, marker,
+                                     splitPoint));
+        marker = splitPoint;
+      }
+      partitions.add(new Partition(marker, this.prefix, null, marker, null));
+    }
+    this.running.addAndGet(partitions.size());
+    for (Partition partition : partitions) {
+      if (this.ordered) {
+        this.merge.add(partition);
+      }
+      this.executor.execute(partition);
+    }
+  }
+
+  private void discovered(String commonPrefix) {
+    Partition partition = new Partition(commonPrefix, commonPrefix, null, null, null);
+    this.running.incrementAndGet();
+    if (this.ordered) {
+      this.discovered.add(partition);
+    }
+    try {
+      this.executor.execute(partition);
+    } catch (RejectedExecutionException e) {
+      LOG.log(Level.FINE, "Listing of bucket {0} closed while discovering", this.bucketName);
+    }
+  }
+
+  @Nullable
+  private BucketItem takeNext() throws IOException, InterruptedException {
+    while (!this.sharedItems.hasNext()) {
+      Batch batch = this.shared.take();
+      if (batch.failure != null) {
+        throw batch.failure;
+      }
+      if (batch.items == null) {
+        return null;
+      }
+      this.sharedItems = batch.items.iterator();
+    }
+    return this.sharedItems.next();
+  }
+
+  @Nullable
+  private BucketItem mergeNext() throws IOException, InterruptedException {
+    while (true) {
+      // Anything discovered so far may sort before the current heads
+      for (Partition partition = this.discovered.poll(); partition != null;
+           partition = this.discovered.poll()) {
+        this.merge.add(partition);
+      }
+      Partition partition = this.merge.poll();
+      if (partition == null) {
+        return null;
+      }
+      if (partition.head == null) {
+        // Only bounded below so far; wait for its next item and merge again
+        if (partition.advance()) {
+          this.merge.add(partition);
+        }
+        continue;
+      }
+      BucketItem item = partition.head;
+      partition.head = null;
+      partition.lowerBound = item.getKey();
+      this.merge.add(partition);
+      return item;
+    }
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Failed to close listing of bucket " + this.bucketName, e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.closed = true;
+    this.next = null;
+    if (this.executor != null) {
+      // Interrupts the partitions, each of which closes its own listing
+      this.executor.shutdownNow();
+    }
+    this.merge.clear();
+    this.discovered.clear();
+    if (this.shared != null) {
+      this.shared.clear();
+    }
+  }
+
+  /**
+   * Compares keys by code point, which matches the UTF-8 byte order S3 lists them in.
+   */
+  static int compareKeys(String a, String b) {
+    int length = Math.min(a.length(), b.length());
+    for (int i = 0; i < length; i++) {
+      char ca = a.charAt(i);
+      char cb = b.charAt(i);
+      if (ca != cb) {
+        // Surrogates sort after the rest of the BMP in code point order
+        return fixUpForCodePointOrder(ca) - fixUpForCodePointOrder(cb);
+      }
+    }
+    return a.length() - b.length();
+  }
+
+  private static int fixUpForCodePointOrder(char c) {
+    if (c >= '\uD800') {
+      return c >= '\uE000' ? c - 0x800 : c + 0x2000;
+    }
+    return c;
+  }
+
+  /**
+   * Part of the key space, listed by one task: keys under {@code prefix}, after {@code marker}
+   * and up to and including {@code upperBound}.
+   */
+  private class Partition implements Runnable {
+
+    @Nullable
+    private final String prefix;
+    @Nullable
+    private final Character delimiter;
+    @Nullable
+    private final String marker;
+    @Nullable
+    private final String upperBound;
+    private final BlockingQueue<Batch> queue;
+
+    // Used by the merging consumer only
+    private String lowerBound;
+    @Nullable
+    private BucketItem head;
+    private Iterator<BucketItem> items = Collections.emptyIterator();
+
+    Partition(String lowerBound, @Nullable String prefix, @Nullable Character delimiter,
+              @Nullable String marker, @Nullable String upperBound) {
+      this.lowerBound = lowerBound;
+      this.prefix = prefix;
+      this.delimiter = delimiter;
+      this.marker = marker;
+      this.upperBound = upperBound;
+      this.queue = ordered ? new ArrayBlockingQueue<>(BATCHES_PER_PARTITION) : shared;
+    }
+
+    String getNextKeyBound() {
+      return this.head == null ? this.lowerBound : this.head.getKey();
+    }
+
+    @Override
+    public void run() {
+      // Discovery prefetches, so that a page's common prefixes are known before its items
+      BucketListing listing = new BucketListing(bucketCommands, bucketName, this.delimiter,
+                                                this.prefix, this.marker, null,
+                                                this.delimiter == null ? 0 : 1);
+      if (this.delimiter != null) {
+        listing.onCommonPrefix(ParallelBucketListing.this::discovered);
+      }
+      try {
+        List<BucketItem> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed && listing.hasNext()) {
+          BucketItem item = listing.next();
+          if (this.upperBound != null && compareKeys(item.getKey(), this.upperBound) > 0) {
+            break;
+          }
+          batch.add(item);
+          if (batch.size() == BATCH_SIZE) {
+            this.queue.put(new Batch(batch, null));
+            batch = new ArrayList<>(BATCH_SIZE);
+          }
+        }
+        if (!batch.isEmpty()) {
+          this.queue.put(new Batch(batch, null));
+        }
+        finished();
+      } catch (UncheckedIOException e) {
+        fail(e.getCause());
+      } catch (RuntimeException e) {
+        fail(new IOException("Failed listing bucket " + bucketName, e));
+      } catch (InterruptedException e) {
+        LOG.log(Level.FINE, "Listing of bucket {0} closed", bucketName);
+      } finally {
+        try {
+          listing.close();
+        } catch (IOException e) {
+          LOG.log(Level.FINE, "Failed to close listing of bucket " + bucketName, e);
+        }
+      }
+    }
+
+    void finished() throws InterruptedException {
+      if (ordered) {
+        this.queue.put(new Batch(null, null));
+      } else if (running.decrementAndGet() == 0) {
+        this.queue.put(new Batch(null, null));
+      }
+    }
+
+    private void fail(IOException e) {
+      try {
+        this.queue.put(new Batch(null, e));
+      } catch (InterruptedException ie) {
+        LOG.log(Level.FINE, "Listing closed before failure was seen", e);
+      }
+    }
+
+    /**
+     * @return Whether the next item is now at the head, false once the partition is exhausted
+     */
+    boolean advance() throws IOException, InterruptedException {
+      while (!this.items.hasNext()) {
+        Batch batch = this.queue.take();
+        if (batch.failure != null) {
+          throw batch.failure;
+        }
+        if (batch.items == null) {
+          return false;
+        }
+        this.items = batch.items.iterator();
+      }
+      this.head = this.items.next();
+      return true;
+    }
+  }
+
+  /**
+   * Items from a partition, a failure, or neither at the end of a partition (ordered) or of the
+   * whole listing (unordered).
+   */
+  private static class Batch {
+
+    @Nullable
+    private final List<BucketItem> items;
+    @Nullable
+    private final IOException failure;
+
+    Batch(@Nullable List<BucketItem> items, @Nullable IOException failure) {
+      this.items = items;
+      this.failure = failure;
+    }
+  }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Downloads an object as several ranged GETs running at once.
+ * <p>
+ * The object is HEADed for its length and ETag, then split into parts of {@code partSize} bytes,
+ * each fetched by one of {@code parallelism} threads over the transport's pooled connections.
+ * Every part is requested with {@code If-Match} on the ETag and checked against it and against
+ * the object length in its {@code Content-Range}, so an object replaced during the download
+ * fails it rather than producing a mix of two versions.  A part that fails for any other reason,
+ * including a short read, is fetched again up to {@code attempts} times in all.
+ * <p>
+ * Parts are either written positionally into a file, in whatever order they arrive, or reassembled
+ * in order as a stream that keeps up to {@code parallelism} parts in memory ahead of the reader.
+ */
+@ParametersAreNonnullByDefault
+class ParallelDownload {
+
+  private static final Logger LOG = Logger.getLogger(ParallelDownload.class.getName());
+
+  private final S3ObjectCommands objectCommands;
+  private final String bucketName;
+  private final String objectKey;
+  private final long partSize;
+  private final int parallelism;
+  private final int attempts;
+
+  ParallelDownload(S3ObjectCommands objectCommands, String bucketName, String objectKey,
+                   long partSize, int parallelism, int attempts) {
+    if (partSize < 1 || partSize > Integer.MAX_VALUE) {
+      // Streamed parts are held in arrays
+      throw new IllegalArgumentException("Invalid part size: " + partSize);
+    }
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+    }
+    if (attempts < 1) {
+      throw new IllegalArgumentException("Attempts must be at least one: " + attempts);
+    }
+    this.objectCommands = objectCommands;
+    this.bucketName = bucketName;
+    this.objectKey = objectKey;
+    this.partSize = partSize;
+    this.parallelism = parallelism;
+    this.attempts = attempts;
+  }
+
+  /**
+   * Downloads the object into the file, replacing its content.
+   *
+   * @return The number of bytes written
+   */
+  long toFile(Path target) throws IOException {
+    ObjectHead.Response head = head();
+    long length = head.getContentLength();
+    try (FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE,
+                                             StandardOpenOption.TRUNCATE_EXISTING)) {
+      int parts = getPartCount(length);
+      if (parts == 0) {
+        return 0;
+      }
+      ExecutorService executor = newExecutor(Math.min(parts, this.parallelism));
+      try {
+        CompletionService<Long> completion = new ExecutorCompletionService<>(executor);
+        for (int i = 0; i < parts; i++) {
+          long start = i * this.partSize;
+          long end = Math.min(start + this.partSize, length) - 1;
+          completion.submit(() -> fetch(head, start, end, response -> {
+            long written = response.transferTo(file, start);
+            checkLength(start, end, written);
+            return written;
+          }));
+        }
+        long written = 0;
+        for (int i = 0; i < parts; i++) {
+          // Fails on the first part to fail, whichever order they finish in
+          written += getResult(completion.take());
+        }
+        return written;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted downloading " + this.objectKey);
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Opens the object as a stream of its content in order, fetching parts ahead of the reader; the
+   * stream must be closed if it is not read to the end.
+   */
+  InputStream toStream() throws IOException {
+    ObjectHead.Response head = head();
+    return new PartStream(head, getPartCount(head.getContentLength()));
+  }
+
+  private ObjectHead.Response head() throws IOException {
+    ObjectHead.Response head = this.objectCommands.head(this.bucketName, this.objectKey);
+    if (head.getContentLength() < 0) {
+      throw new IOException("No length given for " + this.objectKey);
+    }
+    return head;
+  }
+
+  private int getPartCount(long length) {
+    long parts = (length + this.partSize - 1) / this.partSize;
+    if (parts > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Part size " + this.partSize + " is too small for " +
+                                         length + " bytes");
+    }
+    return (int) parts;
+  }
+
+  private ExecutorService newExecutor(int threads) {
+    return Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "aws-nano-s3-parallel-download");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Gets bytes {@code start} to {@code end} of the object for the reader, retrying failures other
+   * than the object having changed since it was HEADed.
+   */
+  private <R> R fetch(ObjectHead.Response head, long start, long end, PartReader<R> reader)
+      throws IOException, InterruptedException {
+    String etag = head.getETag();
+    String description = "bytes " + start + "-" + end + " of " + this.objectKey;
+    return PartRetries.run(this.attempts, description, () -> {
+      try (ObjectGet.Response response = this.objectCommands.get(this.bucketName, this.objectKey,
+                                                                 start, end, etag)) {
+        checkConsistent(head, response);
+        return reader.read(response);
+      }
+    });
+  }
+
+  private void checkConsistent(ObjectHead.Response head, ObjectGet.Response response)
+      throws ObjectChangedException {
+    String etag = response.getETag();
+    if (etag != null && head.getETag() != null && !etag.equals(head.getETag())) {
+      throw new ObjectChangedException(this.objectKey + " changed from " + head.getETag() +
+                                       " to " + etag + " while downloading");
+    }
+    String contentRange = response.getContentRange();
+    if (contentRange != null) {
+      int slash = contentRange.lastIndexOf('/');
+      String length = slash < 0 ? null : contentRange.substring(slash + 1).trim();
+      if (length != null && !"*".equals(length) &&
+          !length.equals(String.valueOf(head.getContentLength()))) {
+        throw new ObjectChangedException(this.objectKey + " changed from " +
+                                         head.getContentLength() + " to " + length +
+                                         " bytes while downloading");
+      }
+    }
+  }
+
+  private void checkLength(long start, long end, long read) throws IOException {
+    if (read != end - start + 1) {
+      throw new IOException("Got " + read + " of bytes " + start + "-" + end + " of " +
+                            this.objectKey);
+    }
+  }
+
+  private <R> R getResult(Future<R> future) throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      }
+      throw new IOException("Failed downloading " + this.objectKey, cause);
+    } catch (CancellationException e) {
+      throw new InterruptedIOException("Download of " + this.objectKey + " closed");
+    }
+  }
+
+  @FunctionalInterface
+  private interface PartReader<R> {
+
+    R read(ObjectGet.Response response) throws IOException;
+  }
+
+  /**
+   * The object no longer matches the one the download started with.
+   */
+  @SuppressWarnings("serial")
+  static class ObjectChangedException extends IOException {
+
+    ObjectChangedException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * The object's content in order, with the parts after the one being read fetched into memory
+   * ahead of it.
+   */
+  private class PartStream extends InputStream {
+
+    private final ObjectHead.Response head;
+    private final int parts;
+    @Nullable
+    private final ExecutorService executor;
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+
+    private int submitted;
+    @Nullable
+    private byte[] current;
+    private int position;
+    private boolean closed;
+
+    PartStream(ObjectHead.Response head, int parts) {
+      this.head = head;
+      this.parts = parts;
+      this.executor = parts == 0 ? null : newExecutor(Math.min(parts, parallelism));
+      while (this.submitted < Math.min(parts, parallelism)) {
+        submitNext();
+      }
+    }
+
+    private void submitNext() {
+      long start = this.submitted * partSize;
+      long end = Math.min(start + partSize, this.head.getContentLength()) - 1;
+      this.pending.add(this.executor.submit(() -> fetch(this.head, start, end, response -> {
+        byte[] part = new byte[(int) (end - start + 1)];
+        ByteBuffer buffer = ByteBuffer.wrap(part);
+        ReadableByteChannel channel = response.getChannel();
+        while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+          // Fill the part
+        }
+        checkLength(start, end, buffer.position());
+        if (channel.read(ByteBuffer.allocate(1)) >= 0) {
+          throw new IOException("Got more than bytes " + start + "-" + end + " of " + objectKey);
+        }
+        return part;
+      })));
+      this.submitted++;
+    }
+
+    /**
+     * @return Whether there is content to read, false at the end of the object
+     */
+    private boolean fill() throws IOException {
+      if (this.closed) {
+        throw new IOException("Download of " + objectKey + " closed");
+      }
+      while (this.current == null || this.position == this.current.length) {
+        Future<byte[]> next = this.pending.poll();
+        if (next == null) {
+          return false;
+        }
+        try {
+          this.current = getResult(next);
+        } catch (IOException e) {
+          close();
+          throw e;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          close();
+          throw new InterruptedIOException("Interrupted downloading " + objectKey);
+        }
+        this.position = 0;
+        if (this.submitted < this.parts) {
+          submitNext();
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return this.current[this.position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(len, this.current.length - this.position);
+      System.arraycopy(this.current, this.position, b, off, count);
+      this.position += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return this.current == null ? 0 : this.current.length - this.position;
+    }
+
+    @Override
+    public void close() {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      this.current = null;
+      this.pending.forEach(future -> future.cancel(true));
+      this.pending.clear();
+      if (this.executor != null) {
+        this.executor.shutdownNow();
+      }
+    }
+  }
+}
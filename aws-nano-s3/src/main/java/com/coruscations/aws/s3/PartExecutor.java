@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Runs the parts of one multipart upload on threads of its own, failing on the first part to
+ * fail, and completes or aborts the upload once they are done.  Closing it stops the parts still
+ * running and waits for them, so that none is stored after the upload is aborted.
+ */
+@ParametersAreNonnullByDefault
+class PartExecutor implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(PartExecutor.class.getName());
+
+  private static final long STOP_WAIT_SECONDS = 30;
+
+  private final ExecutorService executor;
+  private final CompletionService<Integer> completion;
+  private final String description;
+  private int submitted;
+  // Parts whose results have been taken from the completion service
+  private int finished;
+
+  /**
+   * @param description What the parts do, such as "uploading key", for errors and logging
+   */
+  PartExecutor(int threads, String threadName, String description) {
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, threadName);
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.completion = new ExecutorCompletionService<>(this.executor);
+    this.description = description;
+  }
+
+  /**
+   * @param part Transfers the part, returning its number
+   */
+  void submit(Callable<Integer> part) {
+    this.completion.submit(part);
+    this.submitted++;
+  }
+
+  /**
+   * Throws the failure of any part that has already failed.
+   */
+  void checkFailed() throws IOException, InterruptedException {
+    for (Future<Integer> done = this.completion.poll(); done != null;
+         done = this.completion.poll()) {
+      this.finished++;
+      getResult(done);
+    }
+  }
+
+  /**
+   * Waits for the rest of the parts to finish, throwing the first failure whichever order they
+   * finish in.
+   */
+  void awaitParts() throws IOException, InterruptedException {
+    while (this.finished < this.submitted) {
+      this.finished++;
+      getResult(this.completion.take());
+    }
+  }
+
+  private void getResult(Future<Integer> future) throws IOException, InterruptedException {
+    try {
+      future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof InterruptedException) {
+        throw (InterruptedException) cause;
+      }
+      throw new IOException("Failed " + this.description, cause);
+    } catch (CancellationException e) {
+      throw new InterruptedIOException("Cancelled " + this.description);
+    }
+  }
+
+  @Override
+  public void close() {
+    this.executor.shutdownNow();
+    try {
+      if (!this.executor.awaitTermination(STOP_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.log(Level.WARNING, "Parts still {0} after being stopped", this.description);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Completes the upload from its parts, retrying as {@link PartRetries} does.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  static String complete(S3ObjectCommands objectCommands, int attempts, String bucketName,
+                         String objectKey, String uploadId, SortedMap<Integer, String> partETags)
+      throws IOException, InterruptedException {
+    return PartRetries.run(attempts, "completion of " + objectKey, () -> {
+      MultipartUploadComplete.Response response = objectCommands.completeMultipartUpload(
+          bucketName, objectKey, uploadId, partETags);
+      if (response.getErrorCode() != null) {
+        // Sent after a 200 status, and worth retrying whatever it is
+        throw new IOException("Failed completing " + objectKey + ": " + response);
+      }
+      return response.getETag();
+    });
+  }
+
+  /**
+   * Aborts the upload, logging rather than throwing a failure so as not to hide the one that led
+   * to it.
+   */
+  static void abort(S3ObjectCommands objectCommands, String bucketName, String objectKey,
+                    String uploadId) {
+    try {
+      objectCommands.abortMultipartUpload(bucketName, objectKey, uploadId);
+    } catch (IOException e) {
+      LOG.log(Level.WARNING, "Failed to abort upload " + uploadId + " of " + objectKey, e);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ErrorResponse;
+import com.coruscations.aws.ErrorResponseException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Retries for the requests of transfers made in parts, where one part failing should cost that
+ * part again rather than the whole transfer.
+ */
+@ParametersAreNonnullByDefault
+final class PartRetries {
+
+  private static final Logger LOG = Logger.getLogger(PartRetries.class.getName());
+
+  private static final long RETRY_DELAY_MILLIS = 100;
+
+  private PartRetries() {
+  }
+
+  /**
+   * Runs the attempt up to {@code attempts} times, backing off between them, for as long as it
+   * fails with retryable errors.
+   *
+   * @param description What the attempt does, for logging
+   */
+  static <R> R run(int attempts, String description, Attempt<R> attempt)
+      throws IOException, InterruptedException {
+    for (int i = 1; ; i++) {
+      try {
+        return attempt.run();
+      } catch (IOException e) {
+        if (i >= attempts || !isRetryable(e) || Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+        LOG.log(Level.FINE, "Retrying " + description, e);
+        Thread.sleep(RETRY_DELAY_MILLIS << (i - 1));
+      }
+    }
+  }
+
+  /**
+   * @return Whether the failure may not happen again: I/O errors and server errors, but not
+   *         client errors such as a failed precondition, which would only fail again
+   */
+  static boolean isRetryable(IOException e) {
+    if (e instanceof ParallelDownload.ObjectChangedException ||
+        e instanceof InterruptedIOException) {
+      return false;
+    }
+    if (e instanceof ErrorResponseException) {
+      ErrorResponse errorResponse = ((ErrorResponseException) e).getErrorResponse();
+      return errorResponse == null ||
+             errorResponse.getResponseCode() >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+    return true;
+  }
+
+  @FunctionalInterface
+  interface Attempt<R> {
+
+    R run() throws IOException;
+  }
+}
@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ErrorResponse;
+import com.coruscations.aws.ErrorResponseException;
+import com.coruscations.aws.s3.BucketGet.BucketItem;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Makes the objects under a prefix of one bucket match those under a prefix of another, copying
+ * only the objects that are missing or have changed.
+ * <p>
+ * Both prefixes are listed at once, each with pages prefetched on its own thread, and the two
+ * listings are merge-joined in key order: keys are matched by what follows their prefix, so a
+ * sync of millions of keys holds no more than the pages in flight.  A source object is copied if
+ * the target has no object for it, or one of a different size, or one whose ETag differs while
+ * both ETags are MD5s of the content.  ETags of objects uploaded or copied in parts are not, so
+ * where either is, the object is only copied again if the source was modified after the target.
+ * Target objects with no source are deleted, if asked for, in batches of up to {@link
+ * ObjectsDelete#MAX_KEYS}.
+ * <p>
+ * Copies are made within S3 by {@link S3ObjectCommands#copy(String, String, String, String)}, so
+ * the target's endpoint must be able to read the source bucket, though the source may be listed
+ * through commands for another.  Copies and batches of deletes run up to {@code parallelism} at
+ * once; listing waits for one to finish rather than queueing more.  Keys that fail are reported
+ * in the result rather than stopping the sync.
+ */
+@ParametersAreNonnullByDefault
+class PrefixSync {
+
+  private static final Logger LOG = Logger.getLogger(PrefixSync.class.getName());
+
+  static final int DEFAULT_PARALLELISM = 8;
+
+  private final S3BucketCommands sourceBucketCommands;
+  private final String sourceBucketName;
+  private final String sourcePrefix;
+  private final S3BucketCommands bucketCommands;
+  private final S3ObjectCommands objectCommands;
+  private final String bucketName;
+  private final String prefix;
+  private final boolean delete;
+  private final int parallelism;
+  private final int deleteAttempts;
+  private final int prefetchPages;
+
+  /**
+   * @param sourcePrefix The prefix of the keys to copy, or null for the whole bucket
+   * @param prefix       The prefix that replaces {@code sourcePrefix} in the target's keys, or null
+   *                     for none
+   * @param delete       Whether to delete the objects under the target prefix with no source
+   */
+  PrefixSync(S3BucketCommands sourceBucketCommands, String sourceBucketName,
+             @Nullable String sourcePrefix, S3BucketCommands bucketCommands,
+             S3ObjectCommands objectCommands, String bucketName, @Nullable String prefix,
+             boolean delete, int parallelism, int deleteAttempts, int prefetchPages) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least one: " + parallelism);
+    }
+    this.sourceBucketCommands = sourceBucketCommands;
+    this.sourceBucketName = sourceBucketName;
+    this.sourcePrefix = sourcePrefix == null ? "" : sourcePrefix;
+    this.bucketCommands = bucketCommands;
+    this.objectCommands = objectCommands;
+    this.bucketName = bucketName;
+    this.prefix = prefix == null ? "" : prefix;
+    this.delete = delete;
+    this.parallelism = parallelism;
+    this.deleteAttempts = deleteAttempts;
+    // Without at least one page prefetched, each listing would wait on the other
+    this.prefetchPages = Math.max(1, prefetchPages);
+  }
+
+  /**
+   * Copies what has changed, and deletes what has gone if asked to.
+   *
+   * @return The number of objects copied, deleted and left, and the keys that failed
+   * @throws IOException If either prefix could not be listed
+   */
+  Result sync() throws IOException {
+    Result result = new Result();
+    ExecutorService executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "aws-nano-s3-sync");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try (BucketListing sources = this.sourceBucketCommands.list(
+        this.sourceBucketName, null, this.sourcePrefix.isEmpty() ? null : this.sourcePrefix,
+        null, this.prefetchPages);
+         BucketListing targets = this.bucketCommands.list(
+             this.bucketName, null, this.prefix.isEmpty() ? null : this.prefix, null,
+             this.prefetchPages)) {
+      Tasks tasks = new Tasks(new ExecutorCompletionService<>(executor), result);
+      List<String> deletes = new ArrayList<>();
+      BucketItem source = sources.hasNext() ? sources.next() : null;
+      BucketItem target = targets.hasNext() ? targets.next() : null;
+      while (source != null || target != null) {
+        int order = source == null ? 1 : target == null ? -1 : ParallelBucketListing.KEY_ORDER
+            .compare(source.getKey().substring(this.sourcePrefix.length()),
+                     target.getKey().substring(this.prefix.length()));
+        if (order < 0 || (order == 0 && !isUnchanged(source, target))) {
+          tasks.submit(copy(source));
+        } else if (order == 0) {
+          result.unchanged++;
+        } else if (this.delete) {
+          deletes.add(target.getKey());
+          if (deletes.size() == ObjectsDelete.MAX_KEYS) {
+            tasks.submit(delete(new ArrayList<>(deletes)));
+            deletes.clear();
+          }
+        }
+        if (order <= 0) {
+          source = sources.hasNext() ? sources.next() : null;
+        }
+        if (order >= 0) {
+          target = targets.hasNext() ? targets.next() : null;
+        }
+      }
+      if (!deletes.isEmpty()) {
+        tasks.submit(delete(deletes));
+      }
+      tasks.awaitAll();
+      result.finished = System.nanoTime();
+      LOG.log(Level.FINE, "Synced {0}{1} to {2}{3}: {4}",
+              new Object[]{this.sourceBucketName, this.sourcePrefix, this.bucketName,
+                           this.prefix, result});
+      return result;
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted syncing to " + this.bucketName);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return Whether the target is taken to be a copy of the source as it is now
+   */
+  static boolean isUnchanged(BucketItem source, BucketItem target) {
+    if (source.getSize() != target.getSize()) {
+      return false;
+    }
+    String sourceETag = source.geteTag();
+    String targetETag = target.geteTag();
+    if (sourceETag != null && sourceETag.equals(targetETag)) {
+      return true;
+    }
+    if (sourceETag != null && targetETag != null && !isMultipart(sourceETag) &&
+        !isMultipart(targetETag)) {
+      return false;
+    }
+    OffsetDateTime sourceModified = source.getLastModified();
+    OffsetDateTime targetModified = target.getLastModified();
+    return sourceModified != null && targetModified != null &&
+           !sourceModified.isAfter(targetModified);
+  }
+
+  /**
+   * @return Whether the ETag is that of an object uploaded in parts, which is not the MD5 of its
+   *         content
+   */
+  private static boolean isMultipart(String etag) {
+    return etag.indexOf('-') >= 0;
+  }
+
+  private Task copy(BucketItem source) {
+    String sourceKey = source.getKey();
+    String key = this.prefix + sourceKey.substring(this.sourcePrefix.length());
+    return result -> {
+      try {
+        this.objectCommands.copy(this.sourceBucketName, sourceKey, this.bucketName, key);
+        result.copied++;
+        result.bytesCopied += source.getSize();
+      } catch (InterruptedIOException e) {
+        throw new InterruptedException(e.getMessage());
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed copying " + sourceKey + " to " + key, e);
+        result.failures.add(new Failure(key, false, getCode(e), e.getMessage()));
+      }
+    };
+  }
+
+  /**
+   * @param keys A batch of no more than {@link ObjectsDelete#MAX_KEYS}, sent in one request from
+   *             one of the sync's threads
+   */
+  private Task delete(List<String> keys) {
+    String description = keys.size() + " keys from " + keys.get(0) + " in " + this.bucketName;
+    return result -> {
+      try {
+        ObjectsDelete.Response response = PartRetries.run(
+            this.deleteAttempts, "deletion of " + description,
+            () -> this.bucketCommands.deleteObjects(this.bucketName, keys, true));
+        result.deleted += keys.size() - response.getFailures().size();
+        for (ObjectsDelete.Failure failure : response.getFailures()) {
+          result.failures.add(new Failure(failure.getKey(), true, failure.getCode(),
+                                          failure.getMessage()));
+        }
+      } catch (InterruptedIOException e) {
+        throw new InterruptedException(e.getMessage());
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Failed deleting " + description, e);
+        String code = getCode(e);
+        for (String key : keys) {
+          result.failures.add(new Failure(key, true, code, e.getMessage()));
+        }
+      }
+    };
+  }
+
+  private static String getCode(IOException e) {
+    if (e instanceof ErrorResponseException) {
+      ErrorResponse errorResponse = ((ErrorResponseException) e).getErrorResponse();
+      if (errorResponse instanceof S3ErrorResponse &&
+          ((S3ErrorResponse) errorResponse).getCode() != null) {
+        return ((S3ErrorResponse) errorResponse).getCode();
+      }
+    }
+    return e.getClass().getSimpleName();
+  }
+
+  /**
+   * A copy or a batch of deletes, adding what it did to the result it is given.
+   */
+  @FunctionalInterface
+  private interface Task {
+
+    void run(Result result) throws IOException, InterruptedException;
+  }
+
+  /**
+   * The tasks running, of which there are at most the parallelism; each adds to a result of its
+   * own, which is added to the total once it has finished.
+   */
+  private class Tasks {
+
+    private final CompletionService<Result> completion;
+    private final Result total;
+    private int pending;
+
+    Tasks(CompletionService<Result> completion, Result total) {
+      this.completion = completion;
+      this.total = total;
+    }
+
+    void submit(Task task) throws IOException, InterruptedException {
+      if (this.pending == parallelism) {
+        // Wait for a task to finish before listing more
+        add(this.completion.take());
+      }
+      this.completion.submit(() -> {
+        Result result = new Result();
+        task.run(result);
+        return result;
+      });
+      this.pending++;
+    }
+
+    void awaitAll() throws IOException, InterruptedException {
+      while (this.pending > 0) {
+        add(this.completion.take());
+      }
+    }
+
+    private void add(Future<Result> future) throws IOException, InterruptedException {
+      this.pending--;
+      try {
+        this.total.add(future.get());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof InterruptedException) {
+          throw (InterruptedException) cause;
+        }
+        throw new IOException("Failed syncing to " + bucketName, cause);
+      } catch (CancellationException e) {
+        throw new InterruptedIOException("Syncing to " + bucketName + " cancelled");
+      }
+    }
+  }
+
+  /**
+   * The outcome of a sync: how many objects were copied, deleted and left as they were, which
+   * keys failed, and how long it took.
+   */
+  static class Result {
+
+    private final long started = System.nanoTime();
+    private long finished;
+    private long copied;
+    private long bytesCopied;
+    private long deleted;
+    private long unchanged;
+    private final List<Failure> failures = new ArrayList<>();
+
+    private void add(Result task) {
+      this.copied += task.copied;
+      this.bytesCopied += task.bytesCopied;
+      this.deleted += task.deleted;
+      this.failures.addAll(task.failures);
+    }
+
+    long getCopied() {
+      return this.copied;
+    }
+
+    /**
+     * @return The total size of the objects copied, none of which passed through the client
+     */
+    long getBytesCopied() {
+      return this.bytesCopied;
+    }
+
+    long getDeleted() {
+      return this.deleted;
+    }
+
+    /**
+     * @return The number of objects found to match their source, which were not copied
+     */
+    long getUnchanged() {
+      return this.unchanged;
+    }
+
+    /**
+     * @return The target keys that could not be copied to or deleted
+     */
+    List<Failure> getFailures() {
+      return this.failures;
+    }
+
+    /**
+     * @return The time taken so far, or in all once finished
+     */
+    Duration getElapsed() {
+      return Duration.ofNanos((this.finished == 0 ? System.nanoTime() : this.finished) -
+                              this.started);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d copied (%d bytes), %d deleted, %d unchanged, %d failed in %d ms",
+                           this.copied, this.bytesCopied, this.deleted, this.unchanged,
+                           this.failures.size(), getElapsed().toMillis());
+    }
+  }
+
+  /**
+   * A target key that could not be copied to or deleted.
+   */
+  static class Failure {
+
+    @Nullable
+    private final String key;
+    private final boolean delete;
+    @Nullable
+    private final String code;
+    @Nullable
+    private final String message;
+
+    Failure(@Nullable String key, boolean delete, @Nullable String code,
+            @Nullable String message) {
+      this.key = key;
+      this.delete = delete;
+      this.code = code;
+      this.message = message;
+    }
+
+    @Nullable
+    String getKey() {
+      return this.key;
+    }
+
+    /**
+     * @return Whether the key was to be deleted, having no source, rather than copied to
+     */
+    boolean isDelete() {
+      return this.delete;
+    }
+
+    /**
+     * @return The S3 error code, or the type of the exception where there was none
+     */
+    @Nullable
+    String getCode() {
+      return this.code;
+    }
+
+    @Nullable
+    String getMessage() {
+      return this.message;
+    }
+
+    @Override
+    public String toString() {
+      return (this.delete ? "deleting " : "copying to ") + this.key + ": " + this.code + " (" +
+             this.message + ")";
+    }
+  }
+}
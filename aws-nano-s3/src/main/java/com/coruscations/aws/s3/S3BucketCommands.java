@@ -18,10 +18,16 @@
 package com.coruscations.aws.s3;
 
 import com.coruscations.aws.ConfigurationProvider;
+import com.coruscations.aws.Constants;
 import com.coruscations.aws.EmptyRestCommandResponse;
+import com.coruscations.aws.StreamingResponse;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
@@ -29,34 +35,199 @@ class S3BucketCommands extends S3Commands {
 
   private static final Logger LOG = Logger.getLogger(S3BucketCommands.class.getName());
 
+  private static final int DEFAULT_PREFETCH_PAGES = 1;
+
+  private final int prefetchPages;
+  private final boolean scanListings;
+  private final int deleteParallelism;
+  private final int deleteAttempts;
+  private final int syncParallelism;
+
   S3BucketCommands(ConfigurationProvider configurationProvider) {
     super(configurationProvider);
+    this.prefetchPages = (int) configurationProvider.getLong(Constants.S3_LIST_PREFETCH_PAGES,
+                                                             DEFAULT_PREFETCH_PAGES);
+    this.scanListings = configurationProvider.getBoolean(Constants.S3_LIST_SCANNER, false);
+    this.deleteParallelism = (int) configurationProvider.getLong(
+        Constants.S3_DELETE_PARALLELISM, BulkDelete.DEFAULT_PARALLELISM);
+    this.deleteAttempts = (int) configurationProvider.getLong(Constants.S3_DELETE_ATTEMPTS,
+                                                              BulkDelete.DEFAULT_ATTEMPTS);
+    this.syncParallelism = (int) configurationProvider.getLong(Constants.S3_SYNC_PARALLELISM,
+                                                               PrefixSync.DEFAULT_PARALLELISM);
   }
 
   EmptyRestCommandResponse checkAccess(String bucket) throws IOException {
     return execute(new BucketHead(bucket));
   }
 
+  CompletableFuture<EmptyRestCommandResponse> checkAccessAsync(String bucket) {
+    return executeAsync(new BucketHead(bucket));
+  }
+
   EmptyRestCommandResponse make(String bucket, Acl acl) throws IOException {
     return execute(new BucketPut(bucket, acl));
   }
 
+  CompletableFuture<EmptyRestCommandResponse> makeAsync(String bucket, Acl acl) {
+    return executeAsync(new BucketPut(bucket, acl));
+  }
+
   EmptyRestCommandResponse remove(String bucket) throws IOException {
     return execute(new BucketDelete(bucket));
   }
 
+  CompletableFuture<EmptyRestCommandResponse> removeAsync(String bucket) {
+    return executeAsync(new BucketDelete(bucket));
+  }
+
+  /**
+   * Deletes every object under the prefix, listing and deleting at once with batches deleted in
+   * parallel as configured by {@link Constants#S3_DELETE_PARALLELISM} and
+   * {@link Constants#S3_DELETE_ATTEMPTS}.  Keys that fail to delete are reported in the result.
+   *
+   * @param progressConsumer Given the running totals as each batch of deletes finishes
+   * @return The number of objects deleted, the keys that failed and the rate they were deleted at
+   */
+  BulkDelete.Result deletePrefix(String bucket, @Nullable String prefix,
+                                 @Nullable Consumer<BulkDelete.Result> progressConsumer)
+      throws IOException {
+    return newDrain(bucket).onProgress(progressConsumer).deletePrefix(prefix);
+  }
+
+  /**
+   * Deletes every object in the bucket as {@link #deletePrefix} does, aborts the multipart uploads
+   * in progress and then removes the bucket, which is left if any object could not be deleted.
+   */
+  BulkDelete.Result drainAndRemove(String bucket,
+                                   @Nullable Consumer<BulkDelete.Result> progressConsumer)
+      throws IOException {
+    return newDrain(bucket).onProgress(progressConsumer).drainAndRemove();
+  }
+
+  /**
+   * Copies the objects under the source prefix that are missing or have changed under the target
+   * prefix, with the source prefix replaced by the target's, and deletes the target objects that
+   * have no source if {@code delete} is set.  Both prefixes are listed at once and compared in key
+   * order, with copies made within S3 by the object commands and up to
+   * {@link Constants#S3_SYNC_PARALLELISM} copies or batches of deletes running at once.
+   *
+   * @return The number of objects copied, deleted and left, and the keys that failed
+   */
+  PrefixSync.Result sync(String sourceBucket, @Nullable String sourcePrefix, String bucket,
+                         @Nullable String prefix, S3ObjectCommands objectCommands,
+                         boolean delete) throws IOException {
+    return new PrefixSync(this, sourceBucket, sourcePrefix, this, objectCommands, bucket, prefix,
+                          delete, this.syncParallelism, this.deleteAttempts, this.prefetchPages)
+        .sync();
+  }
+
+  private BucketDrain newDrain(String bucket) {
+    return new BucketDrain(this, bucket, this.deleteParallelism, this.deleteAttempts,
+                           this.prefetchPages);
+  }
+
+  /**
+   * Deletes up to {@link ObjectsDelete#MAX_KEYS} objects; keys that fail are listed in the
+   * response rather than failing it.
+   */
+  ObjectsDelete.Response deleteObjects(String bucket, Collection<String> keys, boolean quiet)
+      throws IOException {
+    return execute(new ObjectsDelete(bucket, keys, quiet));
+  }
+
+  /**
+   * Lists a page of the multipart uploads in progress under the prefix, from after the markers.
+   */
+  BucketGetUploads.Response listUploads(String bucket, @Nullable String prefix,
+                                        @Nullable String keyMarker,
+                                        @Nullable String uploadIdMarker) throws IOException {
+    return execute(new BucketGetUploads(bucket, prefix, keyMarker, uploadIdMarker));
+  }
+
+  EmptyRestCommandResponse abortUpload(String bucket, String key, String uploadId)
+      throws IOException {
+    return execute(new MultipartUploadAbort(bucket, key, uploadId));
+  }
+
+  /**
+   * Lists a single page, parsed with {@link ListBucketResultScanner} if
+   * {@link Constants#S3_LIST_SCANNER} is set.
+   */
   BucketGet.Response ls(String bucket, @Nullable Character delimiter, @Nullable String prefix,
                         @Nullable String encodingType, @Nullable String marker,
                         @Nullable Integer maxKeys) throws IOException {
-    return execute(
-        new BucketGet(bucket, delimiter, prefix, encodingType, marker, maxKeys));
+    return execute(new BucketGet(bucket, delimiter, prefix, encodingType, marker, maxKeys,
+                                 this.scanListings));
+  }
+
+  CompletableFuture<BucketGet.Response> lsAsync(String bucket, @Nullable Character delimiter,
+                                                @Nullable String prefix,
+                                                @Nullable String encodingType,
+                                                @Nullable String marker,
+                                                @Nullable Integer maxKeys) {
+    return executeAsync(new BucketGet(bucket, delimiter, prefix, encodingType, marker, maxKeys,
+                                      this.scanListings));
+  }
+
+  /**
+   * Lists every object under the prefix, requesting further pages as the listing is consumed and
+   * prefetching as configured by {@link Constants#S3_LIST_PREFETCH_PAGES}.  The listing should be
+   * closed if it is not read to the end.
+   */
+  BucketListing list(String bucket, @Nullable Character delimiter, @Nullable String prefix,
+                     @Nullable Integer maxKeys) {
+    return list(bucket, delimiter, prefix, maxKeys, this.prefetchPages);
+  }
+
+  /**
+   * {@link #list(String, Character, String, Integer)} keeping up to {@code prefetchPages} pages
+   * parsed ahead of the consumer; zero parses each page as it is consumed.
+   */
+  BucketListing list(String bucket, @Nullable Character delimiter, @Nullable String prefix,
+                     @Nullable Integer maxKeys, int prefetchPages) {
+    return new BucketListing(this, bucket, delimiter, prefix, null, maxKeys, prefetchPages);
+  }
+
+  /**
+   * {@link #list} as a stream, which should be closed if it is not consumed entirely.
+   */
+  Stream<BucketGet.BucketItem> stream(String bucket, @Nullable Character delimiter,
+                                      @Nullable String prefix, @Nullable Integer maxKeys) {
+    return list(bucket, delimiter, prefix, maxKeys).stream();
+  }
+
+  /**
+   * Lists every object under the prefix with up to {@code parallelism} listings running at once,
+   * each over part of the key space.  Without split points, the key space is split at the common
+   * prefixes found by listing with the delimiter.  Ordered listings return keys in S3 order,
+   * otherwise they are returned as soon as they are listed.
+   */
+  ParallelBucketListing listParallel(String bucket, @Nullable String prefix, char delimiter,
+                                     @Nullable Collection<String> splitPoints, int parallelism,
+                                     boolean ordered) {
+    return new ParallelBucketListing(this, bucket, prefix, delimiter, splitPoints, parallelism,
+                                     ordered);
+  }
+
+  StreamingResponse openListing(String bucket, @Nullable Character delimiter,
+                                @Nullable String prefix, @Nullable String marker,
+                                @Nullable Integer maxKeys) throws IOException {
+    return executeStreaming(new BucketGet(bucket, delimiter, prefix, null, marker, maxKeys));
   }
 
   BucketGetAcl.Response getAcl(String bucket) throws IOException {
     return execute(new BucketGetAcl(bucket));
   }
 
+  CompletableFuture<BucketGetAcl.Response> getAclAsync(String bucket) {
+    return executeAsync(new BucketGetAcl(bucket));
+  }
+
   EmptyRestCommandResponse setAcl(String bucket, Acl acl) throws IOException {
     return execute(new BucketPutAcl(bucket, acl));
   }
+
+  CompletableFuture<EmptyRestCommandResponse> setAclAsync(String bucket, Acl acl) {
+    return executeAsync(new BucketPutAcl(bucket, acl));
+  }
 }
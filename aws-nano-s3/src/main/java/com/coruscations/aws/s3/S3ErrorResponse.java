@@ -17,8 +17,9 @@
 
 package com.coruscations.aws.s3;
 
+import com.coruscations.aws.CursorParser;
+import com.coruscations.aws.ElementTextReader;
 import com.coruscations.aws.ErrorResponse;
-import com.coruscations.aws.Parser;
 
 import java.util.Arrays;
 import java.util.List;
@@ -27,8 +28,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.xml.stream.XMLStreamConstants;
-import javax.xml.stream.events.StartElement;
-import javax.xml.stream.events.XMLEvent;
 
 class S3ErrorResponse extends ErrorResponse {
 
@@ -45,7 +44,7 @@ class S3ErrorResponse extends ErrorResponse {
   private final byte[] stringToSignBytes;
   private final String signatureProvided;
 
-  static Parser<S3ErrorResponse> getParser() {
+  static CursorParser<S3ErrorResponse> getParser() {
     return (responseCode, headers, reader) -> {
 
       if (reader == null) {
@@ -53,6 +52,8 @@ class S3ErrorResponse extends ErrorResponse {
                                    null, null, null);
       }
 
+      ElementTextReader text = ElementTextReader.forThread();
+
       String code = null;
       String message = null;
       String resource = null;
@@ -67,49 +68,47 @@ class S3ErrorResponse extends ErrorResponse {
       String signatureProvided = null;
 
       while (reader.hasNext()) {
-        XMLEvent event = reader.nextEvent();
-        int next = event.getEventType();
+        int next = reader.next();
         if (next == XMLStreamConstants.START_ELEMENT) {
-          StartElement startElement = event.asStartElement();
-          String elementName = startElement.getName().getLocalPart();
+          String elementName = reader.getLocalName();
           switch (elementName) {
             case "Code":
-              code = reader.getElementText();
+              code = text.getText(reader);
               break;
             case "Message":
-              message = reader.getElementText();
+              message = text.getText(reader);
               break;
             case "Resource":
-              resource = reader.getElementText();
+              resource = text.getText(reader);
               break;
             case "RequestId":
-              requestId = reader.getElementText();
+              requestId = text.getText(reader);
               break;
             case "AWSAccessKeyId":
-              awsAccessKey = reader.getElementText();
+              awsAccessKey = text.getText(reader);
               break;
             case "StringToSign":
-              stringToSign = reader.getElementText();
+              stringToSign = text.getText(reader);
               break;
             case "StringToSignBytes":
-              String[] stringToSignByteStrings = reader.getElementText().trim().split("\\s+");
+              String[] stringToSignByteStrings = text.getText(reader).trim().split("\\s+");
               stringToSignBytes = new byte[stringToSignByteStrings.length];
               for (int i = 0; i < stringToSignByteStrings.length; i++) {
                 stringToSignBytes[i] = Byte.valueOf(stringToSignByteStrings[i], 16);
               }
               break;
             case "CanonicalRequest":
-              canonicalRequest = reader.getElementText();
+              canonicalRequest = text.getText(reader);
               break;
             case "CanonicalRequestBytes":
-              String[] canonicalRequestByteStrings = reader.getElementText().trim().split("\\s+");
+              String[] canonicalRequestByteStrings = text.getText(reader).trim().split("\\s+");
               canonicalRequestBytes = new byte[canonicalRequestByteStrings.length];
               for (int i = 0; i < canonicalRequestByteStrings.length; i++) {
                 canonicalRequestBytes[i] = Byte.valueOf(canonicalRequestByteStrings[i], 16);
               }
               break;
             case "SignatureProvided":
-              signatureProvided = reader.getElementText();
+              signatureProvided = text.getText(reader);
               break;
             case "Error":
               // Ignore
@@ -119,7 +118,7 @@ class S3ErrorResponse extends ErrorResponse {
               break;
           }
         } else if (next == XMLStreamConstants.END_ELEMENT &&
-                   "Error".equals(event.asEndElement().getName().getLocalPart())) {
+                   "Error".equals(reader.getLocalName())) {
           // Done; if we go to the end of the document, it closes.
           break;
         }
@@ -0,0 +1,424 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ConfigurationProvider;
+import com.coruscations.aws.Constants;
+import com.coruscations.aws.EmptyRestCommandResponse;
+import com.coruscations.aws.RequestBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+class S3ObjectCommands extends S3Commands {
+
+  private static final Logger LOG = Logger.getLogger(S3ObjectCommands.class.getName());
+
+  private static final long DEFAULT_DOWNLOAD_PART_SIZE = 8 * 1024 * 1024;
+  private static final int DEFAULT_DOWNLOAD_PARALLELISM = 4;
+  private static final int DEFAULT_DOWNLOAD_ATTEMPTS = 3;
+  private static final long DEFAULT_UPLOAD_PART_SIZE = 8 * 1024 * 1024;
+  private static final int DEFAULT_UPLOAD_PARALLELISM = 4;
+  private static final int DEFAULT_UPLOAD_ATTEMPTS = 3;
+  private static final long DEFAULT_COPY_THRESHOLD = 128 * 1024 * 1024;
+  private static final long DEFAULT_COPY_PART_SIZE = 64 * 1024 * 1024;
+  private static final int DEFAULT_COPY_PARALLELISM = 8;
+  private static final int DEFAULT_COPY_ATTEMPTS = 3;
+
+  private final long downloadPartSize;
+  private final int downloadParallelism;
+  private final int downloadAttempts;
+  private final long uploadPartSize;
+  private final int uploadParallelism;
+  private final int uploadAttempts;
+  private final int deleteParallelism;
+  private final int deleteAttempts;
+  private final long copyThreshold;
+  private final long copyPartSize;
+  private final int copyParallelism;
+  private final int copyAttempts;
+
+  S3ObjectCommands(ConfigurationProvider configurationProvider) {
+    super(configurationProvider);
+    this.downloadPartSize = configurationProvider.getLong(Constants.S3_DOWNLOAD_PART_SIZE,
+                                                          DEFAULT_DOWNLOAD_PART_SIZE);
+    this.downloadParallelism = (int) configurationProvider.getLong(
+        Constants.S3_DOWNLOAD_PARALLELISM, DEFAULT_DOWNLOAD_PARALLELISM);
+    this.downloadAttempts = (int) configurationProvider.getLong(Constants.S3_DOWNLOAD_ATTEMPTS,
+                                                                DEFAULT_DOWNLOAD_ATTEMPTS);
+    this.uploadPartSize = configurationProvider.getLong(Constants.S3_UPLOAD_PART_SIZE,
+                                                        DEFAULT_UPLOAD_PART_SIZE);
+    this.uploadParallelism = (int) configurationProvider.getLong(
+        Constants.S3_UPLOAD_PARALLELISM, DEFAULT_UPLOAD_PARALLELISM);
+    this.uploadAttempts = (int) configurationProvider.getLong(Constants.S3_UPLOAD_ATTEMPTS,
+                                                              DEFAULT_UPLOAD_ATTEMPTS);
+    this.deleteParallelism = (int) configurationProvider.getLong(
+        Constants.S3_DELETE_PARALLELISM, BulkDelete.DEFAULT_PARALLELISM);
+    this.deleteAttempts = (int) configurationProvider.getLong(Constants.S3_DELETE_ATTEMPTS,
+                                                              BulkDelete.DEFAULT_ATTEMPTS);
+    this.copyThreshold = configurationProvider.getLong(Constants.S3_COPY_THRESHOLD,
+                                                       DEFAULT_COPY_THRESHOLD);
+    this.copyPartSize = configurationProvider.getLong(Constants.S3_COPY_PART_SIZE,
+                                                      DEFAULT_COPY_PART_SIZE);
+    this.copyParallelism = (int) configurationProvider.getLong(Constants.S3_COPY_PARALLELISM,
+                                                               DEFAULT_COPY_PARALLELISM);
+    this.copyAttempts = (int) configurationProvider.getLong(Constants.S3_COPY_ATTEMPTS,
+                                                            DEFAULT_COPY_ATTEMPTS);
+  }
+
+  ObjectHead.Response head(String bucket, String key) throws IOException {
+    return execute(new ObjectHead(bucket, key));
+  }
+
+  /**
+   * Opens the object for the caller to read as it arrives; the response must be closed.
+   */
+  ObjectGet.Response get(String bucket, String key) throws IOException {
+    return new ObjectGet.Response(executeForContent(new ObjectGet(bucket, key)));
+  }
+
+  /**
+   * Opens bytes {@code start} to {@code end} (inclusive; -1 for the rest) of the object, failing
+   * if {@code ifMatch} is given and the object no longer has that ETag.
+   */
+  ObjectGet.Response get(String bucket, String key, long start, long end,
+                         @Nullable String ifMatch) throws IOException {
+    return new ObjectGet.Response(
+        executeForContent(new ObjectGet(bucket, key, start, end, ifMatch)));
+  }
+
+  /**
+   * Downloads the object into the file, replacing its content.
+   *
+   * @return The number of bytes written
+   */
+  long download(String bucket, String key, Path target) throws IOException {
+    try (ObjectGet.Response response = get(bucket, key);
+         FileChannel file = FileChannel.open(target, StandardOpenOption.CREATE,
+                                             StandardOpenOption.WRITE,
+                                             StandardOpenOption.TRUNCATE_EXISTING)) {
+      long length = response.transferTo(file, 0);
+      long expected = response.getContentLength();
+      if (expected >= 0 && length != expected) {
+        throw new IOException("Downloaded " + length + " of " + expected + " bytes of " + key);
+      }
+      return length;
+    }
+  }
+
+  /**
+   * Downloads the object into the file with ranged GETs running at once, sized and retried as
+   * configured by {@link Constants#S3_DOWNLOAD_PART_SIZE}, {@link
+   * Constants#S3_DOWNLOAD_PARALLELISM} and {@link Constants#S3_DOWNLOAD_ATTEMPTS}.
+   *
+   * @return The number of bytes written
+   */
+  long downloadParallel(String bucket, String key, Path target) throws IOException {
+    return downloadParallel(bucket, key, target, this.downloadPartSize, this.downloadParallelism);
+  }
+
+  /**
+   * {@link #downloadParallel(String, String, Path)} in parts of {@code partSize} bytes, with up
+   * to {@code parallelism} at once.
+   */
+  long downloadParallel(String bucket, String key, Path target, long partSize, int parallelism)
+      throws IOException {
+    return new ParallelDownload(this, bucket, key, partSize, parallelism, this.downloadAttempts)
+        .toFile(target);
+  }
+
+  /**
+   * Opens the object as a stream fed by ranged GETs running ahead of the reader, as configured
+   * for {@link #downloadParallel(String, String, Path)}.  The stream must be closed.
+   */
+  InputStream openParallel(String bucket, String key) throws IOException {
+    return openParallel(bucket, key, this.downloadPartSize, this.downloadParallelism);
+  }
+
+  /**
+   * {@link #openParallel(String, String)} in parts of {@code partSize} bytes, with up to {@code
+   * parallelism} at once and held in memory.
+   */
+  InputStream openParallel(String bucket, String key, long partSize, int parallelism)
+      throws IOException {
+    return new ParallelDownload(this, bucket, key, partSize, parallelism, this.downloadAttempts)
+        .toStream();
+  }
+
+  /**
+   * Uploads the body as the object in a single request.
+   */
+  ObjectPut.Response put(String bucket, String key, RequestBody body,
+                         @Nullable String contentType) throws IOException {
+    return execute(new ObjectPut(bucket, key, body, contentType));
+  }
+
+  MultipartUploadCreate.Response createMultipartUpload(String bucket, String key,
+                                                       @Nullable String contentType)
+      throws IOException {
+    return execute(new MultipartUploadCreate(bucket, key, contentType));
+  }
+
+  /**
+   * Starts a multipart upload of an object that is to have the user metadata, by name without
+   * the {@code x-amz-meta-} prefix.
+   */
+  MultipartUploadCreate.Response createMultipartUpload(String bucket, String key,
+                                                       @Nullable String contentType,
+                                                       Map<String, String> userMetadata)
+      throws IOException {
+    return execute(new MultipartUploadCreate(bucket, key, contentType, userMetadata));
+  }
+
+  MultipartUploadPart.Response uploadPart(String bucket, String key, String uploadId,
+                                          int partNumber, RequestBody body) throws IOException {
+    return execute(new MultipartUploadPart(bucket, key, uploadId, partNumber, body));
+  }
+
+  /**
+   * Completes the upload; S3 may still have failed it if the response has an error code.
+   */
+  MultipartUploadComplete.Response completeMultipartUpload(String bucket, String key,
+                                                           String uploadId,
+                                                           SortedMap<Integer, String> partETags)
+      throws IOException {
+    return execute(new MultipartUploadComplete(bucket, key, uploadId, partETags));
+  }
+
+  /**
+   * Lists the parts of the upload from after {@code partNumberMarker}, or from the start if it is
+   * zero.
+   */
+  MultipartUploadListParts.Response listParts(String bucket, String key, String uploadId,
+                                              int partNumberMarker) throws IOException {
+    return execute(new MultipartUploadListParts(bucket, key, uploadId, partNumberMarker));
+  }
+
+  /**
+   * Copies bytes {@code start} to {@code end} (inclusive) of the source object as the part,
+   * failing if {@code ifMatch} is given and the source no longer has that ETag.  S3 may still
+   * have failed the copy if the response has an error code.
+   */
+  ObjectCopy.Response copyPart(String sourceBucket, String sourceKey, String bucket, String key,
+                               String uploadId, int partNumber, long start, long end,
+                               @Nullable String ifMatch) throws IOException {
+    return execute(new MultipartUploadPartCopy(sourceBucket, sourceKey, bucket, key, uploadId,
+                                               partNumber, start, end, ifMatch));
+  }
+
+  EmptyRestCommandResponse abortMultipartUpload(String bucket, String key, String uploadId)
+      throws IOException {
+    return execute(new MultipartUploadAbort(bucket, key, uploadId));
+  }
+
+  /**
+   * Uploads the file as the object, in parts uploading at once if it is larger than a part, as
+   * configured by {@link Constants#S3_UPLOAD_PART_SIZE}, {@link Constants#S3_UPLOAD_PARALLELISM}
+   * and {@link Constants#S3_UPLOAD_ATTEMPTS}.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String upload(String bucket, String key, Path source, @Nullable String contentType)
+      throws IOException {
+    return upload(bucket, key, source, contentType, this.uploadPartSize, this.uploadParallelism);
+  }
+
+  /**
+   * {@link #upload(String, String, Path, String)} in parts of {@code partSize} bytes, with up to
+   * {@code parallelism} at once.
+   */
+  @Nullable
+  String upload(String bucket, String key, Path source, @Nullable String contentType,
+                long partSize, int parallelism) throws IOException {
+    return new MultipartUploader(this, bucket, key, contentType, partSize, parallelism,
+                                 this.uploadAttempts).upload(source);
+  }
+
+  /**
+   * Uploads the whole of the open file as the object as
+   * {@link #upload(String, String, Path, String)} does, leaving it open.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String upload(String bucket, String key, FileChannel source, @Nullable String contentType)
+      throws IOException {
+    return upload(bucket, key, source, contentType, this.uploadPartSize, this.uploadParallelism);
+  }
+
+  /**
+   * {@link #upload(String, String, FileChannel, String)} in parts of {@code partSize} bytes, with
+   * up to {@code parallelism} at once.
+   */
+  @Nullable
+  String upload(String bucket, String key, FileChannel source, @Nullable String contentType,
+                long partSize, int parallelism) throws IOException {
+    return new MultipartUploader(this, bucket, key, contentType, partSize, parallelism,
+                                 this.uploadAttempts).upload(source);
+  }
+
+  /**
+   * Uploads the file as the object as {@link #upload(String, String, Path, String)} does, but
+   * recording its progress in the journal so that, if it fails, calling this again with the same
+   * journal resumes it, uploading only the parts S3 does not already hold.  The journal is deleted
+   * once the upload is complete; a failed upload is left in progress rather than aborted.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String uploadResumable(String bucket, String key, Path source, Path journal,
+                         @Nullable String contentType) throws IOException {
+    return uploadResumable(bucket, key, source, journal, contentType, this.uploadPartSize,
+                           this.uploadParallelism);
+  }
+
+  /**
+   * {@link #uploadResumable(String, String, Path, Path, String)} in parts of {@code partSize}
+   * bytes, unless resuming an upload already split into parts, with up to {@code parallelism} at
+   * once.
+   */
+  @Nullable
+  String uploadResumable(String bucket, String key, Path source, Path journal,
+                         @Nullable String contentType, long partSize, int parallelism)
+      throws IOException {
+    try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+      return new MultipartUploader(this, bucket, key, contentType, partSize, parallelism,
+                                   this.uploadAttempts).upload(file, journal);
+    }
+  }
+
+  /**
+   * Uploads the rest of the stream as the object as {@link #upload(String, String, Path, String)}
+   * does, holding up to the parallelism's worth of parts in memory; the stream is not closed.
+   *
+   * @return The ETag of the object
+   */
+  @Nullable
+  String upload(String bucket, String key, InputStream source, @Nullable String contentType)
+      throws IOException {
+    return upload(bucket, key, source, contentType, this.uploadPartSize, this.uploadParallelism);
+  }
+
+  /**
+   * {@link #upload(String, String, InputStream, String)} in parts of {@code partSize} bytes, with
+   * up to {@code parallelism} at once.
+   */
+  @Nullable
+  String upload(String bucket, String key, InputStream source, @Nullable String contentType,
+                long partSize, int parallelism) throws IOException {
+    return new MultipartUploader(this, bucket, key, contentType, partSize, parallelism,
+                                 this.uploadAttempts).upload(source);
+  }
+
+  /**
+   * Copies the source object in a single request of up to {@link ObjectCopy#MAX_LENGTH} bytes,
+   * failing if {@code ifMatch} is given and the source no longer has that ETag.  S3 may still have
+   * failed the copy if the response has an error code.
+   */
+  ObjectCopy.Response copyObject(String sourceBucket, String sourceKey, String bucket, String key,
+                                 @Nullable String ifMatch) throws IOException {
+    return execute(new ObjectCopy(sourceBucket, sourceKey, bucket, key, ifMatch));
+  }
+
+  /**
+   * Copies the source object within S3, in parts copying at once if it is larger than the
+   * threshold, as configured by {@link Constants#S3_COPY_THRESHOLD}, {@link
+   * Constants#S3_COPY_PART_SIZE}, {@link Constants#S3_COPY_PARALLELISM} and {@link
+   * Constants#S3_COPY_ATTEMPTS}.
+   *
+   * @return The ETag of the copy
+   */
+  @Nullable
+  String copy(String sourceBucket, String sourceKey, String bucket, String key)
+      throws IOException {
+    return copy(sourceBucket, sourceKey, bucket, key, this.copyThreshold, this.copyPartSize,
+                this.copyParallelism);
+  }
+
+  /**
+   * {@link #copy(String, String, String, String)} in parts of {@code partSize} bytes, with up to
+   * {@code parallelism} at once, for objects larger than {@code threshold} bytes.
+   */
+  @Nullable
+  String copy(String sourceBucket, String sourceKey, String bucket, String key, long threshold,
+              long partSize, int parallelism) throws IOException {
+    return new MultipartCopier(this, sourceBucket, sourceKey, bucket, key, threshold, partSize,
+                               parallelism, this.copyAttempts).copy();
+  }
+
+  /**
+   * Copies the source object as {@link #copy(String, String, String, String)} does, then deletes
+   * it.  If it cannot be deleted, the copy is left in place and the failure thrown.
+   *
+   * @return The ETag of the moved object
+   */
+  @Nullable
+  String move(String sourceBucket, String sourceKey, String bucket, String key)
+      throws IOException {
+    String etag = copy(sourceBucket, sourceKey, bucket, key);
+    if (sourceBucket.equals(bucket) && sourceKey.equals(key)) {
+      return etag;
+    }
+    ObjectsDelete.Response response = deleteObjects(sourceBucket,
+                                                    Collections.singletonList(sourceKey), true);
+    if (!response.getFailures().isEmpty()) {
+      throw new IOException("Copied " + sourceKey + " to " + key + " but failed to delete it: " +
+                            response.getFailures().get(0));
+    }
+    return etag;
+  }
+
+  /**
+   * Deletes up to {@link ObjectsDelete#MAX_KEYS} objects; keys that fail are listed in the
+   * response rather than failing it.  In quiet mode only those keys are listed.
+   */
+  ObjectsDelete.Response deleteObjects(String bucket, Collection<String> keys, boolean quiet)
+      throws IOException {
+    return execute(new ObjectsDelete(bucket, keys, quiet));
+  }
+
+  /**
+   * Deletes every key the iterator gives in batches, with several batches at once, as configured
+   * by {@link Constants#S3_DELETE_PARALLELISM} and {@link Constants#S3_DELETE_ATTEMPTS}.
+   *
+   * @return The number of keys deleted and the keys that failed
+   */
+  BulkDelete.Result deleteAll(String bucket, Iterator<String> keys) throws IOException {
+    return deleteAll(bucket, keys, this.deleteParallelism);
+  }
+
+  /**
+   * {@link #deleteAll(String, Iterator)} with up to {@code parallelism} batches at once.
+   */
+  BulkDelete.Result deleteAll(String bucket, Iterator<String> keys, int parallelism)
+      throws IOException {
+    return new BulkDelete((bucketName, batch) -> deleteObjects(bucketName, batch, true), bucket,
+                          parallelism, this.deleteAttempts).delete(keys);
+  }
+}
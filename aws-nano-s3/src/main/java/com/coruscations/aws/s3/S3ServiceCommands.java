@@ -20,6 +20,7 @@ package com.coruscations.aws.s3;
 import com.coruscations.aws.ConfigurationProvider;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 class S3ServiceCommands extends S3Commands {
@@ -33,4 +34,8 @@ class S3ServiceCommands extends S3Commands {
   BucketsGet.Response listBuckets() throws IOException {
     return execute(new BucketsGet());
   }
+
+  CompletableFuture<BucketsGet.Response> listBucketsAsync() {
+    return executeAsync(new BucketsGet());
+  }
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A local record of a multipart upload of a file and of the parts uploaded to it, from which the
+ * upload can be resumed after the process uploading it has died.
+ * <p>
+ * The journal is a text file of one line for the upload:
+ * <pre>
+ * aws-nano-s3-upload 1 &lt;upload id&gt; &lt;length&gt; &lt;part size&gt; &lt;bucket&gt; &lt;key&gt;
+ * </pre>
+ * followed by a line for each part as it finishes uploading:
+ * <pre>
+ * &lt;part number&gt; &lt;start&gt; &lt;count&gt; &lt;CRC-32 of the part&gt; &lt;ETag&gt;
+ * </pre>
+ * with the fields separated by tabs and the strings URL encoded.  Each line is forced to disk
+ * before the part counts as uploaded, so a crash can only lose the line being written, which is
+ * then ignored; the part it was for is uploaded again.
+ */
+@ParametersAreNonnullByDefault
+final class UploadJournal implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(UploadJournal.class.getName());
+
+  private static final String MAGIC = "aws-nano-s3-upload";
+  private static final String VERSION = "1";
+  private static final int CHECKSUM_CHUNK_SIZE = 64 * 1024 * 1024;
+
+  private final Path path;
+  private final FileChannel channel;
+  private final String bucketName;
+  private final String objectKey;
+  private final String uploadId;
+  private final long length;
+  private final long partSize;
+  private final Map<Integer, Part> parts;
+
+  private UploadJournal(Path path, FileChannel channel, String bucketName, String objectKey,
+                        String uploadId, long length, long partSize, Map<Integer, Part> parts) {
+    this.path = path;
+    this.channel = channel;
+    this.bucketName = bucketName;
+    this.objectKey = objectKey;
+    this.uploadId = uploadId;
+    this.length = length;
+    this.partSize = partSize;
+    this.parts = parts;
+  }
+
+  /**
+   * Starts a journal for a new upload, replacing any journal already at the path.
+   */
+  static UploadJournal create(Path path, String bucketName, String objectKey, String uploadId,
+                              long length, long partSize) throws IOException {
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                           StandardOpenOption.WRITE,
+                                           StandardOpenOption.TRUNCATE_EXISTING);
+    UploadJournal journal = new UploadJournal(path, channel, bucketName, objectKey, uploadId,
+                                              length, partSize, Collections.emptyMap());
+    try {
+      journal.append(MAGIC + '\t' + VERSION + '\t' + encode(uploadId) + '\t' + length + '\t' +
+                     partSize + '\t' + encode(bucketName) + '\t' + encode(objectKey));
+    } catch (IOException e) {
+      journal.close();
+      throw e;
+    }
+    return journal;
+  }
+
+  /**
+   * Opens the journal at the path to record more parts of its upload.
+   *
+   * @return The journal, or null if there is none or it cannot be read
+   */
+  @Nullable
+  static UploadJournal open(Path path) throws IOException {
+    byte[] content;
+    try {
+      content = Files.readAllBytes(path);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    // A line without its end was being written when the journal was last closed
+    int end = content.length;
+    while (end > 0 && content[end - 1] != '\n') {
+      end--;
+    }
+    String[] lines = new String(content, 0, end, StandardCharsets.UTF_8).split("\n");
+    String[] header = lines[0].split("\t", -1);
+    String bucketName;
+    String objectKey;
+    String uploadId;
+    long length;
+    long partSize;
+    try {
+      if (header.length != 7 || !MAGIC.equals(header[0]) || !VERSION.equals(header[1])) {
+        throw new IllegalArgumentException("Not an upload journal");
+      }
+      uploadId = decode(header[2]);
+      length = Long.parseLong(header[3]);
+      partSize = Long.parseLong(header[4]);
+      bucketName = decode(header[5]);
+      objectKey = decode(header[6]);
+    } catch (IllegalArgumentException e) {
+      LOG.log(Level.WARNING, "Ignoring unreadable upload journal " + path, e);
+      return null;
+    }
+    Map<Integer, Part> parts = new HashMap<>();
+    for (int i = 1; i < lines.length; i++) {
+      String[] fields = lines[i].split("\t", -1);
+      try {
+        if (fields.length != 5) {
+          throw new IllegalArgumentException(fields.length + " fields");
+        }
+        Part part = new Part(Integer.parseInt(fields[0]), Long.parseLong(fields[1]),
+                             Long.parseLong(fields[2]), Long.parseLong(fields[3], 16),
+                             decode(fields[4]));
+        parts.put(part.getPartNumber(), part);
+      } catch (IllegalArgumentException e) {
+        LOG.log(Level.WARNING, "Ignoring line " + i + " of upload journal " + path, e);
+      }
+    }
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                                           StandardOpenOption.APPEND);
+    if (end < content.length) {
+      // Otherwise the next line recorded would run on from the one cut off
+      try {
+        channel.truncate(end);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    }
+    return new UploadJournal(path, channel, bucketName, objectKey, uploadId, length, partSize,
+                             parts);
+  }
+
+  String getBucketName() {
+    return this.bucketName;
+  }
+
+  String getObjectKey() {
+    return this.objectKey;
+  }
+
+  String getUploadId() {
+    return this.uploadId;
+  }
+
+  /**
+   * @return The length of the file being uploaded
+   */
+  long getLength() {
+    return this.length;
+  }
+
+  long getPartSize() {
+    return this.partSize;
+  }
+
+  /**
+   * @return The parts recorded when the journal was opened, by part number
+   */
+  Map<Integer, Part> getParts() {
+    return this.parts;
+  }
+
+  /**
+   * Records an uploaded part, once it is on disk.
+   */
+  synchronized void record(Part part) throws IOException {
+    append(part.getPartNumber() + "\t" + part.getStart() + '\t' + part.getCount() + '\t' +
+           Long.toHexString(part.getChecksum()) + '\t' + encode(part.getETag()));
+  }
+
+  private void append(String line) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap((line + '\n').getBytes(StandardCharsets.UTF_8));
+    while (buffer.hasRemaining()) {
+      this.channel.write(buffer);
+    }
+    this.channel.force(false);
+  }
+
+  /**
+   * Closes and deletes the journal, once its upload has finished.
+   */
+  void delete() throws IOException {
+    close();
+    Files.deleteIfExists(this.path);
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * @return The CRC-32 of {@code count} bytes of the file from {@code start}, read from mappings
+   *         of the region
+   */
+  static long checksum(FileChannel file, long start, long count) throws IOException {
+    CRC32 crc = new CRC32();
+    for (long offset = 0; offset < count; offset += CHECKSUM_CHUNK_SIZE) {
+      crc.update(file.map(FileChannel.MapMode.READ_ONLY, start + offset,
+                          Math.min(CHECKSUM_CHUNK_SIZE, count - offset)));
+    }
+    return crc.getValue();
+  }
+
+  private static String encode(String value) throws IOException {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+  }
+
+  private static String decode(String value) throws IOException {
+    return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+  }
+
+  /**
+   * A part of the file uploaded as part of the upload.
+   */
+  static final class Part {
+
+    private final int partNumber;
+    private final long start;
+    private final long count;
+    private final long checksum;
+    private final String etag;
+
+    Part(int partNumber, long start, long count, long checksum, String etag) {
+      this.partNumber = partNumber;
+      this.start = start;
+      this.count = count;
+      this.checksum = checksum;
+      this.etag = etag;
+    }
+
+    int getPartNumber() {
+      return this.partNumber;
+    }
+
+    long getStart() {
+      return this.start;
+    }
+
+    long getCount() {
+      return this.count;
+    }
+
+    /**
+     * @return The CRC-32 of the part's bytes when they were uploaded
+     */
+    long getChecksum() {
+      return this.checksum;
+    }
+
+    String getETag() {
+      return this.etag;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Element text left as UTF-8 bytes in a response body until it is asked for.  Escaped text must
+ * only contain the entities {@link #unescape} understands; the scanner checks this up front.
+ * <p>
+ * Holding one of these keeps the whole body it was read from reachable.
+ */
+@ParametersAreNonnullByDefault
+final class Utf8Text {
+
+  private final byte[] bytes;
+  private final int offset;
+  private final int length;
+  private final boolean escaped;
+
+  Utf8Text(byte[] bytes, int offset, int length, boolean escaped) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.length = length;
+    this.escaped = escaped;
+  }
+
+  @Nonnull
+  @Override
+  public String toString() {
+    String raw = new String(this.bytes, this.offset, this.length, StandardCharsets.UTF_8);
+    return this.escaped ? unescape(raw) : raw;
+  }
+
+  /**
+   * Replaces the predefined XML entities and character references.
+   *
+   * @throws IllegalArgumentException for any other entity
+   */
+  static String unescape(String text) {
+    int amp = text.indexOf('&');
+    if (amp < 0) {
+      return text;
+    }
+    StringBuilder sb = new StringBuilder(text.length());
+    int start = 0;
+    while (amp >= 0) {
+      int semicolon = text.indexOf(';', amp);
+      if (semicolon < 0) {
+        throw new IllegalArgumentException("Unterminated entity in: " + text);
+      }
+      sb.append(text, start, amp);
+      sb.appendCodePoint(resolve(text, amp + 1, semicolon));
+      start = semicolon + 1;
+      amp = text.indexOf('&', start);
+    }
+    return sb.append(text, start, text.length()).toString();
+  }
+
+  /**
+   * @return The code point for the entity between {@code &} and {@code ;}, or -1 if unknown
+   */
+  static int entity(CharSequence text, int start, int end) {
+    int length = end - start;
+    if (length < 2) {
+      return -1;
+    }
+    if (text.charAt(start) == '#') {
+      int radix = 10;
+      int i = start + 1;
+      if (text.charAt(i) == 'x') {
+        radix = 16;
+        i++;
+      }
+      if (i == end || end - i > 6) {
+        return -1;
+      }
+      int codePoint = 0;
+      for (; i < end; i++) {
+        int digit = Character.digit(text.charAt(i), radix);
+        if (digit < 0) {
+          return -1;
+        }
+        codePoint = codePoint * radix + digit;
+      }
+      return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+    }
+    switch (text.subSequence(start, end).toString()) {
+      case "amp":
+        return '&';
+      case "lt":
+        return '<';
+      case "gt":
+        return '>';
+      case "quot":
+        return '"';
+      case "apos":
+        return '\'';
+      default:
+        return -1;
+    }
+  }
+
+  private static int resolve(String text, int start, int end) {
+    int codePoint = entity(text, start, end);
+    if (codePoint < 0) {
+      throw new IllegalArgumentException(
+          "Unknown entity &" + text.substring(start, end) + "; in: " + text);
+    }
+    return codePoint;
+  }
+}
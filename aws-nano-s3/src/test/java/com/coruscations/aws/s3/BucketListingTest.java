@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.ConnectionPoolStats;
+import com.coruscations.aws.Constants;
+import com.coruscations.aws.ErrorResponseException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BucketListingTest {
+
+  private static final String BUCKET = "listing";
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+
+  private S3BucketCommands bucketCommands;
+
+  @Before
+  public void before() {
+    for (int i = 0; i < 25; i++) {
+      this.bucket.put(String.format("logs/%04d.log", i), "log " + i);
+    }
+    this.bucket.put("other/0000.log", "other");
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+    this.stub.handle("/missing/", exchange -> S3StubRule.respond(
+        exchange, 404, ("<Error><Code>NoSuchBucket</Code><Message>Missing</Message>" +
+                        "<BucketName>missing</BucketName></Error>")
+            .getBytes(StandardCharsets.UTF_8)));
+    this.bucketCommands = new S3BucketCommands(this.stub.getConfigurationProvider());
+  }
+
+  private List<String> logKeys() {
+    return new ArrayList<>(this.bucket.getObjects().subMap("logs/", "logs/~").keySet());
+  }
+
+  @Test
+  public void testListingFollowsPages() throws IOException {
+    List<String> listed = new ArrayList<>();
+    try (BucketListing listing = this.bucketCommands.list(BUCKET, null, "logs/", 10, 0)) {
+      while (listing.hasNext()) {
+        BucketGet.BucketItem item = listing.next();
+        Assert.assertEquals(StorageClass.STANDARD, item.getStorageClass());
+        Assert.assertEquals(this.bucket.getObjects().get(item.getKey()).length, item.getSize());
+        Assert.assertEquals("owner", item.getOwnerId());
+        listed.add(item.getKey());
+      }
+    }
+    Assert.assertEquals(logKeys(), listed);
+    Assert.assertEquals(3, this.stub.getRequestCount());
+  }
+
+  @Test
+  public void testLsParsesPage() throws IOException {
+    BucketGet.Response page = this.bucketCommands.ls(BUCKET, null, "logs/", null, null, 5);
+    Assert.assertTrue(page.isTruncated());
+    Assert.assertEquals(5, page.getMaxKeys());
+    Assert.assertEquals("logs/", page.getPrefix());
+    Assert.assertEquals(logKeys().subList(0, 5), page.getItems().stream()
+        .map(BucketGet.BucketItem::getKey).collect(Collectors.toList()));
+    Assert.assertTrue(page.getCommonPrefixes().isEmpty());
+    // Repeated owners are shared rather than copied per item
+    Assert.assertSame(page.getItems().get(0).getOwnerId(), page.getItems().get(4).getOwnerId());
+
+    BucketGet.Response delimited = this.bucketCommands.ls(BUCKET, '/', null, null, null, null);
+    Assert.assertFalse(delimited.isTruncated());
+    Assert.assertTrue(delimited.getItems().isEmpty());
+    Assert.assertEquals(Arrays.asList("logs/", "other/"), delimited.getCommonPrefixes().stream()
+        .map(BucketGet.CommonPrefix::getPrefix).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testPrefetchedListingFollowsPages() throws IOException {
+    try (Stream<BucketGet.BucketItem> stream =
+             this.bucketCommands.list(BUCKET, null, "logs/", 10, 2).stream()) {
+      Assert.assertEquals(logKeys(),
+                          stream.map(BucketGet.BucketItem::getKey).collect(Collectors.toList()));
+    }
+    Assert.assertEquals(3, this.stub.getRequestCount());
+  }
+
+  @Test
+  public void testEndOfListingIsRepeatable() throws IOException {
+    for (int prefetchPages : new int[]{0, 2}) {
+      try (BucketListing listing = this.bucketCommands.list(BUCKET, null, "other/", 10,
+                                                            prefetchPages)) {
+        Assert.assertEquals("other/0000.log", listing.next().getKey());
+        Assert.assertFalse(listing.hasNext());
+        Assert.assertFalse(listing.hasNext());
+      }
+    }
+  }
+
+  @Test
+  public void testPrefetchRequestsNextPageBeforeCurrentIsConsumed()
+      throws IOException, InterruptedException {
+    try (BucketListing listing = this.bucketCommands.list(BUCKET, null, null, 10, 1)) {
+      Assert.assertEquals("logs/0000.log", listing.next().getKey());
+      awaitRequestCount(2);
+    }
+    awaitNoLeasedConnections();
+  }
+
+  @Test
+  public void testEmptyListing() throws IOException {
+    try (Stream<BucketGet.BucketItem> stream = this.bucketCommands.stream(BUCKET, null, "none/",
+                                                                          null)) {
+      Assert.assertEquals(0, stream.count());
+    }
+    Assert.assertEquals(1, this.stub.getRequestCount());
+  }
+
+  @Test
+  public void testClosingStreamEarlyReleasesConnection() throws IOException {
+    try (Stream<BucketGet.BucketItem> stream =
+             this.bucketCommands.list(BUCKET, null, null, 10, 0).stream()) {
+      List<String> listed = stream.limit(12).map(BucketGet.BucketItem::getKey)
+          .collect(Collectors.toList());
+      Assert.assertEquals(12, listed.size());
+      Assert.assertEquals("logs/0011.log", listed.get(11));
+    }
+    Assert.assertEquals(2, this.stub.getRequestCount());
+    ConnectionPoolStats stats = this.bucketCommands.getHttpTransport().getConnectionPoolStats();
+    Assert.assertNotNull(stats);
+    Assert.assertEquals(0, stats.getLeased());
+  }
+
+  private void awaitRequestCount(int minimum) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (this.stub.getRequestCount() < minimum && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertTrue("Expected at least " + minimum + " requests",
+                      this.stub.getRequestCount() >= minimum);
+  }
+
+  private void awaitNoLeasedConnections() throws InterruptedException {
+    ConnectionPoolStats stats = this.bucketCommands.getHttpTransport().getConnectionPoolStats();
+    long deadline = System.currentTimeMillis() + 5000;
+    while (stats.getLeased() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+      stats = this.bucketCommands.getHttpTransport().getConnectionPoolStats();
+    }
+    Assert.assertEquals(0, stats.getLeased());
+  }
+
+  @Test
+  public void testLsAsyncBoundsRequestsInFlight() throws InterruptedException {
+    AtomicInteger maxInFlight = handleSlowly("async");
+    S3BucketCommands commands = new S3BucketCommands(this.stub.getConfigurationProvider(
+        Collections.singletonMap(Constants.HTTP_MAX_IN_FLIGHT, 3)));
+
+    List<CompletableFuture<BucketGet.Response>> futures = new ArrayList<>();
+    for (int i = 0; i < 12; i++) {
+      futures.add(commands.lsAsync("async", null, null, null, null, null));
+    }
+    for (CompletableFuture<BucketGet.Response> future : futures) {
+      Assert.assertEquals("key", future.join().getItems().get(0).getKey());
+    }
+    Assert.assertTrue("At most 3 requests in flight", maxInFlight.get() <= 3);
+
+    try {
+      commands.lsAsync("missing", null, null, null, null, null).join();
+      Assert.fail("Listing a missing bucket should fail");
+    } catch (CompletionException e) {
+      Assert.assertTrue(e.getCause() instanceof ErrorResponseException);
+    }
+  }
+
+  @Test
+  public void testCommandsOnOneTransportShareRequestsInFlight() throws InterruptedException {
+    AtomicInteger maxInFlight = handleSlowly("shared");
+    Map<String, Integer> settings = Collections.singletonMap(Constants.HTTP_MAX_IN_FLIGHT, 2);
+    S3BucketCommands first = new S3BucketCommands(this.stub.getConfigurationProvider(settings));
+    S3BucketCommands second = new S3BucketCommands(this.stub.getConfigurationProvider(settings));
+    Assert.assertSame(first.getHttpTransport(), second.getHttpTransport());
+    Assert.assertSame(first.getAsyncExecutor(), second.getAsyncExecutor());
+
+    List<CompletableFuture<BucketGet.Response>> futures = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      futures.add(first.lsAsync("shared", null, null, null, null, null));
+      futures.add(second.lsAsync("shared", null, null, null, null, null));
+    }
+    for (CompletableFuture<BucketGet.Response> future : futures) {
+      Assert.assertEquals("key", future.join().getItems().get(0).getKey());
+    }
+    Assert.assertTrue("At most 2 requests in flight", maxInFlight.get() <= 2);
+  }
+
+  /**
+   * Serves a bucket holding one key, slowly enough for requests to overlap.
+   *
+   * @return The most requests to the bucket seen in flight at once
+   */
+  private AtomicInteger handleSlowly(String bucketName) {
+    S3StubBucket slowBucket = new S3StubBucket(bucketName);
+    slowBucket.put("key", "value");
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    this.stub.handle(slowBucket.getPath(), exchange -> {
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        Thread.sleep(20);
+        slowBucket.handle(exchange);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+    });
+    return maxInFlight;
+  }
+
+  @Test
+  public void testErrorResponse() throws IOException {
+    try (BucketListing listing = this.bucketCommands.list("missing", null, null, null)) {
+      listing.hasNext();
+      Assert.fail("Listing a missing bucket should fail");
+    } catch (UncheckedIOException e) {
+      Assert.assertTrue(e.getCause() instanceof ErrorResponseException);
+    }
+  }
+}
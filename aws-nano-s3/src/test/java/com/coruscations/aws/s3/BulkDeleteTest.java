@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.Constants;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class BulkDeleteTest {
+
+  private static final String BUCKET = "deletes";
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+
+  @Before
+  public void before() {
+    for (int i = 0; i < 2500; i++) {
+      this.bucket.put(String.format("logs/%05d", i), "log");
+    }
+    this.bucket.put("logs/a&b<c>", "escaped");
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+  }
+
+  private S3ObjectCommands objectCommands(String attempts) {
+    Map<String, Object> settings = new HashMap<>();
+    settings.put(Constants.S3_DELETE_ATTEMPTS, attempts);
+    return new S3ObjectCommands(this.stub.getConfigurationProvider(settings));
+  }
+
+  private Iterator<String> keys() {
+    return new ArrayList<>(this.bucket.getObjects().keySet()).iterator();
+  }
+
+  @Test
+  public void testDeletesInBatches() throws IOException {
+    BulkDelete.Result result = objectCommands("3").deleteAll(BUCKET, keys(), 2);
+    Assert.assertEquals(2501, result.getDeleted());
+    Assert.assertEquals(Collections.emptyList(), result.getFailures());
+    Assert.assertTrue(this.bucket.getObjects().isEmpty());
+    Assert.assertEquals(3, this.bucket.getDeleteRequestCount());
+  }
+
+  @Test
+  public void testDeletesWhatIsListed() throws IOException {
+    S3BucketCommands bucketCommands = new S3BucketCommands(this.stub.getConfigurationProvider());
+    try (Stream<BucketGet.BucketItem> listing = bucketCommands.stream(BUCKET, null, "logs/01",
+                                                                       null)) {
+      BulkDelete.Result result = objectCommands("3").deleteAll(
+          BUCKET, listing.map(BucketGet.BucketItem::getKey).iterator());
+      Assert.assertEquals(1000, result.getDeleted());
+    }
+    Assert.assertEquals(1501, this.bucket.getObjects().size());
+    Assert.assertEquals("logs/00999", this.bucket.getObjects().lowerKey("logs/01"));
+    Assert.assertEquals("logs/02000", this.bucket.getObjects().higherKey("logs/01"));
+  }
+
+  @Test
+  public void testReportsKeysThatFail() throws IOException {
+    this.bucket.getUndeletableKeys().add("logs/00007");
+    this.bucket.getUndeletableKeys().add("logs/a&b<c>");
+    BulkDelete.Result result = objectCommands("3").deleteAll(BUCKET, keys());
+    Assert.assertEquals(2499, result.getDeleted());
+    List<String> failed = result.getFailures().stream().map(ObjectsDelete.Failure::getKey)
+        .sorted().collect(Collectors.toList());
+    Assert.assertEquals("[logs/00007, logs/a&b<c>]", failed.toString());
+    Assert.assertEquals("AccessDenied", result.getFailures().get(0).getCode());
+    Assert.assertEquals(2, this.bucket.getObjects().size());
+  }
+
+  @Test
+  public void testRetriesFailedBatches() throws IOException {
+    this.bucket.failNextDeletes(2);
+    BulkDelete.Result result = objectCommands("3").deleteAll(BUCKET, keys(), 1);
+    Assert.assertEquals(2501, result.getDeleted());
+    Assert.assertTrue(this.bucket.getObjects().isEmpty());
+  }
+
+  @Test
+  public void testFailedBatchDoesNotStopTheRest() throws IOException {
+    this.bucket.failNextDeletes(1);
+    BulkDelete.Result result = objectCommands("1").deleteAll(BUCKET, keys(), 1);
+    Assert.assertEquals(1501, result.getDeleted());
+    Assert.assertEquals(1000, result.getFailures().size());
+    Assert.assertEquals("SlowDown", result.getFailures().get(0).getCode());
+    Assert.assertEquals("logs/00000", result.getFailures().get(0).getKey());
+    Assert.assertEquals(1000, this.bucket.getObjects().size());
+  }
+
+  @Test
+  public void testDeletePrefixReportsProgress() throws IOException {
+    S3BucketCommands bucketCommands = new S3BucketCommands(this.stub.getConfigurationProvider());
+    List<Long> progress = new ArrayList<>();
+    BulkDelete.Result result = bucketCommands.deletePrefix(
+        BUCKET, "logs/0", running -> progress.add(running.getDeleted()));
+    Assert.assertEquals(2500, result.getDeleted());
+    Assert.assertEquals(3, result.getBatches());
+    Assert.assertEquals(3, progress.size());
+    Assert.assertEquals(2500L, (long) progress.get(2));
+    Assert.assertTrue(result.getDeletesPerSecond() > 0);
+    Assert.assertEquals(Collections.singleton("logs/a&b<c>"), this.bucket.getObjects().keySet());
+  }
+
+  @Test
+  public void testDrainAndRemove() throws IOException {
+    S3ObjectCommands objectCommands = objectCommands("3");
+    for (String key : new String[]{"uploads/a", "uploads/b", "uploads/b", "uploads/c"}) {
+      objectCommands.createMultipartUpload(BUCKET, key, null);
+    }
+    this.bucket.setMaxUploads(3);
+    S3BucketCommands bucketCommands = new S3BucketCommands(this.stub.getConfigurationProvider());
+    BulkDelete.Result result = bucketCommands.drainAndRemove(BUCKET, null);
+    Assert.assertEquals(2501, result.getDeleted());
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+    Assert.assertTrue(this.bucket.isRemoved());
+  }
+
+  @Test
+  public void testDrainLeavesBucketWithObjectsThatFail() throws IOException {
+    this.bucket.getUndeletableKeys().add("logs/01234");
+    objectCommands("3").createMultipartUpload(BUCKET, "uploads/a", null);
+    S3BucketCommands bucketCommands = new S3BucketCommands(this.stub.getConfigurationProvider());
+    try {
+      bucketCommands.drainAndRemove(BUCKET, null);
+      Assert.fail("Expected the drain to fail");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("logs/01234"));
+    }
+    Assert.assertEquals(Collections.singleton("logs/01234"), this.bucket.getObjects().keySet());
+    Assert.assertEquals(1, this.bucket.getUploads().size());
+    Assert.assertFalse(this.bucket.isRemoved());
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.Parser;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+public class ListBucketResultScannerTest {
+
+  private static final Map<String, List<String>> HEADERS = Collections.emptyMap();
+
+  private static final String PAGE =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+      "<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">" +
+      "<Name>bucket</Name><Prefix>photos/</Prefix><Marker></Marker>" +
+      "<NextMarker>photos/b&amp;w.jpg</NextMarker><MaxKeys>2</MaxKeys>" +
+      "<Delimiter>/</Delimiter><IsTruncated>true</IsTruncated>\n" +
+      "  <Contents>\n" +
+      "    <Key>photos/été.jpg</Key>\n" +
+      "    <LastModified>2016-09-05T12:30:00.000Z</LastModified>\n" +
+      "    <ETag>&quot;828ef3fdfa96f00ad9f27c383fc9ac7f&quot;</ETag>\n" +
+      "    <Size>434234</Size>\n" +
+      "    <Owner><ID>owner-id</ID><DisplayName>owner</DisplayName></Owner>\n" +
+      "    <StorageClass>STANDARD</StorageClass>\n" +
+      "  </Contents>\n" +
+      "  <Contents>" +
+      "<Key>photos/b&amp;w&#x1F600;.jpg</Key>" +
+      "<LastModified>2016-09-05T12:30:00+02:00</LastModified>" +
+      "<ETag>&quot;eb0fb2eb8e0f9d4b8a7d4a3c0b6e1f5a-2&quot;</ETag>" +
+      "<Size>0</Size>" +
+      "<Owner><ID>owner-id</ID><DisplayName>owner</DisplayName></Owner>" +
+      "<StorageClass>GLACIER</StorageClass>" +
+      "<ChecksumAlgorithm>CRC32</ChecksumAlgorithm>" +
+      "</Contents>" +
+      "<CommonPrefixes><Prefix>photos/2016/</Prefix></CommonPrefixes>" +
+      "</ListBucketResult>";
+
+  private final XMLInputFactory xmlInputFactory = XMLInputFactory.newFactory();
+  private final ListBucketResultScanner scanner =
+      new ListBucketResultScanner(BucketGet.getCursorParser());
+
+  @Test
+  public void testScanMatchesStax() throws IOException, XMLStreamException {
+    BucketGet.Response scanned = scan(PAGE, StandardCharsets.UTF_8);
+    assertSameResponse(stax(PAGE, StandardCharsets.UTF_8), scanned);
+
+    Assert.assertEquals("photos/b&w.jpg", scanned.getNextMarker());
+    Assert.assertEquals(2, scanned.getMaxKeys());
+    Assert.assertTrue(scanned.isTruncated());
+    BucketGet.BucketItem first = scanned.getItems().get(0);
+    BucketGet.BucketItem second = scanned.getItems().get(1);
+    Assert.assertEquals("photos/été.jpg", first.getKey());
+    Assert.assertEquals("\"828ef3fdfa96f00ad9f27c383fc9ac7f\"", first.geteTag());
+    Assert.assertEquals("photos/b&w😀.jpg", second.getKey());
+    Assert.assertEquals(StorageClass.GLACIER, second.getStorageClass());
+    Assert.assertSame(first.getOwnerId(), second.getOwnerId());
+  }
+
+  @Test
+  public void testUnexpectedContentFallsBackToStax() throws IOException, XMLStreamException {
+    String[] variants = {
+        PAGE.replace("<Key>photos/été.jpg</Key>", "<Key><![CDATA[photos/été.jpg]]></Key>"),
+        PAGE.replace("<Size>0</Size>", "<!-- empty --><Size>0</Size>"),
+        PAGE.replace("<Name>bucket</Name>", "<Name>bu&#13;cket</Name>"),
+        PAGE.replace("<Name>bucket</Name>", "<Name>bucket\r\nname</Name>"),
+        PAGE.replace("<Size>434234</Size>", "<Size>+434234</Size>"),
+        PAGE.replace("<ListBucketResult ", "<!DOCTYPE ListBucketResult><ListBucketResult "),
+        PAGE.replace("<ID>owner-id</ID>", "<s3:ID xmlns:s3=\"urn:x\">owner-id</s3:ID>")
+    };
+    for (String variant : variants) {
+      assertSameResponse(stax(variant, StandardCharsets.UTF_8),
+                         scan(variant, StandardCharsets.UTF_8));
+    }
+
+    String latin1 = PAGE.replace("encoding=\"UTF-8\"", "encoding=\"ISO-8859-1\"");
+    BucketGet.Response scanned = scan(latin1, StandardCharsets.ISO_8859_1);
+    assertSameResponse(stax(latin1, StandardCharsets.ISO_8859_1), scanned);
+    Assert.assertEquals("photos/été.jpg", scanned.getItems().get(0).getKey());
+  }
+
+  @Test
+  public void testEventReaderMatchesStax() throws XMLStreamException {
+    String[] variants = {
+        PAGE,
+        PAGE.replace("<Key>photos/été.jpg</Key>", "<Key><![CDATA[photos/été.jpg]]></Key>"),
+        PAGE.replace("<Size>0</Size>", "<!-- empty --><Size>0</Size>")
+    };
+    // Cursor parsers still honour the plain Parser contract
+    Parser<BucketGet.Response> parser = BucketGet.getCursorParser();
+    for (String variant : variants) {
+      XMLEventReader reader = this.xmlInputFactory.createXMLEventReader(
+          new ByteArrayInputStream(variant.getBytes(StandardCharsets.UTF_8)), "UTF-8");
+      try {
+        assertSameResponse(stax(variant, StandardCharsets.UTF_8),
+                           parser.parse(200, HEADERS, reader));
+      } finally {
+        reader.close();
+      }
+    }
+  }
+
+  @Test(expected = XMLStreamException.class)
+  public void testMalformedBodyFailsLikeStax() throws IOException, XMLStreamException {
+    scan(PAGE.substring(0, PAGE.length() - 5), StandardCharsets.UTF_8);
+  }
+
+  private BucketGet.Response scan(String body, Charset charset)
+      throws IOException, XMLStreamException {
+    ByteArrayInputStream is = new ByteArrayInputStream(body.getBytes(charset));
+    return this.scanner.parseStream(200, HEADERS, is, charset, this.xmlInputFactory);
+  }
+
+  private BucketGet.Response stax(String body, Charset charset) throws XMLStreamException {
+    XMLStreamReader reader = this.xmlInputFactory.createXMLStreamReader(
+        new ByteArrayInputStream(body.getBytes(charset)), charset.name());
+    try {
+      return BucketGet.getCursorParser().parseCursor(200, HEADERS, reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static void assertSameResponse(BucketGet.Response expected,
+                                         BucketGet.Response actual) {
+    Assert.assertEquals(expected.getName(), actual.getName());
+    Assert.assertEquals(expected.getPrefix(), actual.getPrefix());
+    Assert.assertEquals(expected.getDelimiter(), actual.getDelimiter());
+    Assert.assertEquals(expected.getEncodingType(), actual.getEncodingType());
+    Assert.assertEquals(expected.getMarker(), actual.getMarker());
+    Assert.assertEquals(expected.getNextMarker(), actual.getNextMarker());
+    Assert.assertEquals(expected.getMaxKeys(), actual.getMaxKeys());
+    Assert.assertEquals(expected.isTruncated(), actual.isTruncated());
+    Assert.assertEquals(expected.getItems(), actual.getItems());
+    Assert.assertEquals(expected.getCommonPrefixes(), actual.getCommonPrefixes());
+  }
+}
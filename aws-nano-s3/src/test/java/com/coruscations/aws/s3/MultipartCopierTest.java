@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.Constants;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(Parameterized.class)
+public class MultipartCopierTest {
+
+  private static final String SOURCE_BUCKET = "originals";
+  private static final String BUCKET = "copies";
+  private static final String KEY = "data/large + small.bin";
+  private static final int PART_SIZE = 256 * 1024;
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  private final S3StubBucket sourceBucket = new S3StubBucket(SOURCE_BUCKET);
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+  private final Map<String, Object> settings = new HashMap<>();
+  private S3ObjectCommands objectCommands;
+  private byte[] large;
+
+  public MultipartCopierTest(String transport) {
+    this.settings.put(Constants.HTTP_TRANSPORT, transport);
+    this.settings.put(Constants.S3_COPY_THRESHOLD, String.valueOf(PART_SIZE));
+    this.settings.put(Constants.S3_COPY_PART_SIZE, String.valueOf(PART_SIZE));
+    this.settings.put(Constants.S3_COPY_PARALLELISM, "4");
+    this.settings.put(Constants.S3_COPY_ATTEMPTS, "2");
+  }
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> parameters() {
+    return S3StubRule.transports();
+  }
+
+  @Before
+  public void before() {
+    this.large = S3StubRule.partsContent(PART_SIZE, 17);
+    this.sourceBucket.getObjects().put(KEY, this.large);
+    this.bucket.addCopySource(this.sourceBucket);
+    this.stub.handle(this.sourceBucket.getPath(), this.sourceBucket);
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+    this.objectCommands = this.stub.objectCommands(this.settings);
+  }
+
+  @Test
+  public void testCopyInParts() throws IOException {
+    String etag = this.objectCommands.copy(SOURCE_BUCKET, KEY, BUCKET, "copy");
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get("copy"));
+    Assert.assertTrue(etag.endsWith("-11\""));
+    Assert.assertEquals(11, this.bucket.getCopyRequestCount());
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+  }
+
+  @Test
+  public void testSmallObjectIsCopiedWhole() throws IOException {
+    byte[] small = new byte[PART_SIZE];
+    System.arraycopy(this.large, 0, small, 0, small.length);
+    this.sourceBucket.getObjects().put("small", small);
+    Assert.assertEquals(S3StubBucket.etag(small),
+                        this.objectCommands.copy(SOURCE_BUCKET, "small", BUCKET, "small"));
+    Assert.assertArrayEquals(small, this.bucket.getObjects().get("small"));
+    Assert.assertEquals(1, this.bucket.getCopyRequestCount());
+  }
+
+  @Test
+  public void testRetriesFailedCopies() throws IOException {
+    this.bucket.failNextCopies(3);
+    this.objectCommands.copy(SOURCE_BUCKET, KEY, BUCKET, KEY);
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+  }
+
+  @Test
+  public void testAbortsOnFailure() {
+    this.bucket.failNextCopies(1000);
+    try {
+      this.objectCommands.copy(SOURCE_BUCKET, KEY, BUCKET, KEY);
+      Assert.fail("Expected the copy to fail");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("InternalError"));
+    }
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+    Assert.assertFalse(this.bucket.getObjects().containsKey(KEY));
+  }
+
+  @Test
+  public void testMove() throws IOException {
+    this.objectCommands.move(SOURCE_BUCKET, KEY, BUCKET, "moved");
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get("moved"));
+    Assert.assertFalse(this.sourceBucket.getObjects().containsKey(KEY));
+    try {
+      this.objectCommands.move(SOURCE_BUCKET, KEY, BUCKET, "again");
+      Assert.fail("Expected the move to fail");
+    } catch (IOException e) {
+      Assert.assertFalse(this.bucket.getObjects().containsKey("again"));
+    }
+  }
+
+  @Test
+  public void testMoveOntoItselfKeepsObject() throws IOException {
+    this.objectCommands.move(SOURCE_BUCKET, KEY, SOURCE_BUCKET, KEY);
+    Assert.assertArrayEquals(this.large, this.sourceBucket.getObjects().get(KEY));
+    Assert.assertEquals(0, this.sourceBucket.getCopyRequestCount());
+  }
+}
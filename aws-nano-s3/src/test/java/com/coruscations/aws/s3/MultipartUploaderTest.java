@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.Constants;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(Parameterized.class)
+public class MultipartUploaderTest {
+
+  private static final String BUCKET = "uploads";
+  private static final String KEY = "data/large.bin";
+  private static final int PART_SIZE = 256 * 1024;
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+  private final Map<String, Object> settings = new HashMap<>();
+  private S3ObjectCommands objectCommands;
+  private byte[] large;
+
+  public MultipartUploaderTest(String transport) {
+    this.settings.put(Constants.HTTP_TRANSPORT, transport);
+    this.settings.put(Constants.S3_UPLOAD_PART_SIZE, String.valueOf(PART_SIZE));
+    this.settings.put(Constants.S3_UPLOAD_PARALLELISM, "4");
+    this.settings.put(Constants.S3_UPLOAD_ATTEMPTS, "2");
+  }
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> parameters() {
+    return S3StubRule.transports();
+  }
+
+  @Before
+  public void before() {
+    this.large = S3StubRule.partsContent(PART_SIZE, 13);
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+    this.objectCommands = this.stub.objectCommands(this.settings);
+  }
+
+  @Test
+  public void testUploadFile() throws IOException {
+    Path source = this.folder.newFile().toPath();
+    Files.write(source, this.large);
+    String etag = this.objectCommands.upload(BUCKET, KEY, source, null);
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+    Assert.assertTrue(etag.endsWith("-11\""));
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+  }
+
+  @Test
+  public void testUploadOpenFile() throws IOException {
+    Path source = this.folder.newFile().toPath();
+    Files.write(source, this.large);
+    try (FileChannel file = FileChannel.open(source, StandardOpenOption.READ)) {
+        this.objectCommands.upload(BUCKET, KEY, file, null);
+      Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+      Assert.assertTrue(file.isOpen());
+    }
+  }
+
+  @Test
+  public void testUploadStream() throws IOException {
+    InputStream source = new TrickleInputStream(this.large);
+    String etag = this.objectCommands.upload(BUCKET, KEY, source, null);
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+    Assert.assertTrue(etag.endsWith("-11\""));
+  }
+
+  @Test
+  public void testSmallContentIsPut() throws IOException {
+    byte[] small = new byte[PART_SIZE];
+    System.arraycopy(this.large, 0, small, 0, small.length);
+    Path source = this.folder.newFile().toPath();
+    Files.write(source, small);
+    Assert.assertEquals(S3StubBucket.etag(small),
+                        this.objectCommands.upload(BUCKET, "small", source, "text/plain"));
+    Assert.assertArrayEquals(small, this.bucket.getObjects().get("small"));
+    Assert.assertEquals(S3StubBucket.etag(new byte[0]),
+                        this.objectCommands.upload(BUCKET, "empty",
+                                                   new ByteArrayInputStream(new byte[0]), null));
+    Assert.assertEquals(0, this.bucket.getObjects().get("empty").length);
+  }
+
+  @Test
+  public void testRetriesFailedParts() throws IOException {
+    this.bucket.failNextPuts(3);
+    this.objectCommands.upload(BUCKET, KEY, new ByteArrayInputStream(this.large), null);
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+  }
+
+  @Test
+  public void testAbortsOnFailure() throws IOException {
+    this.bucket.failNextPuts(1000);
+    Path source = this.folder.newFile().toPath();
+    Files.write(source, this.large);
+    try {
+      this.objectCommands.upload(BUCKET, KEY, source, null);
+      Assert.fail("Expected the upload to fail");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("InternalError"));
+    }
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+    Assert.assertFalse(this.bucket.getObjects().containsKey(KEY));
+  }
+
+  @Test
+  public void testAbortsWhenStreamFails() {
+    InputStream source = new FilterInputStream(new TrickleInputStream(this.large)) {
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (this.in.available() < PART_SIZE * 5) {
+          throw new IOException("Source failed");
+        }
+        return this.in.read(b, off, len);
+      }
+    };
+    try {
+      this.objectCommands.upload(BUCKET, KEY, source, null);
+      Assert.fail("Expected the upload to fail");
+    } catch (IOException e) {
+      Assert.assertEquals("Source failed", e.getMessage());
+    }
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+  }
+
+  @Test
+  public void testResumesFromJournal() throws IOException {
+    Path source = this.folder.newFile().toPath();
+    Files.write(source, this.large);
+    Path journal = this.folder.getRoot().toPath().resolve("upload.journal");
+    this.bucket.failPartsFrom(6);
+    try {
+      this.objectCommands.uploadResumable(BUCKET, KEY, source, journal, null);
+      Assert.fail("Expected the upload to fail");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("InternalError"));
+    }
+    Assert.assertEquals("Left to be resumed", 1, this.bucket.getUploads().size());
+    int journaled;
+    try (UploadJournal left = UploadJournal.open(journal)) {
+      Assert.assertNotNull(left);
+      journaled = left.getParts().size();
+    }
+    Assert.assertTrue(String.valueOf(journaled), journaled >= 4 && journaled <= 5);
+
+    this.bucket.failPartsFrom(0);
+    this.bucket.setMaxParts(2);
+    int before = this.bucket.getPartUploadCount();
+    this.objectCommands.uploadResumable(BUCKET, KEY, source, journal, null);
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+    Assert.assertEquals(11 - journaled, this.bucket.getPartUploadCount() - before);
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+    Assert.assertFalse(Files.exists(journal));
+  }
+
+  @Test
+  public void testResumeUploadsChangedPartsAgain() throws IOException {
+    Path source = this.folder.newFile().toPath();
+    Files.write(source, this.large);
+    Path journal = this.folder.getRoot().toPath().resolve("upload.journal");
+    this.bucket.failPartsFrom(6);
+    try {
+      this.objectCommands.uploadResumable(BUCKET, KEY, source, journal, null);
+      Assert.fail("Expected the upload to fail");
+    } catch (IOException e) {
+      // Left to be resumed
+    }
+    this.bucket.failPartsFrom(0);
+    // The same length, but different content in the first part
+    this.large[100]++;
+    Files.write(source, this.large);
+    this.objectCommands.uploadResumable(BUCKET, KEY, source, journal, null);
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+  }
+
+  @Test
+  public void testResumeStartsAgainWhenUploadIsGone() throws IOException {
+    Path source = this.folder.newFile().toPath();
+    Files.write(source, this.large);
+    Path journal = this.folder.getRoot().toPath().resolve("upload.journal");
+    this.bucket.failPartsFrom(6);
+    try {
+      this.objectCommands.uploadResumable(BUCKET, KEY, source, journal, null);
+      Assert.fail("Expected the upload to fail");
+    } catch (IOException e) {
+      // Left to be resumed
+    }
+    this.bucket.failPartsFrom(0);
+    this.bucket.getUploads().clear();
+    int before = this.bucket.getPartUploadCount();
+    this.objectCommands.uploadResumable(BUCKET, KEY, source, journal, null);
+    Assert.assertArrayEquals(this.large, this.bucket.getObjects().get(KEY));
+    Assert.assertEquals(11, this.bucket.getPartUploadCount() - before);
+    Assert.assertFalse(Files.exists(journal));
+  }
+
+  @Test
+  public void testTornJournalLineIsIgnored() throws IOException {
+    Path journalPath = this.folder.getRoot().toPath().resolve("torn.journal");
+    try (UploadJournal journal = UploadJournal.create(journalPath, BUCKET, "a key\twith tab",
+                                                      "upload-x", 1000, 100)) {
+      journal.record(new UploadJournal.Part(1, 0, 100, 0xcafeL, "\"etag-1\""));
+      journal.record(new UploadJournal.Part(2, 100, 100, 0xbeefL, "\"etag-2\""));
+    }
+    Files.write(journalPath, "3\t200\t10".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+    try (UploadJournal journal = UploadJournal.open(journalPath)) {
+      Assert.assertNotNull(journal);
+      Assert.assertEquals("a key\twith tab", journal.getObjectKey());
+      Assert.assertEquals("upload-x", journal.getUploadId());
+      Assert.assertEquals(1000, journal.getLength());
+      Assert.assertEquals(100, journal.getPartSize());
+      Assert.assertEquals(2, journal.getParts().size());
+      Assert.assertEquals(0xbeefL, journal.getParts().get(2).getChecksum());
+      Assert.assertEquals("\"etag-2\"", journal.getParts().get(2).getETag());
+    }
+  }
+
+  @Test
+  public void testPartRecordedAfterTornLineIsKept() throws IOException {
+    Path journalPath = this.folder.getRoot().toPath().resolve("torn.journal");
+    try (UploadJournal journal = UploadJournal.create(journalPath, BUCKET, KEY, "upload-x", 1000,
+                                                      100)) {
+      journal.record(new UploadJournal.Part(1, 0, 100, 0xcafeL, "\"etag-1\""));
+    }
+    Files.write(journalPath, "2\t100\t10".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+    try (UploadJournal journal = UploadJournal.open(journalPath)) {
+      Assert.assertNotNull(journal);
+      Assert.assertEquals(1, journal.getParts().size());
+      journal.record(new UploadJournal.Part(2, 100, 100, 0xbeefL, "\"etag-2\""));
+    }
+    try (UploadJournal journal = UploadJournal.open(journalPath)) {
+      Assert.assertNotNull(journal);
+      Assert.assertEquals(2, journal.getParts().size());
+      Assert.assertEquals(0xbeefL, journal.getParts().get(2).getChecksum());
+      Assert.assertEquals("\"etag-2\"", journal.getParts().get(2).getETag());
+    }
+  }
+
+  /**
+   * Returns at most 10000 bytes a read, as a socket might.
+   */
+  private static class TrickleInputStream extends ByteArrayInputStream {
+
+    TrickleInputStream(byte[] content) {
+      super(content);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, 10000));
+    }
+  }
+}
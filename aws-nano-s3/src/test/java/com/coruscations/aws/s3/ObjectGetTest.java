@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.Constants;
+import com.coruscations.aws.ErrorResponseException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+@RunWith(Parameterized.class)
+public class ObjectGetTest {
+
+  private static final String BUCKET = "objects";
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+  private final Map<String, String> settings;
+  private S3ObjectCommands objectCommands;
+  private byte[] large;
+
+  public ObjectGetTest(String transport) {
+    this.settings = Collections.singletonMap(Constants.HTTP_TRANSPORT, transport);
+  }
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> parameters() {
+    return S3StubRule.transports();
+  }
+
+  @Before
+  public void before() {
+    // Several times the non-blocking transport's high water mark
+    this.large = new byte[5 * 1024 * 1024 + 3];
+    new Random(7).nextBytes(this.large);
+    this.bucket.getObjects().put("data/large.bin", this.large);
+    this.bucket.put("notes/été 2016+plage.txt", "Plage");
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+    this.objectCommands = this.stub.objectCommands(this.settings);
+  }
+
+  @Test
+  public void testGetReadsContentAndHeaders() throws IOException {
+    try (ObjectGet.Response response =
+             this.objectCommands.get(BUCKET, "notes/été 2016+plage.txt")) {
+      Assert.assertEquals(200, response.getResponseCode());
+      Assert.assertEquals(5, response.getContentLength());
+      Assert.assertEquals("application/octet-stream", response.getContentType());
+      Assert.assertEquals(S3StubBucket.etag("Plage".getBytes(StandardCharsets.UTF_8)),
+                          response.getETag());
+      Assert.assertEquals(OffsetDateTime.of(2016, 9, 5, 12, 0, 0, 0, ZoneOffset.UTC),
+                          response.getLastModified());
+      Assert.assertEquals(Collections.singletonMap("origin", "stub"),
+                          response.getUserMetadata());
+      Assert.assertEquals("Plage", new String(readFully(response.getInputStream()),
+                                              StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testDownloadToFile() throws IOException {
+    Path target = this.folder.newFile().toPath();
+    Files.write(target, new byte[]{1, 2, 3});
+    Assert.assertEquals(this.large.length,
+                        this.objectCommands.download(BUCKET, "data/large.bin", target));
+    Assert.assertArrayEquals(this.large, Files.readAllBytes(target));
+  }
+
+  @Test
+  public void testTransferAtPosition() throws IOException {
+    Path target = this.folder.newFile().toPath();
+    try (FileChannel file = FileChannel.open(target, StandardOpenOption.WRITE);
+         ObjectGet.Response response =
+             this.objectCommands.get(BUCKET, "notes/été 2016+plage.txt")) {
+      Assert.assertEquals(5, response.transferTo(file, 10));
+      // The channel's own position is left alone
+      Assert.assertEquals(0, file.position());
+    }
+    byte[] written = Files.readAllBytes(target);
+    Assert.assertEquals(15, written.length);
+    Assert.assertEquals("Plage", new String(written, 10, 5, StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testChannelReadsLargeObject() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(this.large.length);
+    try (ReadableByteChannel channel =
+             this.objectCommands.get(BUCKET, "data/large.bin").getChannel()) {
+      ByteBuffer buffer = ByteBuffer.allocate(10000);
+      while (channel.read(buffer) >= 0) {
+        out.write(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+    }
+    Assert.assertArrayEquals(this.large, out.toByteArray());
+  }
+
+  @Test
+  public void testClosingEarlyReleasesConnection() throws IOException {
+    for (int i = 0; i < 3; i++) {
+      try (ObjectGet.Response response = this.objectCommands.get(BUCKET, "data/large.bin")) {
+        Assert.assertEquals(this.large[0], (byte) response.getInputStream().read());
+      }
+    }
+    try (ObjectGet.Response response = this.objectCommands.get(BUCKET, "data/large.bin")) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(this.large.length);
+      response.transferTo(Channels.newChannel(out));
+      Assert.assertArrayEquals(this.large, out.toByteArray());
+    }
+  }
+
+  @Test
+  public void testMissingObject() throws IOException {
+    try {
+      this.objectCommands.get(BUCKET, "missing").close();
+      Assert.fail("Expected an error for a missing object");
+    } catch (ErrorResponseException e) {
+      Assert.assertEquals(404, e.getErrorResponse().getResponseCode());
+      Assert.assertEquals("NoSuchKey", ((S3ErrorResponse) e.getErrorResponse()).getCode());
+    }
+  }
+
+  private static byte[] readFully(InputStream is) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = is.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class ParallelBucketListingTest {
+
+  private static final String BUCKET = "parallel";
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+
+  private S3BucketCommands bucketCommands;
+
+  @Before
+  public void before() {
+    for (String directory : Arrays.asList("a", "b", "c", "d", "e")) {
+      for (int i = 0; i < 30; i++) {
+        this.bucket.put(String.format("%s/%04d", directory, i), directory);
+      }
+      this.bucket.put(directory + ".txt", directory);
+    }
+    this.bucket.put("z", "z");
+    this.bucket.put("😀", "supplementary");
+    this.bucket.put("Ａ", "fullwidth");
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+    this.bucketCommands = new S3BucketCommands(this.stub.getConfigurationProvider());
+  }
+
+  private List<String> list(ParallelBucketListing listing) {
+    try (Stream<BucketGet.BucketItem> stream = listing.stream()) {
+      return stream.map(BucketGet.BucketItem::getKey).collect(Collectors.toList());
+    }
+  }
+
+  @Test
+  public void testOrderedDiscovery() {
+    List<String> listed =
+        list(this.bucketCommands.listParallel(BUCKET, null, '/', null, 3, true));
+    Assert.assertEquals(new ArrayList<>(this.bucket.getObjects().keySet()), listed);
+  }
+
+  @Test
+  public void testUnorderedDiscovery() {
+    List<String> listed =
+        list(this.bucketCommands.listParallel(BUCKET, null, '/', null, 3, false));
+    Collections.sort(listed, ParallelBucketListing.KEY_ORDER);
+    Assert.assertEquals(new ArrayList<>(this.bucket.getObjects().keySet()), listed);
+  }
+
+  @Test
+  public void testOrderedSplitPoints() {
+    List<String> listed = list(this.bucketCommands.listParallel(
+        BUCKET, "c/", '/', Arrays.asList("c/0020", "c/0010", "c/0010"), 2, true));
+    Assert.assertEquals(new ArrayList<>(this.bucket.getObjects().subMap("c/", "c0").keySet()),
+                        listed);
+  }
+
+  @Test
+  public void testSingleThreadedDiscovery() {
+    List<String> listed =
+        list(this.bucketCommands.listParallel(BUCKET, "b", '/', null, 1, true));
+    Assert.assertEquals(new ArrayList<>(this.bucket.getObjects().subMap("b", "c").keySet()),
+                        listed);
+  }
+
+  @Test
+  public void testKeyOrder() {
+    Assert.assertTrue(ParallelBucketListing.compareKeys("a", "b") < 0);
+    Assert.assertTrue(ParallelBucketListing.compareKeys("a", "a/") < 0);
+    // U+FF21 sorts before U+1F600 in UTF-8, though not in UTF-16
+    Assert.assertTrue("Ａ".compareTo("😀") > 0);
+    Assert.assertTrue(ParallelBucketListing.compareKeys("Ａ", "😀") < 0);
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.Constants;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+@RunWith(Parameterized.class)
+public class ParallelDownloadTest {
+
+  private static final String BUCKET = "downloads";
+  private static final String KEY = "data/large.bin";
+  private static final int PART_SIZE = 256 * 1024;
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+  private final Map<String, Object> settings = new HashMap<>();
+  private S3ObjectCommands objectCommands;
+  private byte[] large;
+
+  public ParallelDownloadTest(String transport) {
+    this.settings.put(Constants.HTTP_TRANSPORT, transport);
+    this.settings.put(Constants.S3_DOWNLOAD_PART_SIZE, String.valueOf(PART_SIZE));
+    this.settings.put(Constants.S3_DOWNLOAD_PARALLELISM, "4");
+  }
+
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> parameters() {
+    return S3StubRule.transports();
+  }
+
+  @Before
+  public void before() {
+    this.large = S3StubRule.partsContent(PART_SIZE, 11);
+    this.bucket.getObjects().put(KEY, this.large);
+    this.bucket.getObjects().put("empty", new byte[0]);
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+    this.objectCommands = this.stub.objectCommands(this.settings);
+  }
+
+  @Test
+  public void testDownloadToFile() throws IOException {
+    Path target = this.folder.newFile().toPath();
+    Files.write(target, new byte[PART_SIZE * 20]);
+    Assert.assertEquals(this.large.length,
+                        this.objectCommands.downloadParallel(BUCKET, KEY, target));
+    Assert.assertArrayEquals(this.large, Files.readAllBytes(target));
+    Assert.assertEquals(11, this.bucket.getRangeRequestCount());
+  }
+
+  @Test
+  public void testStreamInOrder() throws IOException {
+    try (InputStream is = this.objectCommands.openParallel(BUCKET, KEY)) {
+      Assert.assertArrayEquals(this.large, readFully(is));
+    }
+  }
+
+  @Test
+  public void testEmptyObject() throws IOException {
+    Path target = this.folder.newFile().toPath();
+    Files.write(target, new byte[]{1, 2, 3});
+    Assert.assertEquals(0, this.objectCommands.downloadParallel(BUCKET, "empty", target));
+    Assert.assertEquals(0, Files.size(target));
+    try (InputStream is = this.objectCommands.openParallel(BUCKET, "empty")) {
+      Assert.assertEquals(-1, is.read());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPartSizeMustFitInAnArray() throws IOException {
+    this.objectCommands.openParallel(BUCKET, KEY, Integer.MAX_VALUE + 1L, 1).close();
+  }
+
+  @Test
+  public void testRetriesFailedParts() throws IOException {
+    this.bucket.failNextGets(2);
+    Path target = this.folder.newFile().toPath();
+    Assert.assertEquals(this.large.length,
+                        this.objectCommands.downloadParallel(BUCKET, KEY, target));
+    Assert.assertArrayEquals(this.large, Files.readAllBytes(target));
+  }
+
+  @Test
+  public void testGivesUpAfterAttempts() throws IOException {
+    this.bucket.failNextGets(100);
+    Path target = this.folder.newFile().toPath();
+    S3ObjectCommands objectCommands = this.stub.objectCommands(
+        Collections.singletonMap(Constants.S3_DOWNLOAD_ATTEMPTS, "2"));
+    try {
+      objectCommands.downloadParallel(BUCKET, KEY, target, PART_SIZE, 2);
+      Assert.fail("Expected the download to fail");
+    } catch (IOException e) {
+      Assert.assertFalse(e instanceof ParallelDownload.ObjectChangedException);
+    }
+  }
+
+  @Test
+  public void testObjectChangedDuringDownload() throws IOException {
+    try (InputStream is = this.objectCommands.openParallel(BUCKET, KEY, PART_SIZE, 1)) {
+      Assert.assertEquals(this.large[0] & 0xff, is.read());
+      byte[] replaced = this.large.clone();
+      replaced[0]++;
+      this.bucket.getObjects().put(KEY, replaced);
+      readFully(is);
+      Assert.fail("Expected the download to fail");
+    } catch (ParallelDownload.ObjectChangedException e) {
+      // Replaced before the later parts were requested
+    } catch (IOException e) {
+      // A failed If-Match is not retried
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("PreconditionFailed"));
+    }
+  }
+
+  private static byte[] readFully(InputStream is) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[10000];
+    int read;
+    while ((read = is.read(buffer)) >= 0) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PartRetriesTest {
+
+  @After
+  public void after() {
+    // Leave the test thread as it was found
+    Thread.interrupted();
+  }
+
+  @Test
+  public void testRetriesUntilSuccess() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    Assert.assertEquals("done", PartRetries.run(3, "test", () -> {
+      if (calls.incrementAndGet() < 3) {
+        throw new IOException("Failed attempt " + calls.get());
+      }
+      return "done";
+    }));
+    Assert.assertEquals(3, calls.get());
+  }
+
+  @Test
+  public void testInterruptStopsRetriesAndIsKept() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    try {
+      PartRetries.run(3, "test", () -> {
+        calls.incrementAndGet();
+        Thread.currentThread().interrupt();
+        throw new IOException("Failed attempt");
+      });
+      Assert.fail("The attempt should have failed");
+    } catch (IOException e) {
+      Assert.assertEquals("Failed attempt", e.getMessage());
+    }
+    Assert.assertEquals(1, calls.get());
+    Assert.assertTrue(Thread.currentThread().isInterrupted());
+  }
+}
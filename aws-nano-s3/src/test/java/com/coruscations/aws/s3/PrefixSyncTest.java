@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.Constants;
+import com.coruscations.aws.RequestBody;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class PrefixSyncTest {
+
+  private static final String SOURCE_BUCKET = "primary";
+  private static final String BUCKET = "mirror";
+  private static final int PART_SIZE = 256 * 1024;
+
+  @Rule
+  public final S3StubRule stub = new S3StubRule();
+
+  private final S3StubBucket sourceBucket = new S3StubBucket(SOURCE_BUCKET);
+  private final S3StubBucket bucket = new S3StubBucket(BUCKET);
+  private S3BucketCommands bucketCommands;
+  private S3ObjectCommands objectCommands;
+
+  @Before
+  public void before() {
+    for (int i = 0; i < 2500; i++) {
+      this.sourceBucket.put(String.format("data/%05d", i), "record " + i);
+    }
+    this.sourceBucket.put("other", "not synced");
+    this.bucket.addCopySource(this.sourceBucket);
+    this.stub.handle(this.sourceBucket.getPath(), this.sourceBucket);
+    this.stub.handle(this.bucket.getPath(), this.bucket);
+    Map<String, Object> settings = new HashMap<>();
+    settings.put(Constants.S3_COPY_THRESHOLD, String.valueOf(PART_SIZE));
+    settings.put(Constants.S3_COPY_PART_SIZE, String.valueOf(PART_SIZE));
+    settings.put(Constants.S3_COPY_ATTEMPTS, "1");
+    settings.put(Constants.S3_SYNC_PARALLELISM, "4");
+    settings.put(Constants.S3_DELETE_ATTEMPTS, "2");
+    this.bucketCommands = new S3BucketCommands(this.stub.getConfigurationProvider(settings));
+    this.objectCommands = new S3ObjectCommands(this.stub.getConfigurationProvider(settings));
+  }
+
+  private PrefixSync.Result sync(boolean delete) throws IOException {
+    return this.bucketCommands.sync(SOURCE_BUCKET, "data/", BUCKET, "backup/data/",
+                                    this.objectCommands, delete);
+  }
+
+  @Test
+  public void testOnlyChangesAreCopied() throws IOException {
+    PrefixSync.Result result = sync(true);
+    Assert.assertEquals(2500, result.getCopied());
+    Assert.assertEquals(0, result.getUnchanged());
+    Assert.assertEquals(2500, this.bucket.getObjects().size());
+    Assert.assertArrayEquals(this.sourceBucket.getObjects().get("data/01234"),
+                             this.bucket.getObjects().get("backup/data/01234"));
+
+    this.sourceBucket.put("data/00007", "record 8");
+    this.sourceBucket.put("data/01234", "a longer record");
+    this.sourceBucket.put("data/02500", "record 2500");
+    this.sourceBucket.getObjects().remove("data/00100");
+    this.bucket.put("backup/data/extra", "no source");
+    int before = this.bucket.getCopyRequestCount();
+    result = sync(true);
+    Assert.assertEquals(3, result.getCopied());
+    Assert.assertEquals(2, result.getDeleted());
+    Assert.assertEquals(2497, result.getUnchanged());
+    Assert.assertEquals(Collections.emptyList(), result.getFailures());
+    Assert.assertEquals(3, this.bucket.getCopyRequestCount() - before);
+    Assert.assertEquals("record 8", new String(this.bucket.getObjects().get("backup/data/00007")));
+    Assert.assertFalse(this.bucket.getObjects().containsKey("backup/data/00100"));
+    Assert.assertFalse(this.bucket.getObjects().containsKey("backup/data/extra"));
+    Assert.assertEquals(2500, this.bucket.getObjects().size());
+  }
+
+  @Test
+  public void testTargetsWithoutSourceAreKept() throws IOException {
+    this.bucket.put("backup/data/extra", "no source");
+    PrefixSync.Result result = sync(false);
+    Assert.assertEquals(0, result.getDeleted());
+    Assert.assertTrue(this.bucket.getObjects().containsKey("backup/data/extra"));
+  }
+
+  @Test
+  public void testCopiesInPartsAreComparedByAge() throws IOException {
+    byte[] large = new byte[3 * PART_SIZE];
+    new Random(19).nextBytes(large);
+    this.sourceBucket.getObjects().clear();
+    this.sourceBucket.getObjects().put("data/large", large);
+    Assert.assertEquals(1, sync(true).getCopied());
+    Assert.assertTrue(this.bucket.getUploads().isEmpty());
+
+    // The copy's ETag is not an MD5, but it was made after the source was
+    PrefixSync.Result result = sync(true);
+    Assert.assertEquals(0, result.getCopied());
+    Assert.assertEquals(1, result.getUnchanged());
+
+    large[0]++;
+    this.objectCommands.put(SOURCE_BUCKET, "data/large", RequestBody.of(large), null);
+    Assert.assertEquals(1, sync(true).getCopied());
+    Assert.assertArrayEquals(large, this.bucket.getObjects().get("backup/data/large"));
+  }
+
+  @Test
+  public void testFailuresAreReported() throws IOException {
+    this.bucket.failNextCopies(10);
+    PrefixSync.Result result = sync(true);
+    Assert.assertEquals(2490, result.getCopied());
+    Assert.assertEquals(10, result.getFailures().size());
+    // Failed after a 200 status, so without an error response to take the code from
+    PrefixSync.Failure failure = result.getFailures().get(0);
+    Assert.assertFalse(failure.isDelete());
+    Assert.assertTrue(failure.getMessage(), failure.getMessage().contains("InternalError"));
+    Assert.assertEquals(2490, this.bucket.getObjects().size());
+  }
+
+  @Test
+  public void testDeleteFailuresAreReported() throws IOException {
+    sync(false);
+    this.bucket.put("backup/data/extra", "no source");
+    this.bucket.put("backup/data/kept", "no source");
+    this.bucket.getUndeletableKeys().add("backup/data/kept");
+    // Each batch is retried as a whole
+    this.bucket.failNextDeletes(1);
+    int before = this.bucket.getDeleteRequestCount();
+    PrefixSync.Result result = sync(true);
+    Assert.assertEquals(1, result.getDeleted());
+    Assert.assertEquals(2500, result.getUnchanged());
+    Assert.assertEquals(2, this.bucket.getDeleteRequestCount() - before);
+    Assert.assertEquals(1, result.getFailures().size());
+    PrefixSync.Failure failure = result.getFailures().get(0);
+    Assert.assertTrue(failure.isDelete());
+    Assert.assertEquals("backup/data/kept", failure.getKey());
+    Assert.assertEquals("AccessDenied", failure.getCode());
+    Assert.assertFalse(this.bucket.getObjects().containsKey("backup/data/extra"));
+
+    // A batch that fails every attempt fails for each of its keys
+    this.bucket.failNextDeletes(2);
+    result = sync(true);
+    Assert.assertEquals(0, result.getDeleted());
+    Assert.assertEquals(1, result.getFailures().size());
+    Assert.assertEquals("SlowDown", result.getFailures().get(0).getCode());
+  }
+}
@@ -0,0 +1,669 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.HttpHeaders;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
+
+/**
+ * An in-memory bucket for {@link S3StubRule}, holding objects in S3 key order and answering
+ * ListObjects (v1) requests with the same paging behaviour as S3, object GETs and HEADs,
+ * including single ranges and {@code If-Match}, object PUTs and multipart uploads, with their
+ * parts listed, multi-object deletes, listing multipart uploads and removing the bucket once
+ * it is empty.  Objects and ranges of them can be copied as objects and parts, from this bucket
+ * or from others {@link #addCopySource added} as sources.
+ */
+public class S3StubBucket implements HttpHandler {
+
+  static final String LAST_MODIFIED = "Mon, 05 Sep 2016 12:00:00 GMT";
+  private static final Instant LISTED_MODIFIED = Instant.parse("2016-09-05T12:00:00Z");
+  private static final DateTimeFormatter LISTED_MODIFIED_FORMATTER =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+  private final String name;
+  private final NavigableMap<String, byte[]> objects =
+      new ConcurrentSkipListMap<>(ParallelBucketListing.KEY_ORDER);
+  private final AtomicInteger failures = new AtomicInteger();
+  private final AtomicInteger rangeRequests = new AtomicInteger();
+  private final AtomicInteger putFailures = new AtomicInteger();
+  private final AtomicInteger uploadIds = new AtomicInteger();
+  private final AtomicInteger partUploads = new AtomicInteger();
+  private final AtomicInteger failPartsFrom = new AtomicInteger();
+  private volatile int maxParts = 1000;
+  private final AtomicInteger deleteRequests = new AtomicInteger();
+  private final AtomicInteger deleteFailures = new AtomicInteger();
+  private final Set<String> undeletableKeys = ConcurrentHashMap.newKeySet();
+  private final Map<String, SortedMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+  private final Map<String, String> uploadKeys = new ConcurrentHashMap<>();
+  private volatile int maxUploads = 1000;
+  private volatile boolean removed;
+  private final Map<String, S3StubBucket> copySources = new ConcurrentHashMap<>();
+  private final AtomicInteger copyRequests = new AtomicInteger();
+  private final AtomicInteger copyFailures = new AtomicInteger();
+  private final Map<String, Instant> modified = new ConcurrentHashMap<>();
+  private final AtomicInteger writes = new AtomicInteger();
+
+  public S3StubBucket(String name) {
+    this.name = name;
+    this.copySources.put(name, this);
+  }
+
+  public String getPath() {
+    return "/" + this.name + "/";
+  }
+
+  public NavigableMap<String, byte[]> getObjects() {
+    return this.objects;
+  }
+
+  public void put(String key, String content) {
+    this.objects.put(key, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Answer the next object GETs with 500 Internal Error.
+   */
+  public void failNextGets(int count) {
+    this.failures.set(count);
+  }
+
+  /**
+   * Answer the next object and part PUTs with 500 Internal Error.
+   */
+  public void failNextPuts(int count) {
+    this.putFailures.set(count);
+  }
+
+  /**
+   * Answer PUTs of parts numbered {@code partNumber} or above with 500 Internal Error, or stop
+   * doing so if it is zero.
+   */
+  public void failPartsFrom(int partNumber) {
+    this.failPartsFrom.set(partNumber);
+  }
+
+  /**
+   * Answer the next multi-object deletes with 503 Slow Down.
+   */
+  public void failNextDeletes(int count) {
+    this.deleteFailures.set(count);
+  }
+
+  /**
+   * @return The keys multi-object deletes fail to delete with Access Denied
+   */
+  public Set<String> getUndeletableKeys() {
+    return this.undeletableKeys;
+  }
+
+  public int getDeleteRequestCount() {
+    return this.deleteRequests.get();
+  }
+
+  /**
+   * List multipart uploads a page of {@code maxUploads} at a time.
+   */
+  public void setMaxUploads(int maxUploads) {
+    this.maxUploads = maxUploads;
+  }
+
+  /**
+   * @return Whether the bucket has been deleted; it goes on answering requests regardless
+   */
+  public boolean isRemoved() {
+    return this.removed;
+  }
+
+  /**
+   * List parts a page of {@code maxParts} at a time.
+   */
+  public void setMaxParts(int maxParts) {
+    this.maxParts = maxParts;
+  }
+
+  /**
+   * @return The number of part PUTs made, including those failed
+   */
+  public int getPartUploadCount() {
+    return this.partUploads.get();
+  }
+
+  /**
+   * @return The parts uploaded to each multipart upload in progress, by upload id
+   */
+  public Map<String, SortedMap<Integer, byte[]>> getUploads() {
+    return this.uploads;
+  }
+
+  /**
+   * Allow objects in the bucket to be copied into this one.
+   */
+  public void addCopySource(S3StubBucket source) {
+    this.copySources.put(source.name, source);
+  }
+
+  /**
+   * Answer the next object and part copies with 200 OK but an Internal Error document, as S3 may
+   * once it has started copying.
+   */
+  public void failNextCopies(int count) {
+    this.copyFailures.set(count);
+  }
+
+  /**
+   * @return The number of object and part copies made, including those failed
+   */
+  public int getCopyRequestCount() {
+    return this.copyRequests.get();
+  }
+
+  public int getRangeRequestCount() {
+    return this.rangeRequests.get();
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    String key = exchange.getRequestURI().getPath().substring(getPath().length());
+    String method = exchange.getRequestMethod();
+    Map<String, String> parameters = S3StubRule.getQueryParameters(exchange);
+    String uploadId = parameters.get("uploadId");
+    if (key.isEmpty() && "GET".equals(method) && parameters.containsKey("uploads")) {
+      listUploads(exchange, parameters);
+    } else if (key.isEmpty() && "GET".equals(method)) {
+      listObjects(exchange);
+    } else if (key.isEmpty() && "DELETE".equals(method)) {
+      removeBucket(exchange);
+    } else if (key.isEmpty() && "POST".equals(method) && parameters.containsKey("delete")) {
+      deleteObjects(exchange);
+    } else if (key.isEmpty()) {
+      S3StubRule.respond(exchange, 501, new byte[0]);
+    } else if (uploadId != null && !this.uploads.containsKey(uploadId)) {
+      S3StubRule.respond(exchange, 404, ("<Error><Code>NoSuchUpload</Code><Message>Missing" +
+                                         "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+    } else if ("GET".equals(method) && uploadId != null) {
+      listParts(exchange, key, uploadId, parameters);
+    } else if ("GET".equals(method)) {
+      getObject(exchange, key, false);
+    } else if ("HEAD".equals(method)) {
+      getObject(exchange, key, true);
+    } else if ("PUT".equals(method) && exchange.getRequestHeaders()
+        .containsKey("x-amz-copy-source")) {
+      copy(exchange, key, uploadId, parameters.get("partNumber"));
+    } else if ("PUT".equals(method) && uploadId == null) {
+      putObject(exchange, key);
+    } else if ("POST".equals(method) && parameters.containsKey("uploads")) {
+      createUpload(exchange, key);
+    } else if ("PUT".equals(method)) {
+      uploadPart(exchange, uploadId, Integer.parseInt(parameters.get("partNumber")));
+    } else if ("POST".equals(method)) {
+      completeUpload(exchange, key, uploadId);
+    } else if ("DELETE".equals(method) && uploadId != null) {
+      this.uploads.remove(uploadId);
+      S3StubRule.respond(exchange, 204, new byte[0]);
+    } else {
+      S3StubRule.respond(exchange, 501, new byte[0]);
+    }
+  }
+
+  private void deleteObjects(HttpExchange exchange) throws IOException {
+    this.deleteRequests.incrementAndGet();
+    byte[] body = S3StubRule.readBody(exchange);
+    String md5 = exchange.getRequestHeaders().getFirst("Content-MD5");
+    if (md5 == null || !md5.equals(base64Md5(body))) {
+      S3StubRule.send(exchange, 400, ("<Error><Code>InvalidDigest</Code><Message>Content-MD5" +
+                                      "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    if (this.deleteFailures.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+      S3StubRule.send(exchange, 503, ("<Error><Code>SlowDown</Code><Message>Reduce your " +
+                                      "request rate</Message></Error>")
+          .getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    String text = new String(body, StandardCharsets.UTF_8);
+    boolean quiet = text.contains("<Quiet>true</Quiet>");
+    Matcher matcher = Pattern.compile("<Key>([^<]*)</Key>").matcher(text);
+    StringBuilder sb = new StringBuilder();
+    sb.append("<DeleteResult xmlns=\"").append(S3RestCommand.XMLNS).append("\">");
+    int count = 0;
+    while (matcher.find()) {
+      count++;
+      String escaped = matcher.group(1);
+      String key = escaped.replace("&lt;", "<").replace("&gt;", ">").replace("&#13;", "\r")
+          .replace("&amp;", "&");
+      if (this.undeletableKeys.contains(key)) {
+        sb.append("<Error><Key>").append(escaped).append("</Key><Code>AccessDenied</Code>")
+            .append("<Message>Access Denied</Message></Error>");
+      } else {
+        this.objects.remove(key);
+        if (!quiet) {
+          sb.append("<Deleted><Key>").append(escaped).append("</Key></Deleted>");
+        }
+      }
+    }
+    if (count > 1000) {
+      S3StubRule.send(exchange, 400, ("<Error><Code>MalformedXML</Code><Message>Too many keys" +
+                                      "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    S3StubRule.send(exchange, 200, sb.append("</DeleteResult>").toString()
+        .getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String base64Md5(byte[] content) {
+    try {
+      return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(content));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private void removeBucket(HttpExchange exchange) throws IOException {
+    if (!this.objects.isEmpty() || !this.uploads.isEmpty()) {
+      S3StubRule.respond(exchange, 409, ("<Error><Code>BucketNotEmpty</Code><Message>The " +
+                                         "bucket you tried to delete is not empty</Message>" +
+                                         "</Error>").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    this.removed = true;
+    S3StubRule.respond(exchange, 204, new byte[0]);
+  }
+
+  private void listUploads(HttpExchange exchange, Map<String, String> parameters)
+      throws IOException {
+    String prefix = parameters.getOrDefault("prefix", "");
+    String keyMarker = parameters.getOrDefault("key-marker", "");
+    String uploadIdMarker = parameters.getOrDefault("upload-id-marker", "");
+    // By key, then by upload id, as S3 lists them
+    SortedMap<String, String> uploadsByKey = new TreeMap<>();
+    this.uploads.keySet().forEach(uploadId -> {
+      String key = this.uploadKeys.get(uploadId);
+      if (key != null && key.startsWith(prefix)) {
+        uploadsByKey.put(key + '\0' + uploadId, uploadId);
+      }
+    });
+    StringBuilder sb = new StringBuilder();
+    sb.append("<ListMultipartUploadsResult xmlns=\"").append(S3RestCommand.XMLNS)
+        .append("\"><Bucket>").append(this.name).append("</Bucket><KeyMarker>").append(keyMarker)
+        .append("</KeyMarker><UploadIdMarker>").append(uploadIdMarker)
+        .append("</UploadIdMarker><MaxUploads>").append(this.maxUploads).append("</MaxUploads>");
+    int count = 0;
+    boolean truncated = false;
+    String lastKey = null;
+    String lastUploadId = null;
+    for (Map.Entry<String, String> upload :
+        uploadsByKey.tailMap(keyMarker + '\0' + uploadIdMarker + '\0').entrySet()) {
+      if (count++ == this.maxUploads) {
+        truncated = true;
+        break;
+      }
+      lastUploadId = upload.getValue();
+      lastKey = this.uploadKeys.get(lastUploadId);
+      sb.append("<Upload><Key>").append(lastKey).append("</Key><UploadId>").append(lastUploadId)
+          .append("</UploadId><StorageClass>STANDARD</StorageClass>")
+          .append("<Initiated>2016-09-05T12:00:00.000Z</Initiated></Upload>");
+    }
+    if (truncated) {
+      sb.append("<NextKeyMarker>").append(lastKey).append("</NextKeyMarker>")
+          .append("<NextUploadIdMarker>").append(lastUploadId).append("</NextUploadIdMarker>");
+    }
+    sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>")
+        .append("</ListMultipartUploadsResult>");
+    S3StubRule.respond(exchange, 200, sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void listParts(HttpExchange exchange, String key, String uploadId,
+                         Map<String, String> parameters) throws IOException {
+    int marker = Integer.parseInt(parameters.getOrDefault("part-number-marker", "0"));
+    SortedMap<Integer, byte[]> parts = this.uploads.get(uploadId).tailMap(marker + 1);
+    StringBuilder sb = new StringBuilder();
+    sb.append("<ListPartsResult xmlns=\"").append(S3RestCommand.XMLNS).append("\"><Bucket>")
+        .append(this.name).append("</Bucket><Key>").append(key).append("</Key><UploadId>")
+        .append(uploadId).append("</UploadId><PartNumberMarker>").append(marker)
+        .append("</PartNumberMarker><MaxParts>").append(this.maxParts).append("</MaxParts>");
+    int count = 0;
+    int last = marker;
+    for (Map.Entry<Integer, byte[]> part : parts.entrySet()) {
+      if (count++ == this.maxParts) {
+        break;
+      }
+      last = part.getKey();
+      sb.append("<Part><PartNumber>").append(last)
+          .append("</PartNumber><LastModified>2016-09-05T12:00:00.000Z</LastModified><ETag>")
+          .append(etag(part.getValue()).replace("\"", "&quot;")).append("</ETag><Size>")
+          .append(part.getValue().length).append("</Size></Part>");
+    }
+    boolean truncated = parts.size() > this.maxParts;
+    sb.append("<NextPartNumberMarker>").append(last).append("</NextPartNumberMarker>")
+        .append("<IsTruncated>").append(truncated).append("</IsTruncated></ListPartsResult>");
+    S3StubRule.respond(exchange, 200, sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private boolean failPut(HttpExchange exchange) throws IOException {
+    if (this.putFailures.getAndUpdate(count -> Math.max(count - 1, 0)) == 0) {
+      return false;
+    }
+    S3StubRule.respond(exchange, 500, ("<Error><Code>InternalError</Code><Message>Failed" +
+                                       "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+    return true;
+  }
+
+  private void putObject(HttpExchange exchange, String key) throws IOException {
+    if (failPut(exchange)) {
+      return;
+    }
+    byte[] content = S3StubRule.readBody(exchange);
+    this.objects.put(key, content);
+    written(key);
+    exchange.getResponseHeaders().set("ETag", etag(content));
+    S3StubRule.send(exchange, 200, new byte[0]);
+  }
+
+  private void copy(HttpExchange exchange, String key, @Nullable String uploadId,
+                    @Nullable String partNumber) throws IOException {
+    this.copyRequests.incrementAndGet();
+    Headers requestHeaders = exchange.getRequestHeaders();
+    String source = URLDecoder.decode(requestHeaders.getFirst("x-amz-copy-source"), "UTF-8");
+    int slash = source.indexOf('/', 1);
+    S3StubBucket sourceBucket = this.copySources.get(source.substring(1, slash));
+    byte[] content = sourceBucket == null ? null :
+                     sourceBucket.objects.get(source.substring(slash + 1));
+    if (content == null) {
+      S3StubRule.respond(exchange, 404, ("<Error><Code>NoSuchKey</Code><Message>Missing" +
+                                         "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    String ifMatch = requestHeaders.getFirst("x-amz-copy-source-if-match");
+    if (ifMatch != null && !ifMatch.equals(etag(content))) {
+      S3StubRule.respond(exchange, 412, ("<Error><Code>PreconditionFailed</Code><Message>" +
+                                         "Failed</Message></Error>")
+          .getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    if (failPut(exchange)) {
+      return;
+    }
+    if (this.copyFailures.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+      S3StubRule.respond(exchange, 200, ("<Error><Code>InternalError</Code><Message>Failed" +
+                                         "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    String range = requestHeaders.getFirst("x-amz-copy-source-range");
+    if (range != null) {
+      int dash = range.indexOf('-');
+      int start = Integer.parseInt(range.substring("bytes=".length(), dash));
+      int end = Integer.parseInt(range.substring(dash + 1));
+      content = Arrays.copyOfRange(content, start, end + 1);
+    }
+    String result;
+    if (uploadId == null) {
+      this.objects.put(key, content);
+      written(key);
+      result = "CopyObjectResult";
+    } else {
+      this.partUploads.incrementAndGet();
+      this.uploads.get(uploadId).put(Integer.parseInt(partNumber), content);
+      result = "CopyPartResult";
+    }
+    S3StubRule.respond(exchange, 200, ("<" + result + " xmlns=\"" + S3RestCommand.XMLNS +
+                                       "\"><LastModified>2016-09-05T12:00:00.000Z</LastModified>" +
+                                       "<ETag>" + etag(content).replace("\"", "&quot;") +
+                                       "</ETag></" + result + ">")
+        .getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Marks the object as modified after every object written before it, for listings; objects put
+   * straight into the map are listed as modified before any of them.
+   */
+  private void written(String key) {
+    this.modified.put(key, LISTED_MODIFIED.plusSeconds(this.writes.incrementAndGet()));
+  }
+
+  private void createUpload(HttpExchange exchange, String key) throws IOException {
+    String uploadId = "upload-" + this.uploadIds.incrementAndGet();
+    this.uploads.put(uploadId, new ConcurrentSkipListMap<>());
+    this.uploadKeys.put(uploadId, key);
+    S3StubRule.respond(exchange, 200, ("<InitiateMultipartUploadResult xmlns=\"" +
+                                       S3RestCommand.XMLNS + "\"><Bucket>" + this.name +
+                                       "</Bucket><Key>" + key + "</Key><UploadId>" + uploadId +
+                                       "</UploadId></InitiateMultipartUploadResult>")
+        .getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void uploadPart(HttpExchange exchange, String uploadId, int partNumber)
+      throws IOException {
+    this.partUploads.incrementAndGet();
+    if (failPut(exchange)) {
+      return;
+    }
+    if (partNumber >= this.failPartsFrom.get() && this.failPartsFrom.get() > 0) {
+      S3StubRule.respond(exchange, 500, ("<Error><Code>InternalError</Code><Message>Failed" +
+                                         "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    byte[] content = S3StubRule.readBody(exchange);
+    this.uploads.get(uploadId).put(partNumber, content);
+    exchange.getResponseHeaders().set("ETag", etag(content));
+    S3StubRule.send(exchange, 200, new byte[0]);
+  }
+
+  private void completeUpload(HttpExchange exchange, String key, String uploadId)
+      throws IOException {
+    String body = new String(S3StubRule.readBody(exchange), StandardCharsets.UTF_8);
+    SortedMap<Integer, byte[]> parts = this.uploads.get(uploadId);
+    Matcher matcher = Pattern.compile("<PartNumber>(\\d+)</PartNumber><ETag>([^<]*)</ETag>")
+        .matcher(body);
+    SortedMap<Integer, String> completed = new TreeMap<>();
+    while (matcher.find()) {
+      completed.put(Integer.parseInt(matcher.group(1)), matcher.group(2));
+    }
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    StringBuilder etags = new StringBuilder();
+    for (Map.Entry<Integer, String> part : completed.entrySet()) {
+      byte[] partContent = parts.get(part.getKey());
+      if (partContent == null || !etag(partContent).equals(part.getValue())) {
+        S3StubRule.send(exchange, 400, ("<Error><Code>InvalidPart</Code><Message>Part " +
+                                           part.getKey() + "</Message></Error>")
+            .getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      content.write(partContent);
+      etags.append(part.getValue());
+    }
+    this.uploads.remove(uploadId);
+    this.objects.put(key, content.toByteArray());
+    written(key);
+    String etag = etag(etags.toString().getBytes(StandardCharsets.UTF_8));
+    etag = etag.substring(0, etag.length() - 1) + "-" + completed.size() + '"';
+    S3StubRule.send(exchange, 200, ("<CompleteMultipartUploadResult xmlns=\"" +
+                                       S3RestCommand.XMLNS + "\"><Location>http://stub/" +
+                                       this.name + "/" + key + "</Location><Bucket>" + this.name +
+                                       "</Bucket><Key>" + key + "</Key><ETag>" + etag +
+                                       "</ETag></CompleteMultipartUploadResult>")
+        .getBytes(StandardCharsets.UTF_8));
+  }
+
+  private void getObject(HttpExchange exchange, String key, boolean head) throws IOException {
+    byte[] content = this.objects.get(key);
+    if (content == null) {
+      S3StubRule.respond(exchange, 404, head ? new byte[0] :
+                                        ("<Error><Code>NoSuchKey</Code><Message>Missing" +
+                                         "</Message><Key>" + key + "</Key></Error>")
+                                            .getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    if (!head && this.failures.getAndUpdate(count -> Math.max(count - 1, 0)) > 0) {
+      S3StubRule.respond(exchange, 500, ("<Error><Code>InternalError</Code><Message>Failed" +
+                                         "</Message></Error>").getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    String etag = etag(content);
+    String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+    if (ifMatch != null && !ifMatch.equals(etag)) {
+      S3StubRule.respond(exchange, 412, ("<Error><Code>PreconditionFailed</Code><Message>" +
+                                         "Failed</Message></Error>")
+          .getBytes(StandardCharsets.UTF_8));
+      return;
+    }
+    S3StubRule.readBody(exchange);
+    Headers headers = exchange.getResponseHeaders();
+    headers.set(HttpHeaders.CONTENT_TYPE, "application/octet-stream");
+    headers.set("ETag", etag);
+    headers.set("Last-Modified", LAST_MODIFIED);
+    headers.set("x-amz-meta-Origin", "stub");
+    if (head) {
+      // The server only sends the length of a HEAD response when it is set as a header
+      headers.set(HttpHeaders.CONTENT_LENGTH, String.valueOf(content.length));
+      exchange.sendResponseHeaders(200, -1);
+      return;
+    }
+    int code = 200;
+    int start = 0;
+    int end = content.length - 1;
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    if (range != null && range.startsWith("bytes=")) {
+      this.rangeRequests.incrementAndGet();
+      int dash = range.indexOf('-');
+      start = Integer.parseInt(range.substring("bytes=".length(), dash));
+      if (dash < range.length() - 1) {
+        end = Math.min(end, Integer.parseInt(range.substring(dash + 1)));
+      }
+      code = 206;
+      headers.set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+    }
+    int length = end - start + 1;
+    exchange.sendResponseHeaders(code, length == 0 ? -1 : length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(content, start, length);
+    }
+  }
+
+  /**
+   * @return The quoted MD5 of the content, as S3 gives for objects not uploaded in parts
+   */
+  public static String etag(byte[] content) {
+    try {
+      byte[] md5 = MessageDigest.getInstance("MD5").digest(content);
+      return '"' + String.format("%032x", new BigInteger(1, md5)) + '"';
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String escape(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  private void listObjects(HttpExchange exchange) throws IOException {
+    Map<String, String> parameters = S3StubRule.getQueryParameters(exchange);
+    String prefix = parameters.getOrDefault("prefix", "");
+    String delimiter = parameters.get("delimiter");
+    String marker = parameters.get("marker");
+    int maxKeys = Integer.parseInt(parameters.getOrDefault("max-keys", "1000"));
+
+    StringBuilder contents = new StringBuilder();
+    StringBuilder commonPrefixes = new StringBuilder();
+    String lastEntry = null;
+    String lastCommonPrefix = null;
+    int count = 0;
+    boolean truncated = false;
+    for (Map.Entry<String, byte[]> object :
+        (marker == null ? this.objects : this.objects.tailMap(marker, false)).entrySet()) {
+      String key = object.getKey();
+      if (!key.startsWith(prefix)) {
+        continue;
+      }
+      String commonPrefix = null;
+      if (delimiter != null) {
+        int index = key.indexOf(delimiter, prefix.length());
+        if (index >= 0) {
+          commonPrefix = key.substring(0, index + delimiter.length());
+          if (commonPrefix.equals(lastCommonPrefix) || commonPrefix.equals(marker)) {
+            continue;
+          }
+        }
+      }
+      if (count == maxKeys) {
+        truncated = true;
+        break;
+      }
+      count++;
+      if (commonPrefix != null) {
+        commonPrefixes.append("<CommonPrefixes><Prefix>").append(escape(commonPrefix))
+            .append("</Prefix></CommonPrefixes>");
+        lastCommonPrefix = commonPrefix;
+        lastEntry = commonPrefix;
+      } else {
+        contents.append("<Contents><Key>").append(escape(key)).append("</Key>")
+            .append("<LastModified>").append(LISTED_MODIFIED_FORMATTER.format(
+                this.modified.getOrDefault(key, LISTED_MODIFIED))).append("</LastModified>")
+            .append("<ETag>").append(etag(object.getValue()).replace("\"", "&quot;"))
+            .append("</ETag>")
+            .append("<Size>").append(object.getValue().length).append("</Size>")
+            .append("<Owner><ID>owner</ID><DisplayName>Owner</DisplayName></Owner>")
+            .append("<StorageClass>STANDARD</StorageClass></Contents>");
+        lastEntry = key;
+      }
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<ListBucketResult xmlns=\"").append(S3RestCommand.XMLNS).append("\">");
+    sb.append("<Name>").append(this.name).append("</Name><Prefix>").append(prefix)
+        .append("</Prefix><Marker>").append(marker == null ? "" : marker).append("</Marker>");
+    if (delimiter != null && truncated) {
+      sb.append("<NextMarker>").append(escape(lastEntry)).append("</NextMarker>");
+    }
+    sb.append("<MaxKeys>").append(maxKeys).append("</MaxKeys>");
+    if (delimiter != null) {
+      sb.append("<Delimiter>").append(delimiter).append("</Delimiter>");
+    }
+    sb.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+    sb.append(contents).append(commonPrefixes).append("</ListBucketResult>");
+    S3StubRule.respond(exchange, 200, sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016 Michael K. Werle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.coruscations.aws.s3;
+
+import com.coruscations.aws.AwsCredentialProperty;
+import com.coruscations.aws.ConfigurationProvider;
+import com.coruscations.aws.HttpHeaders;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process HTTP server standing in for S3, for tests of client behaviour that do not need
+ * a real object store.  Requests are path style ({@code /bucket/key}) and are not authenticated.
+ */
+public class S3StubRule extends ExternalResource {
+
+  static {
+    // Otherwise the server holds back a response body until the client has acknowledged the
+    // headers, which the client delays, so most requests with a response body take 40ms or more
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private static final String[] TRANSPORTS = {"POOLED", "NIO", "URL_CONNECTION"};
+
+  private final AtomicInteger requestCount = new AtomicInteger();
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private Map<String, Object> env;
+  private ConfigurationProvider configurationProvider;
+
+  @Override
+  protected void before() throws Throwable {
+    this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    this.executor = Executors.newCachedThreadPool();
+    this.server.setExecutor(this.executor);
+    this.server.start();
+
+    Map<String, Object> env = new HashMap<>();
+    this.env = env;
+    env.put(AwsCredentialProperty.AWS_ACCESS_KEY_ID.getEnvName(), "AKIDEXAMPLE");
+    env.put(AwsCredentialProperty.AWS_SECRET_KEY.getEnvName(),
+            "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY");
+    env.put(AwsCredentialProperty.AWS_DEFAULT_REGION.getEnvName(), "us-east-1");
+    env.put(AwsCredentialProperty.AWS_ENDPOINT.getEnvName(),
+            "http://127.0.0.1:" + this.server.getAddress().getPort());
+    this.configurationProvider = new ConfigurationProvider(env);
+  }
+
+  @Override
+  protected void after() {
+    this.server.stop(0);
+    this.executor.shutdownNow();
+  }
+
+  /**
+   * Handle requests under the path, counting them for {@link #getRequestCount()}.
+   */
+  public void handle(String path, HttpHandler handler) {
+    this.server.createContext(path, exchange -> {
+      this.requestCount.incrementAndGet();
+      try {
+        handler.handle(exchange);
+      } finally {
+        exchange.close();
+      }
+    });
+  }
+
+  public ConfigurationProvider getConfigurationProvider() {
+    return this.configurationProvider;
+  }
+
+  /**
+   * @return A configuration for the stub with the settings added or replaced
+   */
+  public ConfigurationProvider getConfigurationProvider(Map<String, ?> settings) {
+    Map<String, Object> env = new HashMap<>(this.env);
+    env.putAll(settings);
+    return new ConfigurationProvider(env);
+  }
+
+  /**
+   * @return Object commands for the stub with the settings added or replaced
+   */
+  public S3ObjectCommands objectCommands(Map<String, ?> settings) {
+    return new S3ObjectCommands(getConfigurationProvider(settings));
+  }
+
+  public int getRequestCount() {
+    return this.requestCount.get();
+  }
+
+  /**
+   * @return Each transport type, as the parameters of a test run over every transport
+   */
+  public static Collection<Object[]> transports() {
+    Collection<Object[]> parameters = new ArrayList<>();
+    for (String transport : TRANSPORTS) {
+      parameters.add(new Object[]{transport});
+    }
+    return parameters;
+  }
+
+  /**
+   * @return Random content for an object of ten whole parts and a short one
+   */
+  public static byte[] partsContent(int partSize, long seed) {
+    byte[] content = new byte[10 * partSize + 17];
+    new Random(seed).nextBytes(content);
+    return content;
+  }
+
+  public static Map<String, String> getQueryParameters(HttpExchange exchange)
+      throws UnsupportedEncodingException {
+    Map<String, String> parameters = new HashMap<>();
+    String query = exchange.getRequestURI().getRawQuery();
+    if (query == null || query.isEmpty()) {
+      return parameters;
+    }
+    for (String parameter : query.split("&")) {
+      int equals = parameter.indexOf('=');
+      String name = equals < 0 ? parameter : parameter.substring(0, equals);
+      String value = equals < 0 ? "" : parameter.substring(equals + 1);
+      parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+    }
+    return parameters;
+  }
+
+  public static byte[] readBody(HttpExchange exchange) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try (InputStream is = exchange.getRequestBody()) {
+      byte[] buf = new byte[8192];
+      int len;
+      while ((len = is.read(buf)) >= 0) {
+        baos.write(buf, 0, len);
+      }
+    }
+    return baos.toByteArray();
+  }
+
+  public static void respond(HttpExchange exchange, int responseCode, byte[] body)
+      throws IOException {
+    readBody(exchange);
+    send(exchange, responseCode, body);
+  }
+
+  /**
+   * {@link #respond} once the request body has been read.
+   */
+  public static void send(HttpExchange exchange, int responseCode, byte[] body)
+      throws IOException {
+    if (body.length == 0) {
+      exchange.sendResponseHeaders(responseCode, -1);
+      return;
+    }
+    exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/xml");
+    exchange.sendResponseHeaders(responseCode, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+}